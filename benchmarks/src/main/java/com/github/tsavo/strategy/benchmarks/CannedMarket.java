@@ -0,0 +1,129 @@
+package com.github.tsavo.strategy.benchmarks;
+
+import com.github.tsavo.strategy.Market;
+import com.github.tsavo.strategy.TrailingOrder;
+import com.tsavo.trade.database.model.Pivot;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A market that always answers with the same one-level book, balances and average cost, and fills every order at
+ * once. Nothing it returns changes between calls, so every benchmark invocation sees the same state.
+ */
+public class CannedMarket implements Market {
+    public final CurrencyPair currencyPair;
+    private final List<LimitOrder> asks;
+    private final List<LimitOrder> bids;
+    private final BigDecimal ask;
+    private final BigDecimal bid;
+    private final BigDecimal baseBalance;
+    private final BigDecimal counterBalance;
+    private final BigDecimal averageCost;
+
+    public CannedMarket(CurrencyPair currencyPair, String bid, String ask, String baseBalance, String counterBalance, String averageCost) {
+        this.currencyPair = currencyPair;
+        this.bid = new BigDecimal(bid);
+        this.ask = new BigDecimal(ask);
+        this.asks = Collections.singletonList(new LimitOrder.Builder(Order.OrderType.ASK, currencyPair).tradableAmount(BigDecimal.TEN).limitPrice(this.ask).build());
+        this.bids = Collections.singletonList(new LimitOrder.Builder(Order.OrderType.BID, currencyPair).tradableAmount(BigDecimal.TEN).limitPrice(this.bid).build());
+        this.baseBalance = new BigDecimal(baseBalance);
+        this.counterBalance = new BigDecimal(counterBalance);
+        this.averageCost = new BigDecimal(averageCost);
+    }
+
+    @Override
+    public BigDecimal getBalance(Currency currency) {
+        return currency.equals(currencyPair.base) ? baseBalance : counterBalance;
+    }
+
+    @Override
+    public BigDecimal getAverageCost(CurrencyPair currencyPair) {
+        return averageCost;
+    }
+
+    @Override
+    public List<LimitOrder> getLowestAsks(CurrencyPair currencyPair) {
+        return asks;
+    }
+
+    @Override
+    public List<LimitOrder> getHighestBids(CurrencyPair currencyPair) {
+        return bids;
+    }
+
+    @Override
+    public BigDecimal getAmountIn(BigDecimal amount, CurrencyPair currencyPair) {
+        return amount.divide(ask, 8, BigDecimal.ROUND_HALF_EVEN);
+    }
+
+    @Override
+    public BigDecimal getPriceIn(BigDecimal amount, CurrencyPair currencyPair) {
+        return amount.multiply(bid).setScale(8, BigDecimal.ROUND_HALF_EVEN);
+    }
+
+    @Override
+    public BigDecimal getAveragePrice(CurrencyPair currencyPair) {
+        return ask.add(bid).divide(new BigDecimal(2), 8, BigDecimal.ROUND_HALF_EVEN);
+    }
+
+    @Override
+    public TrailingOrder createTrailStopMarketMakerLimitOrder(LimitOrder order, BigDecimal amountToTrailBy) {
+        return new FilledOrder(order);
+    }
+
+    @Override
+    public void performBuyAction(Pivot pivot) {
+    }
+
+    @Override
+    public void performSellAction(Pivot pivot) {
+    }
+
+    @Override
+    public Date getLastBuyDate(CurrencyPair currencyPair) {
+        return null;
+    }
+
+    @Override
+    public Date getLastSellDate(CurrencyPair currencyPair) {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "Canned";
+    }
+
+    private static class FilledOrder implements TrailingOrder {
+        private final LimitOrder order;
+
+        FilledOrder(LimitOrder order) {
+            this.order = order;
+        }
+
+        @Override
+        public void openOrder() {
+        }
+
+        @Override
+        public boolean fillOrCancel() {
+            return true;
+        }
+
+        @Override
+        public void cancelOrder() {
+        }
+
+        @Override
+        public LimitOrder getOrder() {
+            return order;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.tsavo.strategy.benchmarks;
+
+import com.github.tsavo.strategy.PivotStrategy;
+import com.github.tsavo.strategy.StraddleStrategy;
+import com.github.tsavo.strategy.TargetStrategy;
+import com.github.tsavo.strategy.TickContext;
+import com.github.tsavo.strategy.backtest.VirtualClock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The isTimeToBuy/isTimeToSell decisions of each strategy against an already fetched tick, so only the decision
+ * itself is measured. The market is quiet, so every decision comes out false.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class DecisionBenchmark {
+    private PivotStrategy pivot;
+    private StraddleStrategy straddle;
+    private TargetStrategy target;
+    private TickContext tick;
+    private BigDecimal midPrice;
+
+    @Setup
+    public void setUp() {
+        CannedMarket market = Fixtures.quietMarket();
+        VirtualClock clock = Fixtures.clock();
+        pivot = Fixtures.pivot(market, clock);
+        straddle = Fixtures.straddle(market, clock);
+        target = Fixtures.target(market, clock, "1");
+        tick = new TickContext(market, Fixtures.PAIR);
+        midPrice = tick.getMidPrice();
+        tick.getAllocationSize();
+        tick.getCounterBalance();
+        tick.getHighestBids();
+        tick.getAverageCost();
+    }
+
+    @Benchmark
+    public boolean pivotIsTimeToBuy() {
+        return pivot.isTimeToBuy(tick);
+    }
+
+    @Benchmark
+    public boolean pivotIsTimeToSell() {
+        return pivot.isTimeToSell(tick);
+    }
+
+    @Benchmark
+    public boolean straddleIsTimeToBuy() {
+        return straddle.isTimeToBuy(tick, midPrice);
+    }
+
+    @Benchmark
+    public boolean straddleIsTimeToSell() {
+        return straddle.isTimeToSell(tick, midPrice);
+    }
+
+    @Benchmark
+    public boolean targetIsTimeToBuy() {
+        return target.isTimeToBuy(tick);
+    }
+
+    @Benchmark
+    public boolean targetIsTimeToSell() {
+        return target.isTimeToSell(tick);
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.tsavo.strategy.benchmarks;
+
+import com.github.tsavo.strategy.PivotStrategy;
+import com.github.tsavo.strategy.StraddleStrategy;
+import com.github.tsavo.strategy.TargetPercentTable;
+import com.github.tsavo.strategy.TargetStrategy;
+import com.github.tsavo.strategy.backtest.VirtualClock;
+import com.tsavo.trade.database.Reporter;
+import com.tsavo.trade.database.model.Pivot;
+import com.tsavo.trade.database.model.Straddle;
+import com.tsavo.trade.database.model.Target;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * The canned markets and strategies the benchmarks run against. The quiet markets sit between every strategy's
+ * triggers; the moved markets put each strategy in its buy branch. Reports are built as usual and then dropped.
+ */
+public final class Fixtures {
+    public static final CurrencyPair PAIR = CurrencyPair.BTC_USD;
+    public static final Reporter DROP = message -> {
+    };
+    public static final long START = 1506816000000L;
+
+    private Fixtures() {
+    }
+
+    /**
+     * 1 BTC and 5000 USD at a 5000 USD average cost with the market at 5000: a 50/50 allocation, on cost.
+     */
+    public static CannedMarket quietMarket() {
+        return new CannedMarket(PAIR, "4999.50000000", "5000.50000000", "1", "5000", "5000");
+    }
+
+    /**
+     * The ask 4% under cost and only 0.25 BTC held, a 20/80 allocation.
+     */
+    public static CannedMarket movedMarket() {
+        return new CannedMarket(PAIR, "4799.50000000", "4800.50000000", "0.25", "5000", "5000");
+    }
+
+    public static VirtualClock clock() {
+        return new VirtualClock(START);
+    }
+
+    /**
+     * Buys 3% under cost and sells 3% over it, 1000 USD establishing position.
+     */
+    public static PivotStrategy pivot(CannedMarket market, VirtualClock clock) {
+        Pivot pivot = new Pivot();
+        pivot.establishingPosition = new BigDecimal(1000);
+        pivot.buyMode = Pivot.OrderMode.AMOUNT;
+        pivot.sellMode = Pivot.OrderMode.MULTIPLIER;
+        pivot.allocationAmountSchedule = new ArrayList<>(Collections.singletonList(new BigDecimal(500)));
+        pivot.allocationMarginSchedule = new ArrayList<>(Collections.singletonList(new BigDecimal(3)));
+        pivot.distributionMarginSchedule = new ArrayList<>(Collections.singletonList(new BigDecimal(3)));
+        pivot.distributionMultiplierSchedule = new ArrayList<>(Collections.singletonList(new BigDecimal("0.3")));
+        PivotStrategy strategy = new PivotStrategy(market, PAIR, pivot, DROP);
+        strategy.clock = clock;
+        return strategy;
+    }
+
+    /**
+     * Holds 50% in BTC at every price, buying under 45% and selling over 55%.
+     */
+    public static StraddleStrategy straddle(CannedMarket market, VirtualClock clock) {
+        Straddle straddle = new Straddle();
+        straddle.amountToTrade = new BigDecimal(500);
+        straddle.maxAllocation = BigDecimal.ZERO;
+        straddle.lowerMargin = new BigDecimal(90);
+        straddle.upperMargin = new BigDecimal(10);
+        straddle.pivotMargin = new BigDecimal(5);
+        StraddleStrategy strategy = new StraddleStrategy(market, PAIR, straddle, DROP);
+        BigDecimal fifty = new BigDecimal(50);
+        strategy.targetPercents = new TargetPercentTable(price -> fifty);
+        strategy.clock = clock;
+        return strategy;
+    }
+
+    /**
+     * Holds the given amount of BTC, trading 0.1 BTC at a time.
+     */
+    public static TargetStrategy target(CannedMarket market, VirtualClock clock, String amount) {
+        Target target = new Target();
+        target.target = new BigDecimal(amount);
+        target.establishingPosition = new BigDecimal("0.1");
+        TargetStrategy strategy = new TargetStrategy(market, PAIR, target, DROP);
+        strategy.clock = clock;
+        return strategy;
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.tsavo.strategy.benchmarks;
+
+import com.github.tsavo.strategy.StrategyRuntime;
+import com.github.tsavo.strategy.journal.StrategyJournal;
+import com.github.tsavo.strategy.shard.LeaseStore;
+import com.github.tsavo.strategy.shard.ShardedRuntime;
+import com.github.tsavo.strategy.simulator.MatchingEngine;
+import com.github.tsavo.strategy.simulator.OrderFlow;
+import com.github.tsavo.strategy.simulator.SimulatedExchange;
+import com.mongodb.MongoClientURI;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.SimpleMongoDbFactory;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tsavo.strategy.benchmarks.Fixtures.PAIR;
+
+/**
+ * One worker of a {@link ShardedRuntime}, for trying sharding out with several JVMs on one machine against a local
+ * MongoDB. Every worker registers the same catalogue of pivot and straddle strategies, two per simulated account,
+ * and prints the shards it holds as the ring changes. Start a few, kill one with kill -9 and watch its shards move
+ * once their leases expire; stop one with Ctrl-C and they move at once.
+ * <pre>
+ *     java -cp target/benchmarks.jar com.github.tsavo.strategy.benchmarks.ShardWorker \
+ *         worker-1 [mongoUri=mongodb://localhost/traderplan-shards] [accounts=20] [leaseMillis=15000]
+ * </pre>
+ * Each worker simulates the exchange in memory, so balances do not carry over when a shard moves; strategy state
+ * does, through the shared journal.
+ */
+public class ShardWorker {
+    public static void main(String[] args) throws InterruptedException {
+        String worker = args.length > 0 ? args[0] : "worker-" + ManagementFactory.getRuntimeMXBean().getName();
+        String uri = args.length > 1 ? args[1] : "mongodb://localhost/traderplan-shards";
+        int accounts = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        long leaseTime = args.length > 3 ? Long.parseLong(args[3]) : 15000;
+        MongoOperations mongo = new MongoTemplate(new SimpleMongoDbFactory(new MongoClientURI(uri)));
+
+        MatchingEngine engine = new MatchingEngine();
+        ScheduledExecutorService flowExecutor = Executors.newSingleThreadScheduledExecutor();
+        OrderFlow flow = new OrderFlow(engine, PAIR, new BigDecimal(5000), 42);
+        flow.start(flowExecutor, 10, TimeUnit.MILLISECONDS);
+        Map<String, SimulatedExchange> wallets = new ConcurrentHashMap<>();
+
+        StrategyRuntime runtime = new StrategyRuntime(4);
+        runtime.journal = new StrategyJournal(mongo);
+        ShardedRuntime sharded = new ShardedRuntime(worker, runtime, new LeaseStore(mongo));
+        sharded.leaseTime = leaseTime;
+        for (int i = 0; i < accounts; i++) {
+            String account = "account-" + i;
+            sharded.register(account + "-pivot", account, PAIR, () -> SoakTest.pivot(wallet(engine, wallets, account)), 1, TimeUnit.SECONDS);
+            sharded.register(account + "-straddle", account, PAIR, () -> SoakTest.straddle(wallet(engine, wallets, account)), 1, TimeUnit.SECONDS);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            sharded.shutdown();
+            runtime.shutdown();
+            flow.stop();
+        }));
+        sharded.start();
+
+        String last = "";
+        while (true) {
+            TimeUnit.SECONDS.sleep(1);
+            String held = sharded.getHeldShards().size() + " shards " + sharded.getHeldShards() + " with " + runtime.size() + " strategies, ring " + (sharded.getRing() == null ? "[]" : sharded.getRing().getWorkers());
+            if (!held.equals(last)) {
+                System.out.println(worker + " holds " + held);
+                last = held;
+            }
+        }
+    }
+
+    private static SimulatedExchange wallet(MatchingEngine engine, Map<String, SimulatedExchange> wallets, String account) {
+        return wallets.computeIfAbsent(account, name -> {
+            SimulatedExchange wallet = engine.newAccount(name);
+            wallet.deposit(PAIR.base, BigDecimal.ONE);
+            wallet.deposit(PAIR.counter, new BigDecimal(5000));
+            wallet.setAverageCost(PAIR, new BigDecimal(5000));
+            return wallet;
+        });
+    }
+}
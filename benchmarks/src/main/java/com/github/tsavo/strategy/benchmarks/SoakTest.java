@@ -0,0 +1,144 @@
+package com.github.tsavo.strategy.benchmarks;
+
+import com.github.tsavo.strategy.AbstractStrategy;
+import com.github.tsavo.strategy.CadenceController;
+import com.github.tsavo.strategy.PivotStrategy;
+import com.github.tsavo.strategy.StraddleStrategy;
+import com.github.tsavo.strategy.StrategyRuntime;
+import com.github.tsavo.strategy.TargetPercentTable;
+import com.github.tsavo.strategy.metrics.LatencyHistogram;
+import com.github.tsavo.strategy.metrics.MetricsRegistry;
+import com.github.tsavo.strategy.simulator.MatchingEngine;
+import com.github.tsavo.strategy.simulator.OrderFlow;
+import com.github.tsavo.strategy.simulator.SimulatedExchange;
+import com.tsavo.trade.database.model.Pivot;
+import com.tsavo.trade.database.model.Straddle;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tsavo.strategy.benchmarks.Fixtures.DROP;
+import static com.github.tsavo.strategy.benchmarks.Fixtures.PAIR;
+
+/**
+ * Runs thousands of pivot and straddle strategies, each on its own simulated account, against a
+ * {@link MatchingEngine} kept moving by an {@link OrderFlow}, and reports the heap each strategy costs, decisions
+ * and ticks per second, and order latencies. Run it from the benchmarks jar:
+ * <pre>
+ *     java -cp target/benchmarks.jar com.github.tsavo.strategy.benchmarks.SoakTest \
+ *         [strategies=10000] [seconds=60] [threads=8] [latencyMillis=0] [errorRate=0] [requestsPerSecond=0] [adaptive=false]
+ * </pre>
+ * The order flow is seeded, so runs with the same arguments see the same prices. Injected errors are logged by the
+ * runtime as they happen.
+ */
+public class SoakTest {
+    public static void main(String[] args) throws InterruptedException {
+        int strategies = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 60;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        MatchingEngine engine = new MatchingEngine();
+        engine.faults.latency = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        engine.faults.jitter = engine.faults.latency;
+        engine.faults.errorRate = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+        engine.faults.requestsPerSecond = args.length > 5 ? Double.parseDouble(args[5]) : 0;
+        boolean adaptive = args.length > 6 && Boolean.parseBoolean(args[6]);
+
+        ScheduledExecutorService flowExecutor = Executors.newSingleThreadScheduledExecutor();
+        OrderFlow flow = new OrderFlow(engine, PAIR, new BigDecimal(5000), 42);
+        flow.start(flowExecutor, 10, TimeUnit.MILLISECONDS);
+
+        long heapBefore = usedHeap();
+        MetricsRegistry registry = new MetricsRegistry();
+        List<AbstractStrategy> running = new ArrayList<>(strategies);
+        for (int i = 0; i < strategies; i++) {
+            SimulatedExchange account = engine.newAccount("soak-" + i);
+            account.deposit(PAIR.base, BigDecimal.ONE);
+            account.deposit(PAIR.counter, new BigDecimal(5000));
+            account.setAverageCost(PAIR, new BigDecimal(5000));
+            AbstractStrategy strategy = i % 2 == 0 ? pivot(account) : straddle(account);
+            strategy.instrument(registry, "soak");
+            running.add(strategy);
+        }
+        long heapPerStrategy = (usedHeap() - heapBefore) / strategies;
+
+        StrategyRuntime runtime = new StrategyRuntime(threads);
+        if (adaptive) {
+            runtime.cadence = new CadenceController();
+        }
+        long start = System.nanoTime();
+        for (AbstractStrategy strategy : running) {
+            runtime.schedule(strategy, 1, TimeUnit.SECONDS);
+        }
+        TimeUnit.SECONDS.sleep(seconds);
+        long elapsed = System.nanoTime() - start;
+        int openStops = engine.getBook(PAIR).getOpenStops();
+        List<?> left = runtime.halt(10, TimeUnit.SECONDS);
+        long haltNanos = System.nanoTime() - start - elapsed;
+        runtime.shutdown();
+        flow.stop();
+        flowExecutor.shutdown();
+
+        double secs = elapsed / 1e9;
+        System.out.println("strategies          " + strategies + " on " + threads + " threads for " + seconds + " s" + (adaptive ? ", adaptive cadence" : ""));
+        System.out.println("heap per strategy   " + heapPerStrategy + " bytes");
+        System.out.println("ticks/sec           " + rate(registry.histogram("strategy.soak.tick"), secs));
+        System.out.println("decisions/sec       " + rate(registry.histogram("strategy.soak.decision"), secs));
+        System.out.println("tick                " + registry.histogram("strategy.soak.tick"));
+        System.out.println("decision            " + registry.histogram("strategy.soak.decision"));
+        System.out.println("order open          " + registry.histogram("strategy.soak.orderOpen"));
+        System.out.println("fill                " + registry.histogram("strategy.soak.fill"));
+        System.out.println("settle              " + registry.histogram("strategy.soak.settle"));
+        System.out.println("trades              " + engine.getTrades() + " over " + flow.getSteps() + " order flow steps");
+        System.out.println("open trailing stops " + openStops);
+        System.out.println("halt                " + TimeUnit.NANOSECONDS.toMillis(haltNanos) + " ms, " + left.size() + " still stopping");
+    }
+
+    private static long rate(LatencyHistogram histogram, double seconds) {
+        return Math.round(histogram.getCount() / seconds);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Buys 1% under cost and sells 1% over it, so the order flow's moves keep it trading.
+     */
+    static PivotStrategy pivot(SimulatedExchange account) {
+        Pivot pivot = new Pivot();
+        pivot.establishingPosition = new BigDecimal(1000);
+        pivot.buyMode = Pivot.OrderMode.AMOUNT;
+        pivot.sellMode = Pivot.OrderMode.MULTIPLIER;
+        pivot.allocationAmountSchedule = new ArrayList<>(Collections.singletonList(new BigDecimal(500)));
+        pivot.allocationMarginSchedule = new ArrayList<>(Collections.singletonList(BigDecimal.ONE));
+        pivot.distributionMarginSchedule = new ArrayList<>(Collections.singletonList(BigDecimal.ONE));
+        pivot.distributionMultiplierSchedule = new ArrayList<>(Collections.singletonList(new BigDecimal("0.3")));
+        return new PivotStrategy(account, PAIR, pivot, DROP);
+    }
+
+    /**
+     * Holds 50% in BTC, buying under 48% and selling over 52%.
+     */
+    static StraddleStrategy straddle(SimulatedExchange account) {
+        Straddle straddle = new Straddle();
+        straddle.amountToTrade = new BigDecimal(200);
+        straddle.maxAllocation = BigDecimal.ZERO;
+        straddle.lowerMargin = new BigDecimal(96);
+        straddle.upperMargin = new BigDecimal(4);
+        straddle.pivotMargin = new BigDecimal(2);
+        StraddleStrategy strategy = new StraddleStrategy(account, PAIR, straddle, DROP);
+        BigDecimal fifty = new BigDecimal(50);
+        strategy.targetPercents = new TargetPercentTable(price -> fifty);
+        return strategy;
+    }
+}
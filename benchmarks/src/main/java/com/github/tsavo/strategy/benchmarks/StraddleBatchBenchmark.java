@@ -0,0 +1,67 @@
+package com.github.tsavo.strategy.benchmarks;
+
+import com.github.tsavo.strategy.Fixed;
+import com.github.tsavo.strategy.StraddleBatch;
+import com.github.tsavo.strategy.TargetPercentTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One {@link StraddleBatch} pass over many straddles on the quiet market's balances, split across a few accounts and
+ * target curves, half of them with an allocation cap. The mid price alternates so the curves are looked up afresh.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class StraddleBatchBenchmark {
+    private static final int ACCOUNTS = 4;
+    private static final int CURVES = 8;
+
+    @Param({"1000", "10000", "100000"})
+    public int straddles;
+
+    private StraddleBatch batch;
+    private long[] prices;
+    private int tick;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        TargetPercentTable[] curves = new TargetPercentTable[CURVES];
+        for (int c = 0; c < CURVES; c++) {
+            BigDecimal target = new BigDecimal(30 + c * 5);
+            curves[c] = new TargetPercentTable(price -> target);
+        }
+        batch = new StraddleBatch();
+        for (int a = 0; a < ACCOUNTS; a++) {
+            batch.setBalances(a, Fixed.of(new BigDecimal(5000 + a * 1000)), Fixed.of(new BigDecimal(5000)));
+        }
+        for (int i = 0; i < straddles; i++) {
+            long maxAllocation = random.nextBoolean() ? 0 : Fixed.of(new BigDecimal(1000 + random.nextInt(10000)));
+            batch.add(Fixed.of(new BigDecimal(40 + random.nextInt(20))), Fixed.of(new BigDecimal(40 + random.nextInt(20))),
+                    Fixed.of(new BigDecimal(random.nextInt(10))), maxAllocation, curves[random.nextInt(CURVES)], random.nextInt(ACCOUNTS));
+        }
+        prices = new long[]{Fixed.of(new BigDecimal("5000.00000000")), Fixed.of(new BigDecimal("5000.50000000"))};
+    }
+
+    @Benchmark
+    public byte[] evaluate() {
+        return batch.evaluate(prices[tick++ & 1]);
+    }
+}
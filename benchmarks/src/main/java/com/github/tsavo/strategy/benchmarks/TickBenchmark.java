@@ -0,0 +1,97 @@
+package com.github.tsavo.strategy.benchmarks;
+
+import com.github.tsavo.strategy.AbstractStrategy;
+import com.github.tsavo.strategy.backtest.VirtualClock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole findOpportunities() calls. The quiet benchmarks are a tick that reads the market and decides not to trade.
+ * The trade benchmarks go through the buy branch, fill at once and then run the post-trade step; the settle wait
+ * and cooldown pass on a virtual clock instead of sleeping.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class TickBenchmark {
+    /**
+     * Longer than every settle wait and cooldown the strategies use.
+     */
+    private static final long PAST_COOLDOWN = 60000;
+
+    private VirtualClock clock;
+    private AbstractStrategy quietPivot;
+    private AbstractStrategy quietStraddle;
+    private AbstractStrategy quietTarget;
+    private AbstractStrategy tradingPivot;
+    private AbstractStrategy tradingStraddle;
+    private AbstractStrategy tradingTarget;
+
+    @Setup
+    public void setUp() {
+        clock = Fixtures.clock();
+        CannedMarket quiet = Fixtures.quietMarket();
+        CannedMarket moved = Fixtures.movedMarket();
+        quietPivot = Fixtures.pivot(quiet, clock);
+        quietStraddle = Fixtures.straddle(quiet, clock);
+        quietTarget = Fixtures.target(quiet, clock, "1");
+        tradingPivot = Fixtures.pivot(moved, clock);
+        tradingStraddle = Fixtures.straddle(moved, clock);
+        tradingTarget = Fixtures.target(moved, clock, "2");
+    }
+
+    @Benchmark
+    public void pivotQuiet() throws IOException {
+        quietPivot.findOpportunities();
+    }
+
+    @Benchmark
+    public void straddleQuiet() throws IOException {
+        quietStraddle.findOpportunities();
+    }
+
+    @Benchmark
+    public void targetQuiet() throws IOException {
+        quietTarget.findOpportunities();
+    }
+
+    @Benchmark
+    public void pivotTrade() throws IOException {
+        trade(tradingPivot);
+    }
+
+    @Benchmark
+    public void straddleTrade() throws IOException {
+        trade(tradingStraddle);
+    }
+
+    @Benchmark
+    public void targetTrade() throws IOException {
+        trade(tradingTarget);
+    }
+
+    /**
+     * Places and fills the order, then runs the post-trade step once the settle wait is over, leaving the strategy
+     * ready to trade again.
+     */
+    private void trade(AbstractStrategy strategy) throws IOException {
+        strategy.findOpportunities();
+        clock.advance(PAST_COOLDOWN);
+        strategy.findOpportunities();
+        clock.advance(PAST_COOLDOWN);
+    }
+}
@@ -0,0 +1,541 @@
+package com.github.tsavo.strategy;
+
+import com.github.tsavo.strategy.journal.OrderState;
+import com.github.tsavo.strategy.journal.StrategyState;
+import com.github.tsavo.strategy.metrics.MetricsRegistry;
+import com.github.tsavo.strategy.metrics.StrategyMetrics;
+import com.tsavo.trade.database.Reporter;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the latest book pushed by an {@link OrderBookFeed} so a strategy can skip evaluating a book it has
+ * already seen, unless something else its decision reads has changed since: a cooldown or wait has run out, a step
+ * has run, or an order has completed and moved the balances. Cooldowns a strategy keeps itself, such as the time
+ * between buys, count once they run out, see {@link #nextCooldownExpiry(long)}.
+ * <p>
+ * It also holds the strategy's waits. Instead of sleeping, a strategy schedules the rest of its work with
+ * {@link #after(long, Step)} or stands aside with {@link #cooldown(long)}; the tick returns straight away and the
+ * {@link StrategyRuntime} calls back in once the wait is over. All waits and cooldowns are measured on
+ * {@link #clock}, which a backtest replaces with simulated time. Orders worked elsewhere, such as by a
+ * {@link TrailingStopEngine}, are waited for the same way with {@link #afterFill}.
+ * <p>
+ * Once {@link #instrument(MetricsRegistry, String)} has been called, the latency of each phase of a tick is
+ * recorded in the strategy's {@link StrategyMetrics}.
+ * <p>
+ * A strategy given an id by the {@link StrategyRuntime} has its state journaled after every tick: its cooldown and
+ * the open order it {@link #track tracks}. After a restart the runtime hands the state back through
+ * {@link #restoreState}, which places the order again and waits for it in {@link #resumeOrder}.
+ * <p>
+ * A strategy starts out {@link Lifecycle#STARTING} and is {@link Lifecycle#RUNNING} from its first tick.
+ * {@link #cancel()} moves it to {@link Lifecycle#DRAINING}: no order is opened from then on, the order being worked is
+ * cancelled, and a thread blocked filling it is interrupted. It is {@link Lifecycle#STOPPED} once that order has
+ * completed and its post-fill step has run, which {@link #awaitStopped} waits for.
+ */
+public abstract class AbstractStrategy implements Strategy {
+    public volatile BookSnapshot book;
+    public long evaluatedVersion = -1;
+    /**
+     * When the last book was evaluated, on {@link #clock}.
+     */
+    public long evaluatedAt;
+    public volatile long resumeAt;
+    public volatile TriggerIndex triggerIndex;
+    public Clock clock = Clock.systemUTC();
+    public volatile StrategyMetrics metrics;
+    public volatile AsyncReporter asyncReporter;
+    /**
+     * Set by the {@link StrategyRuntime} so an order completing elsewhere can have the strategy evaluated at once.
+     */
+    public volatile Runnable waker;
+    /**
+     * Identifies the strategy in the journal. Assigned by the {@link StrategyRuntime}; stable across restarts.
+     */
+    public volatile String id;
+    /**
+     * How near the last evaluated book was to the strategy's triggers, for a {@link CadenceController}. Strategies
+     * that can tell set it on every tick they evaluate.
+     */
+    public volatile TriggerProximity proximity;
+    private volatile Step continuation;
+    /**
+     * Set when something besides the book may have changed the decision since the last evaluated tick.
+     */
+    private volatile boolean stateChanged = true;
+    private volatile TrailingOrder trackedOrder;
+    private volatile OrderState trackedState;
+    private final AtomicReference<Lifecycle> lifecycle = new AtomicReference<>(Lifecycle.STARTING);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final Object fillLock = new Object();
+    private volatile TrailingOrder working;
+    private Thread filling;
+    private boolean fillInterrupted;
+
+    public enum Lifecycle {
+        STARTING, RUNNING, DRAINING, STOPPED
+    }
+
+    public interface Step {
+        public void run() throws IOException;
+    }
+
+    @Override
+    public void onBookUpdate(BookSnapshot snapshot) {
+        book = snapshot;
+    }
+
+    @Override
+    public long getResumeTime() {
+        return resumeAt;
+    }
+
+    @Override
+    public long getResumeDelay() {
+        long resume = resumeAt;
+        return resume == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(resume - clock.millis(), 0);
+    }
+
+    /**
+     * Starts recording phase latencies into histograms named {@code strategy.<name>.<phase>}.
+     */
+    public void instrument(MetricsRegistry registry, String name) {
+        metrics = new StrategyMetrics(registry, name);
+    }
+
+    /**
+     * Records the time since the given System.nanoTime() reading against the phase, if the strategy is instrumented.
+     */
+    protected void recordSince(StrategyMetrics.Phase phase, long startNanos) {
+        StrategyMetrics strategyMetrics = metrics;
+        if (strategyMetrics != null) {
+            strategyMetrics.recordSince(phase, startNanos);
+        }
+    }
+
+    /**
+     * Where {@link #report} and {@link #notice} send their messages.
+     */
+    protected abstract Reporter getReporter();
+
+    /**
+     * Put in front of every message this strategy reports, e.g. the market it trades on. Read when the message is
+     * built.
+     */
+    protected abstract String getReportPrefix();
+
+    public void report(String message) {
+        report(() -> message);
+    }
+
+    /**
+     * Reports a message that is only built when it is delivered.
+     */
+    public void report(Supplier<String> message) {
+        deliver(getReporter(), () -> getReportPrefix() + message.get());
+    }
+
+    /**
+     * Reports a status notice. Repeats of a notice that has not been sent yet are counted instead of queued.
+     */
+    public void notice(String kind, Supplier<String> message) {
+        deliver(getReporter(), kind, () -> getReportPrefix() + message.get());
+    }
+
+    /**
+     * Hands the message to the {@link AsyncReporter} when one is set, so it is built and sent off the trading thread.
+     * Without one the message is built and sent right here.
+     */
+    protected void deliver(Reporter reporter, Supplier<String> message) {
+        deliver(reporter, null, message);
+    }
+
+    /**
+     * Like {@link #deliver(Reporter, Supplier)}, but a notice of the same kind from this strategy that is still
+     * waiting to be sent absorbs this one instead of queueing it again.
+     */
+    protected void deliver(Reporter reporter, String notice, Supplier<String> message) {
+        AsyncReporter async = asyncReporter;
+        if (async != null) {
+            async.report(reporter, notice == null ? null : new NoticeKey(this, notice), message);
+        } else {
+            reporter.report(message.get());
+        }
+    }
+
+    public Lifecycle getLifecycle() {
+        return lifecycle.get();
+    }
+
+    /**
+     * True until the strategy is cancelled. A strategy only makes new decisions while this holds.
+     */
+    public boolean isRunning() {
+        Lifecycle state = lifecycle.get();
+        return state == Lifecycle.STARTING || state == Lifecycle.RUNNING;
+    }
+
+    /**
+     * Stops the strategy from opening any more orders, without touching the order it is working. Returns straight
+     * away; {@link #cancel()} does this first.
+     *
+     * @return true if this call moved the strategy out of STARTING or RUNNING
+     */
+    public boolean drain() {
+        while (true) {
+            Lifecycle state = lifecycle.get();
+            if (state == Lifecycle.DRAINING || state == Lifecycle.STOPPED) {
+                return false;
+            }
+            if (lifecycle.compareAndSet(state, Lifecycle.DRAINING)) {
+                checkStopped();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Drains the strategy, cancels the order it is working and interrupts a thread blocked filling it.
+     */
+    @Override
+    public void cancel() {
+        drain();
+        TrailingOrder order = working;
+        if (order != null) {
+            try {
+                order.cancelOrder();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        synchronized (fillLock) {
+            if (filling != null) {
+                fillInterrupted = true;
+                filling.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits until the strategy has stopped, i.e. it has been cancelled and nothing it started is still going.
+     *
+     * @return true if it stopped within the timeout
+     */
+    public boolean awaitStopped(long timeout, TimeUnit unit) throws InterruptedException {
+        return stopped.await(timeout, unit);
+    }
+
+    private void checkStopped() {
+        if (lifecycle.get() == Lifecycle.DRAINING && working == null && continuation == null
+                && lifecycle.compareAndSet(Lifecycle.DRAINING, Lifecycle.STOPPED)) {
+            stopped.countDown();
+        }
+    }
+
+    private void finishWork(TrailingOrder order) {
+        if (working == order) {
+            working = null;
+        }
+        stateChanged = true;
+        untrack(order);
+    }
+
+    /**
+     * Opens the order, timing it as {@link StrategyMetrics.Phase#ORDER_OPEN}. Once the strategy is draining no order
+     * is opened, and one that was being opened as it started draining is cancelled straight after.
+     */
+    protected void open(TrailingOrder order) throws IOException {
+        if (!isRunning()) {
+            throw new IOException("The strategy is stopping");
+        }
+        long start = System.nanoTime();
+        working = order;
+        try {
+            order.openOrder();
+        } catch (IOException | RuntimeException e) {
+            finishWork(order);
+            checkStopped();
+            throw e;
+        } finally {
+            recordSince(StrategyMetrics.Phase.ORDER_OPEN, start);
+        }
+        if (!isRunning()) {
+            try {
+                order.cancelOrder();
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Waits for the order to fill or be cancelled, timing it as {@link StrategyMetrics.Phase#FILL}. The wait is
+     * interrupted if the strategy is cancelled meanwhile.
+     */
+    protected boolean fill(TrailingOrder order) throws IOException {
+        long start = System.nanoTime();
+        synchronized (fillLock) {
+            filling = Thread.currentThread();
+        }
+        try {
+            return order.fillOrCancel();
+        } finally {
+            synchronized (fillLock) {
+                filling = null;
+                if (fillInterrupted) {
+                    // Only clear the interrupt cancel() raised, not one meant for the thread's owner.
+                    fillInterrupted = false;
+                    Thread.interrupted();
+                }
+            }
+            finishWork(order);
+            recordSince(StrategyMetrics.Phase.FILL, start);
+        }
+    }
+
+    /**
+     * Runs the step once the order fills, as {@link #afterFill(TrailingOrder, Step, Step)}; nothing is done if it
+     * does not.
+     */
+    protected void afterFill(TrailingOrder order, Step filled) throws IOException {
+        afterFill(order, filled, () -> {
+        });
+    }
+
+    /**
+     * Runs the filled step once the order fills, or the cancelled step if it does not. An {@link AsyncTrailingOrder}
+     * is not waited for: the tick returns straight away, nothing else is evaluated, and the step runs on the first
+     * tick after the order completes. Any other order is waited for here.
+     */
+    protected void afterFill(TrailingOrder order, Step filled, Step cancelled) throws IOException {
+        if (!(order instanceof AsyncTrailingOrder)) {
+            try {
+                if (fill(order)) {
+                    filled.run();
+                } else {
+                    cancelled.run();
+                }
+            } finally {
+                checkStopped();
+            }
+            return;
+        }
+        long start = System.nanoTime();
+        resumeAt = Long.MAX_VALUE;
+        ((AsyncTrailingOrder) order).completion().whenComplete((done, error) -> {
+            recordSince(StrategyMetrics.Phase.FILL, start);
+            if (error != null) {
+                continuation = () -> {
+                    throw new IOException("Order failed", error);
+                };
+            } else {
+                continuation = done ? filled : cancelled;
+            }
+            // Only after the continuation is in place, so a concurrent check never sees the strategy idle.
+            finishWork(order);
+            resumeAt = 0;
+            Runnable wake = waker;
+            if (wake != null) {
+                wake.run();
+            }
+        });
+    }
+
+    /**
+     * Journals the order as open until it fills or is cancelled. Put anything the post-fill step will need into the
+     * returned state's context, so {@link #resumeOrder} can rebuild the step after a restart. Once the order has
+     * filled it is no longer journaled, so a restart never places it twice, but a post-fill step still waiting on
+     * its settle delay is lost.
+     */
+    protected OrderState track(TrailingOrder order, BigDecimal amountToTrailBy) {
+        OrderState state = new OrderState(order.getOrder(), amountToTrailBy);
+        trackedState = state;
+        trackedOrder = order;
+        return state;
+    }
+
+    private void untrack(TrailingOrder order) {
+        if (trackedOrder == order) {
+            trackedOrder = null;
+            trackedState = null;
+        }
+    }
+
+    /**
+     * The state to journal: the cooldown and the tracked order, at the level it has trailed to when the order
+     * knows it.
+     */
+    public StrategyState captureState() {
+        StrategyState state = new StrategyState(getClass().getSimpleName());
+        long resume = resumeAt;
+        state.resumeAt = resume == Long.MAX_VALUE ? 0 : resume;
+        OrderState tracked = trackedState;
+        TrailingOrder order = trackedOrder;
+        if (tracked != null) {
+            state.order = order instanceof AsyncTrailingOrder ? tracked.atLevel(((AsyncTrailingOrder) order).getTrailLevel()) : tracked;
+        }
+        return state;
+    }
+
+    /**
+     * Carries on from a journaled state. Call before the first tick.
+     */
+    public void restoreState(StrategyState state) throws IOException {
+        resumeAt = Math.max(resumeAt, state.resumeAt);
+        stateChanged = true;
+        if (state.order != null) {
+            resumeOrder(state.order);
+        }
+    }
+
+    /**
+     * Places a journaled order again and waits for it as the strategy did before the restart. Strategies that track
+     * orders override this; by default the order is dropped.
+     */
+    protected void resumeOrder(OrderState state) throws IOException {
+    }
+
+    /**
+     * Places the journaled order again, resuming its trail from the journaled level when the market's trailing stops
+     * are worked by a {@link TrailingStopEngine}, and tracks it. The {@link TrailingStopMarket} is found through any
+     * wrappers around it.
+     */
+    protected TrailingOrder reopen(Market market, OrderState state) throws IOException {
+        LimitOrder order = state.toLimitOrder();
+        TrailingOrder reopened = state.level != null && market instanceof ForwardingMarket
+                ? ((ForwardingMarket) market).resumeTrailStop(order, state.trail, state.level)
+                : market.createTrailStopMarketMakerLimitOrder(order, state.trail);
+        open(reopened);
+        track(reopened, state.trail).context.putAll(state.context);
+        return reopened;
+    }
+
+    /**
+     * Tells the {@link TriggerIndex} this strategy is registered with, if any, that its triggers moved.
+     */
+    protected void triggersChanged() {
+        TriggerIndex index = triggerIndex;
+        if (index != null) {
+            index.update(this);
+        }
+    }
+
+    /**
+     * Runs the step on the first tick at least delay milliseconds from now. Nothing else is evaluated until then.
+     */
+    protected void after(long delay, Step step) {
+        resumeAt = clock.millis() + delay;
+        continuation = step;
+        stateChanged = true;
+    }
+
+    /**
+     * Runs a post-fill step. When the market's balances already reflect the fill, or the strategy is draining, the
+     * step runs straight away; otherwise it runs after the given settle delay, as with {@link #after(long, Step)}.
+     */
+    protected void afterSettle(Market market, long delay, Step step) throws IOException {
+        if (market.isSettledOnFill() || !isRunning()) {
+            runStep(step);
+        } else {
+            after(delay, step);
+        }
+    }
+
+    private void runStep(Step step) throws IOException {
+        long start = System.nanoTime();
+        try {
+            step.run();
+        } finally {
+            stateChanged = true;
+            recordSince(StrategyMetrics.Phase.SETTLE, start);
+        }
+    }
+
+    /**
+     * Skips every tick for the next delay milliseconds.
+     */
+    protected void cooldown(long delay) {
+        resumeAt = clock.millis() + delay;
+        stateChanged = true;
+    }
+
+    /**
+     * Starts a tick, reading the book from the subscribed feed when there is one.
+     *
+     * @return the tick, or null when the strategy is waiting, has just run a scheduled step, is draining, or neither
+     * the subscribed book nor anything else the decision reads has changed since the last tick
+     */
+    protected TickContext startTick(Market market, CurrencyPair currencyPair) throws IOException {
+        lifecycle.compareAndSet(Lifecycle.STARTING, Lifecycle.RUNNING);
+        boolean draining = !isRunning();
+        if (!draining && clock.millis() < resumeAt) {
+            return null;
+        }
+        Step step = continuation;
+        if (step != null) {
+            continuation = null;
+            try {
+                runStep(step);
+            } finally {
+                checkStopped();
+            }
+            return null;
+        }
+        if (draining) {
+            return null;
+        }
+        BookSnapshot snapshot = book;
+        if (snapshot == null) {
+            return new TickContext(market, currencyPair);
+        }
+        long now = clock.millis();
+        if (snapshot.version == evaluatedVersion && !stateChanged && nextCooldownExpiry(evaluatedAt) > now) {
+            return null;
+        }
+        evaluatedVersion = snapshot.version;
+        evaluatedAt = now;
+        stateChanged = false;
+        return new TickContext(market, currencyPair, snapshot);
+    }
+
+    /**
+     * The first time after the given one at which a cooldown the strategy keeps itself runs out, such as the wait
+     * between buys, or Long.MAX_VALUE if there is none. An unchanged book is evaluated again once that time has
+     * passed. Strategies whose only waits go through {@link #cooldown(long)} or {@link #after(long, Step)} need not
+     * override this.
+     */
+    protected long nextCooldownExpiry(long after) {
+        return Long.MAX_VALUE;
+    }
+
+    private static class NoticeKey {
+        final AbstractStrategy strategy;
+        final String notice;
+
+        NoticeKey(AbstractStrategy strategy, String notice) {
+            this.strategy = strategy;
+            this.notice = notice;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof NoticeKey)) {
+                return false;
+            }
+            NoticeKey that = (NoticeKey) o;
+            return strategy == that.strategy && notice.equals(that.notice);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(strategy) * 31 + notice.hashCode();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.github.tsavo.strategy;
+
+import com.tsavo.trade.database.Reporter;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Delivers reports on a background thread so the trading threads never wait on chat. Messages are queued unformatted
+ * and only built on the reporting thread. Each batch is grouped by channel: repeated messages are collapsed into one
+ * line with a count, and the rest are joined into as few posts as fit. Messages reported with a key are coalesced
+ * before they are even queued: while one is waiting, later ones with the same channel and key only add to its count,
+ * so a notice repeated every tick takes one slot. When the queue is full, messages are dropped and the channel is
+ * told how many it missed with its next post.
+ */
+public class AsyncReporter implements Closeable {
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final long DEFAULT_LINGER = 250;
+    public static final int DEFAULT_MAX_POST_LENGTH = 1900;
+
+    public final int maxPostLength;
+    public final long linger;
+    private final BlockingQueue<Entry> queue;
+    private final Map<Reporter, AtomicLong> dropped = new ConcurrentHashMap<>();
+    private final Map<Object, Entry> pending = new ConcurrentHashMap<>();
+    private final AtomicLong totalDropped = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public AsyncReporter() {
+        this(DEFAULT_CAPACITY, DEFAULT_LINGER, DEFAULT_MAX_POST_LENGTH);
+    }
+
+    /**
+     * @param capacity      how many messages may wait before new ones are dropped
+     * @param linger        how long to keep collecting a burst, in milliseconds, before delivering it
+     * @param maxPostLength the longest post to hand a channel; longer batches are split between lines
+     */
+    public AsyncReporter(int capacity, long linger, int maxPostLength) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.linger = linger;
+        this.maxPostLength = maxPostLength;
+        thread = new Thread(this::run, "async-reporter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a message for the channel without waiting.
+     *
+     * @return false if the queue was full and the message was dropped
+     */
+    public boolean report(Reporter channel, Supplier<String> message) {
+        return report(channel, null, message);
+    }
+
+    /**
+     * Queues a message for the channel without waiting, or counts it against a queued one with the same key.
+     *
+     * @param key identifies repeats of the same notice; null never coalesces
+     * @return false if the queue was full and the message was dropped
+     */
+    public boolean report(Reporter channel, Object key, Supplier<String> message) {
+        if (key != null) {
+            Entry waiting = pending.get(key);
+            if (waiting != null && waiting.channel == channel && waiting.repeat()) {
+                return true;
+            }
+        }
+        Entry entry = new Entry(channel, key, message);
+        if (running && queue.offer(entry)) {
+            if (key != null) {
+                pending.put(key, entry);
+            }
+            return true;
+        }
+        dropped.computeIfAbsent(channel, reporter -> new AtomicLong()).incrementAndGet();
+        totalDropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * A reporter that queues on this one, for code that only knows how to report finished strings.
+     */
+    public Reporter channel(Reporter reporter) {
+        return message -> report(reporter, () -> message);
+    }
+
+    public long getDropped() {
+        return totalDropped.get();
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    deliverDropNotices();
+                    continue;
+                }
+                if (running && linger > 0) {
+                    Thread.sleep(linger);
+                }
+                batch.add(first);
+                queue.drainTo(batch);
+                deliver(batch);
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                batch.clear();
+            }
+        }
+        deliverDropNotices();
+    }
+
+    private void deliver(List<Entry> batch) {
+        Map<Reporter, Map<String, Integer>> channels = new LinkedHashMap<>();
+        for (Entry entry : batch) {
+            int times = entry.take();
+            if (entry.key != null) {
+                pending.remove(entry.key, entry);
+            }
+            String message;
+            try {
+                message = entry.message.get();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                continue;
+            }
+            channels.computeIfAbsent(entry.channel, channel -> new LinkedHashMap<>()).merge(message, times, Integer::sum);
+        }
+        for (Map.Entry<Reporter, Map<String, Integer>> channel : channels.entrySet()) {
+            List<String> lines = new ArrayList<>();
+            String notice = dropNotice(channel.getKey());
+            if (notice != null) {
+                lines.add(notice);
+            }
+            for (Map.Entry<String, Integer> message : channel.getValue().entrySet()) {
+                lines.add(message.getValue() == 1 ? message.getKey() : message.getKey() + " (x" + message.getValue() + ")");
+            }
+            post(channel.getKey(), lines);
+        }
+    }
+
+    private void deliverDropNotices() {
+        for (Reporter channel : dropped.keySet()) {
+            String notice = dropNotice(channel);
+            if (notice != null) {
+                post(channel, Collections.singletonList(notice));
+            }
+        }
+    }
+
+    private String dropNotice(Reporter channel) {
+        AtomicLong count = dropped.get(channel);
+        long missed = count == null ? 0 : count.getAndSet(0);
+        return missed == 0 ? null : "(" + missed + " messages were dropped because reporting fell behind.)";
+    }
+
+    private void post(Reporter channel, List<String> lines) {
+        StringBuilder post = new StringBuilder();
+        for (String line : lines) {
+            if (post.length() > 0 && post.length() + 1 + line.length() > maxPostLength) {
+                send(channel, post.toString());
+                post.setLength(0);
+            }
+            if (post.length() > 0) {
+                post.append('\n');
+            }
+            post.append(line);
+        }
+        if (post.length() > 0) {
+            send(channel, post.toString());
+        }
+    }
+
+    private void send(Reporter channel, String post) {
+        try {
+            channel.report(post);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops taking messages and waits up to five seconds for the queued ones to be delivered.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Entry {
+        final Reporter channel;
+        final Object key;
+        final Supplier<String> message;
+        private int times = 1;
+        private boolean taken;
+
+        Entry(Reporter channel, Object key, Supplier<String> message) {
+            this.channel = channel;
+            this.key = key;
+            this.message = message;
+        }
+
+        /**
+         * Counts another occurrence, unless the reporting thread has already taken this entry.
+         */
+        synchronized boolean repeat() {
+            if (taken) {
+                return false;
+            }
+            times++;
+            return true;
+        }
+
+        synchronized int take() {
+            taken = true;
+            return times;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.tsavo.strategy;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A trailing order that is worked by something other than the caller, such as a {@link TrailingStopEngine}.
+ * Strategies wait on its completion rather than blocking in fillOrCancel().
+ */
+public interface AsyncTrailingOrder extends TrailingOrder {
+    /**
+     * Completes with true once the order filled, or false if it was cancelled or could not be filled.
+     */
+    public CompletableFuture<Boolean> completion();
+
+    /**
+     * The lowest ask (buys) or highest bid (sells) trailed so far, or null if the order does not know it.
+     */
+    public default BigDecimal getTrailLevel() {
+        return null;
+    }
+}
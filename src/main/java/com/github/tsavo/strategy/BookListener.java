@@ -0,0 +1,5 @@
+package com.github.tsavo.strategy;
+
+public interface BookListener {
+    public void onBookUpdate(BookSnapshot snapshot);
+}
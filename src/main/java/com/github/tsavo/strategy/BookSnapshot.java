@@ -0,0 +1,65 @@
+package com.github.tsavo.strategy;
+
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * An immutable view of the order book for one pair, as published by an {@link OrderBookFeed}. The version only
+ * increases when the book actually changed, so two snapshots with the same version hold the same orders.
+ */
+public class BookSnapshot {
+    public final CurrencyPair currencyPair;
+    public final long version;
+    public final long timestamp;
+    public final List<LimitOrder> asks;
+    public final List<LimitOrder> bids;
+
+    public BookSnapshot(CurrencyPair currencyPair, long version, long timestamp, List<LimitOrder> asks, List<LimitOrder> bids) {
+        this.currencyPair = currencyPair;
+        this.version = version;
+        this.timestamp = timestamp;
+        this.asks = asks;
+        this.bids = bids;
+    }
+
+    public boolean isEmpty() {
+        return asks.isEmpty() || bids.isEmpty();
+    }
+
+    public BigDecimal getLowestAsk() {
+        return asks.get(0).getLimitPrice();
+    }
+
+    public BigDecimal getHighestBid() {
+        return bids.get(0).getLimitPrice();
+    }
+
+    /**
+     * True when both books list the same prices and amounts at every level.
+     */
+    public boolean sameOrders(List<LimitOrder> otherAsks, List<LimitOrder> otherBids) {
+        return sameLevels(asks, otherAsks) && sameLevels(bids, otherBids);
+    }
+
+    private static boolean sameLevels(List<LimitOrder> a, List<LimitOrder> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            LimitOrder x = a.get(i);
+            LimitOrder y = b.get(i);
+            if (x.getLimitPrice().compareTo(y.getLimitPrice()) != 0 || x.getTradableAmount().compareTo(y.getTradableAmount()) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return currencyPair + " v" + version + (isEmpty() ? " (empty)" : " " + getHighestBid() + "/" + getLowestAsk());
+    }
+}
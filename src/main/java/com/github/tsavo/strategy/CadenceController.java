@@ -0,0 +1,112 @@
+package com.github.tsavo.strategy;
+
+import org.knowm.xchange.currency.CurrencyPair;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks how long a strategy can go before its next evaluation, from how far the book was from its nearest trigger,
+ * how fast the pair has been moving and how long its cooldowns still run. Near a trigger it asks for sub-second
+ * ticks; far from one, or cooling down, for minutes. Strategies say where they stand by setting
+ * {@link AbstractStrategy#proximity} on each tick; any other strategy keeps the runtime's fixed interval, as does
+ * every strategy on a pair until its volatility has been estimated.
+ * <p>
+ * Price is treated as a random walk: a move of d takes about (d / (sigmas * volatility))^2, so the next tick is due
+ * well before even a {@link #sigmas}-sigma move could reach the trigger.
+ */
+public class CadenceController {
+    public long minInterval = 250;
+    public long maxInterval = 300000;
+    /**
+     * How unlikely a move has to be before the controller stops allowing for it.
+     */
+    public double sigmas = 4;
+    /**
+     * The half-life of the volatility estimate, in milliseconds.
+     */
+    public long halfLife = 600000;
+    /**
+     * Samples closer together than this are dropped, so strategies sharing a pair do not swamp the estimate.
+     */
+    public long sampleSpacing = 1000;
+    public int warmupSamples = 3;
+
+    private final Map<CurrencyPair, Volatility> volatility = new ConcurrentHashMap<>();
+
+    /**
+     * The delay before the strategy should next be evaluated.
+     *
+     * @param interval the delay to fall back on when the controller has nothing to go by
+     */
+    public long nextDelay(Strategy strategy, long interval) {
+        if (!(strategy instanceof AbstractStrategy)) {
+            return interval;
+        }
+        TriggerProximity proximity = ((AbstractStrategy) strategy).proximity;
+        if (proximity == null) {
+            return interval;
+        }
+        Volatility pair = volatility.computeIfAbsent(proximity.currencyPair, key -> new Volatility());
+        double variance = pair.observe(proximity.price, proximity.at);
+        long delay = Math.min(sideDelay(proximity.buyDistance, proximity.buyAllowedAt - proximity.at, variance, interval),
+                sideDelay(proximity.sellDistance, proximity.sellAllowedAt - proximity.at, variance, interval));
+        return Math.max(minInterval, Math.min(delay, maxInterval));
+    }
+
+    /**
+     * The per-millisecond variance of the pair's log returns, or NaN while it is still warming up.
+     */
+    public double getVariance(CurrencyPair currencyPair) {
+        Volatility pair = volatility.get(currencyPair);
+        return pair == null ? Double.NaN : pair.variance();
+    }
+
+    private long sideDelay(double distance, long cooldown, double variance, long interval) {
+        if (distance == Double.POSITIVE_INFINITY) {
+            return Long.MAX_VALUE;
+        }
+        long move;
+        if (distance == 0) {
+            move = 0;
+        } else if (Double.isNaN(variance)) {
+            move = interval;
+        } else if (variance == 0) {
+            move = Long.MAX_VALUE;
+        } else {
+            double reach = distance / sigmas;
+            move = (long) Math.min(reach * reach / variance, Long.MAX_VALUE);
+        }
+        return Math.max(move, cooldown);
+    }
+
+    private class Volatility {
+        long lastPrice;
+        long lastAt;
+        int samples;
+        double variance;
+
+        synchronized double observe(long price, long at) {
+            if (price <= 0) {
+                return variance();
+            }
+            if (lastAt == 0 || at - lastAt >= sampleSpacing) {
+                if (lastAt != 0) {
+                    long elapsed = at - lastAt;
+                    double change = Math.log((double) price / lastPrice);
+                    double rate = change * change / elapsed;
+                    double weight = 1 - Math.pow(0.5, (double) elapsed / halfLife);
+                    variance = samples == 0 ? rate : variance + weight * (rate - variance);
+                    samples++;
+                }
+                lastPrice = price;
+                lastAt = at;
+            }
+            return variance();
+        }
+
+        synchronized double variance() {
+            return samples < warmupSamples ? Double.NaN : variance;
+        }
+    }
+}
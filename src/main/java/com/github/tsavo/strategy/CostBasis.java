@@ -0,0 +1,87 @@
+package com.github.tsavo.strategy;
+
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * The running cost basis of one account's position in one pair: how much we hold, what it cost on average, what
+ * selling it has realized so far, and when we last bought and sold. Each fill updates it in constant time, so none
+ * of these values has to be worked out from the trade history.
+ */
+@Document(collection = "costBasis")
+public class CostBasis {
+    @Id
+    public String id;
+    public String account;
+    public String currencyPair;
+    public BigDecimal quantity = BigDecimal.ZERO;
+    public BigDecimal averageCost = BigDecimal.ZERO;
+    public BigDecimal realizedProfit = BigDecimal.ZERO;
+    public Date lastBuy;
+    public Date lastSell;
+    public long fills;
+
+    public CostBasis() {
+    }
+
+    public CostBasis(String account, CurrencyPair currencyPair) {
+        this.id = idOf(account, currencyPair);
+        this.account = account;
+        this.currencyPair = currencyPair.toString();
+    }
+
+    public static String idOf(String account, CurrencyPair currencyPair) {
+        return account + ":" + currencyPair;
+    }
+
+    /**
+     * Adds a fill. A buy moves the average cost towards its price, weighted by quantity; a sell realizes the
+     * difference between its price and the average cost and leaves the average alone. The fee is in the counter
+     * currency, and is added to the cost of a buy and taken from the proceeds of a sell.
+     */
+    public synchronized void apply(Order.OrderType type, BigDecimal amount, BigDecimal price, BigDecimal fee, Date time) {
+        if (type == Order.OrderType.BID) {
+            BigDecimal held = quantity.add(amount);
+            if (held.signum() > 0) {
+                averageCost = quantity.multiply(averageCost).add(amount.multiply(price)).add(fee).divide(held, 8, BigDecimal.ROUND_HALF_EVEN);
+            }
+            quantity = held;
+            lastBuy = time;
+        } else {
+            realizedProfit = realizedProfit.add(amount.multiply(price.subtract(averageCost)).subtract(fee)).setScale(8, BigDecimal.ROUND_HALF_EVEN);
+            quantity = quantity.subtract(amount).max(BigDecimal.ZERO);
+            lastSell = time;
+        }
+        fills++;
+    }
+
+    public synchronized BigDecimal getQuantity() {
+        return quantity;
+    }
+
+    public synchronized BigDecimal getAverageCost() {
+        return averageCost;
+    }
+
+    public synchronized BigDecimal getRealizedProfit() {
+        return realizedProfit;
+    }
+
+    public synchronized Date getLastBuy() {
+        return lastBuy;
+    }
+
+    public synchronized Date getLastSell() {
+        return lastSell;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return currencyPair + ": " + quantity + " @ " + averageCost + ", realized " + realizedProfit;
+    }
+}
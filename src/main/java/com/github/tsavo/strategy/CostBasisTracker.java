@@ -0,0 +1,162 @@
+package com.github.tsavo.strategy;
+
+import com.github.tsavo.traderplan.exchange.NoWalletEntryException;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.trade.LimitOrder;
+import org.springframework.data.mongodb.core.MongoOperations;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves the average cost and the last buy and sell dates of each pair from a {@link CostBasis} kept in memory,
+ * instead of asking the exchange, which works them out from the whole trade history every time.
+ * <p>
+ * A pair's basis is loaded from Mongo the first time it is asked for. If none has been saved it is seeded once from
+ * the exchange. After that, our own fills update it as they happen, and it is saved again after each one. Trades made
+ * outside these strategies are not seen; call {@link #reseed} after making one by hand.
+ */
+public class CostBasisTracker extends ForwardingMarket {
+    public final MongoOperations mongo;
+    public final String account;
+    public Clock clock = Clock.systemUTC();
+    /**
+     * The expected fee as a fraction of the counter amount, e.g. 0.0025.
+     */
+    public BigDecimal feeRate = BigDecimal.ZERO;
+
+    private final Map<CurrencyPair, CostBasis> bases = new ConcurrentHashMap<>();
+    private final FillPrices fillPrices = new FillPrices();
+
+    /**
+     * @param mongo   where bases are kept between runs, or null to keep them in memory only
+     * @param account names the exchange account, so several can share a collection
+     */
+    public CostBasisTracker(Market market, MongoOperations mongo, String account) {
+        super(market);
+        this.mongo = mongo;
+        this.account = account;
+    }
+
+    public CostBasis getCostBasis(CurrencyPair currencyPair) {
+        CostBasis basis = bases.get(currencyPair);
+        if (basis != null) {
+            return basis;
+        }
+        synchronized (this) {
+            basis = bases.get(currencyPair);
+            if (basis == null) {
+                basis = load(currencyPair);
+                bases.put(currencyPair, basis);
+            }
+            return basis;
+        }
+    }
+
+    /**
+     * Throws away the pair's basis and seeds it again from the exchange.
+     */
+    public synchronized CostBasis reseed(CurrencyPair currencyPair) {
+        CostBasis basis = seed(currencyPair);
+        save(basis);
+        bases.put(currencyPair, basis);
+        return basis;
+    }
+
+    private CostBasis load(CurrencyPair currencyPair) {
+        CostBasis basis = mongo == null ? null : mongo.findById(CostBasis.idOf(account, currencyPair), CostBasis.class);
+        if (basis == null) {
+            basis = seed(currencyPair);
+            save(basis);
+        }
+        return basis;
+    }
+
+    private CostBasis seed(CurrencyPair currencyPair) {
+        CostBasis basis = new CostBasis(account, currencyPair);
+        basis.quantity = super.getBalance(currencyPair.base);
+        try {
+            basis.averageCost = super.getAverageCost(currencyPair);
+        } catch (NoWalletEntryException e) {
+            basis.averageCost = BigDecimal.ZERO;
+        }
+        basis.lastBuy = super.getLastBuyDate(currencyPair);
+        basis.lastSell = super.getLastSellDate(currencyPair);
+        return basis;
+    }
+
+    private void save(CostBasis basis) {
+        if (mongo == null) {
+            return;
+        }
+        try {
+            synchronized (basis) {
+                mongo.save(basis);
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public BigDecimal getAverageCost(CurrencyPair currencyPair) {
+        return getCostBasis(currencyPair).getAverageCost();
+    }
+
+    @Override
+    public Date getLastBuyDate(CurrencyPair currencyPair) {
+        return getCostBasis(currencyPair).getLastBuy();
+    }
+
+    @Override
+    public Date getLastSellDate(CurrencyPair currencyPair) {
+        return getCostBasis(currencyPair).getLastSell();
+    }
+
+    @Override
+    public List<LimitOrder> getLowestAsks(CurrencyPair currencyPair) {
+        List<LimitOrder> asks = super.getLowestAsks(currencyPair);
+        fillPrices.observeAsks(currencyPair, asks);
+        return asks;
+    }
+
+    @Override
+    public List<LimitOrder> getHighestBids(CurrencyPair currencyPair) {
+        List<LimitOrder> bids = super.getHighestBids(currencyPair);
+        fillPrices.observeBids(currencyPair, bids);
+        return bids;
+    }
+
+    @Override
+    protected TrailingOrder wrap(TrailingOrder order) {
+        return ForwardingOrder.keepAsync(new TrackedOrder(order));
+    }
+
+    /**
+     * Adds a fill of one of our orders to its pair's basis and saves it.
+     */
+    public void applyFill(LimitOrder order) {
+        CostBasis basis = getCostBasis(order.getCurrencyPair());
+        BigDecimal price = fillPrices.priceOf(order);
+        BigDecimal fee = order.getTradableAmount().multiply(price).multiply(feeRate);
+        basis.apply(order.getType(), order.getTradableAmount(), price, fee, new Date(clock.millis()));
+        save(basis);
+    }
+
+    private class TrackedOrder extends ForwardingOrder {
+        TrackedOrder(TrailingOrder order) {
+            super(order);
+        }
+
+        @Override
+        protected void completed(boolean filled) {
+            if (filled) {
+                applyFill(order.getOrder());
+            }
+        }
+    }
+}
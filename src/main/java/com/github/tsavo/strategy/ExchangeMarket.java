@@ -0,0 +1,134 @@
+package com.github.tsavo.strategy;
+
+import com.github.tsavo.traderplan.exchange.Exchange;
+import com.github.tsavo.traderplan.exchange.NoWalletEntryException;
+import com.github.tsavo.traderplan.exchange.Order;
+import com.tsavo.trade.database.model.Pivot;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A {@link Market} backed by a live {@link Exchange}. Two instances over the same exchange are equal, so they share
+ * order book feeds and anything else keyed by market.
+ */
+public class ExchangeMarket implements Market {
+    public final Exchange exchange;
+
+    public ExchangeMarket(Exchange exchange) {
+        this.exchange = exchange;
+    }
+
+    @Override
+    public BigDecimal getBalance(Currency currency) {
+        return exchange.getBalance(currency);
+    }
+
+    @Override
+    public BigDecimal getAverageCost(CurrencyPair currencyPair) throws NoWalletEntryException {
+        return exchange.getAverageCost(currencyPair);
+    }
+
+    @Override
+    public List<LimitOrder> getLowestAsks(CurrencyPair currencyPair) {
+        return exchange.getLowestAsks(currencyPair);
+    }
+
+    @Override
+    public List<LimitOrder> getHighestBids(CurrencyPair currencyPair) {
+        return exchange.getHighestBids(currencyPair);
+    }
+
+    @Override
+    public BigDecimal getAmountIn(BigDecimal amount, CurrencyPair currencyPair) throws IOException {
+        return exchange.getAmountIn(amount, currencyPair);
+    }
+
+    @Override
+    public BigDecimal getPriceIn(BigDecimal amount, CurrencyPair currencyPair) {
+        return exchange.getPriceIn(amount, currencyPair);
+    }
+
+    @Override
+    public BigDecimal getAveragePrice(CurrencyPair currencyPair) throws IOException {
+        return exchange.getAveragePrice(currencyPair);
+    }
+
+    @Override
+    public TrailingOrder createTrailStopMarketMakerLimitOrder(LimitOrder order, BigDecimal amountToTrailBy) throws IOException {
+        return new ExchangeOrder(exchange.createTrailStopMarketMakerLimitOrder(order, amountToTrailBy));
+    }
+
+    @Override
+    public void performBuyAction(Pivot pivot) throws IOException {
+        exchange.performBuyAction(pivot);
+    }
+
+    @Override
+    public void performSellAction(Pivot pivot) throws IOException {
+        exchange.performSellAction(pivot);
+    }
+
+    @Override
+    public Date getLastBuyDate(CurrencyPair currencyPair) {
+        return exchange.getLastBuyDate(currencyPair);
+    }
+
+    @Override
+    public Date getLastSellDate(CurrencyPair currencyPair) {
+        return exchange.getLastSellDate(currencyPair);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ExchangeMarket)) return false;
+        return exchange.equals(((ExchangeMarket) o).exchange);
+    }
+
+    @Override
+    public int hashCode() {
+        return exchange.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return exchange.toString();
+    }
+
+    /**
+     * A {@link TrailingOrder} over the exchange's own trailing stop order.
+     */
+    public static class ExchangeOrder implements TrailingOrder {
+        public final Order order;
+
+        public ExchangeOrder(Order order) {
+            this.order = order;
+        }
+
+        @Override
+        public void openOrder() throws IOException {
+            order.openOrder();
+        }
+
+        @Override
+        public boolean fillOrCancel() throws IOException {
+            return order.fillOrCancel();
+        }
+
+        @Override
+        public void cancelOrder() throws IOException {
+            order.cancelOrder();
+        }
+
+        @Override
+        public LimitOrder getOrder() {
+            return order.order;
+        }
+    }
+}
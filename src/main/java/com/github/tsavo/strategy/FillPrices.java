@@ -0,0 +1,46 @@
+package com.github.tsavo.strategy;
+
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Works out what our filled orders traded at. When the exchange reports an average fill price on the order, that is
+ * the price. Otherwise it is estimated from the best price last seen on the other side of the book, capped by the
+ * order's limit.
+ */
+public class FillPrices {
+    private final Map<CurrencyPair, BigDecimal> lastAsks = new ConcurrentHashMap<>();
+    private final Map<CurrencyPair, BigDecimal> lastBids = new ConcurrentHashMap<>();
+
+    public void observeAsks(CurrencyPair currencyPair, List<LimitOrder> asks) {
+        if (!asks.isEmpty()) {
+            lastAsks.put(currencyPair, asks.get(0).getLimitPrice());
+        }
+    }
+
+    public void observeBids(CurrencyPair currencyPair, List<LimitOrder> bids) {
+        if (!bids.isEmpty()) {
+            lastBids.put(currencyPair, bids.get(0).getLimitPrice());
+        }
+    }
+
+    public BigDecimal priceOf(LimitOrder order) {
+        BigDecimal reported = order.getAveragePrice();
+        if (reported != null && reported.signum() > 0) {
+            return reported;
+        }
+        BigDecimal limit = order.getLimitPrice();
+        if (order.getType() == Order.OrderType.BID) {
+            BigDecimal ask = lastAsks.get(order.getCurrencyPair());
+            return ask == null ? limit : ask.min(limit);
+        }
+        BigDecimal bid = lastBids.get(order.getCurrencyPair());
+        return bid == null ? limit : bid.max(limit);
+    }
+}
@@ -0,0 +1,214 @@
+package com.github.tsavo.strategy;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Decimal arithmetic on longs scaled by 1e8, i.e. satoshi units, for decision code that runs on every tick.
+ * Values are converted from and to BigDecimal at the exchange boundary; everything in between is primitive and
+ * allocation free. Rounding is HALF_EVEN throughout so results match the equivalent BigDecimal code with a scale
+ * of 8.
+ */
+public final class Fixed {
+    public static final int DECIMALS = 8;
+    public static final long ONE = 100_000_000L;
+    public static final long HUNDRED = 100 * ONE;
+
+    private static final long LOW_BITS = 0xFFFFFFFFL;
+
+    private Fixed() {
+    }
+
+    /**
+     * The value rounded to 8 decimals, in satoshi units.
+     *
+     * @throws ArithmeticException if the value does not fit in a long
+     */
+    public static long of(BigDecimal value) {
+        return value.setScale(DECIMALS, BigDecimal.ROUND_HALF_EVEN).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Whether the value is a whole number of satoshis, so that {@link #of(BigDecimal)} loses nothing.
+     */
+    public static boolean isExact(BigDecimal value) {
+        return value.scale() <= DECIMALS || value.stripTrailingZeros().scale() <= DECIMALS;
+    }
+
+    public static BigDecimal toBigDecimal(long value) {
+        return BigDecimal.valueOf(value, DECIMALS);
+    }
+
+    /**
+     * a * b in satoshi units, e.g. a price times an amount.
+     */
+    public static long multiply(long a, long b) {
+        return multiplyDivide(a, b, ONE);
+    }
+
+    /**
+     * a / b in satoshi units.
+     */
+    public static long divide(long a, long b) {
+        return multiplyDivide(a, ONE, b);
+    }
+
+    /**
+     * a / b for a plain integer divisor, rounded HALF_EVEN.
+     */
+    public static long divide(long a, int b) {
+        return multiplyDivide(a, 1, b);
+    }
+
+    /**
+     * Rounds a satoshi value to the given number of decimals, keeping it in satoshi units.
+     */
+    public static long round(long value, int decimals) {
+        long unit = 1;
+        for (int i = decimals; i < DECIMALS; i++) {
+            unit *= 10;
+        }
+        return multiplyDivide(value, 1, unit) * unit;
+    }
+
+    /**
+     * a * b / c computed on the full 128 bit product and rounded HALF_EVEN.
+     *
+     * @throws ArithmeticException if c is zero or the result does not fit in a long
+     */
+    public static long multiplyDivide(long a, long b, long c) {
+        return multiplyDivide(a, b, c, RoundingMode.HALF_EVEN);
+    }
+
+    /**
+     * a * b / c computed on the full 128 bit product and rounded HALF_EVEN, FLOOR or CEILING.
+     *
+     * @throws ArithmeticException if c is zero or the result does not fit in a long
+     */
+    public static long multiplyDivide(long a, long b, long c, RoundingMode mode) {
+        if (c == 0) {
+            throw new ArithmeticException("Division by zero");
+        }
+        boolean negative = (a < 0) ^ (b < 0) ^ (c < 0);
+        a = Math.abs(a);
+        b = Math.abs(b);
+        c = Math.abs(c);
+        long high = multiplyHigh(a, b);
+        long low = a * b;
+        long quotient;
+        long remainder;
+        if (high == 0 && low >= 0) {
+            quotient = low / c;
+            remainder = low % c;
+        } else {
+            if (Long.compareUnsigned(high, c) >= 0) {
+                throw new ArithmeticException("Overflow");
+            }
+            quotient = divideWide(high, low, c);
+            remainder = low - quotient * c;
+        }
+        if (remainder != 0) {
+            switch (mode) {
+                case HALF_EVEN:
+                    int half = Long.compareUnsigned(remainder << 1, c);
+                    if (half > 0 || (half == 0 && (quotient & 1) == 1)) {
+                        quotient++;
+                    }
+                    break;
+                case FLOOR:
+                    if (negative) {
+                        quotient++;
+                    }
+                    break;
+                case CEILING:
+                    if (!negative) {
+                        quotient++;
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported rounding mode " + mode);
+            }
+        }
+        if (quotient < 0) {
+            throw new ArithmeticException("Overflow");
+        }
+        return negative ? -quotient : quotient;
+    }
+
+    /**
+     * The unsigned quotient of the 128 bit value high:low by c, which must be positive and greater than high. Two
+     * rounds of 64 by 32 bit division on the normalized divisor (Hacker's Delight, divlu).
+     */
+    static long divideWide(long high, long low, long c) {
+        int shift = Long.numberOfLeadingZeros(c);
+        c <<= shift;
+        long divisorHigh = c >>> 32;
+        long divisorLow = c & LOW_BITS;
+        long top = shift == 0 ? high : (high << shift) | (low >>> (64 - shift));
+        long bottom = low << shift;
+        long bottomHigh = bottom >>> 32;
+        long bottomLow = bottom & LOW_BITS;
+
+        long q1 = divideUnsigned(top, divisorHigh);
+        long rest = top - q1 * divisorHigh;
+        while (q1 > LOW_BITS || Long.compareUnsigned(q1 * divisorLow, (rest << 32) | bottomHigh) > 0) {
+            q1--;
+            rest += divisorHigh;
+            if (rest > LOW_BITS) {
+                break;
+            }
+        }
+        long middle = (top << 32) + bottomHigh - q1 * c;
+
+        long q0 = divideUnsigned(middle, divisorHigh);
+        rest = middle - q0 * divisorHigh;
+        while (q0 > LOW_BITS || Long.compareUnsigned(q0 * divisorLow, (rest << 32) | bottomLow) > 0) {
+            q0--;
+            rest += divisorHigh;
+            if (rest > LOW_BITS) {
+                break;
+            }
+        }
+        return (q1 << 32) + q0;
+    }
+
+    /**
+     * n / d for an unsigned n and a positive d, without the BigInteger fallback Long.divideUnsigned has on Java 8.
+     */
+    private static long divideUnsigned(long n, long d) {
+        if (n >= 0) {
+            return n / d;
+        }
+        long quotient = ((n >>> 1) / d) << 1;
+        if (Long.compareUnsigned(n - quotient * d, d) >= 0) {
+            quotient++;
+        }
+        return quotient;
+    }
+
+    /**
+     * Compares a * b with c * d exactly. All four values must be non-negative.
+     */
+    public static int compareProducts(long a, long b, long c, long d) {
+        int high = Long.compareUnsigned(multiplyHigh(a, b), multiplyHigh(c, d));
+        if (high != 0) {
+            return high;
+        }
+        return Long.compareUnsigned(a * b, c * d);
+    }
+
+    /**
+     * The upper 64 bits of the 128 bit product of two non-negative longs.
+     */
+    static long multiplyHigh(long a, long b) {
+        long aHigh = a >>> 32;
+        long aLow = a & LOW_BITS;
+        long bHigh = b >>> 32;
+        long bLow = b & LOW_BITS;
+        long lowLow = aLow * bLow;
+        long highLow = aHigh * bLow;
+        long lowHigh = aLow * bHigh;
+        long cross = (lowLow >>> 32) + (highLow & LOW_BITS) + lowHigh;
+        return (highLow >>> 32) + (cross >>> 32) + aHigh * bHigh;
+    }
+}
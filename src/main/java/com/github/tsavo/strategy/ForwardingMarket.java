@@ -0,0 +1,129 @@
+package com.github.tsavo.strategy;
+
+import com.github.tsavo.traderplan.exchange.NoWalletEntryException;
+import com.tsavo.trade.database.model.Pivot;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A {@link Market} that passes every call through to another one. Wrappers that record, measure or throttle extend
+ * this and override only the calls they care about. Wrappers that need to see orders override {@link #wrap}, which
+ * both new and resumed orders go through.
+ */
+public class ForwardingMarket implements Market {
+    public final Market market;
+
+    public ForwardingMarket(Market market) {
+        this.market = market;
+    }
+
+    @Override
+    public BigDecimal getBalance(Currency currency) {
+        return market.getBalance(currency);
+    }
+
+    @Override
+    public BigDecimal getAverageCost(CurrencyPair currencyPair) throws NoWalletEntryException {
+        return market.getAverageCost(currencyPair);
+    }
+
+    @Override
+    public List<LimitOrder> getLowestAsks(CurrencyPair currencyPair) {
+        return market.getLowestAsks(currencyPair);
+    }
+
+    @Override
+    public List<LimitOrder> getHighestBids(CurrencyPair currencyPair) {
+        return market.getHighestBids(currencyPair);
+    }
+
+    @Override
+    public BigDecimal getAmountIn(BigDecimal amount, CurrencyPair currencyPair) throws IOException {
+        return market.getAmountIn(amount, currencyPair);
+    }
+
+    @Override
+    public BigDecimal getPriceIn(BigDecimal amount, CurrencyPair currencyPair) {
+        return market.getPriceIn(amount, currencyPair);
+    }
+
+    @Override
+    public BigDecimal getAveragePrice(CurrencyPair currencyPair) throws IOException {
+        return market.getAveragePrice(currencyPair);
+    }
+
+    @Override
+    public TrailingOrder createTrailStopMarketMakerLimitOrder(LimitOrder order, BigDecimal amountToTrailBy) throws IOException {
+        return wrap(market.createTrailStopMarketMakerLimitOrder(order, amountToTrailBy));
+    }
+
+    /**
+     * A trailing stop that carries on from a level reached before, e.g. by a stop journaled before a restart. The
+     * call is passed down the chain of wrappers to the {@link TrailingStopMarket} in it, each wrapping the order as
+     * it would a new one. With no {@link TrailingStopMarket} below, a new trailing stop is created and the level is
+     * dropped.
+     */
+    public TrailingOrder resumeTrailStop(LimitOrder order, BigDecimal amountToTrailBy, BigDecimal level) throws IOException {
+        TrailingOrder resumed = market instanceof ForwardingMarket
+                ? ((ForwardingMarket) market).resumeTrailStop(order, amountToTrailBy, level)
+                : market.createTrailStopMarketMakerLimitOrder(order, amountToTrailBy);
+        return wrap(resumed);
+    }
+
+    /**
+     * Wraps each order this market hands out. By default orders are handed out as they are; wrappers return a
+     * {@link ForwardingOrder} through {@link ForwardingOrder#keepAsync(ForwardingOrder)}.
+     */
+    protected TrailingOrder wrap(TrailingOrder order) {
+        return order;
+    }
+
+    @Override
+    public void performBuyAction(Pivot pivot) throws IOException {
+        market.performBuyAction(pivot);
+    }
+
+    @Override
+    public void performSellAction(Pivot pivot) throws IOException {
+        market.performSellAction(pivot);
+    }
+
+    @Override
+    public Date getLastBuyDate(CurrencyPair currencyPair) {
+        return market.getLastBuyDate(currencyPair);
+    }
+
+    @Override
+    public Date getLastSellDate(CurrencyPair currencyPair) {
+        return market.getLastSellDate(currencyPair);
+    }
+
+    @Override
+    public boolean isSettledOnFill() {
+        return market.isSettledOnFill();
+    }
+
+    /**
+     * The market at the bottom of a chain of wrappers, or the market itself if it is not a wrapper.
+     */
+    public static Market unwrap(Market market) {
+        while (market instanceof ForwardingMarket) {
+            market = ((ForwardingMarket) market).market;
+        }
+        return market;
+    }
+
+    /**
+     * Wrappers print as the market they wrap, since strategies put the market's name in their reports.
+     */
+    @Override
+    public String toString() {
+        return market.toString();
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.tsavo.strategy;
+
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A {@link TrailingOrder} that passes every call through to another one, for the orders a {@link ForwardingMarket}
+ * hands out. Subclasses override the calls they care about and react to the order finishing in
+ * {@link #completed(boolean)}.
+ * <p>
+ * Hand the wrapper out through {@link #keepAsync(ForwardingOrder)}: if the wrapped order is an
+ * {@link AsyncTrailingOrder}, the wrapper stays one, and completed() runs before its completion does. Overrides of
+ * fillOrCancel() only see callers that block; asynchronous ones wait on the completion instead.
+ */
+public class ForwardingOrder implements TrailingOrder {
+    public final TrailingOrder order;
+
+    public ForwardingOrder(TrailingOrder order) {
+        this.order = order;
+    }
+
+    @Override
+    public void openOrder() throws IOException {
+        order.openOrder();
+    }
+
+    @Override
+    public boolean fillOrCancel() throws IOException {
+        boolean filled = order.fillOrCancel();
+        completed(filled);
+        return filled;
+    }
+
+    @Override
+    public void cancelOrder() throws IOException {
+        order.cancelOrder();
+    }
+
+    @Override
+    public LimitOrder getOrder() {
+        return order.getOrder();
+    }
+
+    /**
+     * Called once the order filled, or with false once it was cancelled or could not be filled.
+     */
+    protected void completed(boolean filled) {
+    }
+
+    /**
+     * The wrapper, made asynchronous if the order it wraps is.
+     */
+    public static TrailingOrder keepAsync(ForwardingOrder wrapper) {
+        return wrapper.order instanceof AsyncTrailingOrder ? new AsyncForwardingOrder(wrapper) : wrapper;
+    }
+
+    private static class AsyncForwardingOrder implements AsyncTrailingOrder {
+        private final ForwardingOrder wrapper;
+        private final AsyncTrailingOrder order;
+        private final CompletableFuture<Boolean> completion;
+
+        AsyncForwardingOrder(ForwardingOrder wrapper) {
+            this.wrapper = wrapper;
+            this.order = (AsyncTrailingOrder) wrapper.order;
+            this.completion = order.completion().thenApply(filled -> {
+                wrapper.completed(filled);
+                return filled;
+            });
+        }
+
+        @Override
+        public void openOrder() throws IOException {
+            wrapper.openOrder();
+        }
+
+        @Override
+        public CompletableFuture<Boolean> completion() {
+            return completion;
+        }
+
+        @Override
+        public boolean fillOrCancel() throws IOException {
+            boolean filled = order.fillOrCancel();
+            if (!order.completion().isDone()) {
+                // Never opened, so there is nothing to wait for.
+                return filled;
+            }
+            try {
+                return completion.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for " + getOrder(), e);
+            } catch (ExecutionException e) {
+                throw new IOException("Order failed for " + getOrder(), e.getCause());
+            }
+        }
+
+        @Override
+        public void cancelOrder() throws IOException {
+            wrapper.cancelOrder();
+        }
+
+        @Override
+        public LimitOrder getOrder() {
+            return wrapper.getOrder();
+        }
+
+        @Override
+        public BigDecimal getTrailLevel() {
+            return order.getTrailLevel();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.tsavo.strategy;
+
+import com.github.tsavo.traderplan.exchange.NoWalletEntryException;
+import com.tsavo.trade.database.model.Pivot;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The part of an exchange account the strategies trade through. {@link ExchangeMarket} puts a live
+ * {@link com.github.tsavo.traderplan.exchange.Exchange} behind it; simulations and wrappers that add caching,
+ * recording or throttling implement it directly.
+ */
+public interface Market {
+    public BigDecimal getBalance(Currency currency);
+
+    public BigDecimal getAverageCost(CurrencyPair currencyPair) throws NoWalletEntryException;
+
+    public List<LimitOrder> getLowestAsks(CurrencyPair currencyPair);
+
+    public List<LimitOrder> getHighestBids(CurrencyPair currencyPair);
+
+    /**
+     * How much of the base currency the given amount of counter currency buys.
+     */
+    public BigDecimal getAmountIn(BigDecimal amount, CurrencyPair currencyPair) throws IOException;
+
+    /**
+     * What the given amount of base currency is worth in the counter currency.
+     */
+    public BigDecimal getPriceIn(BigDecimal amount, CurrencyPair currencyPair);
+
+    public BigDecimal getAveragePrice(CurrencyPair currencyPair) throws IOException;
+
+    public TrailingOrder createTrailStopMarketMakerLimitOrder(LimitOrder order, BigDecimal amountToTrailBy) throws IOException;
+
+    public void performBuyAction(Pivot pivot) throws IOException;
+
+    public void performSellAction(Pivot pivot) throws IOException;
+
+    public Date getLastBuyDate(CurrencyPair currencyPair);
+
+    public Date getLastSellDate(CurrencyPair currencyPair);
+
+    /**
+     * True when balances read through this market already include our own fills the moment fillOrCancel() returns,
+     * so a strategy can carry on straight after a fill instead of waiting for the exchange to catch up.
+     */
+    public default boolean isSettledOnFill() {
+        return false;
+    }
+}
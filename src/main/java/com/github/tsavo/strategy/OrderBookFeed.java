@@ -0,0 +1,105 @@
+package com.github.tsavo.strategy;
+
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches the order book for one pair on one exchange and fans it out to every subscriber, so any number of
+ * strategies on the same pair cost a single upstream request per poll. Subscribers are only called when the book
+ * changed since the last poll.
+ */
+public class OrderBookFeed {
+    public final Market market;
+    public final CurrencyPair currencyPair;
+    private final List<BookListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile BookSnapshot snapshot;
+    private ScheduledFuture<?> polling;
+
+    public OrderBookFeed(Market market, CurrencyPair currencyPair) {
+        this.market = market;
+        this.currencyPair = currencyPair;
+    }
+
+    public void subscribe(BookListener listener) {
+        listeners.add(listener);
+        BookSnapshot current = snapshot;
+        if (current != null) {
+            listener.onBookUpdate(current);
+        }
+    }
+
+    public void unsubscribe(BookListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean hasSubscribers() {
+        return !listeners.isEmpty();
+    }
+
+    public BookSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Fetches the book once and publishes it if it changed.
+     *
+     * @return true if a new version was published
+     */
+    public synchronized boolean poll() {
+        List<LimitOrder> asks = market.getLowestAsks(currencyPair);
+        List<LimitOrder> bids = market.getHighestBids(currencyPair);
+        return publish(asks, bids, System.currentTimeMillis());
+    }
+
+    /**
+     * Publishes a book obtained elsewhere, e.g. from a streaming connection.
+     */
+    public synchronized boolean publish(List<LimitOrder> asks, List<LimitOrder> bids, long timestamp) {
+        BookSnapshot last = snapshot;
+        if (last != null && last.sameOrders(asks, bids)) {
+            return false;
+        }
+        BookSnapshot next = new BookSnapshot(currencyPair, last == null ? 1 : last.version + 1, timestamp, Collections.unmodifiableList(asks), Collections.unmodifiableList(bids));
+        snapshot = next;
+        for (BookListener listener : listeners) {
+            try {
+                listener.onBookUpdate(next);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        return true;
+    }
+
+    public synchronized void start(ScheduledExecutorService executor, long period, TimeUnit unit) {
+        if (polling != null) {
+            return;
+        }
+        polling = executor.scheduleWithFixedDelay(() -> {
+            try {
+                poll();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, 0, period, unit);
+    }
+
+    public synchronized void stop() {
+        if (polling != null) {
+            polling.cancel(false);
+            polling = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return market + " " + currencyPair + " book feed";
+    }
+}
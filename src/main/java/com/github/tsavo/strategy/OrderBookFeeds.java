@@ -0,0 +1,53 @@
+package com.github.tsavo.strategy;
+
+import org.knowm.xchange.currency.CurrencyPair;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The shared {@link OrderBookFeed} for each market and pair. Feeds are keyed on the market at the bottom of any
+ * {@link ForwardingMarket} wrappers, so everything asking for a pair on one exchange shares one upstream feed,
+ * however it wraps the exchange. The feed polls through the market it was first asked for with.
+ */
+public class OrderBookFeeds {
+    private final Map<Market, Map<CurrencyPair, OrderBookFeed>> feeds = new ConcurrentHashMap<>();
+
+    public OrderBookFeed feedFor(Market market, CurrencyPair currencyPair) {
+        return feeds.computeIfAbsent(ForwardingMarket.unwrap(market), e -> new ConcurrentHashMap<>()).computeIfAbsent(currencyPair, p -> new OrderBookFeed(market, p));
+    }
+
+    public OrderBookFeed subscribe(Market market, CurrencyPair currencyPair, BookListener listener) {
+        OrderBookFeed feed = feedFor(market, currencyPair);
+        feed.subscribe(listener);
+        return feed;
+    }
+
+    public void unsubscribe(Market market, CurrencyPair currencyPair, BookListener listener) {
+        Map<CurrencyPair, OrderBookFeed> byPair = feeds.get(ForwardingMarket.unwrap(market));
+        if (byPair == null) {
+            return;
+        }
+        OrderBookFeed feed = byPair.get(currencyPair);
+        if (feed != null) {
+            feed.unsubscribe(listener);
+        }
+    }
+
+    /**
+     * Polls every feed that has at least one subscriber.
+     */
+    public void pollAll() {
+        for (Map<CurrencyPair, OrderBookFeed> byPair : feeds.values()) {
+            for (OrderBookFeed feed : byPair.values()) {
+                if (feed.hasSubscribers()) {
+                    try {
+                        feed.poll();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+}
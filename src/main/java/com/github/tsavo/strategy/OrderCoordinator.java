@@ -0,0 +1,490 @@
+package com.github.tsavo.strategy;
+
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Combines the orders of every strategy trading one account. Orders opened on a pair within the batching window are
+ * netted: opposing buys and sells cross each other at the mid price without going to the exchange, and whatever is
+ * left is sent as one trailing order. When that order completes, its fill is shared out pro rata, so each strategy
+ * sees its own amount at its own average price, as if it had traded alone.
+ * <p>
+ * The combined order trails by the amount-weighted trail of the orders in it and takes the tightest of their limits.
+ * A strategy's order only counts as unfilled if none of it traded.
+ * <p>
+ * Opening an order reserves what it could spend: the base amount of a sell, or the counter value of a buy at the
+ * best ask plus its trail, capped by its limit. An order that the balance, less what other orders have reserved,
+ * cannot cover fails to open. The reservation is released once the order completes.
+ * <p>
+ * A resumed stop is not netted: it goes out on its own once opened, resuming from its level.
+ * <p>
+ * Put the coordinator outside any ledger, tracker or {@link TrailingStopMarket}, so they see the combined orders.
+ */
+public class OrderCoordinator extends ForwardingMarket {
+    public long window = 200;
+
+    private final ScheduledExecutorService scheduler;
+    private final Map<CurrencyPair, List<Intent>> pending = new HashMap<>();
+    private final Map<Currency, BigDecimal> reserved = new HashMap<>();
+    private final FillPrices fillPrices = new FillPrices();
+    private final AtomicLong intents = new AtomicLong();
+    private final AtomicLong submitted = new AtomicLong();
+
+    /**
+     * @param scheduler runs the batches, and waits on combined orders that do not complete asynchronously
+     */
+    public OrderCoordinator(Market market, ScheduledExecutorService scheduler) {
+        super(market);
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public TrailingOrder createTrailStopMarketMakerLimitOrder(LimitOrder order, BigDecimal amountToTrailBy) {
+        return new Intent(order, amountToTrailBy, null);
+    }
+
+    @Override
+    public TrailingOrder resumeTrailStop(LimitOrder order, BigDecimal amountToTrailBy, BigDecimal level) {
+        return new Intent(order, amountToTrailBy, level);
+    }
+
+    /**
+     * The balance less what open orders have reserved.
+     */
+    public synchronized BigDecimal getAvailableBalance(Currency currency) {
+        return super.getBalance(currency).subtract(reserved.getOrDefault(currency, BigDecimal.ZERO));
+    }
+
+    /**
+     * How many orders strategies have opened through the coordinator.
+     */
+    public long getIntents() {
+        return intents.get();
+    }
+
+    /**
+     * How many orders the coordinator has sent on to the exchange.
+     */
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    private void reserve(Intent intent) throws IOException {
+        CurrencyPair currencyPair = intent.order.getCurrencyPair();
+        BigDecimal amount = intent.order.getTradableAmount();
+        if (intent.buy) {
+            List<LimitOrder> asks = super.getLowestAsks(currencyPair);
+            BigDecimal price = intent.order.getLimitPrice();
+            if (!asks.isEmpty()) {
+                price = price.min(asks.get(0).getLimitPrice().add(intent.trail));
+            }
+            intent.reservedCurrency = currencyPair.counter;
+            intent.reservedAmount = amount.multiply(price).setScale(8, BigDecimal.ROUND_CEILING);
+        } else {
+            intent.reservedCurrency = currencyPair.base;
+            intent.reservedAmount = amount;
+        }
+        BigDecimal balance = super.getBalance(intent.reservedCurrency);
+        synchronized (this) {
+            BigDecimal held = reserved.getOrDefault(intent.reservedCurrency, BigDecimal.ZERO);
+            if (balance.subtract(held).compareTo(intent.reservedAmount) < 0) {
+                throw new IOException("Only " + balance.subtract(held) + " " + intent.reservedCurrency + " is unreserved, "
+                        + intent.reservedAmount + " needed for " + intent.order);
+            }
+            reserved.put(intent.reservedCurrency, held.add(intent.reservedAmount));
+        }
+    }
+
+    private synchronized void release(Intent intent) {
+        if (intent.reservedCurrency != null) {
+            reserved.merge(intent.reservedCurrency, intent.reservedAmount.negate(), BigDecimal::add);
+            intent.reservedCurrency = null;
+        }
+    }
+
+    private void flush(CurrencyPair currencyPair) {
+        List<Intent> batch;
+        synchronized (this) {
+            batch = pending.remove(currencyPair);
+        }
+        if (batch == null || batch.isEmpty()) {
+            return;
+        }
+        List<Intent> buys = new ArrayList<>();
+        List<Intent> sells = new ArrayList<>();
+        for (Intent intent : batch) {
+            (intent.buy ? buys : sells).add(intent);
+        }
+        BigDecimal mid = null;
+        if (batch.size() > 1) {
+            try {
+                List<LimitOrder> asks = super.getLowestAsks(currencyPair);
+                List<LimitOrder> bids = super.getHighestBids(currencyPair);
+                fillPrices.observeAsks(currencyPair, asks);
+                fillPrices.observeBids(currencyPair, bids);
+                mid = asks.get(0).getLimitPrice().add(bids.get(0).getLimitPrice()).divide(new BigDecimal(2), 8, BigDecimal.ROUND_HALF_EVEN);
+            } catch (RuntimeException e) {
+                // Without a price nothing can cross, so each side goes out on its own.
+                e.printStackTrace();
+            }
+        }
+        if (mid == null || buys.isEmpty() || sells.isEmpty()) {
+            submit(currencyPair, buys);
+            submit(currencyPair, sells);
+            return;
+        }
+        BigDecimal buyTotal = total(buys);
+        BigDecimal sellTotal = total(sells);
+        int larger = buyTotal.compareTo(sellTotal);
+        if (larger == 0) {
+            crossAll(buys, mid);
+            crossAll(sells, mid);
+        } else if (larger > 0) {
+            crossAll(sells, mid);
+            crossShare(buys, buyTotal, sellTotal, mid);
+            submit(currencyPair, buys);
+        } else {
+            crossAll(buys, mid);
+            crossShare(sells, sellTotal, buyTotal, mid);
+            submit(currencyPair, sells);
+        }
+    }
+
+    private static BigDecimal total(List<Intent> intents) {
+        BigDecimal total = BigDecimal.ZERO;
+        for (Intent intent : intents) {
+            total = total.add(intent.order.getTradableAmount());
+        }
+        return total;
+    }
+
+    /**
+     * Fills every order on the smaller side entirely against the other side.
+     */
+    private static void crossAll(List<Intent> intents, BigDecimal mid) {
+        for (Intent intent : intents) {
+            intent.crossed = intent.order.getTradableAmount();
+            intent.crossedPrice = mid;
+            intent.finish(true, BigDecimal.ZERO);
+        }
+    }
+
+    /**
+     * Gives each order on the larger side its pro rata share of the crossed amount. Rounding leftovers go to the
+     * last order, so the shares add up exactly.
+     */
+    private static void crossShare(List<Intent> intents, BigDecimal total, BigDecimal crossed, BigDecimal mid) {
+        BigDecimal left = crossed;
+        for (Intent intent : intents) {
+            intent.crossed = intent.order.getTradableAmount().multiply(crossed).divide(total, 8, BigDecimal.ROUND_DOWN);
+            intent.crossedPrice = mid;
+            left = left.subtract(intent.crossed);
+        }
+        Intent last = intents.get(intents.size() - 1);
+        last.crossed = last.crossed.add(left);
+    }
+
+    private void submit(CurrencyPair currencyPair, List<Intent> participants) {
+        if (participants.isEmpty()) {
+            return;
+        }
+        Intent first = participants.get(0);
+        BigDecimal amount = BigDecimal.ZERO;
+        BigDecimal trailWeight = BigDecimal.ZERO;
+        BigDecimal limit = first.order.getLimitPrice();
+        for (Intent intent : participants) {
+            BigDecimal rest = intent.order.getTradableAmount().subtract(intent.crossed);
+            amount = amount.add(rest);
+            trailWeight = trailWeight.add(rest.multiply(intent.trail));
+            limit = first.buy ? limit.min(intent.order.getLimitPrice()) : limit.max(intent.order.getLimitPrice());
+        }
+        BigDecimal trail = participants.size() == 1 ? first.trail : trailWeight.divide(amount, 8, BigDecimal.ROUND_HALF_EVEN);
+        LimitOrder combined = new LimitOrder.Builder(first.order.getType(), currencyPair).tradableAmount(amount).limitPrice(limit).build();
+        Combined group = new Combined(participants);
+        for (Intent intent : participants) {
+            intent.group = group;
+        }
+        TrailingOrder order;
+        try {
+            order = first.level != null
+                    ? super.resumeTrailStop(combined, trail, first.level)
+                    : super.createTrailStopMarketMakerLimitOrder(combined, trail);
+            submitted.incrementAndGet();
+            order.openOrder();
+        } catch (Exception e) {
+            group.fail(e);
+            return;
+        }
+        group.order = order;
+        if (group.allCancelled()) {
+            group.cancel();
+        }
+        if (order instanceof AsyncTrailingOrder) {
+            ((AsyncTrailingOrder) order).completion().whenComplete((filled, error) -> {
+                if (error != null) {
+                    group.fail(error);
+                } else {
+                    group.done(filled);
+                }
+            });
+        } else {
+            scheduler.execute(() -> {
+                try {
+                    group.done(order.fillOrCancel());
+                } catch (Exception e) {
+                    group.fail(e);
+                }
+            });
+        }
+    }
+
+    /**
+     * The price a combined order filled at: the average the exchange reported, or else the side of the book it took
+     * from as it stands now, bounded by its limit.
+     */
+    private BigDecimal fillPriceOf(LimitOrder result) {
+        BigDecimal reported = result.getAveragePrice();
+        if (reported == null || reported.signum() <= 0) {
+            CurrencyPair currencyPair = result.getCurrencyPair();
+            try {
+                if (result.getType() == Order.OrderType.BID) {
+                    fillPrices.observeAsks(currencyPair, super.getLowestAsks(currencyPair));
+                } else {
+                    fillPrices.observeBids(currencyPair, super.getHighestBids(currencyPair));
+                }
+            } catch (RuntimeException e) {
+                // The last book seen will have to do.
+                e.printStackTrace();
+            }
+        }
+        return fillPrices.priceOf(result);
+    }
+
+    /**
+     * One combined order and the strategies' orders it carries.
+     */
+    private class Combined {
+        final List<Intent> participants;
+        volatile TrailingOrder order;
+
+        Combined(List<Intent> participants) {
+            this.participants = participants;
+        }
+
+        synchronized boolean allCancelled() {
+            for (Intent intent : participants) {
+                if (!intent.cancelled) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void cancel() {
+            TrailingOrder placed = order;
+            if (placed == null) {
+                return;
+            }
+            try {
+                placed.cancelOrder();
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+
+        void done(boolean filled) {
+            if (!filled) {
+                for (Intent intent : participants) {
+                    intent.finish(intent.crossed.signum() > 0, BigDecimal.ZERO);
+                }
+                return;
+            }
+            LimitOrder result = order.getOrder();
+            if (participants.size() == 1 && participants.get(0).crossed.signum() == 0) {
+                participants.get(0).finish(result);
+                return;
+            }
+            BigDecimal price = fillPriceOf(result);
+            for (Intent intent : participants) {
+                intent.finish(true, price);
+            }
+        }
+
+        void fail(Throwable error) {
+            for (Intent intent : participants) {
+                if (intent.crossed.signum() > 0) {
+                    intent.finish(true, BigDecimal.ZERO);
+                } else {
+                    intent.fail(error);
+                }
+            }
+        }
+    }
+
+    /**
+     * A strategy's order, held until its batch is netted.
+     */
+    private class Intent implements AsyncTrailingOrder {
+        final LimitOrder order;
+        final BigDecimal trail;
+        final BigDecimal level;
+        final boolean buy;
+        final CompletableFuture<Boolean> completion = new CompletableFuture<>();
+        volatile LimitOrder result;
+        volatile boolean cancelled;
+        volatile Combined group;
+        BigDecimal crossed = BigDecimal.ZERO;
+        BigDecimal crossedPrice = BigDecimal.ZERO;
+        Currency reservedCurrency;
+        BigDecimal reservedAmount;
+        private boolean opened;
+
+        Intent(LimitOrder order, BigDecimal trail, BigDecimal level) {
+            this.order = order;
+            this.trail = trail;
+            this.level = level;
+            this.buy = order.getType() == Order.OrderType.BID;
+        }
+
+        @Override
+        public void openOrder() throws IOException {
+            synchronized (this) {
+                if (opened) {
+                    return;
+                }
+                opened = true;
+            }
+            try {
+                reserve(this);
+            } catch (IOException | RuntimeException e) {
+                completion.complete(false);
+                throw e;
+            }
+            intents.incrementAndGet();
+            CurrencyPair currencyPair = order.getCurrencyPair();
+            if (level != null) {
+                scheduler.execute(() -> submit(currencyPair, Collections.singletonList(this)));
+                return;
+            }
+            synchronized (OrderCoordinator.this) {
+                List<Intent> batch = pending.computeIfAbsent(currencyPair, pair -> new ArrayList<>());
+                batch.add(this);
+                if (batch.size() == 1) {
+                    scheduler.schedule(() -> flush(currencyPair), window, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        @Override
+        public CompletableFuture<Boolean> completion() {
+            return completion;
+        }
+
+        /**
+         * The level the order that went out has trailed to, which every order combined in it shares, or the level
+         * being resumed until then.
+         */
+        @Override
+        public BigDecimal getTrailLevel() {
+            Combined combined = group;
+            TrailingOrder placed = combined == null ? null : combined.order;
+            if (placed instanceof AsyncTrailingOrder) {
+                BigDecimal trailed = ((AsyncTrailingOrder) placed).getTrailLevel();
+                if (trailed != null) {
+                    return trailed;
+                }
+            }
+            return level;
+        }
+
+        @Override
+        public boolean fillOrCancel() throws IOException {
+            if (!opened) {
+                return false;
+            }
+            try {
+                return completion.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for " + order, e);
+            } catch (ExecutionException e) {
+                throw new IOException("Combined order failed for " + order, e.getCause());
+            }
+        }
+
+        /**
+         * Withdraws the order if its batch has not gone out yet. Once it has, the combined order is only cancelled
+         * when every order in it has been.
+         */
+        @Override
+        public void cancelOrder() {
+            cancelled = true;
+            synchronized (OrderCoordinator.this) {
+                List<Intent> batch = pending.get(order.getCurrencyPair());
+                if (batch != null && batch.remove(this)) {
+                    finish(false, BigDecimal.ZERO);
+                    return;
+                }
+            }
+            Combined combined = group;
+            if (combined != null && combined.allCancelled()) {
+                combined.cancel();
+            }
+        }
+
+        /**
+         * Completes with the crossed share plus, when price is positive, the rest of the order filled at price.
+         */
+        void finish(boolean filled, BigDecimal price) {
+            if (!filled) {
+                complete(false);
+                return;
+            }
+            BigDecimal amount = crossed;
+            BigDecimal value = crossed.multiply(crossedPrice);
+            if (price.signum() > 0) {
+                BigDecimal rest = order.getTradableAmount().subtract(crossed);
+                amount = amount.add(rest);
+                value = value.add(rest.multiply(price));
+            }
+            finish(new LimitOrder.Builder(order.getType(), order.getCurrencyPair()).tradableAmount(amount)
+                    .limitPrice(value.divide(amount, 8, BigDecimal.ROUND_HALF_EVEN)).build());
+        }
+
+        void finish(LimitOrder filled) {
+            result = filled;
+            complete(true);
+        }
+
+        void complete(boolean filled) {
+            release(this);
+            completion.complete(filled);
+        }
+
+        void fail(Throwable error) {
+            release(this);
+            completion.completeExceptionally(error);
+        }
+
+        @Override
+        public LimitOrder getOrder() {
+            LimitOrder filled = result;
+            return filled == null ? order : filled;
+        }
+    }
+}
@@ -1,8 +1,9 @@
 package com.github.tsavo.strategy;
 
+import com.github.tsavo.strategy.journal.OrderState;
+import com.github.tsavo.strategy.journal.StrategyState;
+import com.github.tsavo.strategy.metrics.StrategyMetrics;
 import com.github.tsavo.traderplan.exchange.Exchange;
-import com.github.tsavo.traderplan.exchange.NoWalletEntryException;
-import com.github.tsavo.traderplan.exchange.Order;
 import com.tsavo.trade.database.Reporter;
 import com.tsavo.trade.database.model.Pivot;
 import org.knowm.xchange.currency.CurrencyPair;
@@ -15,64 +16,102 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.Date;
-import java.util.List;
 
 /**
  * Created by evilg on 7/18/2017.
  */
-public class PivotStrategy implements Strategy {
-    public final Exchange exchange;
+public class PivotStrategy extends AbstractStrategy implements PriceTriggered {
+    // Built from doubles, as they always have been: the exact binary values decide where the boundaries and limits fall.
+    private static final BigDecimal ESTABLISHING_THRESHOLD = new BigDecimal(0.9);
+    private static final BigDecimal ESTABLISHING_MARGIN = new BigDecimal(1.025);
+    private static final BigDecimal BUY_LIMIT = new BigDecimal(1.1);
+    private static final BigDecimal SELL_LIMIT = new BigDecimal(0.9);
+
+    public final Market exchange;
     public final CurrencyPair currencyPair;
     public boolean active;
     public BigDecimal maximum;
     public long timeBetweenBuys;
     public long timeBetweenSells;
-    public Order position;
+    public volatile TrailingOrder position;
     public Pivot pivot;
-    public boolean running = true;
     public Reporter reporter;
     public Date lastReport = null;
 
+    private volatile BigDecimal averageCost;
+    private BigDecimal allocationMarginSource;
+    private BigDecimal distributionMarginSource;
+    private long buyCooldownSource;
+    private long sellCooldownSource;
+    private BigDecimal buyLimit;
+    private BigDecimal sellLimit;
+    private long buyTrigger;
+    private long sellTrigger;
+    private long buyAllowedAt;
+    private long sellAllowedAt;
+    private boolean establishing;
+    private BigDecimal valuationTrigger;
+    /**
+     * The triggers as {@link #getBuyTrigger()} and friends hand them to the {@link TriggerIndex}, which may read
+     * them from a feed thread. Replaced whole whenever they move; null while they are invalidated.
+     */
+    private volatile Triggers published;
+
     public PivotStrategy(Exchange exchange, Pivot aPivot, Reporter reporter) {
+        this(new ExchangeMarket(exchange), aPivot, reporter);
+    }
+
+    public PivotStrategy(Market exchange, Pivot aPivot, Reporter reporter) {
+        this(exchange, aPivot.currencyPair.toCurrencyPair(), aPivot, reporter);
+    }
+
+    /**
+     * Trades the pivot on the given pair rather than the one stored with it.
+     */
+    public PivotStrategy(Market exchange, CurrencyPair currencyPair, Pivot aPivot, Reporter reporter) {
         this.exchange = exchange;
-        this.currencyPair = aPivot.currencyPair.toCurrencyPair();
+        this.currencyPair = currencyPair;
         this.reporter = reporter;
         this.pivot = aPivot;
     }
 
     @Override
     public void findOpportunities() throws ExchangeException, NotAvailableFromExchangeException, NotYetImplementedForExchangeException, IOException {
-        BigDecimal balance;
-        BigDecimal averagePrice = BigDecimal.ZERO;
-        balance = exchange.getBalance(currencyPair.base);
-
-        try {
-            averagePrice = exchange.getAverageCost(currencyPair);
-        } catch (NoWalletEntryException e) {
-            e.printStackTrace();
+        TickContext tick = startTick(exchange, currencyPair);
+        if (tick == null) {
+            return;
         }
+        BigDecimal balance = tick.getBalance();
 
-        List<LimitOrder> lowestAsks = exchange.getLowestAsks(currencyPair);
-        if (lowestAsks.size() == 0) {
+        if (tick.getLowestAsks().size() == 0) {
             return;
         }
+        refreshTriggers(tick);
+        BigDecimal averagePrice = averageCost;
+
+        long decisionStart = System.nanoTime();
+        boolean buy = isTimeToBuy(tick) && isRunning();
+        boolean sell = !buy && isTimeToSell(tick) && isRunning();
+        recordSince(StrategyMetrics.Phase.DECISION, decisionStart);
+        if (!buy && !sell) {
+            proximity = proximity(tick);
+        }
 
-        List<LimitOrder> orders = exchange.getHighestBids(currencyPair);
-
-        if (isTimeToBuy(balance, averagePrice) && running) {
-            report("Pivot strategy for " + currencyPair + " is now in ALLOCATION.");
-            BigDecimal targetPrice = exchange.getLowestAsks(currencyPair).get(0).getLimitPrice().multiply(new BigDecimal(1.1));
+        if (buy) {
+            notice("ALLOCATION", () -> "Pivot strategy for " + currencyPair + " is now in ALLOCATION.");
+            BigDecimal targetPrice = tick.getLowestAsk().getLimitPrice().multiply(BUY_LIMIT);
             BigDecimal tradeAmount;
             boolean updateBuyAction = false;
-            if(balance.compareTo( exchange.getAmountIn(pivot.establishingPosition, pivot.currencyPair.toCurrencyPair())) < 0){
-                tradeAmount = exchange.getAmountIn(pivot.establishingPosition, pivot.currencyPair.toCurrencyPair()).multiply(new BigDecimal(1.025)).setScale(8, BigDecimal.ROUND_HALF_EVEN);
+            BigDecimal establishingAmount = exchange.getAmountIn(pivot.establishingPosition, currencyPair);
+            if(balance.compareTo(establishingAmount) < 0){
+                tradeAmount = establishingAmount.multiply(ESTABLISHING_MARGIN).setScale(8, BigDecimal.ROUND_HALF_EVEN);
             }else {
                 if (exchange.getAmountIn(balance, currencyPair).compareTo(pivot.establishingPosition) < 0) {
-                    tradeAmount = exchange.getAmountIn(pivot.establishingPosition, currencyPair);
+                    tradeAmount = establishingAmount;
                 } else {
                     updateBuyAction = true;
                     if (pivot.buyMode.equals(Pivot.OrderMode.AMOUNT)) {
-                        tradeAmount = exchange.getAmountIn(pivot.allocationAmountSchedule.get(0), pivot.currencyPair.toCurrencyPair()).setScale(8, BigDecimal.ROUND_HALF_EVEN);
+                        tradeAmount = exchange.getAmountIn(pivot.allocationAmountSchedule.get(0), currencyPair).setScale(8, BigDecimal.ROUND_HALF_EVEN);
                     } else {
                         tradeAmount = balance.multiply(pivot.allocationMultiplierSchedule.get(0)).setScale(8, BigDecimal.ROUND_HALF_EVEN);
                     }
@@ -80,49 +119,22 @@ public class PivotStrategy implements Strategy {
             }
 
             LimitOrder order = new LimitOrder.Builder(org.knowm.xchange.dto.Order.OrderType.BID, currencyPair).tradableAmount(tradeAmount).limitPrice(targetPrice).build();
-            position = exchange.createTrailStopMarketMakerLimitOrder(order, order.getLimitPrice().divide(new BigDecimal(100), 8, BigDecimal.ROUND_HALF_EVEN).setScale(8, BigDecimal.ROUND_HALF_EVEN));
+            BigDecimal amountToTrailBy = order.getLimitPrice().divide(new BigDecimal(100), 8, BigDecimal.ROUND_HALF_EVEN).setScale(8, BigDecimal.ROUND_HALF_EVEN);
+            position = exchange.createTrailStopMarketMakerLimitOrder(order, amountToTrailBy);
             try {
-                position.openOrder();
+                open(position);
             } catch (Exception e) {
-                report("The pivot strategy for " + currencyPair + " couldn't open the order for " + tradeAmount + "! Error from the exchange: " + e.getMessage());
+                report(() -> "The pivot strategy for " + currencyPair + " couldn't open the order for " + tradeAmount + "! Error from the exchange: " + e.getMessage());
                 return;
             }
 
-            if (!position.fillOrCancel()) {
-                return;
-            }
-            try {
-                Thread.sleep(5000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-
-            order = position.order;
-            balance = exchange.getBalance(currencyPair.base);
-            BigDecimal counterAmount = exchange.getBalance(currencyPair.counter);
-            BigDecimal counterBalance = exchange.getBalance(currencyPair.counter).setScale(8, BigDecimal.ROUND_HALF_EVEN);
-
-            BigDecimal allocationSize = exchange.getPriceIn(balance, currencyPair);
-
-            BigDecimal allocationTotal = allocationSize.add(counterBalance);
-
-            BigDecimal balancePercent = allocationSize.divide(allocationTotal, 8, BigDecimal.ROUND_HALF_EVEN).multiply(new BigDecimal(100)).setScale(2, BigDecimal.ROUND_HALF_EVEN);
-            BigDecimal counterPercent = counterBalance.divide(allocationTotal, 8, BigDecimal.ROUND_HALF_EVEN).multiply(new BigDecimal(100)).setScale(2, BigDecimal.ROUND_HALF_EVEN);
-
-            if(updateBuyAction) {
-                exchange.performBuyAction(pivot);
-            }
-
-
-            report("Pivot strategy spent " + order.getLimitPrice().multiply(order.getTradableAmount()).setScale(8, BigDecimal.ROUND_HALF_EVEN) + currencyPair.counter + " adding " + order.getTradableAmount().setScale(8, RoundingMode.HALF_EVEN) + "@" + order.getLimitPrice().setScale(8, RoundingMode.HALF_EVEN) + " of " + currencyPair.base + " on " + exchange + ". We now have " + balance.setScale(8, RoundingMode.HALF_EVEN) + "@" + averagePrice.setScale(8, RoundingMode.HALF_EVEN) + " and " + counterAmount.setScale(8, BigDecimal.ROUND_HALF_EVEN) + currencyPair.counter + " remaining. Opportunity allocation is now: " + balancePercent + "%/" + counterPercent + "%.");
-            try {
-                Thread.sleep(30000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }else if (isTimeToSell(balance, averagePrice) && running) {
-            report("Pivot strategy for " + currencyPair + " is now in DISTRIBUTION.");
-            BigDecimal sellPrice = averagePrice.multiply(new BigDecimal(0.9));
+            OrderState state = track(position, amountToTrailBy);
+            state.context.put("averagePrice", averagePrice.toPlainString());
+            state.context.put("performBuyAction", String.valueOf(updateBuyAction));
+            awaitBuy(tick, position, averagePrice, updateBuyAction);
+        }else if (sell) {
+            notice("DISTRIBUTION", () -> "Pivot strategy for " + currencyPair + " is now in DISTRIBUTION.");
+            BigDecimal sellPrice = averagePrice.multiply(SELL_LIMIT);
 
             BigDecimal amountToSell;
             if (pivot.sellMode.equals(Pivot.OrderMode.AMOUNT)) {
@@ -136,89 +148,258 @@ public class PivotStrategy implements Strategy {
             position = exchange.createTrailStopMarketMakerLimitOrder(order, amountToTrailBy);
             //report("Starting a trailing stop for " + amountToSell + "@" + sellPrice + " trailing by " + amountToTrailBy + ". Best price right now is: " + exchange.getHighestBids(currencyPair).get(0).getLimitPrice());
             try {
-                position.openOrder();
+                open(position);
             } catch (Exception e) {
-                report("The pivot strategy for " + currencyPair + " couldn't open the order for " + amountToSell + "! Error from the exchange: " + e.getMessage());
-                return;
-            }
-            if (!position.fillOrCancel()) {
+                report(() -> "The pivot strategy for " + currencyPair + " couldn't open the order for " + amountToSell + "! Error from the exchange: " + e.getMessage());
                 return;
             }
-            try {
-                Thread.sleep(5000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            order = position.order;
+            track(position, amountToTrailBy).context.put("averagePrice", averagePrice.toPlainString());
+            awaitSell(tick, position, amountToSell, averagePrice);
+        }
+    }
 
-            BigDecimal newBalance = exchange.getBalance(currencyPair.base);
-            BigDecimal counterBalance = exchange.getBalance(currencyPair.counter).setScale(8, BigDecimal.ROUND_HALF_EVEN);
+    private void awaitBuy(TickContext tick, TrailingOrder filled, BigDecimal averagePrice, boolean performBuyAction) throws IOException {
+        afterFill(filled, () -> afterSettle(exchange, 5000, () -> bought(tick, filled.getOrder(), averagePrice, performBuyAction)));
+    }
 
-            BigDecimal allocationSize = exchange.getPriceIn(newBalance, currencyPair);
+    private void awaitSell(TickContext tick, TrailingOrder filled, BigDecimal amountToSell, BigDecimal averagePrice) throws IOException {
+        afterFill(filled, () -> afterSettle(exchange, 5000, () -> sold(tick, filled.getOrder(), amountToSell, averagePrice)));
+    }
 
-            BigDecimal allocationTotal = allocationSize.add(counterBalance);
+    @Override
+    public StrategyState captureState() {
+        StrategyState state = super.captureState();
+        state.lastReport = lastReport;
+        return state;
+    }
 
-            BigDecimal balancePercent = allocationSize.divide(allocationTotal, 8, BigDecimal.ROUND_HALF_EVEN).multiply(new BigDecimal(100)).setScale(2, BigDecimal.ROUND_HALF_EVEN);
-            BigDecimal counterPercent = counterBalance.divide(allocationTotal, 8, BigDecimal.ROUND_HALF_EVEN).multiply(new BigDecimal(100)).setScale(2, BigDecimal.ROUND_HALF_EVEN);
+    @Override
+    public void restoreState(StrategyState state) throws IOException {
+        lastReport = state.lastReport;
+        super.restoreState(state);
+    }
 
-            report("Pivot strategy sold " + amountToSell.setScale(8, RoundingMode.HALF_EVEN) + "@" + order.getLimitPrice() + " of " + currencyPair.base + " on " + exchange + ". We now have " + newBalance.setScale(8, RoundingMode.HALF_EVEN) + "@" + averagePrice + " and " + counterBalance + currencyPair.counter + ". Opportunity allocation is now: " + balancePercent + "%/" + counterPercent + "%.");
-            //report("Made " + order.getLimitPrice().subtract(averagePrice).multiply(amountToSell).setScale(8, BigDecimal.ROUND_HALF_EVEN) + " " + currencyPair.counter + " buying " + amountToSell + "@" + averagePrice + " and selling it at " + order.getLimitPrice().setScale(8, BigDecimal.ROUND_HALF_EVEN) + ". We now have " + newBalance + "@" + averagePrice + " and " + counterBalance + currencyPair.counter + ". Opportunity allocation is now: " + balancePercent + "%/" + counterPercent + "%.");
+    @Override
+    protected void resumeOrder(OrderState state) throws IOException {
+        position = reopen(exchange, state);
+        TickContext tick = new TickContext(exchange, currencyPair);
+        BigDecimal averagePrice = state.getDecimal("averagePrice");
+        if (state.isBuy()) {
+            awaitBuy(tick, position, averagePrice, Boolean.parseBoolean(state.context.get("performBuyAction")));
+        } else {
+            awaitSell(tick, position, state.amount, averagePrice);
+        }
+    }
 
-            exchange.performSellAction(pivot);
+    private void bought(TickContext tick, LimitOrder order, BigDecimal averagePrice, boolean updateBuyAction) throws IOException {
+        tick.refreshBalances();
+        invalidateTriggers();
+        BigDecimal balance = tick.getBalance();
+        BigDecimal counterAmount = tick.getCounterBalance();
+        BigDecimal counterBalance = counterAmount.setScale(8, BigDecimal.ROUND_HALF_EVEN);
 
+        BigDecimal allocationSize = tick.getAllocationSize();
 
-            try {
-                Thread.sleep(30000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        if(updateBuyAction) {
+            exchange.performBuyAction(pivot);
         }
 
 
+        report(() -> "Pivot strategy spent " + order.getLimitPrice().multiply(order.getTradableAmount()).setScale(8, BigDecimal.ROUND_HALF_EVEN) + currencyPair.counter + " adding " + order.getTradableAmount().setScale(8, RoundingMode.HALF_EVEN) + "@" + order.getLimitPrice().setScale(8, RoundingMode.HALF_EVEN) + " of " + currencyPair.base + " on " + exchange + ". We now have " + balance.setScale(8, RoundingMode.HALF_EVEN) + "@" + averagePrice.setScale(8, RoundingMode.HALF_EVEN) + " and " + counterAmount.setScale(8, BigDecimal.ROUND_HALF_EVEN) + currencyPair.counter + " remaining. Opportunity allocation is now: " + allocationSplit(allocationSize, counterBalance) + ".");
+        cooldown(30000);
     }
 
-    public boolean isTimeToBuy(BigDecimal balance, BigDecimal averagePrice) {
+    private void sold(TickContext tick, LimitOrder order, BigDecimal amountToSell, BigDecimal averagePrice) throws IOException {
+        tick.refreshBalances();
+        invalidateTriggers();
+        BigDecimal newBalance = tick.getBalance();
+        BigDecimal counterBalance = tick.getCounterBalance().setScale(8, BigDecimal.ROUND_HALF_EVEN);
+
+        BigDecimal allocationSize = tick.getAllocationSize();
+
+        report(() -> "Pivot strategy sold " + amountToSell.setScale(8, RoundingMode.HALF_EVEN) + "@" + order.getLimitPrice() + " of " + currencyPair.base + " on " + exchange + ". We now have " + newBalance.setScale(8, RoundingMode.HALF_EVEN) + "@" + averagePrice + " and " + counterBalance + currencyPair.counter + ". Opportunity allocation is now: " + allocationSplit(allocationSize, counterBalance) + ".");
+        //report("Made " + order.getLimitPrice().subtract(averagePrice).multiply(amountToSell).setScale(8, BigDecimal.ROUND_HALF_EVEN) + " " + currencyPair.counter + " buying " + amountToSell + "@" + averagePrice + " and selling it at " + order.getLimitPrice().setScale(8, BigDecimal.ROUND_HALF_EVEN) + ". We now have " + newBalance + "@" + averagePrice + " and " + counterBalance + currencyPair.counter + ". Opportunity allocation is now: " + balancePercent + "%/" + counterPercent + "%.");
+
+        exchange.performSellAction(pivot);
+        cooldown(30000);
+    }
+
+    /**
+     * The base/counter split of the allocation as percentages, e.g. "40.00%/60.00%".
+     */
+    private static String allocationSplit(BigDecimal allocationSize, BigDecimal counterBalance) {
+        BigDecimal allocationTotal = allocationSize.add(counterBalance);
+
+        BigDecimal balancePercent = allocationSize.divide(allocationTotal, 8, BigDecimal.ROUND_HALF_EVEN).multiply(new BigDecimal(100)).setScale(2, BigDecimal.ROUND_HALF_EVEN);
+        BigDecimal counterPercent = counterBalance.divide(allocationTotal, 8, BigDecimal.ROUND_HALF_EVEN).multiply(new BigDecimal(100)).setScale(2, BigDecimal.ROUND_HALF_EVEN);
+        return balancePercent + "%/" + counterPercent + "%";
+    }
+
+    public boolean isTimeToBuy(TickContext tick) {
         if (System.getenv("NOBUY") != null) {
             return false;
         }
-        Date lastBuy = exchange.getLastBuyDate(currencyPair);
-        if (lastBuy != null && lastBuy.toInstant().plusSeconds(timeBetweenBuys).isAfter(new Date().toInstant())) {
+        refreshTriggers(tick);
+        if (clock.millis() < buyAllowedAt) {
             return false;
         }
 
-        BigDecimal actualPrice = exchange.getPriceIn(balance, currencyPair);
-        if (actualPrice.compareTo(pivot.establishingPosition.multiply(new BigDecimal(0.9))) < 0) {
+        BigDecimal actualPrice = tick.getAllocationSize();
+        boolean wasEstablishing = establishing;
+        establishing = actualPrice.compareTo(pivot.establishingPosition.multiply(ESTABLISHING_THRESHOLD)) < 0;
+        if (establishing != wasEstablishing) {
+            publishTriggers();
+        }
+        if (establishing) {
             return true;
         }
-        LimitOrder order = exchange.getLowestAsks(currencyPair).get(0);
+        BigDecimal ask = tick.getLowestAsk().getLimitPrice();
+        if (!Fixed.isExact(ask)) {
+            return ask.compareTo(buyLimit) < 0;
+        }
+        return Fixed.of(ask) < buyTrigger;// && order.getTradableAmount().compareTo(amountToBuy) >= 0;
+    }
+
+    public boolean isTimeToSell(TickContext tick) {
+        refreshTriggers(tick);
+        if (clock.millis() < sellAllowedAt) {
+            return false;
+        }
 
-        return order.getLimitPrice().compareTo(averagePrice.multiply(BigDecimal.ONE.subtract(pivot.allocationMarginSchedule.get(0).divide(new BigDecimal(100), 8, BigDecimal.ROUND_HALF_EVEN)))) < 0;// && order.getTradableAmount().compareTo(amountToBuy) >= 0;
+        BigDecimal bid = tick.getHighestBid().getLimitPrice();
+        if (!Fixed.isExact(bid)) {
+            return bid.compareTo(sellLimit) > 0;
+        }
+        return Fixed.of(bid) > sellTrigger;
     }
 
-    public boolean isTimeToSell(BigDecimal balance, BigDecimal averagePrice) {
+    /**
+     * How far the top of book is from the triggers. While establishing we buy at any price, and the bid falling
+     * under the valuation trigger starts establishing.
+     */
+    private TriggerProximity proximity(TickContext tick) {
+        long ask = Fixed.of(tick.getLowestAsk().getLimitPrice());
+        long bid = Fixed.of(tick.getHighestBid().getLimitPrice());
+        double buyDistance = establishing ? 0 : TriggerProximity.below(ask, buyTrigger);
+        if (valuationTrigger != null) {
+            buyDistance = Math.min(buyDistance, TriggerProximity.below(bid, Fixed.of(valuationTrigger)));
+        }
+        return new TriggerProximity(currencyPair, ask, clock.millis(), buyDistance, buyAllowedAt, TriggerProximity.above(bid, sellTrigger), sellAllowedAt);
+    }
 
-        Date lastSell = exchange.getLastSellDate(currencyPair);
-        if (lastSell != null && lastSell.toInstant().plusSeconds(timeBetweenSells).isAfter(new Date().toInstant())) {
-            return false;
+    /**
+     * The ask below which we allocate: averageCost * (1 - allocationMargin / 100). Null while the triggers are
+     * invalidated, or while we are still establishing the position and buy at any price.
+     */
+    @Override
+    public BigDecimal getBuyTrigger() {
+        Triggers triggers = published;
+        return triggers == null ? null : triggers.buy;
+    }
+
+    /**
+     * The bid above which we distribute: averageCost * (1 + distributionMargin / 100). Null while the triggers are
+     * invalidated.
+     */
+    @Override
+    public BigDecimal getSellTrigger() {
+        Triggers triggers = published;
+        return triggers == null ? null : triggers.sell;
+    }
+
+    /**
+     * The bid below which what we hold is worth less than ESTABLISHING_THRESHOLD of the establishing position, so we
+     * would start establishing again without the ask crossing the buy trigger. Assumes getPriceIn values the balance
+     * at a price no lower than the bid.
+     */
+    @Override
+    public BigDecimal getValuationTrigger() {
+        Triggers triggers = published;
+        return triggers == null ? null : triggers.valuation;
+    }
+
+    /**
+     * Makes the next tick re-read the average cost and last trade dates and recompute the triggers. Called after
+     * our own fills; call it after changing the pivot in any way the strategy cannot see.
+     */
+    public void invalidateTriggers() {
+        averageCost = null;
+        publishTriggers();
+    }
+
+    private void publishTriggers() {
+        BigDecimal cost = averageCost;
+        published = cost == null ? null : new Triggers(establishing ? null : Fixed.toBigDecimal(buyTrigger), Fixed.toBigDecimal(sellTrigger), establishing ? null : valuationTrigger);
+        triggersChanged();
+    }
+
+    /**
+     * Brings the cached triggers up to date. They depend on the average cost, the heads of the margin schedules,
+     * the last buy/sell dates and the cooldowns, and only need recomputing when one of those changed.
+     */
+    private void refreshTriggers(TickContext tick) {
+        BigDecimal allocationMargin = pivot.allocationMarginSchedule.get(0);
+        BigDecimal distributionMargin = pivot.distributionMarginSchedule.get(0);
+        if (averageCost != null && allocationMargin == allocationMarginSource && distributionMargin == distributionMarginSource
+                && timeBetweenBuys == buyCooldownSource && timeBetweenSells == sellCooldownSource) {
+            return;
         }
+        averageCost = tick.getAverageCost();
+        buyLimit = averageCost.multiply(BigDecimal.ONE.subtract(allocationMargin.divide(new BigDecimal(100), 8, BigDecimal.ROUND_HALF_EVEN)));
+        sellLimit = averageCost.multiply(BigDecimal.ONE.add(distributionMargin.divide(new BigDecimal(100), 8, BigDecimal.ROUND_HALF_EVEN)));
+        // An ask of whole satoshis is below the limit exactly when it is below the limit rounded up to satoshis, and
+        // a bid is above it exactly when it is above it rounded down. The average cost may have any scale, so the
+        // limits are rounded only after the multiplication.
+        buyTrigger = Fixed.of(buyLimit.setScale(Fixed.DECIMALS, RoundingMode.CEILING));
+        sellTrigger = Fixed.of(sellLimit.setScale(Fixed.DECIMALS, RoundingMode.FLOOR));
+        // The balance only changes with our own fills, which invalidate the triggers.
+        BigDecimal balance = tick.getBalance();
+        valuationTrigger = pivot.establishingPosition.signum() > 0 && balance.signum() > 0
+                ? pivot.establishingPosition.multiply(ESTABLISHING_THRESHOLD).divide(balance, Fixed.DECIMALS, RoundingMode.CEILING)
+                : null;
+        allocationMarginSource = allocationMargin;
+        distributionMarginSource = distributionMargin;
+
+        Date lastBuy = exchange.getLastBuyDate(currencyPair);
+        Date lastSell = exchange.getLastSellDate(currencyPair);
+        buyAllowedAt = lastBuy == null ? 0 : lastBuy.getTime() + timeBetweenBuys * 1000;
+        sellAllowedAt = lastSell == null ? 0 : lastSell.getTime() + timeBetweenSells * 1000;
+        buyCooldownSource = timeBetweenBuys;
+        sellCooldownSource = timeBetweenSells;
+        publishTriggers();
+    }
 
-        LimitOrder order = exchange.getHighestBids(currencyPair).get(0);
-        return order.getLimitPrice().compareTo(averagePrice.multiply(BigDecimal.ONE.add(pivot.distributionMarginSchedule.get(0).divide(new BigDecimal(100), 8, BigDecimal.ROUND_HALF_EVEN)))) > 0;
+    @Override
+    protected long nextCooldownExpiry(long after) {
+        long next = Long.MAX_VALUE;
+        if (buyAllowedAt > after) {
+            next = buyAllowedAt;
+        }
+        if (sellAllowedAt > after) {
+            next = Math.min(next, sellAllowedAt);
+        }
+        return next;
     }
 
+    @Override
+    protected Reporter getReporter() {
+        return reporter;
+    }
 
-    public void report(String aString) {
-        reporter.report(  exchange + ": " + aString);
+    @Override
+    protected String getReportPrefix() {
+        return exchange + ": ";
     }
 
-    public void cancel() {
-        running = false;
-        if (position != null) {
-            try {
-                position.cancelOrder();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    private static class Triggers {
+        final BigDecimal buy;
+        final BigDecimal sell;
+        final BigDecimal valuation;
+
+        Triggers(BigDecimal buy, BigDecimal sell, BigDecimal valuation) {
+            this.buy = buy;
+            this.sell = sell;
+            this.valuation = valuation;
         }
     }
 }
@@ -0,0 +1,27 @@
+package com.github.tsavo.strategy;
+
+import java.math.BigDecimal;
+
+/**
+ * A strategy whose decisions only change when the top of book crosses a known price. A null trigger means the
+ * strategy cannot name one right now and has to see every book update.
+ */
+public interface PriceTriggered {
+    /**
+     * The ask below which the strategy wants to buy.
+     */
+    public BigDecimal getBuyTrigger();
+
+    /**
+     * The bid above which the strategy wants to sell.
+     */
+    public BigDecimal getSellTrigger();
+
+    /**
+     * The bid below which the strategy has to look again although neither trigger was crossed, e.g. because what it
+     * holds is then valued low enough to change its mind. Null for none.
+     */
+    public default BigDecimal getValuationTrigger() {
+        return null;
+    }
+}
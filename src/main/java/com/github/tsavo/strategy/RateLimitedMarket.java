@@ -0,0 +1,377 @@
+package com.github.tsavo.strategy;
+
+import com.github.tsavo.traderplan.exchange.NoWalletEntryException;
+import com.tsavo.trade.database.model.Pivot;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.trade.LimitOrder;
+import org.knowm.xchange.exceptions.ExchangeException;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Keeps every call to one exchange under its rate limit. Calls take a token from a bucket that refills at the
+ * current rate, and wait their turn by {@link Priority}, so a cancel is never stuck behind a queue of balance reads.
+ * Identical reads already in flight are shared rather than sent again.
+ * <p>
+ * When the exchange answers with a rate limit error, every call stops for a backoff that doubles while the errors
+ * continue, the rate is halved, and the call is retried. Successful calls win the rate back a little at a time. Orders
+ * and cancels are retried more often than reads, so under load reads slow down first.
+ * <p>
+ * Share one instance between all strategies on the exchange, wrapped directly around its {@link ExchangeMarket}. The
+ * polling done inside fillOrCancel() by the exchange's own orders is out of its reach.
+ */
+public class RateLimitedMarket extends ForwardingMarket {
+    /**
+     * Most urgent first.
+     */
+    public enum Priority {
+        CANCEL, ORDER, MARKET_DATA, BALANCE
+    }
+
+    public int readRetries = 3;
+    public int orderRetries = 8;
+    public long initialBackoff = 1000;
+    public long maxBackoff = 60000;
+    /**
+     * Recognizes the exchange's rate limit errors.
+     */
+    public Predicate<RuntimeException> isRateLimitError = RateLimitedMarket::looksRateLimited;
+
+    private final double maxRate;
+    private final double minRate;
+    private final double burst;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final PriorityQueue<Ticket> waiting = new PriorityQueue<>(Comparator.<Ticket>comparingInt(t -> t.priority.ordinal()).thenComparingLong(t -> t.sequence));
+    private final Map<List<Object>, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private double rate;
+    private double tokens;
+    private long refilledAt;
+    private long backoffUntil;
+    /**
+     * The next backoff in nanoseconds, or 0 to start again from {@link #initialBackoff}.
+     */
+    private long backoff;
+    private long sequence;
+
+    /**
+     * @param requestsPerSecond the exchange's limit
+     * @param burst             how many calls may go out at once after a quiet spell
+     */
+    public RateLimitedMarket(Market market, double requestsPerSecond, int burst) {
+        super(market);
+        this.maxRate = requestsPerSecond;
+        this.minRate = requestsPerSecond / 64;
+        this.burst = burst;
+        this.rate = requestsPerSecond;
+        this.tokens = burst;
+        this.refilledAt = nanoTime();
+        this.backoffUntil = refilledAt;
+    }
+
+    /**
+     * The time the bucket and the backoff are measured in, as System.nanoTime() gives it.
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    static boolean looksRateLimited(RuntimeException e) {
+        if (e.getClass().getSimpleName().contains("RateLimit")) {
+            return true;
+        }
+        String message = e.getMessage();
+        if (message == null || !(e instanceof ExchangeException)) {
+            return false;
+        }
+        message = message.toLowerCase();
+        return message.contains("rate limit") || message.contains("too many requests") || message.contains("429");
+    }
+
+    private interface Request<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    private static class Ticket {
+        final Priority priority;
+        final long sequence;
+
+        Ticket(Priority priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Waits until the call is first in line and a token is free, then takes the token.
+     */
+    private void acquire(Priority priority) {
+        lock.lock();
+        try {
+            Ticket ticket = new Ticket(priority, sequence++);
+            waiting.add(ticket);
+            try {
+                while (true) {
+                    long now = nanoTime();
+                    refill(now);
+                    if (waiting.peek() != ticket) {
+                        changed.await();
+                    } else if (now - backoffUntil < 0) {
+                        changed.awaitNanos(backoffUntil - now);
+                    } else if (tokens >= 1) {
+                        tokens -= 1;
+                        waiting.poll();
+                        changed.signalAll();
+                        return;
+                    } else {
+                        changed.awaitNanos((long) ((1 - tokens) / rate * 1e9) + 1);
+                    }
+                }
+            } catch (InterruptedException e) {
+                waiting.remove(ticket);
+                changed.signalAll();
+                Thread.currentThread().interrupt();
+                throw new ExchangeException("Interrupted waiting to call " + market, e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(burst, tokens + (now - refilledAt) / 1e9 * rate);
+        refilledAt = now;
+    }
+
+    private void succeeded() {
+        lock.lock();
+        try {
+            backoff = 0;
+            rate = Math.min(maxRate, rate + maxRate / 100);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void limited() {
+        rateLimited.incrementAndGet();
+        lock.lock();
+        try {
+            long now = nanoTime();
+            refill(now);
+            long current = backoff == 0 ? TimeUnit.MILLISECONDS.toNanos(initialBackoff) : backoff;
+            backoffUntil = now + current;
+            backoff = Math.min(current * 2, TimeUnit.MILLISECONDS.toNanos(maxBackoff));
+            rate = Math.max(minRate, rate / 2);
+            tokens = Math.min(tokens, 0);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private <T, E extends Exception> T call(Priority priority, Request<T, E> request) throws E {
+        int retries = priority.compareTo(Priority.ORDER) <= 0 ? orderRetries : readRetries;
+        for (int attempt = 0; ; attempt++) {
+            acquire(priority);
+            try {
+                T result = request.run();
+                succeeded();
+                return result;
+            } catch (RuntimeException e) {
+                if (!isRateLimitError.test(e)) {
+                    throw e;
+                }
+                limited();
+                if (attempt >= retries) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes the call, or waits for the identical one already in flight and shares its answer.
+     */
+    @SuppressWarnings("unchecked")
+    private <T, E extends Exception> T read(Priority priority, Class<E> thrown, Request<T, E> request, Object... key) throws E {
+        List<Object> id = Arrays.asList(key);
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(id, mine);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            try {
+                return (T) running.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ExchangeException("Interrupted waiting to call " + market, e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                if (thrown.isInstance(cause)) {
+                    throw thrown.cast(cause);
+                }
+                throw new ExchangeException(cause.getMessage(), cause);
+            }
+        }
+        try {
+            T result = call(priority, request);
+            mine.complete(result);
+            return result;
+        } catch (Exception | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(id, mine);
+        }
+    }
+
+    /**
+     * How many calls the exchange turned away for exceeding its limit.
+     */
+    public long getRateLimited() {
+        return rateLimited.get();
+    }
+
+    /**
+     * How many reads were answered by an identical read already in flight.
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * The number of calls waiting for a token.
+     */
+    public int getQueued() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The current rate in requests per second, at most the configured limit.
+     */
+    public double getRate() {
+        lock.lock();
+        try {
+            return rate;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BigDecimal getBalance(Currency currency) {
+        return read(Priority.BALANCE, RuntimeException.class, () -> super.getBalance(currency), "getBalance", currency);
+    }
+
+    @Override
+    public BigDecimal getAverageCost(CurrencyPair currencyPair) throws NoWalletEntryException {
+        return read(Priority.BALANCE, NoWalletEntryException.class, () -> super.getAverageCost(currencyPair), "getAverageCost", currencyPair);
+    }
+
+    @Override
+    public List<LimitOrder> getLowestAsks(CurrencyPair currencyPair) {
+        return read(Priority.MARKET_DATA, RuntimeException.class, () -> super.getLowestAsks(currencyPair), "getLowestAsks", currencyPair);
+    }
+
+    @Override
+    public List<LimitOrder> getHighestBids(CurrencyPair currencyPair) {
+        return read(Priority.MARKET_DATA, RuntimeException.class, () -> super.getHighestBids(currencyPair), "getHighestBids", currencyPair);
+    }
+
+    @Override
+    public BigDecimal getAmountIn(BigDecimal amount, CurrencyPair currencyPair) throws IOException {
+        return read(Priority.MARKET_DATA, IOException.class, () -> super.getAmountIn(amount, currencyPair), "getAmountIn", amount, currencyPair);
+    }
+
+    @Override
+    public BigDecimal getPriceIn(BigDecimal amount, CurrencyPair currencyPair) {
+        return read(Priority.MARKET_DATA, RuntimeException.class, () -> super.getPriceIn(amount, currencyPair), "getPriceIn", amount, currencyPair);
+    }
+
+    @Override
+    public BigDecimal getAveragePrice(CurrencyPair currencyPair) throws IOException {
+        return read(Priority.MARKET_DATA, IOException.class, () -> super.getAveragePrice(currencyPair), "getAveragePrice", currencyPair);
+    }
+
+    @Override
+    protected TrailingOrder wrap(TrailingOrder order) {
+        return ForwardingOrder.keepAsync(new LimitedOrder(order));
+    }
+
+    @Override
+    public void performBuyAction(Pivot pivot) throws IOException {
+        call(Priority.ORDER, () -> {
+            super.performBuyAction(pivot);
+            return null;
+        });
+    }
+
+    @Override
+    public void performSellAction(Pivot pivot) throws IOException {
+        call(Priority.ORDER, () -> {
+            super.performSellAction(pivot);
+            return null;
+        });
+    }
+
+    @Override
+    public Date getLastBuyDate(CurrencyPair currencyPair) {
+        return read(Priority.BALANCE, RuntimeException.class, () -> super.getLastBuyDate(currencyPair), "getLastBuyDate", currencyPair);
+    }
+
+    @Override
+    public Date getLastSellDate(CurrencyPair currencyPair) {
+        return read(Priority.BALANCE, RuntimeException.class, () -> super.getLastSellDate(currencyPair), "getLastSellDate", currencyPair);
+    }
+
+    private class LimitedOrder extends ForwardingOrder {
+        LimitedOrder(TrailingOrder order) {
+            super(order);
+        }
+
+        @Override
+        public void openOrder() throws IOException {
+            call(Priority.ORDER, () -> {
+                order.openOrder();
+                return null;
+            });
+        }
+
+        @Override
+        public void cancelOrder() throws IOException {
+            call(Priority.CANCEL, () -> {
+                order.cancelOrder();
+                return null;
+            });
+        }
+    }
+}
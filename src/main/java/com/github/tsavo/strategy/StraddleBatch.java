@@ -0,0 +1,272 @@
+package com.github.tsavo.strategy;
+
+import com.tsavo.trade.database.model.Straddle;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides buy, sell or hold for many straddles on one pair at once. Their margins are kept in satoshi units in
+ * parallel arrays, so a book update is one pass of long arithmetic over every straddle. The decisions are the
+ * same as {@link StraddleStrategy#isTimeToBuy} and {@link StraddleStrategy#isTimeToSell} would make for each of
+ * them, buying taking precedence over selling. Like the strategy, a straddle whose margins, or whose target at the
+ * current price, are finer than a satoshi is decided in BigDecimal instead. Balances set in BigDecimal are rounded to
+ * satoshis for the long arithmetic, so they should be whole satoshis for the decisions to match.
+ * <p>
+ * Straddles can belong to different accounts. Each is given an account index when it is added, and the caller keeps
+ * that account's balances up to date with {@link #setBalances}. Straddles that share a target curve should be added
+ * with the same {@link TargetPercentTable}, so the curve is evaluated once per price for all of them.
+ * <p>
+ * Not thread safe; evaluate each pair's batch from the thread that delivers its book.
+ */
+public class StraddleBatch {
+    public static final byte HOLD = 0;
+    public static final byte BUY = 1;
+    public static final byte SELL = 2;
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long NO_PERCENT = Long.MIN_VALUE;
+
+    private int size;
+    private long[] lowerMargins = new long[INITIAL_CAPACITY];
+    private long[] upperMargins = new long[INITIAL_CAPACITY];
+    private long[] pivotMargins = new long[INITIAL_CAPACITY];
+    private long[] maxAllocations = new long[INITIAL_CAPACITY];
+    private int[] curves = new int[INITIAL_CAPACITY];
+    private int[] accounts = new int[INITIAL_CAPACITY];
+    private long[] capTargets = new long[INITIAL_CAPACITY];
+    private long[] caps = new long[INITIAL_CAPACITY];
+    private byte[] decisions = new byte[INITIAL_CAPACITY];
+    /**
+     * The straddle of each index whose margins are not whole satoshis, and null for the rest.
+     */
+    private Straddle[] inexactStraddles = new Straddle[INITIAL_CAPACITY];
+
+    private final List<TargetPercentTable> curveTables = new ArrayList<>();
+    private final Map<TargetPercentTable, Integer> curveIndex = new IdentityHashMap<>();
+    private long[] curveTargets = new long[0];
+    private boolean[] curveExact = new boolean[0];
+    private BigDecimal[] curveExactTargets = new BigDecimal[0];
+
+    private int accountCount;
+    private long[] allocationSizes = new long[0];
+    private long[] counterBalances = new long[0];
+    private BigDecimal[] allocationSizeDecimals = new BigDecimal[0];
+    private BigDecimal[] counterBalanceDecimals = new BigDecimal[0];
+    private long[] uncappedPercents = new long[0];
+
+    /**
+     * Adds a straddle traded by the given account, whose target curve is tabulated by the given table.
+     *
+     * @return the straddle's index in the decisions
+     */
+    public int add(Straddle straddle, TargetPercentTable curve, int account) {
+        int i = add(Fixed.of(straddle.lowerMargin), Fixed.of(straddle.upperMargin), Fixed.of(straddle.pivotMargin),
+                Fixed.of(straddle.maxAllocation), curve, account);
+        if (!(Fixed.isExact(straddle.lowerMargin) && Fixed.isExact(straddle.upperMargin)
+                && Fixed.isExact(straddle.pivotMargin) && Fixed.isExact(straddle.maxAllocation))) {
+            inexactStraddles[i] = straddle;
+        }
+        return i;
+    }
+
+    /**
+     * Adds a straddle given in satoshi units.
+     *
+     * @return the straddle's index in the decisions
+     */
+    public int add(long lowerMargin, long upperMargin, long pivotMargin, long maxAllocation, TargetPercentTable curve, int account) {
+        if (account < 0) {
+            throw new IllegalArgumentException("Negative account " + account);
+        }
+        if (size == lowerMargins.length) {
+            grow(size * 2);
+        }
+        Integer index = curveIndex.get(curve);
+        if (index == null) {
+            index = curveTables.size();
+            curveTables.add(curve);
+            curveIndex.put(curve, index);
+            curveTargets = Arrays.copyOf(curveTargets, curveTables.size());
+            curveExact = Arrays.copyOf(curveExact, curveTables.size());
+            curveExactTargets = Arrays.copyOf(curveExactTargets, curveTables.size());
+        }
+        if (account >= accountCount) {
+            growAccounts(account + 1);
+        }
+        int i = size++;
+        lowerMargins[i] = lowerMargin;
+        upperMargins[i] = upperMargin;
+        pivotMargins[i] = pivotMargin;
+        maxAllocations[i] = maxAllocation;
+        curves[i] = index;
+        accounts[i] = account;
+        capTargets[i] = NO_PERCENT;
+        return i;
+    }
+
+    /**
+     * Sets an account's base balance priced in the counter currency and its counter balance.
+     */
+    public void setBalances(int account, BigDecimal allocationSize, BigDecimal counterBalance) {
+        setBalances(account, Fixed.of(allocationSize), Fixed.of(counterBalance));
+        allocationSizeDecimals[account] = allocationSize;
+        counterBalanceDecimals[account] = counterBalance;
+    }
+
+    /**
+     * Sets an account's balances in satoshi units.
+     */
+    public void setBalances(int account, long allocationSize, long counterBalance) {
+        if (account >= accountCount) {
+            growAccounts(account + 1);
+        }
+        allocationSizes[account] = allocationSize;
+        counterBalances[account] = counterBalance;
+        allocationSizeDecimals[account] = null;
+        counterBalanceDecimals[account] = null;
+    }
+
+    /**
+     * Decides every straddle at the given mid price.
+     *
+     * @return {@link #HOLD}, {@link #BUY} or {@link #SELL} for each straddle by index; only the first
+     * {@link #size()} entries are meaningful, and the array is reused by the next call
+     */
+    public byte[] evaluate(BigDecimal midPrice) {
+        return evaluate(Fixed.of(midPrice), midPrice);
+    }
+
+    public byte[] evaluate(long midPrice) {
+        return evaluate(midPrice, null);
+    }
+
+    /**
+     * @param exactPrice the price as given, or null when it was given in satoshi units
+     */
+    private byte[] evaluate(long midPrice, BigDecimal exactPrice) {
+        boolean priceExact = exactPrice == null || Fixed.isExact(exactPrice);
+        for (int c = 0; c < curveTargets.length; c++) {
+            TargetPercentTable table = curveTables.get(c);
+            if (exactPrice == null) {
+                curveTargets[c] = table.getTargetPercent(midPrice);
+                curveExact[c] = table.isExact(midPrice);
+            } else {
+                curveTargets[c] = table.getTargetPercent(exactPrice);
+                curveExact[c] = priceExact && table.isExact(exactPrice);
+            }
+            curveExactTargets[c] = null;
+        }
+        for (int a = 0; a < accountCount; a++) {
+            uncappedPercents[a] = percent(allocationSizes[a], counterBalances[a], StraddleMath.NO_CAP);
+        }
+        for (int i = 0; i < size; i++) {
+            if (inexactStraddles[i] != null || !curveExact[curves[i]]) {
+                decisions[i] = decideExactly(i, exactPrice == null ? Fixed.toBigDecimal(midPrice) : exactPrice);
+                continue;
+            }
+            long target = curveTargets[curves[i]];
+            int account = accounts[i];
+            long balancePercent;
+            if (maxAllocations[i] <= 0) {
+                balancePercent = uncappedPercents[account];
+            } else {
+                if (capTargets[i] != target) {
+                    caps[i] = StraddleMath.cap(target, maxAllocations[i]);
+                    capTargets[i] = target;
+                }
+                balancePercent = percent(allocationSizes[account], counterBalances[account], caps[i]);
+            }
+            byte decision = HOLD;
+            if (balancePercent != NO_PERCENT) {
+                if (StraddleMath.isTimeToBuy(balancePercent, target, lowerMargins[i], pivotMargins[i])) {
+                    decision = BUY;
+                } else if (StraddleMath.isTimeToSell(balancePercent, target, upperMargins[i], pivotMargins[i])) {
+                    decision = SELL;
+                }
+            }
+            decisions[i] = decision;
+        }
+        return decisions;
+    }
+
+    /**
+     * Decides a straddle in BigDecimal, as the strategy does when its margins, the price or its target are finer than
+     * a satoshi.
+     */
+    private byte decideExactly(int i, BigDecimal price) {
+        Straddle straddle = inexactStraddles[i];
+        BigDecimal lowerMargin = straddle == null ? Fixed.toBigDecimal(lowerMargins[i]) : straddle.lowerMargin;
+        BigDecimal upperMargin = straddle == null ? Fixed.toBigDecimal(upperMargins[i]) : straddle.upperMargin;
+        BigDecimal pivotMargin = straddle == null ? Fixed.toBigDecimal(pivotMargins[i]) : straddle.pivotMargin;
+        BigDecimal maxAllocation = straddle == null ? Fixed.toBigDecimal(maxAllocations[i]) : straddle.maxAllocation;
+        int curve = curves[i];
+        if (curveExactTargets[curve] == null) {
+            curveExactTargets[curve] = curveTables.get(curve).getExactTargetPercent(price);
+        }
+        BigDecimal target = curveExactTargets[curve];
+        int account = accounts[i];
+        BigDecimal allocationSize = allocationSizeDecimals[account] == null ? Fixed.toBigDecimal(allocationSizes[account]) : allocationSizeDecimals[account];
+        BigDecimal counterBalance = counterBalanceDecimals[account] == null ? Fixed.toBigDecimal(counterBalances[account])
+                : counterBalanceDecimals[account].setScale(8, BigDecimal.ROUND_HALF_EVEN);
+        BigDecimal cap = StraddleMath.cap(target, maxAllocation);
+        if (cap != null) {
+            counterBalance = counterBalance.min(cap);
+        }
+        if (allocationSize.add(counterBalance).signum() == 0) {
+            return HOLD;
+        }
+        BigDecimal balancePercent = StraddleMath.balancePercent(allocationSize, counterBalance);
+        if (StraddleMath.isTimeToBuy(balancePercent, target, lowerMargin, pivotMargin)) {
+            return BUY;
+        }
+        if (StraddleMath.isTimeToSell(balancePercent, target, upperMargin, pivotMargin)) {
+            return SELL;
+        }
+        return HOLD;
+    }
+
+    /**
+     * The balance percent, or NO_PERCENT for an empty account, where the strategy would fail on a division by zero.
+     */
+    private static long percent(long allocationSize, long counterBalance, long cap) {
+        if (allocationSize + Math.min(counterBalance, cap) == 0) {
+            return NO_PERCENT;
+        }
+        return StraddleMath.balancePercent(allocationSize, counterBalance, cap);
+    }
+
+    public byte getDecision(int index) {
+        return decisions[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void grow(int capacity) {
+        lowerMargins = Arrays.copyOf(lowerMargins, capacity);
+        upperMargins = Arrays.copyOf(upperMargins, capacity);
+        pivotMargins = Arrays.copyOf(pivotMargins, capacity);
+        maxAllocations = Arrays.copyOf(maxAllocations, capacity);
+        curves = Arrays.copyOf(curves, capacity);
+        accounts = Arrays.copyOf(accounts, capacity);
+        capTargets = Arrays.copyOf(capTargets, capacity);
+        caps = Arrays.copyOf(caps, capacity);
+        decisions = Arrays.copyOf(decisions, capacity);
+        inexactStraddles = Arrays.copyOf(inexactStraddles, capacity);
+    }
+
+    private void growAccounts(int count) {
+        allocationSizes = Arrays.copyOf(allocationSizes, count);
+        counterBalances = Arrays.copyOf(counterBalances, count);
+        uncappedPercents = Arrays.copyOf(uncappedPercents, count);
+        allocationSizeDecimals = Arrays.copyOf(allocationSizeDecimals, count);
+        counterBalanceDecimals = Arrays.copyOf(counterBalanceDecimals, count);
+        accountCount = count;
+    }
+}
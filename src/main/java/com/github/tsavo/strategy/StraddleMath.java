@@ -0,0 +1,115 @@
+package com.github.tsavo.strategy;
+
+import java.math.BigDecimal;
+
+/**
+ * The straddle buy/sell rules on satoshi-scaled longs (see {@link Fixed}). Shared by {@link StraddleStrategy} and
+ * anything else that has to reach exactly the same decisions. The BigDecimal overloads are the rules as first
+ * written, for configurations with more than 8 decimals that the longs cannot hold exactly.
+ */
+public final class StraddleMath {
+    /**
+     * Stands in for an unlimited allocation cap.
+     */
+    public static final long NO_CAP = Long.MAX_VALUE;
+
+    private static final BigDecimal HUNDRED = new BigDecimal(100);
+
+    private StraddleMath() {
+    }
+
+    /**
+     * The most counter currency the straddle may count towards its allocation: (100 - target)% of maxAllocation,
+     * or {@link #NO_CAP} when maxAllocation is not positive.
+     */
+    public static long cap(long targetPercent, long maxAllocation) {
+        if (maxAllocation <= 0) {
+            return NO_CAP;
+        }
+        long counterShare = Fixed.divide(Fixed.HUNDRED - targetPercent, 100);
+        return Fixed.multiply(counterShare, maxAllocation);
+    }
+
+    /**
+     * The share of the allocation held in the base currency, in percent rounded to 2 decimals.
+     *
+     * @param allocationSize the base balance priced in the counter currency
+     * @param counterBalance the counter balance
+     * @param cap            the result of {@link #cap(long, long)}
+     */
+    public static long balancePercent(long allocationSize, long counterBalance, long cap) {
+        long allocationTotal = allocationSize + Math.min(counterBalance, cap);
+        long ratio = Fixed.multiplyDivide(allocationSize, Fixed.ONE, allocationTotal);
+        return Fixed.round(ratio * 100, 2);
+    }
+
+    /**
+     * {@link #balancePercent(long, long, long)} for an allocation size that may have more than 8 decimals, as
+     * Market.getPriceIn returns it. The size is bracketed by its satoshi neighbours; since the percent only moves one
+     * way with the size, both ends agreeing settles it, and only a size right at a rounding boundary is worked out
+     * in BigDecimal.
+     */
+    public static long balancePercent(BigDecimal allocationSize, long counterBalance, long cap) {
+        long size = Fixed.of(allocationSize);
+        if (Fixed.isExact(allocationSize)) {
+            return balancePercent(size, counterBalance, cap);
+        }
+        if (size > 1) {
+            long low = balancePercent(size - 1, counterBalance, cap);
+            long high = balancePercent(size + 1, counterBalance, cap);
+            if (low == high) {
+                return low;
+            }
+        }
+        BigDecimal counter = Fixed.toBigDecimal(Math.min(counterBalance, cap));
+        return Fixed.of(balancePercent(allocationSize, counter));
+    }
+
+    /**
+     * (100 - target)% of maxAllocation, or null when maxAllocation is not positive.
+     */
+    public static BigDecimal cap(BigDecimal targetPercent, BigDecimal maxAllocation) {
+        if (maxAllocation.compareTo(BigDecimal.ZERO) <= 0) {
+            return null;
+        }
+        return HUNDRED.subtract(targetPercent).divide(HUNDRED, 8, BigDecimal.ROUND_HALF_EVEN).multiply(maxAllocation).setScale(8, BigDecimal.ROUND_HALF_EVEN);
+    }
+
+    /**
+     * The share of the allocation held in the base currency, in percent rounded to 2 decimals.
+     *
+     * @param counterBalance the counter balance, already limited to the cap
+     */
+    public static BigDecimal balancePercent(BigDecimal allocationSize, BigDecimal counterBalance) {
+        BigDecimal allocationTotal = allocationSize.add(counterBalance);
+        return allocationSize.divide(allocationTotal, 8, BigDecimal.ROUND_HALF_EVEN).multiply(HUNDRED).setScale(2, BigDecimal.ROUND_HALF_EVEN);
+    }
+
+    public static boolean isTimeToBuy(BigDecimal balancePercent, BigDecimal targetPercent, BigDecimal lowerMargin, BigDecimal pivotMargin) {
+        if (balancePercent.compareTo(lowerMargin) >= 0) {
+            return false;
+        }
+        return balancePercent.add(pivotMargin).compareTo(targetPercent) < 0;
+    }
+
+    public static boolean isTimeToSell(BigDecimal balancePercent, BigDecimal targetPercent, BigDecimal upperMargin, BigDecimal pivotMargin) {
+        if (balancePercent.compareTo(upperMargin) <= 0) {
+            return false;
+        }
+        return balancePercent.subtract(pivotMargin).compareTo(targetPercent) > 0;
+    }
+
+    public static boolean isTimeToBuy(long balancePercent, long targetPercent, long lowerMargin, long pivotMargin) {
+        if (balancePercent >= lowerMargin) {
+            return false;
+        }
+        return balancePercent + pivotMargin < targetPercent;
+    }
+
+    public static boolean isTimeToSell(long balancePercent, long targetPercent, long upperMargin, long pivotMargin) {
+        if (balancePercent <= upperMargin) {
+            return false;
+        }
+        return balancePercent - pivotMargin > targetPercent;
+    }
+}
@@ -1,7 +1,8 @@
 package com.github.tsavo.strategy;
 
+import com.github.tsavo.strategy.journal.OrderState;
+import com.github.tsavo.strategy.metrics.StrategyMetrics;
 import com.github.tsavo.traderplan.exchange.Exchange;
-import com.github.tsavo.traderplan.exchange.Order;
 import com.tsavo.trade.database.Reporter;
 import com.tsavo.trade.database.model.Straddle;
 import org.knowm.xchange.currency.CurrencyPair;
@@ -13,173 +14,261 @@ import org.knowm.xchange.exceptions.NotYetImplementedForExchangeException;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.List;
 import java.util.Objects;
 
 /**
  * Created by evilg on 9/29/2017.
  */
-public class StraddleStrategy implements Strategy {
-    public Exchange exchange;
+public class StraddleStrategy extends AbstractStrategy {
+    // Built from doubles, as they always have been, so the limit prices do not move.
+    private static final BigDecimal BUY_LIMIT = new BigDecimal(1.1);
+    private static final BigDecimal SELL_LIMIT = new BigDecimal(.9);
+
+    public Market exchange;
     public Straddle straddle;
     public Reporter reporter;
     public CurrencyPair currencyPair;
-    public Order order;
-    public boolean running = true;
+    public volatile TrailingOrder order;
+    public TargetPercentTable targetPercents = new TargetPercentTable(price -> straddle.getTargetPercent(price).get());
+
+    private BigDecimal lowerMarginSource;
+    private BigDecimal upperMarginSource;
+    private BigDecimal pivotMarginSource;
+    private BigDecimal maxAllocationSource;
+    private long lowerMargin;
+    private long upperMargin;
+    private long pivotMargin;
+    private long maxAllocation;
+    private boolean exactParameters;
 
     public StraddleStrategy(Exchange exchange, Straddle straddle, Reporter discordChannelReportingStrategy) {
+        this(new ExchangeMarket(exchange), straddle, discordChannelReportingStrategy);
+    }
+
+    public StraddleStrategy(Market exchange, Straddle straddle, Reporter discordChannelReportingStrategy) {
+        this(exchange, straddle.currencyPair.toCurrencyPair(), straddle, discordChannelReportingStrategy);
+    }
+
+    /**
+     * Trades the straddle on the given pair rather than the one stored with it.
+     */
+    public StraddleStrategy(Market exchange, CurrencyPair currencyPair, Straddle straddle, Reporter discordChannelReportingStrategy) {
         this.exchange = exchange;
         this.straddle = straddle;
         this.reporter = discordChannelReportingStrategy;
-        this.currencyPair = straddle.currencyPair.toCurrencyPair();
+        this.currencyPair = currencyPair;
     }
 
     @Override
     public void findOpportunities() throws ExchangeException, NotAvailableFromExchangeException, NotYetImplementedForExchangeException, IOException {
 
-        BigDecimal balance;
-        balance = exchange.getBalance(currencyPair.base);
-        List<LimitOrder> lowestAsks = exchange.getLowestAsks(currencyPair);
-        if (lowestAsks.size() == 0) {
+        TickContext tick = startTick(exchange, currencyPair);
+        if (tick == null) {
+            return;
+        }
+        if (tick.getLowestAsks().size() == 0) {
             return;
         }
-        LimitOrder lowestAsk = lowestAsks.get(0);
-        List<LimitOrder> orders = exchange.getHighestBids(currencyPair);
-        LimitOrder highestBid = orders.get(0);
-        BigDecimal averagePrice = lowestAsk.getLimitPrice().add(highestBid.getLimitPrice()).divide(new BigDecimal(2), 8, BigDecimal.ROUND_HALF_EVEN);
-        if (running && isTimeToBuy(balance, averagePrice)) {
-            report("Straddle strategy for " + currencyPair + " is now in ALLOCATION.");
+        BigDecimal averagePrice = tick.getMidPrice();
+        long decisionStart = System.nanoTime();
+        boolean buy = isRunning() && isTimeToBuy(tick, averagePrice);
+        boolean sell = !buy && isRunning() && isTimeToSell(tick, averagePrice);
+        recordSince(StrategyMetrics.Phase.DECISION, decisionStart);
+        if (!buy && !sell) {
+            proximity = proximity(tick, averagePrice);
+        }
+        if (buy) {
+            notice("ALLOCATION", () -> "Straddle strategy for " + currencyPair + " is now in ALLOCATION.");
 
-            BigDecimal targetPrice = averagePrice.multiply(new BigDecimal(1.1)).setScale(8, BigDecimal.ROUND_HALF_EVEN);
+            BigDecimal targetPrice = averagePrice.multiply(BUY_LIMIT).setScale(8, BigDecimal.ROUND_HALF_EVEN);
 
             BigDecimal tradeAmount = exchange.getAmountIn(straddle.amountToTrade, currencyPair);
             LimitOrder limitOrder = new LimitOrder.Builder(org.knowm.xchange.dto.Order.OrderType.BID, currencyPair).tradableAmount(tradeAmount).limitPrice(targetPrice).build();
-            order = exchange.createTrailStopMarketMakerLimitOrder(limitOrder, limitOrder.getLimitPrice().divide(new BigDecimal(100), 8, BigDecimal.ROUND_HALF_EVEN).setScale(8, BigDecimal.ROUND_HALF_EVEN));
+            BigDecimal amountToTrailBy = limitOrder.getLimitPrice().divide(new BigDecimal(100), 8, BigDecimal.ROUND_HALF_EVEN).setScale(8, BigDecimal.ROUND_HALF_EVEN);
+            order = exchange.createTrailStopMarketMakerLimitOrder(limitOrder, amountToTrailBy);
             try {
-                order.openOrder();
+                open(order);
             } catch (Exception e) {
                 e.printStackTrace();
-                report("The straddle strategy for " + currencyPair + " couldn't open the order for " + tradeAmount + "! Error from the exchange: " + e.getMessage());
-
-                return;
-            }
+                report(() -> "The straddle strategy for " + currencyPair + " couldn't open the order for " + tradeAmount + "! Error from the exchange: " + e.getMessage());
 
-            if (!order.fillOrCancel()) {
-                if (!running) {
-                    report("Straddle strategy for " + currencyPair + " stopped.");
-                    return;
-                }
                 return;
             }
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            balance = exchange.getBalance(currencyPair.base);
-            BigDecimal counterAmount = exchange.getBalance(currencyPair.counter);
-
-            report("Straddle strategy spent " + order.order.getLimitPrice().multiply(order.order.getTradableAmount()).setScale(8, BigDecimal.ROUND_HALF_EVEN) + currencyPair.counter + " adding " + order.order.getTradableAmount().setScale(8, RoundingMode.HALF_EVEN) + "@" + order.order.getLimitPrice().setScale(8, RoundingMode.HALF_EVEN) + " of " + currencyPair.base + " on " + exchange + ". We now have " + balance.setScale(8, RoundingMode.HALF_EVEN) + " " + currencyPair.base + " and " + counterAmount.setScale(8, BigDecimal.ROUND_HALF_EVEN) + currencyPair.counter + " remaining.");
 
+            track(order, amountToTrailBy);
+            awaitBuy(tick, order);
+            return;
         }
-        if (running && isTimeToSell(balance, averagePrice)) {
-            report("Straddle strategy for " + currencyPair + " is now in DISTRIBUTION.");
+        if (sell) {
+            notice("DISTRIBUTION", () -> "Straddle strategy for " + currencyPair + " is now in DISTRIBUTION.");
 
-            BigDecimal sellPrice = averagePrice.multiply(new BigDecimal(.9)).setScale(8, BigDecimal.ROUND_HALF_EVEN);
+            BigDecimal sellPrice = averagePrice.multiply(SELL_LIMIT).setScale(8, BigDecimal.ROUND_HALF_EVEN);
             BigDecimal tradeAmount = exchange.getAmountIn(straddle.amountToTrade, currencyPair);
             LimitOrder myOrder = new LimitOrder.Builder(org.knowm.xchange.dto.Order.OrderType.ASK, currencyPair).tradableAmount(tradeAmount).limitPrice(sellPrice).build();
             BigDecimal amountToTrailBy = myOrder.getLimitPrice().divide(new BigDecimal(100), 8, BigDecimal.ROUND_HALF_EVEN).setScale(8, BigDecimal.ROUND_HALF_EVEN);
             order = exchange.createTrailStopMarketMakerLimitOrder(myOrder, amountToTrailBy);
             try {
-                order.openOrder();
+                open(order);
             } catch (Exception e) {
                 e.printStackTrace();
-                report("The straddle strategy for " + currencyPair + " couldn't open the order for " + tradeAmount + "! Error from the exchange: " + e.getMessage());
+                report(() -> "The straddle strategy for " + currencyPair + " couldn't open the order for " + tradeAmount + "! Error from the exchange: " + e.getMessage());
                 return;
             }
-            if (!order.fillOrCancel()) {
-                if (!running) {
-                    report("Straddle strategy for " + currencyPair + " stopped.");
-                    return;
-                }
-                return;
-            }
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            BigDecimal newBalance = exchange.getBalance(currencyPair.base);
-            BigDecimal counterBalance = exchange.getBalance(currencyPair.counter).setScale(8, BigDecimal.ROUND_HALF_EVEN);
+            track(order, amountToTrailBy);
+            awaitSell(tick, order, tradeAmount);
+        }
 
-            report("Straddle strategy sold " + tradeAmount.setScale(8, RoundingMode.HALF_EVEN) + "@" + order.order.getLimitPrice() + " of " + currencyPair.base + " on " + exchange + ". We now have " + newBalance.setScale(8, RoundingMode.HALF_EVEN) + " " + currencyPair.base + " remaining and " + counterBalance + " " + currencyPair.counter + ".");
+    }
 
-        }
+    private void awaitBuy(TickContext tick, TrailingOrder filled) throws IOException {
+        afterFill(filled, () -> afterSettle(exchange, 1000, () -> bought(tick, filled.getOrder())), this::unfilled);
+    }
 
+    private void awaitSell(TickContext tick, TrailingOrder filled, BigDecimal tradeAmount) throws IOException {
+        afterFill(filled, () -> afterSettle(exchange, 1000, () -> sold(tick, filled.getOrder(), tradeAmount)), this::unfilled);
     }
 
-    public boolean isTimeToBuy(BigDecimal balance, BigDecimal averagePrice) {
-        BigDecimal target = straddle.getTargetPercent(averagePrice).get();
+    @Override
+    protected void resumeOrder(OrderState state) throws IOException {
+        order = reopen(exchange, state);
+        TickContext tick = new TickContext(exchange, currencyPair);
+        if (state.isBuy()) {
+            awaitBuy(tick, order);
+        } else {
+            awaitSell(tick, order, state.amount);
+        }
+    }
 
-        BigDecimal cap = BigDecimal.valueOf(Double.MAX_VALUE);
-        if (straddle.maxAllocation.compareTo(BigDecimal.ZERO) > 0) {
-            cap = new BigDecimal(100).subtract(target).divide(new BigDecimal(100), 8, BigDecimal.ROUND_HALF_EVEN).multiply(straddle.maxAllocation).setScale(8, BigDecimal.ROUND_HALF_EVEN);
+    private void unfilled() {
+        if (!isRunning()) {
+            notice("stopped", () -> "Straddle strategy for " + currencyPair + " stopped.");
         }
+    }
 
-        BigDecimal counterBalance = exchange.getBalance(currencyPair.counter).setScale(8, BigDecimal.ROUND_HALF_EVEN).min(cap);
+    private void bought(TickContext tick, LimitOrder order) {
+        tick.refreshBalances();
+        BigDecimal balance = tick.getBalance();
+        BigDecimal counterAmount = tick.getCounterBalance();
 
-        BigDecimal allocationSize = exchange.getPriceIn(balance, currencyPair);
+        report(() -> "Straddle strategy spent " + order.getLimitPrice().multiply(order.getTradableAmount()).setScale(8, BigDecimal.ROUND_HALF_EVEN) + currencyPair.counter + " adding " + order.getTradableAmount().setScale(8, RoundingMode.HALF_EVEN) + "@" + order.getLimitPrice().setScale(8, RoundingMode.HALF_EVEN) + " of " + currencyPair.base + " on " + exchange + ". We now have " + balance.setScale(8, RoundingMode.HALF_EVEN) + " " + currencyPair.base + " and " + counterAmount.setScale(8, BigDecimal.ROUND_HALF_EVEN) + currencyPair.counter + " remaining.");
+    }
 
-        BigDecimal allocationTotal = allocationSize.add(counterBalance);
+    private void sold(TickContext tick, LimitOrder order, BigDecimal tradeAmount) {
+        tick.refreshBalances();
+        BigDecimal newBalance = tick.getBalance();
+        BigDecimal counterBalance = tick.getCounterBalance().setScale(8, BigDecimal.ROUND_HALF_EVEN);
 
-        BigDecimal balancePercent = allocationSize.divide(allocationTotal, 8, BigDecimal.ROUND_HALF_EVEN).multiply(new BigDecimal(100)).setScale(2, BigDecimal.ROUND_HALF_EVEN);
-        if (balancePercent.compareTo(straddle.lowerMargin) >= 0) {
-            return false;
+        report(() -> "Straddle strategy sold " + tradeAmount.setScale(8, RoundingMode.HALF_EVEN) + "@" + order.getLimitPrice() + " of " + currencyPair.base + " on " + exchange + ". We now have " + newBalance.setScale(8, RoundingMode.HALF_EVEN) + " " + currencyPair.base + " remaining and " + counterBalance + " " + currencyPair.counter + ".");
+    }
+
+    public boolean isTimeToBuy(TickContext tick, BigDecimal averagePrice) {
+        refreshParameters();
+        if (!isExact(averagePrice)) {
+            BigDecimal target = targetPercents.getExactTargetPercent(averagePrice);
+            return StraddleMath.isTimeToBuy(balancePercent(tick, target), target, straddle.lowerMargin, straddle.pivotMargin);
         }
-        if (balancePercent.add(straddle.pivotMargin).compareTo(target) < 0) {
-            return true;
+        long target = targetPercents.getTargetPercent(averagePrice);
+        return StraddleMath.isTimeToBuy(balancePercent(tick, target), target, lowerMargin, pivotMargin);
+    }
+
+    public boolean isTimeToSell(TickContext tick, BigDecimal averagePrice) {
+        refreshParameters();
+        if (!isExact(averagePrice)) {
+            BigDecimal target = targetPercents.getExactTargetPercent(averagePrice);
+            return StraddleMath.isTimeToSell(balancePercent(tick, target), target, straddle.upperMargin, straddle.pivotMargin);
         }
-        return false;
+        long target = targetPercents.getTargetPercent(averagePrice);
+        return StraddleMath.isTimeToSell(balancePercent(tick, target), target, upperMargin, pivotMargin);
     }
 
-    public boolean isTimeToSell(BigDecimal balance, BigDecimal averagePrice) {
-        BigDecimal target = straddle.getTargetPercent(averagePrice).get();
+    /**
+     * How far the price has to move for the balance percent to cross a margin, holding the balances and the target
+     * percent where they are now.
+     */
+    private TriggerProximity proximity(TickContext tick, BigDecimal averagePrice) {
+        long target = targetPercents.getTargetPercent(averagePrice);
+        long balance = Fixed.of(tick.getBalance());
+        long counter = Math.min(Fixed.of(tick.getCounterBalance()), StraddleMath.cap(target, maxAllocation));
+        long price = Fixed.of(averagePrice);
+        double buyBelow = crossingPrice(balance, counter, Math.min(lowerMargin, target - pivotMargin));
+        double sellAbove = crossingPrice(balance, counter, Math.max(upperMargin, target + pivotMargin));
+        return new TriggerProximity(currencyPair, price, clock.millis(), TriggerProximity.below(price, buyBelow), 0, TriggerProximity.above(price, sellAbove), 0);
+    }
 
-        BigDecimal cap = BigDecimal.valueOf(Double.MAX_VALUE);
-        if (straddle.maxAllocation.compareTo(BigDecimal.ZERO) > 0) {
-            cap = new BigDecimal(100).subtract(target).divide(new BigDecimal(100), 8, BigDecimal.ROUND_HALF_EVEN).multiply(straddle.maxAllocation).setScale(8, BigDecimal.ROUND_HALF_EVEN);
+    /**
+     * The price, in satoshi units, at which the balance percent balance * price / (balance * price + counter) equals
+     * percent: percent * counter / ((100 - percent) * balance). NaN without a balance, whose percent no price moves.
+     */
+    static double crossingPrice(long balance, long counter, long percent) {
+        if (balance == 0) {
+            return Double.NaN;
+        }
+        if (percent >= Fixed.HUNDRED) {
+            return Double.POSITIVE_INFINITY;
         }
-        BigDecimal counterBalance = exchange.getBalance(currencyPair.counter).setScale(8, BigDecimal.ROUND_HALF_EVEN).min(cap);
+        return (double) percent * counter / ((double) (Fixed.HUNDRED - percent) * balance) * Fixed.ONE;
+    }
 
-        BigDecimal allocationSize = exchange.getPriceIn(balance, currencyPair);
+    private long balancePercent(TickContext tick, long target) {
+        long cap = StraddleMath.cap(target, maxAllocation);
+        return StraddleMath.balancePercent(tick.getAllocationSize(), Fixed.of(tick.getCounterBalance()), cap);
+    }
 
-        BigDecimal allocationTotal = allocationSize.add(counterBalance);
+    private BigDecimal balancePercent(TickContext tick, BigDecimal target) {
+        BigDecimal counterBalance = tick.getCounterBalance().setScale(8, BigDecimal.ROUND_HALF_EVEN);
+        BigDecimal cap = StraddleMath.cap(target, straddle.maxAllocation);
+        return StraddleMath.balancePercent(tick.getAllocationSize(), cap == null ? counterBalance : counterBalance.min(cap));
+    }
 
-        BigDecimal balancePercent = allocationSize.divide(allocationTotal, 8, BigDecimal.ROUND_HALF_EVEN).multiply(new BigDecimal(100)).setScale(2, BigDecimal.ROUND_HALF_EVEN);
+    /**
+     * Whether the margins, the price and the target at that price all fit in satoshi units, so the decision can be
+     * made on longs and still come out as it would in BigDecimal.
+     */
+    private boolean isExact(BigDecimal averagePrice) {
+        return exactParameters && Fixed.isExact(averagePrice) && targetPercents.isExact(averagePrice);
+    }
 
-        if (balancePercent.compareTo(straddle.upperMargin) <= 0) {
-            return false;
-        }
-        if (balancePercent.subtract(straddle.pivotMargin).compareTo(target) > 0) {
-            return true;
-        }
-        return false;
+    /**
+     * Forgets the converted margins and the tabulated target curve. Call this after changing the straddle in any way
+     * the strategy cannot see, such as the shape of its target curve.
+     */
+    public void invalidateTriggers() {
+        lowerMarginSource = null;
+        upperMarginSource = null;
+        pivotMarginSource = null;
+        maxAllocationSource = null;
     }
 
-    public void report(String aString) {
-        reporter.report(exchange + ": " + aString);
+    /**
+     * Converts the straddle's margins to satoshi units, only redoing the work when one of them was replaced. Any
+     * change also drops the tabulated target curve, which is built from the same configuration.
+     */
+    private void refreshParameters() {
+        if (straddle.lowerMargin == lowerMarginSource && straddle.upperMargin == upperMarginSource
+                && straddle.pivotMargin == pivotMarginSource && straddle.maxAllocation == maxAllocationSource) {
+            return;
+        }
+        lowerMargin = Fixed.of(straddle.lowerMargin);
+        upperMargin = Fixed.of(straddle.upperMargin);
+        pivotMargin = Fixed.of(straddle.pivotMargin);
+        maxAllocation = Fixed.of(straddle.maxAllocation);
+        lowerMarginSource = straddle.lowerMargin;
+        upperMarginSource = straddle.upperMargin;
+        pivotMarginSource = straddle.pivotMargin;
+        maxAllocationSource = straddle.maxAllocation;
+        exactParameters = Fixed.isExact(straddle.lowerMargin) && Fixed.isExact(straddle.upperMargin)
+                && Fixed.isExact(straddle.pivotMargin) && Fixed.isExact(straddle.maxAllocation);
+        targetPercents.clear();
     }
 
+    @Override
+    protected Reporter getReporter() {
+        return reporter;
+    }
 
-    public void cancel() {
-        running = false;
-        if (order != null) {
-            try {
-                order.cancelOrder();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
+    @Override
+    protected String getReportPrefix() {
+        return exchange + ": ";
     }
 
     @Override
@@ -6,8 +6,28 @@ import org.knowm.xchange.exceptions.NotYetImplementedForExchangeException;
 
 import java.io.IOException;
 
-public interface Strategy {
+public interface Strategy extends BookListener {
 	public void findOpportunities() throws ExchangeException, NotAvailableFromExchangeException, NotYetImplementedForExchangeException, IOException;
 	public void cancel();
 
+	@Override
+	public default void onBookUpdate(BookSnapshot snapshot) {
+	}
+
+	/**
+	 * The time in epoch milliseconds before which there is no point evaluating this strategy again.
+	 */
+	public default long getResumeTime() {
+		return 0;
+	}
+
+	/**
+	 * How many milliseconds from now the resume time is, measured on the clock the strategy set it by: 0 when it has
+	 * passed, Long.MAX_VALUE while the strategy waits for something other than time.
+	 */
+	public default long getResumeDelay() {
+		long resume = getResumeTime();
+		return resume == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(resume - System.currentTimeMillis(), 0);
+	}
+
 }
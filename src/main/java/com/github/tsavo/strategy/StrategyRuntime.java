@@ -0,0 +1,309 @@
+package com.github.tsavo.strategy;
+
+import com.github.tsavo.strategy.journal.StrategyJournal;
+import com.github.tsavo.strategy.journal.StrategyState;
+import com.github.tsavo.strategy.metrics.StrategyMetrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives any number of strategies from a small fixed pool. Each strategy is evaluated at its interval, or at its
+ * resume time when it is waiting on a cooldown or a post-fill step, and never on two threads at once.
+ * <p>
+ * With a journal set, strategies scheduled under an id are restored from their last journaled state and record a new
+ * one after every evaluation, so a restart picks up open orders and cooldowns instead of starting cold.
+ * <p>
+ * {@link #stop} and the {@link #halt} kill switch take strategies out of trading within a bounded time: they stop
+ * opening orders at once, and the call returns once their working orders are cancelled or the timeout passes. The
+ * cancels run on a pool the runtime owns, so however often strategies are stopped, at most a fixed number of
+ * cancel threads exist and none are left once the pool has been idle for a while.
+ */
+public class StrategyRuntime {
+    public static final int DEFAULT_CANCEL_THREADS = 8;
+
+    private final ScheduledExecutorService executor;
+    private final ThreadPoolExecutor cancels;
+    private final Map<Strategy, Registration> registrations = new ConcurrentHashMap<>();
+    public volatile StrategyJournal journal;
+    /**
+     * When set, picks the delay between evaluations of strategies that are not waiting on anything, in place of
+     * their fixed interval.
+     */
+    public volatile CadenceController cadence;
+
+    public StrategyRuntime(int threads) {
+        this(Executors.newScheduledThreadPool(threads));
+    }
+
+    public StrategyRuntime(ScheduledExecutorService executor) {
+        this(executor, DEFAULT_CANCEL_THREADS);
+    }
+
+    /**
+     * @param cancelThreads how many strategies {@link #stop} and {@link #halt} cancel at once
+     */
+    public StrategyRuntime(ScheduledExecutorService executor, int cancelThreads) {
+        this.executor = executor;
+        AtomicInteger count = new AtomicInteger();
+        this.cancels = new ThreadPoolExecutor(cancelThreads, cancelThreads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "strategy-cancel-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.cancels.allowCoreThreadTimeOut(true);
+    }
+
+    public void schedule(Strategy strategy, long interval, TimeUnit unit) {
+        Registration registration = new Registration(strategy, unit.toMillis(interval));
+        Registration previous = registrations.put(strategy, registration);
+        if (previous != null) {
+            previous.stop();
+        }
+        if (strategy instanceof AbstractStrategy) {
+            ((AbstractStrategy) strategy).waker = () -> wake(strategy);
+        }
+        registration.scheduleIn(0);
+    }
+
+    /**
+     * Schedules the strategy under a stable id, first restoring whatever the journal last recorded for that id.
+     */
+    public void schedule(String id, Strategy strategy, long interval, TimeUnit unit) {
+        if (strategy instanceof AbstractStrategy) {
+            AbstractStrategy journaled = (AbstractStrategy) strategy;
+            journaled.id = id;
+            StrategyJournal journal = this.journal;
+            StrategyState state = journal == null ? null : journal.restore(id);
+            if (state != null) {
+                try {
+                    journaled.restoreState(state);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        schedule(strategy, interval, unit);
+    }
+
+    public void remove(Strategy strategy) {
+        Registration registration = registrations.remove(strategy);
+        if (registration != null) {
+            registration.stop();
+        }
+        StrategyJournal journal = this.journal;
+        if (journal != null && strategy instanceof AbstractStrategy && ((AbstractStrategy) strategy).id != null) {
+            journal.forget(((AbstractStrategy) strategy).id);
+        }
+    }
+
+    /**
+     * Cancels the strategy and waits up to the timeout for it to stop, then stops scheduling it. Unlike
+     * {@link #remove(Strategy)} its final state stays in the journal.
+     *
+     * @return true if it stopped within the timeout; otherwise it is still draining and stays scheduled
+     */
+    public boolean stop(Strategy strategy, long timeout, TimeUnit unit) {
+        return stop(Collections.singletonList(strategy), timeout, unit).isEmpty();
+    }
+
+    /**
+     * The kill switch. Every strategy stops opening orders straight away, then all their working orders are
+     * cancelled in parallel rather than one exchange round trip after another.
+     *
+     * @return the strategies that had not stopped within the timeout
+     */
+    public List<Strategy> halt(long timeout, TimeUnit unit) {
+        return stop(new ArrayList<>(registrations.keySet()), timeout, unit);
+    }
+
+    /**
+     * Stops the strategies as {@link #halt(long, TimeUnit)} stops them all.
+     *
+     * @return the strategies that had not stopped within the timeout
+     */
+    public List<Strategy> stop(Collection<? extends Strategy> strategies, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Strategy strategy : strategies) {
+            if (strategy instanceof AbstractStrategy) {
+                ((AbstractStrategy) strategy).drain();
+            }
+        }
+        Map<Strategy, Future<?>> cancelled = new HashMap<>();
+        for (Strategy strategy : strategies) {
+            cancelled.put(strategy, cancels.submit(() -> {
+                strategy.cancel();
+                // Lets a strategy waiting out a settle delay run its post-fill step now.
+                wake(strategy);
+            }));
+        }
+        List<Strategy> draining = new ArrayList<>();
+        for (Strategy strategy : strategies) {
+            long left = Math.max(deadline - System.nanoTime(), 0);
+            boolean done;
+            try {
+                if (strategy instanceof AbstractStrategy) {
+                    done = ((AbstractStrategy) strategy).awaitStopped(left, TimeUnit.NANOSECONDS);
+                } else {
+                    cancelled.get(strategy).get(left, TimeUnit.NANOSECONDS);
+                    done = true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                done = false;
+            } catch (ExecutionException | TimeoutException e) {
+                done = false;
+            }
+            if (done) {
+                retire(strategy);
+            } else {
+                draining.add(strategy);
+            }
+        }
+        return draining;
+    }
+
+    private void retire(Strategy strategy) {
+        Registration registration = registrations.remove(strategy);
+        if (registration != null) {
+            registration.stop();
+        }
+        StrategyJournal journal = this.journal;
+        if (journal != null && strategy instanceof AbstractStrategy && ((AbstractStrategy) strategy).id != null) {
+            journal.record(((AbstractStrategy) strategy).id, ((AbstractStrategy) strategy).captureState());
+        }
+    }
+
+    /**
+     * Evaluates the strategy as soon as a thread is free, e.g. because its book changed.
+     */
+    public void wake(Strategy strategy) {
+        Registration registration = registrations.get(strategy);
+        if (registration != null) {
+            registration.wake();
+        }
+    }
+
+    public int size() {
+        return registrations.size();
+    }
+
+    public void shutdown() {
+        for (Registration registration : registrations.values()) {
+            registration.stop();
+        }
+        registrations.clear();
+        executor.shutdown();
+        cancels.shutdown();
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private class Registration implements Runnable {
+        final Strategy strategy;
+        final long interval;
+        final AtomicBoolean inFlight = new AtomicBoolean();
+        volatile boolean stopped;
+        volatile boolean rerun;
+        ScheduledFuture<?> next;
+
+        Registration(Strategy strategy, long interval) {
+            this.strategy = strategy;
+            this.interval = interval;
+        }
+
+        synchronized void scheduleIn(long delay) {
+            if (stopped) {
+                return;
+            }
+            if (next != null) {
+                next.cancel(false);
+            }
+            next = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
+
+        void journal(AbstractStrategy strategy) {
+            StrategyJournal journal = StrategyRuntime.this.journal;
+            if (journal != null && strategy.id != null && !stopped) {
+                journal.record(strategy.id, strategy.captureState());
+            }
+        }
+
+        synchronized void stop() {
+            stopped = true;
+            if (next != null) {
+                next.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (!inFlight.compareAndSet(false, true)) {
+                wake();
+                return;
+            }
+            rerun = false;
+            long start = System.nanoTime();
+            try {
+                strategy.findOpportunities();
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                if (strategy instanceof AbstractStrategy) {
+                    ((AbstractStrategy) strategy).recordSince(StrategyMetrics.Phase.TICK, start);
+                    journal((AbstractStrategy) strategy);
+                }
+            }
+            finish();
+        }
+
+        /**
+         * Ends a tick and schedules the next. Synchronized with {@link #wake()} so a wake is either seen here or
+         * schedules its own run afterwards, never overwritten by this one.
+         */
+        private synchronized void finish() {
+            inFlight.set(false);
+            long resume = strategy.getResumeDelay();
+            // A strategy waiting on an order is brought back by its waker, so the interval is only a fallback.
+            // Scheduling it Long.MAX_VALUE away would also overflow the executor's ordering of delayed tasks.
+            long wait = resume == Long.MAX_VALUE ? interval : resume;
+            if (rerun) {
+                // Woken while this tick was running.
+                scheduleIn(Math.max(wait, 0));
+            } else {
+                scheduleIn(wait > 0 ? wait : idleDelay());
+            }
+        }
+
+        private long idleDelay() {
+            CadenceController controller = cadence;
+            return controller == null ? interval : controller.nextDelay(strategy, interval);
+        }
+
+        synchronized void wake() {
+            if (inFlight.get()) {
+                rerun = true;
+            } else {
+                scheduleIn(0);
+            }
+        }
+    }
+}
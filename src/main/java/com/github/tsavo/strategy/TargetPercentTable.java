@@ -0,0 +1,82 @@
+package com.github.tsavo.strategy;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * Remembers a straddle's target percent for recently seen prices, so the curve is evaluated once per distinct price
+ * instead of on every tick. Prices and targets are kept in satoshi units in a direct-mapped table; a price that
+ * lands on an occupied slot simply replaces it.
+ */
+public class TargetPercentTable {
+    private static final int BITS = 10;
+    private static final int SIZE = 1 << BITS;
+
+    private final Function<BigDecimal, BigDecimal> curve;
+    private final long[] prices = new long[SIZE];
+    private final long[] targets = new long[SIZE];
+    private final boolean[] filled = new boolean[SIZE];
+    private final boolean[] inexact = new boolean[SIZE];
+
+    public TargetPercentTable(Function<BigDecimal, BigDecimal> curve) {
+        this.curve = curve;
+    }
+
+    /**
+     * The target percent for the price, in satoshi units.
+     */
+    public long getTargetPercent(BigDecimal price) {
+        return getTargetPercent(Fixed.of(price), price);
+    }
+
+    /**
+     * The target percent for a price already in satoshi units. The curve is only handed a BigDecimal on a miss.
+     */
+    public long getTargetPercent(long price) {
+        return getTargetPercent(price, null);
+    }
+
+    /**
+     * The curve's own value at the price, neither rounded nor remembered.
+     */
+    public BigDecimal getExactTargetPercent(BigDecimal price) {
+        return curve.apply(price);
+    }
+
+    /**
+     * Whether the curve gives a whole number of satoshis at this price, so that
+     * {@link #getTargetPercent(BigDecimal)} is its exact value rather than a rounding of it.
+     */
+    public boolean isExact(BigDecimal price) {
+        return !inexact[lookup(Fixed.of(price), price)];
+    }
+
+    /**
+     * {@link #isExact(BigDecimal)} for a price already in satoshi units.
+     */
+    public boolean isExact(long price) {
+        return !inexact[lookup(price, null)];
+    }
+
+    private long getTargetPercent(long key, BigDecimal price) {
+        return targets[lookup(key, price)];
+    }
+
+    private int lookup(long key, BigDecimal price) {
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - BITS));
+        if (filled[slot] && prices[slot] == key) {
+            return slot;
+        }
+        BigDecimal target = curve.apply(price == null ? Fixed.toBigDecimal(key) : price);
+        prices[slot] = key;
+        targets[slot] = Fixed.of(target);
+        inexact[slot] = !Fixed.isExact(target);
+        filled[slot] = true;
+        return slot;
+    }
+
+    public void clear() {
+        Arrays.fill(filled, false);
+    }
+}
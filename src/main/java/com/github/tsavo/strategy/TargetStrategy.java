@@ -1,7 +1,8 @@
 package com.github.tsavo.strategy;
 
+import com.github.tsavo.strategy.journal.OrderState;
+import com.github.tsavo.strategy.metrics.StrategyMetrics;
 import com.github.tsavo.traderplan.exchange.Exchange;
-import com.github.tsavo.traderplan.exchange.Order;
 import com.tsavo.trade.database.Reporter;
 import com.tsavo.trade.database.model.Target;
 import org.knowm.xchange.currency.CurrencyPair;
@@ -13,135 +14,217 @@ import org.knowm.xchange.exceptions.NotYetImplementedForExchangeException;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.Date;
-import java.util.List;
 
 /**
  * Created by evilg on 7/18/2017.
  */
-public class TargetStrategy implements Strategy {
-    public final Exchange exchange;
+public class TargetStrategy extends AbstractStrategy {
+    // Built from doubles, as they always have been: the exact binary values decide where the bands fall.
+    private static final BigDecimal BUY_BAND = new BigDecimal(1.01);
+    private static final BigDecimal SELL_BAND = new BigDecimal(.99);
+
+    public final Market exchange;
     public final CurrencyPair currencyPair;
     public boolean active;
-    public Order position;
-    public boolean running = true;
+    public volatile TrailingOrder position;
     public Reporter reporter;
     public Target target;
 
+    private BigDecimal targetSource;
+    private long delaySource;
+    private long buyBelow;
+    private long sellAbove;
+    private long buyAllowedAt;
+    private long sellAllowedAt;
+
     public TargetStrategy(Exchange exchange, Target aTarget, Reporter reporter) {
+        this(new ExchangeMarket(exchange), aTarget, reporter);
+    }
+
+    public TargetStrategy(Market exchange, Target aTarget, Reporter reporter) {
+        this(exchange, aTarget.currencyPair.toCurrencyPair(), aTarget, reporter);
+    }
+
+    /**
+     * Trades the target on the given pair rather than the one stored with it.
+     */
+    public TargetStrategy(Market exchange, CurrencyPair currencyPair, Target aTarget, Reporter reporter) {
         this.exchange = exchange;
-        this.currencyPair = aTarget.currencyPair.toCurrencyPair();
+        this.currencyPair = currencyPair;
         this.reporter = reporter;
         this.target = aTarget;
     }
 
     @Override
     public void findOpportunities() throws ExchangeException, NotAvailableFromExchangeException, NotYetImplementedForExchangeException, IOException {
-        BigDecimal balance;
-        BigDecimal averagePrice;
-        balance = exchange.getBalance(currencyPair.base);
+        TickContext tick = startTick(exchange, currencyPair);
+        if (tick == null) {
+            return;
+        }
+        BigDecimal balance = tick.getBalance();
 
-        List<LimitOrder> lowestAsks = exchange.getLowestAsks(currencyPair);
-        if (lowestAsks.size() == 0) {
+        if (tick.getLowestAsks().size() == 0) {
             return;
         }
 
-        List<LimitOrder> orders = exchange.getHighestBids(currencyPair);
+        long decisionStart = System.nanoTime();
+        boolean buy = isTimeToBuy(tick) && isRunning();
+        boolean sell = !buy && isTimeToSell(tick) && isRunning();
+        recordSince(StrategyMetrics.Phase.DECISION, decisionStart);
+        if (!buy && !sell) {
+            proximity = proximity(tick);
+        }
 
-        if (isTimeToBuy(balance) && running) {
-            report("Target strategy for " + currencyPair + " is now in ALLOCATION.");
-            BigDecimal targetPrice = exchange.getAveragePrice(currencyPair).multiply(new BigDecimal(2));
+        if (buy) {
+            notice("ALLOCATION", () -> "Target strategy for " + currencyPair + " is now in ALLOCATION.");
+            BigDecimal targetPrice = tick.getAveragePrice().multiply(new BigDecimal(2));
             BigDecimal tradeAmount = target.establishingPosition.min(target.target.subtract(balance)).setScale(8, BigDecimal.ROUND_HALF_EVEN);
 
             LimitOrder order = new LimitOrder.Builder(org.knowm.xchange.dto.Order.OrderType.BID, currencyPair).tradableAmount(tradeAmount).limitPrice(targetPrice).build();
-            position = exchange.createTrailStopMarketMakerLimitOrder(order, order.getLimitPrice().divide(new BigDecimal(100), 8, BigDecimal.ROUND_HALF_EVEN).setScale(8, BigDecimal.ROUND_HALF_EVEN));
-            position.openOrder();
-            if (!position.fillOrCancel()) {
-                return;
-            }
-            try {
-                Thread.sleep(5000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-
-            order = position.order;
-            balance = exchange.getBalance(currencyPair.base);
-
-            if(balance.multiply(new BigDecimal(1.01)).add(order.getTradableAmount()).compareTo(target.target) >= 0){
-                report("Target strategy has reached it's target of " + target.target + " " + currencyPair + ".");
-            }
-
-            try {
-                Thread.sleep(30000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }else if (isTimeToSell(balance) && running) {
-            report("Target strategy for " + currencyPair + " is now in DISTRIBUTION.");
+            BigDecimal amountToTrailBy = order.getLimitPrice().divide(new BigDecimal(100), 8, BigDecimal.ROUND_HALF_EVEN).setScale(8, BigDecimal.ROUND_HALF_EVEN);
+            position = exchange.createTrailStopMarketMakerLimitOrder(order, amountToTrailBy);
+            open(position);
+            track(position, amountToTrailBy);
+            awaitBuy(tick, position);
+        }else if (sell) {
+            notice("DISTRIBUTION", () -> "Target strategy for " + currencyPair + " is now in DISTRIBUTION.");
             BigDecimal sellPrice = BigDecimal.ZERO;
 
             BigDecimal amountToSell = target.establishingPosition.min(balance.subtract(target.target)).setScale(8, BigDecimal.ROUND_HALF_EVEN);
 
             LimitOrder order = new LimitOrder.Builder(org.knowm.xchange.dto.Order.OrderType.ASK, currencyPair).tradableAmount(amountToSell).limitPrice(sellPrice).build();
-            BigDecimal amountToTrailBy = exchange.getAveragePrice(currencyPair).divide(new BigDecimal(100), 8, BigDecimal.ROUND_HALF_EVEN).setScale(8, BigDecimal.ROUND_HALF_EVEN);
+            BigDecimal amountToTrailBy = tick.getAveragePrice().divide(new BigDecimal(100), 8, BigDecimal.ROUND_HALF_EVEN).setScale(8, BigDecimal.ROUND_HALF_EVEN);
             position = exchange.createTrailStopMarketMakerLimitOrder(order, amountToTrailBy);
-            position.openOrder();
-            if (!position.fillOrCancel()) {
-                return;
-            }
-            order = position.order;
-
-            try {
-                Thread.sleep(5000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-
-            if(balance.multiply(new BigDecimal(.99)).subtract(order.getTradableAmount()).compareTo(target.target) <= 0){
-                report("Target strategy has reached it's target of " + target.target + " " + currencyPair + ".");
-            }
-
-            try {
-                Thread.sleep(30000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+            open(position);
+            track(position, amountToTrailBy).context.put("balance", balance.toPlainString());
+            awaitSell(balance, position);
         }
 
 
     }
 
-    public boolean isTimeToBuy(BigDecimal balance) {
+    private void awaitBuy(TickContext tick, TrailingOrder filled) throws IOException {
+        afterFill(filled, () -> afterSettle(exchange, 5000, () -> bought(tick, filled.getOrder())));
+    }
 
-        Date lastBuy = exchange.getLastBuyDate(currencyPair);
-        if (lastBuy != null && lastBuy.toInstant().plusSeconds(target.delay).isAfter(new Date().toInstant())) {
-            return false;
+    private void awaitSell(BigDecimal balance, TrailingOrder filled) throws IOException {
+        afterFill(filled, () -> afterSettle(exchange, 5000, () -> sold(balance, filled.getOrder())));
+    }
+
+    @Override
+    protected void resumeOrder(OrderState state) throws IOException {
+        position = reopen(exchange, state);
+        if (state.isBuy()) {
+            awaitBuy(new TickContext(exchange, currencyPair), position);
+        } else {
+            awaitSell(state.getDecimal("balance"), position);
         }
-        return balance.multiply(new BigDecimal(1.01)).compareTo(target.target)<0;
     }
 
-    public boolean isTimeToSell(BigDecimal balance) {
+    private void bought(TickContext tick, LimitOrder order) {
+        tick.refreshBalances();
+        invalidateTriggers();
+        BigDecimal balance = tick.getBalance();
 
-        Date lastSell = exchange.getLastSellDate(currencyPair);
-        if (lastSell != null && lastSell.toInstant().plusSeconds(target.delay).isAfter(new Date().toInstant())) {
+        if(balance.multiply(BUY_BAND).add(order.getTradableAmount()).compareTo(target.target) >= 0){
+            report(() -> "Target strategy has reached it's target of " + target.target + " " + currencyPair + ".");
+        }
+        cooldown(30000);
+    }
+
+    private void sold(BigDecimal balance, LimitOrder order) {
+        invalidateTriggers();
+        if(balance.multiply(SELL_BAND).subtract(order.getTradableAmount()).compareTo(target.target) <= 0){
+            report(() -> "Target strategy has reached it's target of " + target.target + " " + currencyPair + ".");
+        }
+        cooldown(30000);
+    }
+
+    public boolean isTimeToBuy(TickContext tick) {
+        refreshTriggers();
+        if (clock.millis() < buyAllowedAt) {
             return false;
         }
-        return balance.multiply(new BigDecimal(.99)).compareTo(target.target)>0;
+        BigDecimal balance = tick.getBalance();
+        if (!Fixed.isExact(balance)) {
+            return balance.multiply(BUY_BAND).compareTo(target.target) < 0;
+        }
+        return Fixed.of(balance) < buyBelow;
+    }
+
+    public boolean isTimeToSell(TickContext tick) {
+        refreshTriggers();
+        if (clock.millis() < sellAllowedAt) {
+            return false;
+        }
+        BigDecimal balance = tick.getBalance();
+        if (!Fixed.isExact(balance)) {
+            return balance.multiply(SELL_BAND).compareTo(target.target) > 0;
+        }
+        return Fixed.of(balance) > sellAbove;
     }
 
+    /**
+     * The bands are on our balance, which the price does not move, so a side is either crossed and waiting out its
+     * cooldown or out of reach until the next fill.
+     */
+    private TriggerProximity proximity(TickContext tick) {
+        long balance = Fixed.of(tick.getBalance());
+        double buyDistance = balance < buyBelow ? 0 : Double.POSITIVE_INFINITY;
+        double sellDistance = balance > sellAbove ? 0 : Double.POSITIVE_INFINITY;
+        return new TriggerProximity(currencyPair, Fixed.of(tick.getLowestAsk().getLimitPrice()), clock.millis(), buyDistance, buyAllowedAt, sellDistance, sellAllowedAt);
+    }
 
-    public void report(String aString) {
-        reporter.report(  exchange + ": " + aString);
+    /**
+     * Makes the next tick re-read the last trade dates. Called after our own fills.
+     */
+    public void invalidateTriggers() {
+        targetSource = null;
     }
 
-    public void cancel() {
-        running = false;
-        if (position != null) {
-            try {
-                position.cancelOrder();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    /**
+     * Brings the cached bands and cooldown expiries up to date. They only change when the target or its delay is
+     * changed or one of our orders fills.
+     */
+    private void refreshTriggers() {
+        long delay = target.delay;
+        if (target.target == targetSource && delay == delaySource) {
+            return;
         }
+        // For a balance of whole satoshis, balance * 1.01 < target exactly when balance is below target / 1.01
+        // rounded up, and balance * .99 > target exactly when it is above target / .99 rounded down. Any other
+        // balance is compared in BigDecimal.
+        buyBelow = Fixed.of(target.target.divide(BUY_BAND, 8, BigDecimal.ROUND_CEILING));
+        sellAbove = Fixed.of(target.target.divide(SELL_BAND, 8, BigDecimal.ROUND_FLOOR));
+
+        Date lastBuy = exchange.getLastBuyDate(currencyPair);
+        Date lastSell = exchange.getLastSellDate(currencyPair);
+        buyAllowedAt = lastBuy == null ? 0 : lastBuy.getTime() + delay * 1000;
+        sellAllowedAt = lastSell == null ? 0 : lastSell.getTime() + delay * 1000;
+        targetSource = target.target;
+        delaySource = delay;
+    }
+
+
+    @Override
+    protected long nextCooldownExpiry(long after) {
+        long next = Long.MAX_VALUE;
+        if (buyAllowedAt > after) {
+            next = buyAllowedAt;
+        }
+        if (sellAllowedAt > after) {
+            next = Math.min(next, sellAllowedAt);
+        }
+        return next;
+    }
+
+    @Override
+    protected Reporter getReporter() {
+        return reporter;
+    }
+
+    @Override
+    protected String getReportPrefix() {
+        return exchange + ": ";
     }
 }
@@ -0,0 +1,125 @@
+package com.github.tsavo.strategy;
+
+import com.github.tsavo.traderplan.exchange.NoWalletEntryException;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * The market state seen by a single call to findOpportunities(). Each value is fetched from the exchange the first
+ * time it is asked for and reused for the rest of the tick. Balances are only re-fetched after refreshBalances(),
+ * which strategies call once one of their own orders has filled.
+ */
+public class TickContext {
+    public final Market market;
+    public final CurrencyPair currencyPair;
+
+    private BigDecimal balance;
+    private BigDecimal counterBalance;
+    private BigDecimal allocationSize;
+    private List<LimitOrder> lowestAsks;
+    private List<LimitOrder> highestBids;
+    private BigDecimal averagePrice;
+    private BigDecimal averageCost;
+
+    public TickContext(Market market, CurrencyPair currencyPair) {
+        this.market = market;
+        this.currencyPair = currencyPair;
+    }
+
+    /**
+     * A tick that reads the book from a snapshot published by an {@link OrderBookFeed} instead of the exchange.
+     */
+    public TickContext(Market market, CurrencyPair currencyPair, BookSnapshot book) {
+        this(market, currencyPair);
+        this.lowestAsks = book.asks;
+        this.highestBids = book.bids;
+    }
+
+    public BigDecimal getBalance() {
+        if (balance == null) {
+            balance = market.getBalance(currencyPair.base);
+        }
+        return balance;
+    }
+
+    public BigDecimal getCounterBalance() {
+        if (counterBalance == null) {
+            counterBalance = market.getBalance(currencyPair.counter);
+        }
+        return counterBalance;
+    }
+
+    /**
+     * The base balance priced in the counter currency.
+     */
+    public BigDecimal getAllocationSize() {
+        if (allocationSize == null) {
+            allocationSize = market.getPriceIn(getBalance(), currencyPair);
+        }
+        return allocationSize;
+    }
+
+    public List<LimitOrder> getLowestAsks() {
+        if (lowestAsks == null) {
+            lowestAsks = market.getLowestAsks(currencyPair);
+        }
+        return lowestAsks;
+    }
+
+    public List<LimitOrder> getHighestBids() {
+        if (highestBids == null) {
+            highestBids = market.getHighestBids(currencyPair);
+        }
+        return highestBids;
+    }
+
+    public LimitOrder getLowestAsk() {
+        return getLowestAsks().get(0);
+    }
+
+    public LimitOrder getHighestBid() {
+        return getHighestBids().get(0);
+    }
+
+    /**
+     * The midpoint between the best ask and the best bid.
+     */
+    public BigDecimal getMidPrice() {
+        return getLowestAsk().getLimitPrice().add(getHighestBid().getLimitPrice()).divide(new BigDecimal(2), 8, BigDecimal.ROUND_HALF_EVEN);
+    }
+
+    public BigDecimal getAveragePrice() throws IOException {
+        if (averagePrice == null) {
+            averagePrice = market.getAveragePrice(currencyPair);
+        }
+        return averagePrice;
+    }
+
+    /**
+     * The average cost of our position, or zero when the exchange has no wallet entry for it yet.
+     */
+    public BigDecimal getAverageCost() {
+        if (averageCost == null) {
+            try {
+                averageCost = market.getAverageCost(currencyPair);
+            } catch (NoWalletEntryException e) {
+                e.printStackTrace();
+                averageCost = BigDecimal.ZERO;
+            }
+        }
+        return averageCost;
+    }
+
+    /**
+     * Forgets the balances so the next read goes back to the exchange. Call this after one of our own orders fills.
+     */
+    public void refreshBalances() {
+        balance = null;
+        counterBalance = null;
+        allocationSize = null;
+    }
+}
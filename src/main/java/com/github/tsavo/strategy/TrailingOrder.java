@@ -0,0 +1,26 @@
+package com.github.tsavo.strategy;
+
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.io.IOException;
+
+/**
+ * A trailing stop that turns into a market-making limit order once it triggers.
+ */
+public interface TrailingOrder {
+    public void openOrder() throws IOException;
+
+    /**
+     * Waits for the order to fill.
+     *
+     * @return true if it filled, false if it was cancelled
+     */
+    public boolean fillOrCancel() throws IOException;
+
+    public void cancelOrder() throws IOException;
+
+    /**
+     * The order as placed, or as filled once fillOrCancel() returned true.
+     */
+    public LimitOrder getOrder();
+}
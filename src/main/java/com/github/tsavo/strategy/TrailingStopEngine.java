@@ -0,0 +1,469 @@
+package com.github.tsavo.strategy;
+
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trails every open stop on one thread, instead of each one blocking a strategy while it polls the market. Stops
+ * are kept per pair in sets ordered by stop price and by the extreme they trail, and moved along by the book
+ * updates of the shared {@link OrderBookFeeds}, so a book update only touches the stops it moves or triggers.
+ * <p>
+ * A buy follows the ask down and triggers once it rises by the trail above the lowest ask seen; a sell follows the
+ * bid up and triggers once it falls by the trail below the highest bid seen. A stop that triggers beyond its limit
+ * price is cancelled. Otherwise the stop's order, with its own amount and limit price, is placed on the engine's
+ * market as a trailing order with a trail of zero. The trailing has been done here, so that order executes as soon
+ * as the market next sees the book rather than trailing again, and the stop completes with what it filled: its
+ * {@link TrailingOrder#getOrder()} becomes the placed order's. Only placing and waiting for those orders runs on one
+ * of a fixed number of execution threads. Cancelling a stop that has triggered cancels the placed order.
+ * <p>
+ * The engine only listens to the feeds; something else has to poll them, e.g. {@link OrderBookFeeds#pollAll()}
+ * on a schedule. Closing the engine stops listening and completes every stop still open with false, cancelling the
+ * orders placed for those that had triggered.
+ */
+public class TrailingStopEngine implements Closeable {
+    private static final Comparator<Stop> BUY_STOPS = Comparator.<Stop>comparingLong(s -> s.stop).thenComparingLong(s -> s.id);
+    private static final Comparator<Stop> BUY_EXTREMES = Comparator.<Stop>comparingLong(s -> -s.extreme).thenComparingLong(s -> s.id);
+    private static final Comparator<Stop> SELL_STOPS = Comparator.<Stop>comparingLong(s -> -s.stop).thenComparingLong(s -> s.id);
+    private static final Comparator<Stop> SELL_EXTREMES = Comparator.<Stop>comparingLong(s -> s.extreme).thenComparingLong(s -> s.id);
+
+    public final Market market;
+    private final OrderBookFeeds feeds;
+    private final ExecutorService engine;
+    private final ExecutorService executions;
+    private final Map<CurrencyPair, PairStops> pairs = new HashMap<>();
+    private final Map<CurrencyPair, BookSnapshot> latest = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private final Set<Stop> open = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * @param market           places the orders once their stops trigger
+     * @param feeds            the book feeds the stops are trailed on
+     * @param executionThreads how many triggered orders can be market making at once
+     */
+    public TrailingStopEngine(Market market, OrderBookFeeds feeds, int executionThreads) {
+        this.market = market;
+        this.feeds = feeds;
+        this.engine = Executors.newSingleThreadExecutor(daemon("trailing-stops"));
+        this.executions = Executors.newFixedThreadPool(executionThreads, daemon("trailing-stop-execution"));
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * A trailing stop worked by this engine. Nothing happens until it is opened.
+     */
+    public AsyncTrailingOrder createTrailStop(LimitOrder order, BigDecimal amountToTrailBy) {
+        return new Stop(ids.incrementAndGet(), order, Fixed.of(amountToTrailBy), Long.MIN_VALUE);
+    }
+
+    /**
+     * A trailing stop that carries on from a level reached before, e.g. by a stop journaled before a restart. It
+     * starts from that level or the current price, whichever is further along.
+     */
+    public AsyncTrailingOrder resumeTrailStop(LimitOrder order, BigDecimal amountToTrailBy, BigDecimal level) {
+        return new Stop(ids.incrementAndGet(), order, Fixed.of(amountToTrailBy), Fixed.of(level));
+    }
+
+    /**
+     * How many stops are open, trailing or executing.
+     */
+    public int getActiveStops() {
+        return active.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        Future<?> unsubscribed = engine.submit(() -> {
+            for (PairStops stops : pairs.values()) {
+                feeds.unsubscribe(market, stops.currencyPair, stops);
+            }
+            pairs.clear();
+        });
+        try {
+            unsubscribed.get(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            e.printStackTrace();
+        }
+        engine.shutdownNow();
+        for (Stop stop : open) {
+            TrailingOrder executing = stop.execution;
+            if (executing != null) {
+                try {
+                    executing.cancelOrder();
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            stop.complete(false);
+        }
+        executions.shutdownNow();
+    }
+
+    /**
+     * Runs the task on the engine thread, or returns false once the engine is closed.
+     */
+    private boolean onEngine(Runnable task) {
+        if (closed) {
+            return false;
+        }
+        try {
+            engine.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void onBookUpdate(BookSnapshot snapshot) {
+        // Only the newest book per pair matters, so updates that arrive while the engine is busy are collapsed.
+        if (latest.put(snapshot.currencyPair, snapshot) == null) {
+            onEngine(() -> {
+                BookSnapshot book = latest.remove(snapshot.currencyPair);
+                if (book != null) {
+                    PairStops stops = pairs.get(book.currencyPair);
+                    if (stops != null) {
+                        stops.update(book);
+                    }
+                }
+            });
+        }
+    }
+
+    private void execute(Stop stop) {
+        try {
+            executions.execute(() -> place(stop));
+        } catch (RejectedExecutionException e) {
+            stop.complete(false);
+        }
+    }
+
+    private void place(Stop stop) {
+        if (stop.cancelled) {
+            stop.complete(false);
+            return;
+        }
+        try {
+            TrailingOrder order = market.createTrailStopMarketMakerLimitOrder(stop.order, BigDecimal.ZERO);
+            stop.execution = order;
+            order.openOrder();
+            if (stop.cancelled) {
+                order.cancelOrder();
+            }
+            boolean filled = order.fillOrCancel();
+            stop.order = order.getOrder();
+            stop.complete(filled);
+        } catch (Exception e) {
+            stop.fail(e);
+        }
+    }
+
+    /**
+     * The stops on one pair. Only touched on the engine thread.
+     */
+    private class PairStops implements BookListener {
+        final CurrencyPair currencyPair;
+        final TreeSet<Stop> buyStops = new TreeSet<>(BUY_STOPS);
+        final TreeSet<Stop> buyExtremes = new TreeSet<>(BUY_EXTREMES);
+        final TreeSet<Stop> sellStops = new TreeSet<>(SELL_STOPS);
+        final TreeSet<Stop> sellExtremes = new TreeSet<>(SELL_EXTREMES);
+        final List<Stop> unseeded = new ArrayList<>();
+        BookSnapshot book;
+
+        PairStops(CurrencyPair currencyPair) {
+            this.currencyPair = currencyPair;
+        }
+
+        @Override
+        public void onBookUpdate(BookSnapshot snapshot) {
+            TrailingStopEngine.this.onBookUpdate(snapshot);
+        }
+
+        void add(Stop stop) {
+            if (book == null || book.isEmpty()) {
+                unseeded.add(stop);
+                return;
+            }
+            stop.seed(stop.buy ? Fixed.of(book.getLowestAsk()) : Fixed.of(book.getHighestBid()));
+            insert(stop);
+        }
+
+        void insert(Stop stop) {
+            if (stop.buy) {
+                buyStops.add(stop);
+                buyExtremes.add(stop);
+            } else {
+                sellStops.add(stop);
+                sellExtremes.add(stop);
+            }
+        }
+
+        void remove(Stop stop) {
+            if (!unseeded.remove(stop)) {
+                if (stop.buy) {
+                    buyStops.remove(stop);
+                    buyExtremes.remove(stop);
+                } else {
+                    sellStops.remove(stop);
+                    sellExtremes.remove(stop);
+                }
+            }
+            dropIfEmpty();
+        }
+
+        /**
+         * Stops listening to the pair's book once it has no stops left.
+         */
+        void dropIfEmpty() {
+            if (isEmpty()) {
+                feeds.unsubscribe(market, currencyPair, this);
+                pairs.remove(currencyPair);
+            }
+        }
+
+        boolean isEmpty() {
+            return unseeded.isEmpty() && buyStops.isEmpty() && sellStops.isEmpty();
+        }
+
+        void update(BookSnapshot snapshot) {
+            book = snapshot;
+            if (snapshot.isEmpty()) {
+                return;
+            }
+            long ask = Fixed.of(snapshot.getLowestAsk());
+            long bid = Fixed.of(snapshot.getHighestBid());
+            for (Stop stop : unseeded) {
+                stop.seed(stop.buy ? ask : bid);
+                insert(stop);
+            }
+            unseeded.clear();
+
+            while (!buyExtremes.isEmpty() && buyExtremes.first().extreme > ask) {
+                Stop stop = buyExtremes.pollFirst();
+                buyStops.remove(stop);
+                stop.setExtreme(ask);
+                insert(stop);
+            }
+            while (!sellExtremes.isEmpty() && sellExtremes.first().extreme < bid) {
+                Stop stop = sellExtremes.pollFirst();
+                sellStops.remove(stop);
+                stop.setExtreme(bid);
+                insert(stop);
+            }
+
+            while (!buyStops.isEmpty() && buyStops.first().stop <= ask) {
+                Stop stop = buyStops.pollFirst();
+                buyExtremes.remove(stop);
+                trigger(stop, ask);
+            }
+            while (!sellStops.isEmpty() && sellStops.first().stop >= bid) {
+                Stop stop = sellStops.pollFirst();
+                sellExtremes.remove(stop);
+                trigger(stop, bid);
+            }
+            dropIfEmpty();
+        }
+
+        void trigger(Stop stop, long price) {
+            stop.triggered = true;
+            if (stop.buy ? price > stop.limit : price < stop.limit) {
+                stop.complete(false);
+            } else {
+                execute(stop);
+            }
+        }
+    }
+
+    private class Stop implements AsyncTrailingOrder {
+        final long id;
+        final boolean buy;
+        final long trail;
+        final long limit;
+        final CompletableFuture<Boolean> completion = new CompletableFuture<>();
+        volatile LimitOrder order;
+        volatile TrailingOrder execution;
+        volatile boolean cancelled;
+        boolean triggered;
+        final long resumeFrom;
+        long extreme;
+        long stop;
+        volatile boolean seeded;
+        volatile long level;
+        private boolean opened;
+
+        Stop(long id, LimitOrder order, long trail, long resumeFrom) {
+            this.id = id;
+            this.order = order;
+            this.trail = trail;
+            this.resumeFrom = resumeFrom;
+            this.limit = Fixed.of(order.getLimitPrice());
+            this.buy = order.getType() == Order.OrderType.BID;
+        }
+
+        /**
+         * Starts trailing from the price, or from the level being resumed if that is further along.
+         */
+        void seed(long price) {
+            if (resumeFrom != Long.MIN_VALUE) {
+                price = buy ? Math.min(price, resumeFrom) : Math.max(price, resumeFrom);
+            }
+            setExtreme(price);
+            seeded = true;
+        }
+
+        void setExtreme(long price) {
+            extreme = price;
+            level = price;
+            stop = buy ? price + trail : price - trail;
+        }
+
+        @Override
+        public BigDecimal getTrailLevel() {
+            if (seeded) {
+                return Fixed.toBigDecimal(level);
+            }
+            return resumeFrom == Long.MIN_VALUE ? null : Fixed.toBigDecimal(resumeFrom);
+        }
+
+        @Override
+        public synchronized void openOrder() {
+            if (opened || completion.isDone()) {
+                return;
+            }
+            opened = true;
+            active.incrementAndGet();
+            open.add(this);
+            CurrencyPair currencyPair = order.getCurrencyPair();
+            boolean queued = onEngine(() -> {
+                if (completion.isDone()) {
+                    return;
+                }
+                PairStops stops = pairs.get(currencyPair);
+                if (stops == null) {
+                    stops = new PairStops(currencyPair);
+                    pairs.put(currencyPair, stops);
+                    stops.add(this);
+                    feeds.subscribe(market, currencyPair, stops);
+                } else {
+                    stops.add(this);
+                }
+            });
+            if (!queued) {
+                complete(false);
+            }
+        }
+
+        @Override
+        public CompletableFuture<Boolean> completion() {
+            return completion;
+        }
+
+        @Override
+        public boolean fillOrCancel() throws IOException {
+            if (!opened) {
+                return false;
+            }
+            try {
+                return completion.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for " + order, e);
+            } catch (ExecutionException e) {
+                throw new IOException("Trailing stop failed for " + order, e.getCause());
+            }
+        }
+
+        /**
+         * Cancels a stop that has not triggered yet. Once it has, the order placed for it is cancelled and the stop
+         * completes with whatever that order did.
+         */
+        @Override
+        public void cancelOrder() throws IOException {
+            cancelled = true;
+            TrailingOrder executing = execution;
+            if (executing != null) {
+                executing.cancelOrder();
+                return;
+            }
+            boolean queued = onEngine(() -> {
+                if (triggered) {
+                    return;
+                }
+                complete(false);
+                PairStops stops = pairs.get(order.getCurrencyPair());
+                if (stops != null) {
+                    stops.remove(this);
+                }
+            });
+            if (!queued) {
+                complete(false);
+            }
+        }
+
+        boolean complete(boolean filled) {
+            if (!completion.complete(filled)) {
+                return false;
+            }
+            finished();
+            return true;
+        }
+
+        void fail(Exception e) {
+            if (completion.completeExceptionally(e)) {
+                finished();
+            }
+        }
+
+        private void finished() {
+            synchronized (this) {
+                if (opened) {
+                    active.decrementAndGet();
+                    open.remove(this);
+                }
+            }
+        }
+
+        @Override
+        public LimitOrder getOrder() {
+            return order;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.tsavo.strategy;
+
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.math.BigDecimal;
+
+/**
+ * A market whose trailing stops are worked by a {@link TrailingStopEngine}. Strategies trading through it get
+ * {@link AsyncTrailingOrder}s, so waiting for a fill no longer ties up one of the runtime's threads. Wrappers inside
+ * it, in the engine's market, see the orders the engine places once a stop triggers; wrappers outside it see the
+ * stops themselves and keep them asynchronous. Resumed stops find it through any wrappers outside it, see
+ * {@link ForwardingMarket#resumeTrailStop(LimitOrder, BigDecimal, BigDecimal)}.
+ */
+public class TrailingStopMarket extends ForwardingMarket {
+    public final TrailingStopEngine engine;
+
+    public TrailingStopMarket(TrailingStopEngine engine) {
+        super(engine.market);
+        this.engine = engine;
+    }
+
+    @Override
+    public TrailingOrder createTrailStopMarketMakerLimitOrder(LimitOrder order, BigDecimal amountToTrailBy) {
+        return engine.createTrailStop(order, amountToTrailBy);
+    }
+
+    /**
+     * @see TrailingStopEngine#resumeTrailStop(LimitOrder, BigDecimal, BigDecimal)
+     */
+    @Override
+    public TrailingOrder resumeTrailStop(LimitOrder order, BigDecimal amountToTrailBy, BigDecimal level) {
+        return engine.resumeTrailStop(order, amountToTrailBy, level);
+    }
+}
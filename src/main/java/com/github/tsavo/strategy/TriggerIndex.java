@@ -0,0 +1,132 @@
+package com.github.tsavo.strategy;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Sorted buy and sell triggers for every strategy on one pair. Subscribed to the pair's {@link OrderBookFeed}, it
+ * passes each book update only to the strategies whose trigger lies beyond the new top of book, plus those that
+ * cannot name a trigger, and hands them to the dispatcher to be evaluated. Finding them costs O(log n + k), so idle
+ * strategies far from their triggers cost nothing per update.
+ * <p>
+ * A strategy may also name a {@link PriceTriggered#getValuationTrigger() valuation trigger}, a bid below which it
+ * has to look again although neither trigger was crossed.
+ * <p>
+ * Strategies stay in the index while their trigger is crossed, e.g. while cooling down after a fill, and re-register
+ * through {@link #update(Strategy)} whenever their triggers move.
+ */
+public class TriggerIndex implements BookListener {
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final Consumer<Strategy> dispatcher;
+    private final TreeMap<Long, Set<Strategy>> buyTriggers = new TreeMap<>();
+    private final TreeMap<Long, Set<Strategy>> sellTriggers = new TreeMap<>();
+    private final TreeMap<Long, Set<Strategy>> valuationTriggers = new TreeMap<>();
+    private final Set<Strategy> untriggered = new LinkedHashSet<>();
+    private final Map<Strategy, long[]> registered = new HashMap<>();
+
+    public TriggerIndex(Consumer<Strategy> dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    public synchronized void add(Strategy strategy) {
+        if (strategy instanceof AbstractStrategy) {
+            ((AbstractStrategy) strategy).triggerIndex = this;
+        }
+        index(strategy);
+    }
+
+    public synchronized void remove(Strategy strategy) {
+        unindex(strategy);
+        if (strategy instanceof AbstractStrategy && ((AbstractStrategy) strategy).triggerIndex == this) {
+            ((AbstractStrategy) strategy).triggerIndex = null;
+        }
+    }
+
+    /**
+     * Re-reads the strategy's triggers after they moved.
+     */
+    public synchronized void update(Strategy strategy) {
+        unindex(strategy);
+        index(strategy);
+    }
+
+    public synchronized int size() {
+        return registered.size() + untriggered.size();
+    }
+
+    @Override
+    public void onBookUpdate(BookSnapshot snapshot) {
+        if (snapshot.isEmpty()) {
+            return;
+        }
+        long ask = Fixed.of(snapshot.getLowestAsk());
+        long bid = Fixed.of(snapshot.getHighestBid());
+        Set<Strategy> crossed = new LinkedHashSet<>();
+        synchronized (this) {
+            crossed.addAll(untriggered);
+            for (Set<Strategy> level : buyTriggers.tailMap(ask, false).values()) {
+                crossed.addAll(level);
+            }
+            for (Set<Strategy> level : sellTriggers.headMap(bid, false).values()) {
+                crossed.addAll(level);
+            }
+            for (Set<Strategy> level : valuationTriggers.tailMap(bid, false).values()) {
+                crossed.addAll(level);
+            }
+        }
+        for (Strategy strategy : crossed) {
+            strategy.onBookUpdate(snapshot);
+            dispatcher.accept(strategy);
+        }
+    }
+
+    private void index(Strategy strategy) {
+        if (!(strategy instanceof PriceTriggered)) {
+            untriggered.add(strategy);
+            return;
+        }
+        BigDecimal buy = ((PriceTriggered) strategy).getBuyTrigger();
+        BigDecimal sell = ((PriceTriggered) strategy).getSellTrigger();
+        if (buy == null || sell == null) {
+            untriggered.add(strategy);
+            return;
+        }
+        BigDecimal valuation = ((PriceTriggered) strategy).getValuationTrigger();
+        long[] keys = {Fixed.of(buy), Fixed.of(sell), valuation == null ? NONE : Fixed.of(valuation)};
+        buyTriggers.computeIfAbsent(keys[0], k -> new LinkedHashSet<>()).add(strategy);
+        sellTriggers.computeIfAbsent(keys[1], k -> new LinkedHashSet<>()).add(strategy);
+        if (keys[2] != NONE) {
+            valuationTriggers.computeIfAbsent(keys[2], k -> new LinkedHashSet<>()).add(strategy);
+        }
+        registered.put(strategy, keys);
+    }
+
+    private void unindex(Strategy strategy) {
+        untriggered.remove(strategy);
+        long[] keys = registered.remove(strategy);
+        if (keys == null) {
+            return;
+        }
+        removeFrom(buyTriggers, keys[0], strategy);
+        removeFrom(sellTriggers, keys[1], strategy);
+        if (keys[2] != NONE) {
+            removeFrom(valuationTriggers, keys[2], strategy);
+        }
+    }
+
+    private static void removeFrom(TreeMap<Long, Set<Strategy>> triggers, long key, Strategy strategy) {
+        Set<Strategy> level = triggers.get(key);
+        if (level != null) {
+            level.remove(strategy);
+            if (level.isEmpty()) {
+                triggers.remove(key);
+            }
+        }
+    }
+}
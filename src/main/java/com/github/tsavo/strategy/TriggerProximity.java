@@ -0,0 +1,52 @@
+package com.github.tsavo.strategy;
+
+import org.knowm.xchange.currency.CurrencyPair;
+
+/**
+ * Where a strategy stood relative to its triggers on its last tick, as read by a {@link CadenceController}. A
+ * distance is the fraction of the price still to be covered before that side fires: 0 when it is already crossed,
+ * {@link Double#POSITIVE_INFINITY} when price alone cannot fire it. A side cannot fire before its allowedAt time,
+ * in milliseconds on the strategy's clock, whatever its distance.
+ */
+public class TriggerProximity {
+    public final CurrencyPair currencyPair;
+    /**
+     * The price the strategy saw, in satoshi units.
+     */
+    public final long price;
+    public final long at;
+    public final double buyDistance;
+    public final long buyAllowedAt;
+    public final double sellDistance;
+    public final long sellAllowedAt;
+
+    public TriggerProximity(CurrencyPair currencyPair, long price, long at, double buyDistance, long buyAllowedAt, double sellDistance, long sellAllowedAt) {
+        this.currencyPair = currencyPair;
+        this.price = price;
+        this.at = at;
+        this.buyDistance = buyDistance;
+        this.buyAllowedAt = buyAllowedAt;
+        this.sellDistance = sellDistance;
+        this.sellAllowedAt = sellAllowedAt;
+    }
+
+    /**
+     * The distance for a side that fires once the price drops below the trigger.
+     */
+    public static double below(long price, double trigger) {
+        if (Double.isNaN(trigger) || price <= 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return price < trigger ? 0 : (price - trigger) / price;
+    }
+
+    /**
+     * The distance for a side that fires once the price rises above the trigger.
+     */
+    public static double above(long price, double trigger) {
+        if (Double.isNaN(trigger) || price <= 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return price > trigger ? 0 : (trigger - price) / price;
+    }
+}
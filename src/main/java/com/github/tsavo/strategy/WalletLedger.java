@@ -0,0 +1,225 @@
+package com.github.tsavo.strategy;
+
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the account's balances in memory for every strategy trading through it. A balance is fetched from the
+ * exchange the first time it is asked for; after that our own fills are applied the moment fillOrCancel() returns,
+ * so strategies read balances without a network call and need not wait for the exchange to settle.
+ * <p>
+ * The base side of a fill is exact. The counter side is valued at the {@link FillPrices fill price} less the
+ * expected fee, which may only be an estimate, so the ledger reconciles with the exchange settleDelay milliseconds
+ * after each fill or cancel, on the period given to {@link #start}, and whenever an order fails to open. A reconcile
+ * that finds a balance off by more than the tolerance counts as drift.
+ */
+public class WalletLedger extends ForwardingMarket {
+    public long settleDelay = 5000;
+    public BigDecimal tolerance = new BigDecimal("0.00000001");
+    /**
+     * The expected fee as a fraction of the counter amount, e.g. 0.0025.
+     */
+    public BigDecimal feeRate = BigDecimal.ZERO;
+
+    private final Map<Currency, Balance> balances = new ConcurrentHashMap<>();
+    private final FillPrices fillPrices = new FillPrices();
+    private final AtomicLong drifts = new AtomicLong();
+    private volatile ScheduledExecutorService executor;
+    private ScheduledFuture<?> periodic;
+
+    public WalletLedger(Market market) {
+        super(market);
+    }
+
+    /**
+     * Reconciles every period, and after fills and cancels once settleDelay has passed.
+     */
+    public synchronized void start(ScheduledExecutorService executor, long period, TimeUnit unit) {
+        stop();
+        this.executor = executor;
+        periodic = executor.scheduleWithFixedDelay(this::reconcile, period, period, unit);
+    }
+
+    public synchronized void stop() {
+        if (periodic != null) {
+            periodic.cancel(false);
+            periodic = null;
+        }
+        executor = null;
+    }
+
+    @Override
+    public boolean isSettledOnFill() {
+        return true;
+    }
+
+    @Override
+    public BigDecimal getBalance(Currency currency) {
+        Balance balance = balances.computeIfAbsent(currency, key -> new Balance());
+        synchronized (balance) {
+            if (balance.amount != null) {
+                return balance.amount;
+            }
+        }
+        BigDecimal fetched = super.getBalance(currency);
+        synchronized (balance) {
+            if (balance.amount == null) {
+                balance.amount = fetched;
+            }
+            return balance.amount;
+        }
+    }
+
+    @Override
+    public List<LimitOrder> getLowestAsks(CurrencyPair currencyPair) {
+        List<LimitOrder> asks = super.getLowestAsks(currencyPair);
+        fillPrices.observeAsks(currencyPair, asks);
+        return asks;
+    }
+
+    @Override
+    public List<LimitOrder> getHighestBids(CurrencyPair currencyPair) {
+        List<LimitOrder> bids = super.getHighestBids(currencyPair);
+        fillPrices.observeBids(currencyPair, bids);
+        return bids;
+    }
+
+    @Override
+    protected TrailingOrder wrap(TrailingOrder order) {
+        return ForwardingOrder.keepAsync(new LedgerOrder(order));
+    }
+
+    /**
+     * Applies a fill of one of our orders to the base and counter balances.
+     */
+    public void applyFill(LimitOrder order) {
+        CurrencyPair currencyPair = order.getCurrencyPair();
+        BigDecimal amount = order.getTradableAmount();
+        BigDecimal price = fillPrices.priceOf(order);
+        BigDecimal value = amount.multiply(price);
+        BigDecimal fee = value.multiply(feeRate);
+        if (order.getType() == Order.OrderType.BID) {
+            adjust(currencyPair.base, amount);
+            adjust(currencyPair.counter, value.add(fee).setScale(8, BigDecimal.ROUND_HALF_EVEN).negate());
+        } else {
+            adjust(currencyPair.base, amount.negate());
+            adjust(currencyPair.counter, value.subtract(fee).setScale(8, BigDecimal.ROUND_HALF_EVEN));
+        }
+        scheduleReconcile();
+    }
+
+    private void adjust(Currency currency, BigDecimal change) {
+        Balance balance = balances.computeIfAbsent(currency, key -> new Balance());
+        synchronized (balance) {
+            balance.version++;
+            if (balance.amount != null) {
+                balance.amount = balance.amount.add(change);
+            }
+        }
+    }
+
+    /**
+     * Replaces every balance with the exchange's. A balance that one of our fills changed while it was being fetched
+     * is left for the next reconcile.
+     */
+    public void reconcile() {
+        for (Map.Entry<Currency, Balance> entry : new ArrayList<>(balances.entrySet())) {
+            Balance balance = entry.getValue();
+            long version;
+            synchronized (balance) {
+                version = balance.version;
+            }
+            BigDecimal actual;
+            try {
+                actual = super.getBalance(entry.getKey());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                continue;
+            }
+            synchronized (balance) {
+                if (balance.version != version) {
+                    continue;
+                }
+                if (balance.amount != null && balance.amount.subtract(actual).abs().compareTo(tolerance) > 0) {
+                    drifts.incrementAndGet();
+                }
+                balance.amount = actual;
+            }
+        }
+    }
+
+    /**
+     * Forgets every balance so the next read of each goes to the exchange.
+     */
+    public void invalidate() {
+        for (Balance balance : balances.values()) {
+            synchronized (balance) {
+                balance.version++;
+                balance.amount = null;
+            }
+        }
+    }
+
+    private void scheduleReconcile() {
+        ScheduledExecutorService scheduler = executor;
+        if (scheduler != null) {
+            scheduler.schedule(this::reconcile, settleDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * How many reconciles found a balance further from the exchange's than the tolerance.
+     */
+    public long getDrifts() {
+        return drifts.get();
+    }
+
+    private static class Balance {
+        BigDecimal amount;
+        long version;
+    }
+
+    private class LedgerOrder extends ForwardingOrder {
+        LedgerOrder(TrailingOrder order) {
+            super(order);
+        }
+
+        @Override
+        public void openOrder() throws IOException {
+            try {
+                order.openOrder();
+            } catch (IOException | RuntimeException e) {
+                invalidate();
+                throw e;
+            }
+        }
+
+        @Override
+        protected void completed(boolean filled) {
+            if (filled) {
+                applyFill(order.getOrder());
+            } else {
+                scheduleReconcile();
+            }
+        }
+
+        @Override
+        public void cancelOrder() throws IOException {
+            order.cancelOrder();
+            scheduleReconcile();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.tsavo.strategy.backtest;
+
+import com.github.tsavo.strategy.Fixed;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * A {@link MarketHistory} held in primitive arrays on the heap.
+ */
+public class ArrayMarketHistory implements MarketHistory {
+    private final CurrencyPair currencyPair;
+    private int size;
+    private long[] times = new long[1024];
+    private long[] bids = new long[1024];
+    private long[] bidSizes = new long[1024];
+    private long[] asks = new long[1024];
+    private long[] askSizes = new long[1024];
+
+    public ArrayMarketHistory(CurrencyPair currencyPair) {
+        this.currencyPair = currencyPair;
+    }
+
+    /**
+     * Reads lines of time,bid,bidSize,ask,askSize with the time in epoch milliseconds and decimal prices and sizes.
+     * A header line is skipped.
+     */
+    public static ArrayMarketHistory readCsv(CurrencyPair currencyPair, Reader reader) throws IOException {
+        ArrayMarketHistory history = new ArrayMarketHistory(currencyPair);
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || !Character.isDigit(line.charAt(0))) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            history.add(Long.parseLong(fields[0].trim()), parse(fields[1]), parse(fields[2]), parse(fields[3]), parse(fields[4]));
+        }
+        return history;
+    }
+
+    private static long parse(String field) {
+        return Fixed.of(new BigDecimal(field.trim()));
+    }
+
+    /**
+     * Appends a record. Records must be added in time order.
+     */
+    public void add(long time, long bid, long bidSize, long ask, long askSize) {
+        if (size > 0 && time < times[size - 1]) {
+            throw new IllegalArgumentException("Records must be added in time order");
+        }
+        if (size == times.length) {
+            int capacity = size * 2;
+            times = Arrays.copyOf(times, capacity);
+            bids = Arrays.copyOf(bids, capacity);
+            bidSizes = Arrays.copyOf(bidSizes, capacity);
+            asks = Arrays.copyOf(asks, capacity);
+            askSizes = Arrays.copyOf(askSizes, capacity);
+        }
+        times[size] = time;
+        bids[size] = bid;
+        bidSizes[size] = bidSize;
+        asks[size] = ask;
+        askSizes[size] = askSize;
+        size++;
+    }
+
+    @Override
+    public CurrencyPair getCurrencyPair() {
+        return currencyPair;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    @Override
+    public long getBid(int index) {
+        return bids[index];
+    }
+
+    @Override
+    public long getBidSize(int index) {
+        return bidSizes[index];
+    }
+
+    @Override
+    public long getAsk(int index) {
+        return asks[index];
+    }
+
+    @Override
+    public long getAskSize(int index) {
+        return askSizes[index];
+    }
+}
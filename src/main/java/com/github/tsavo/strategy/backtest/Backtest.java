@@ -0,0 +1,59 @@
+package com.github.tsavo.strategy.backtest;
+
+import com.github.tsavo.strategy.AbstractStrategy;
+import com.github.tsavo.strategy.Fixed;
+import com.github.tsavo.strategy.Market;
+import com.github.tsavo.strategy.Strategy;
+
+import java.math.BigDecimal;
+import java.util.function.Function;
+
+/**
+ * Replays a {@link MarketHistory} through one strategy on a {@link SimulatedMarket}. The strategy is evaluated once
+ * per record, in simulated time, so its cooldowns and post-fill waits take no wall clock time at all.
+ * <p>
+ * The history is only read, so one Backtest can run many strategies at once from different threads.
+ */
+public class Backtest {
+    public final MarketHistory history;
+    public BigDecimal startingBase = BigDecimal.ZERO;
+    public BigDecimal startingCounter = new BigDecimal(10000);
+    public BigDecimal feeRate = new BigDecimal("0.0025");
+
+    public Backtest(MarketHistory history) {
+        this.history = history;
+    }
+
+    /**
+     * Runs a fresh strategy built by the factory against its own simulated market.
+     */
+    public BacktestResult run(Function<Market, Strategy> strategyFactory) {
+        if (history.size() == 0) {
+            throw new IllegalArgumentException("Nothing to replay");
+        }
+        VirtualClock clock = new VirtualClock(history.getTime(0));
+        SimulatedMarket market = new SimulatedMarket(history, clock, Fixed.of(startingBase), Fixed.of(startingCounter), Fixed.of(feeRate));
+        Strategy strategy = strategyFactory.apply(market);
+        if (strategy instanceof AbstractStrategy) {
+            ((AbstractStrategy) strategy).clock = clock;
+        }
+        long started = System.nanoTime();
+        int ticks = 0;
+        int errors = 0;
+        Exception firstError = null;
+        long firstErrorAt = 0;
+        while (market.advance()) {
+            ticks++;
+            try {
+                strategy.findOpportunities();
+            } catch (Exception e) {
+                if (errors++ == 0) {
+                    firstError = e;
+                    firstErrorAt = clock.millis();
+                }
+            }
+        }
+        strategy.cancel();
+        return new BacktestResult(market, ticks, errors, firstError, firstErrorAt, System.nanoTime() - started);
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.tsavo.strategy.backtest;
+
+import com.github.tsavo.strategy.Fixed;
+import org.knowm.xchange.dto.Order.OrderType;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * P&L and fills of one {@link Backtest} run. Money amounts are in the counter currency.
+ */
+public class BacktestResult {
+    public final BigDecimal startEquity;
+    public final BigDecimal endEquity;
+    public final BigDecimal realizedProfit;
+    public final BigDecimal fees;
+    /**
+     * Change in equity over the run, in percent.
+     */
+    public final BigDecimal returnPercent;
+    /**
+     * Largest fall from an equity peak, in percent.
+     */
+    public final BigDecimal maxDrawdownPercent;
+    public final List<Fill> fills;
+    public final int buys;
+    public final int sells;
+    public final int ticks;
+    public final int errors;
+    /**
+     * What the strategy threw the first time it failed, or null if it never did. Later failures are only counted.
+     */
+    public final Exception firstError;
+    /**
+     * The simulated time of the first failure.
+     */
+    public final long firstErrorAt;
+    public final long from;
+    public final long to;
+    public final long elapsedNanos;
+
+    BacktestResult(SimulatedMarket market, int ticks, int errors, Exception firstError, long firstErrorAt, long elapsedNanos) {
+        long start = market.getStartEquity();
+        long end = market.getEquity();
+        this.startEquity = Fixed.toBigDecimal(start);
+        this.endEquity = Fixed.toBigDecimal(end);
+        this.realizedProfit = Fixed.toBigDecimal(market.getRealizedProfit());
+        this.fees = Fixed.toBigDecimal(market.getFees());
+        this.returnPercent = start == 0 ? BigDecimal.ZERO : Fixed.toBigDecimal(Fixed.multiplyDivide(end - start, Fixed.HUNDRED, start)).setScale(2, BigDecimal.ROUND_HALF_EVEN);
+        this.maxDrawdownPercent = Fixed.toBigDecimal(market.getMaxDrawdown() * 100).setScale(2, BigDecimal.ROUND_HALF_EVEN);
+        this.fills = Collections.unmodifiableList(market.fills);
+        int buys = 0;
+        for (Fill fill : market.fills) {
+            if (fill.type == OrderType.BID) {
+                buys++;
+            }
+        }
+        this.buys = buys;
+        this.sells = market.fills.size() - buys;
+        this.ticks = ticks;
+        this.errors = errors;
+        this.firstError = firstError;
+        this.firstErrorAt = firstErrorAt;
+        this.from = market.history.getTime(0);
+        this.to = market.history.getTime(market.history.size() - 1);
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * The summary, the first error's stack trace if there was one, and every fill, one per line.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder(toString());
+        if (firstError != null) {
+            StringWriter trace = new StringWriter();
+            firstError.printStackTrace(new PrintWriter(trace));
+            report.append('\n').append(trace.toString().trim());
+        }
+        for (Fill fill : fills) {
+            report.append('\n').append(fill);
+        }
+        return report.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "Replayed " + ticks + " ticks from " + Instant.ofEpochMilli(from) + " to " + Instant.ofEpochMilli(to) + " in " + Duration.ofNanos(elapsedNanos).toMillis() + "ms"
+                + ": equity " + startEquity + " -> " + endEquity + " (" + returnPercent + "%), max drawdown " + maxDrawdownPercent + "%, realized " + realizedProfit
+                + ", fees " + fees + ", " + buys + " buys, " + sells + " sells" + (errors > 0 ? ", " + errors + " errors, the first at " + Instant.ofEpochMilli(firstErrorAt) + ": " + firstError : "") + ".";
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.tsavo.strategy.backtest;
+
+import com.github.tsavo.strategy.Fixed;
+import org.knowm.xchange.dto.Order.OrderType;
+
+import java.time.Instant;
+
+/**
+ * One simulated fill. Amounts and prices are in satoshi units.
+ */
+public class Fill {
+    public final long time;
+    public final OrderType type;
+    public final long amount;
+    public final long price;
+    public final long fee;
+    public final long baseAfter;
+    public final long counterAfter;
+
+    public Fill(long time, OrderType type, long amount, long price, long fee, long baseAfter, long counterAfter) {
+        this.time = time;
+        this.type = type;
+        this.amount = amount;
+        this.price = price;
+        this.fee = fee;
+        this.baseAfter = baseAfter;
+        this.counterAfter = counterAfter;
+    }
+
+    @Override
+    public String toString() {
+        return Instant.ofEpochMilli(time) + " " + (type == OrderType.BID ? "BUY " : "SELL ") + Fixed.toBigDecimal(amount) + "@" + Fixed.toBigDecimal(price)
+                + " fee " + Fixed.toBigDecimal(fee) + " -> " + Fixed.toBigDecimal(baseAfter) + "/" + Fixed.toBigDecimal(counterAfter);
+    }
+}
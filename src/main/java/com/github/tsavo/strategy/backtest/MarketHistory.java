@@ -0,0 +1,41 @@
+package com.github.tsavo.strategy.backtest;
+
+import org.knowm.xchange.currency.CurrencyPair;
+
+/**
+ * Recorded top of book for one pair, oldest first. Times are epoch milliseconds; prices and sizes are in satoshi
+ * units (see {@link com.github.tsavo.strategy.Fixed}). Implementations are read-only, so one history can be shared by
+ * any number of concurrent replays.
+ */
+public interface MarketHistory {
+    public CurrencyPair getCurrencyPair();
+
+    public int size();
+
+    public long getTime(int index);
+
+    public long getBid(int index);
+
+    public long getBidSize(int index);
+
+    public long getAsk(int index);
+
+    public long getAskSize(int index);
+
+    /**
+     * The index of the first record at or after the given time, or size() if there is none.
+     */
+    public default int indexOf(long time) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getTime(middle) < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
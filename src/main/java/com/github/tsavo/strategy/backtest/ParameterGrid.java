@@ -0,0 +1,65 @@
+package com.github.tsavo.strategy.backtest;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Named parameter ranges whose cartesian product is swept by a {@link ParameterSweep}.
+ */
+public class ParameterGrid {
+    private final Map<String, List<BigDecimal>> ranges = new LinkedHashMap<>();
+
+    public ParameterGrid add(String name, List<BigDecimal> values) {
+        ranges.put(name, new ArrayList<>(values));
+        return this;
+    }
+
+    public ParameterGrid add(String name, BigDecimal... values) {
+        return add(name, Arrays.asList(values));
+    }
+
+    /**
+     * Adds from, from + step, ... up to and including to.
+     */
+    public ParameterGrid add(String name, BigDecimal from, BigDecimal to, BigDecimal step) {
+        if (step.signum() <= 0) {
+            throw new IllegalArgumentException("Step must be positive");
+        }
+        List<BigDecimal> values = new ArrayList<>();
+        for (BigDecimal value = from; value.compareTo(to) <= 0; value = value.add(step)) {
+            values.add(value);
+        }
+        return add(name, values);
+    }
+
+    public int size() {
+        int size = 1;
+        for (List<BigDecimal> values : ranges.values()) {
+            size *= values.size();
+        }
+        return size;
+    }
+
+    public List<ParameterSet> combinations() {
+        List<ParameterSet> combinations = new ArrayList<>(size());
+        collect(new ArrayList<>(ranges.keySet()), 0, new LinkedHashMap<>(), combinations);
+        return combinations;
+    }
+
+    private void collect(List<String> names, int depth, Map<String, BigDecimal> current, List<ParameterSet> combinations) {
+        if (depth == names.size()) {
+            combinations.add(new ParameterSet(current));
+            return;
+        }
+        String name = names.get(depth);
+        for (BigDecimal value : ranges.get(name)) {
+            current.put(name, value);
+            collect(names, depth + 1, current, combinations);
+        }
+        current.remove(name);
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.tsavo.strategy.backtest;
+
+import com.github.tsavo.strategy.PivotStrategy;
+import com.tsavo.trade.database.model.Pivot;
+import com.tsavo.trade.database.model.Straddle;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One combination of named strategy parameters from a {@link ParameterGrid}. The applyTo methods copy the
+ * parameters they recognise onto a strategy's configuration; anything not in the set is left alone.
+ * <p>
+ * Pivot: allocationMargin, distributionMargin (each becomes a one-step schedule), establishingPosition,
+ * timeBetweenBuys, timeBetweenSells. Straddle: lowerMargin, upperMargin, pivotMargin, maxAllocation.
+ */
+public class ParameterSet {
+    private final Map<String, BigDecimal> values;
+
+    public ParameterSet(Map<String, BigDecimal> values) {
+        this.values = Collections.unmodifiableMap(new LinkedHashMap<>(values));
+    }
+
+    public BigDecimal get(String name) {
+        return values.get(name);
+    }
+
+    public Map<String, BigDecimal> getValues() {
+        return values;
+    }
+
+    public void applyTo(Pivot pivot) {
+        if (values.containsKey("allocationMargin")) {
+            pivot.allocationMarginSchedule = new ArrayList<>(Collections.singletonList(values.get("allocationMargin")));
+        }
+        if (values.containsKey("distributionMargin")) {
+            pivot.distributionMarginSchedule = new ArrayList<>(Collections.singletonList(values.get("distributionMargin")));
+        }
+        if (values.containsKey("establishingPosition")) {
+            pivot.establishingPosition = values.get("establishingPosition");
+        }
+    }
+
+    public void applyTo(PivotStrategy strategy) {
+        if (values.containsKey("timeBetweenBuys")) {
+            strategy.timeBetweenBuys = values.get("timeBetweenBuys").longValue();
+        }
+        if (values.containsKey("timeBetweenSells")) {
+            strategy.timeBetweenSells = values.get("timeBetweenSells").longValue();
+        }
+    }
+
+    public void applyTo(Straddle straddle) {
+        if (values.containsKey("lowerMargin")) {
+            straddle.lowerMargin = values.get("lowerMargin");
+        }
+        if (values.containsKey("upperMargin")) {
+            straddle.upperMargin = values.get("upperMargin");
+        }
+        if (values.containsKey("pivotMargin")) {
+            straddle.pivotMargin = values.get("pivotMargin");
+        }
+        if (values.containsKey("maxAllocation")) {
+            straddle.maxAllocation = values.get("maxAllocation");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return values.toString();
+    }
+}
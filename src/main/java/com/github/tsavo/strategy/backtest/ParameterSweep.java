@@ -0,0 +1,73 @@
+package com.github.tsavo.strategy.backtest;
+
+import com.github.tsavo.strategy.Market;
+import com.github.tsavo.strategy.Strategy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiFunction;
+
+/**
+ * Backtests every parameter combination against the same history in parallel. Each run gets its own strategy,
+ * simulated market and clock; the history itself is shared read-only and never copied, so runs only contend for
+ * memory bandwidth and throughput grows with the number of cores.
+ */
+public class ParameterSweep {
+    public final Backtest backtest;
+    public final BiFunction<ParameterSet, Market, Strategy> strategyFactory;
+
+    /**
+     * @param strategyFactory builds a strategy with a fresh configuration for the parameters; configurations must
+     *                        not be shared between runs
+     */
+    public ParameterSweep(Backtest backtest, BiFunction<ParameterSet, Market, Strategy> strategyFactory) {
+        this.backtest = backtest;
+        this.strategyFactory = strategyFactory;
+    }
+
+    public List<SweepResult> run(List<ParameterSet> combinations) {
+        return run(combinations, ForkJoinPool.commonPool(), SweepResult.BY_RETURN);
+    }
+
+    /**
+     * Runs every combination on the pool and returns the results ranked by the comparator.
+     */
+    public List<SweepResult> run(List<ParameterSet> combinations, ForkJoinPool pool, Comparator<SweepResult> ranking) {
+        SweepResult[] results = new SweepResult[combinations.size()];
+        pool.invoke(new Runs(combinations, results, 0, results.length));
+        List<SweepResult> ranked = new ArrayList<>(Arrays.asList(results));
+        ranked.sort(ranking);
+        return ranked;
+    }
+
+    private class Runs extends RecursiveAction {
+        private final List<ParameterSet> combinations;
+        private final SweepResult[] results;
+        private final int from;
+        private final int to;
+
+        Runs(List<ParameterSet> combinations, SweepResult[] results, int from, int to) {
+            this.combinations = combinations;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (from < to) {
+                    ParameterSet parameters = combinations.get(from);
+                    results[from] = new SweepResult(parameters, backtest.run(market -> strategyFactory.apply(parameters, market)));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Runs(combinations, results, from, middle), new Runs(combinations, results, middle, to));
+        }
+    }
+}
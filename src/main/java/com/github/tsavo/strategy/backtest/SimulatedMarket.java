@@ -0,0 +1,298 @@
+package com.github.tsavo.strategy.backtest;
+
+import com.github.tsavo.strategy.Fixed;
+import com.github.tsavo.strategy.Market;
+import com.github.tsavo.strategy.TrailingOrder;
+import com.tsavo.trade.database.model.Pivot;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order.OrderType;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A single-pair {@link Market} replaying a {@link MarketHistory} on a {@link VirtualClock}. The replay only moves
+ * forward: {@link #advance()} steps to the next record, and a trailing stop waiting in fillOrCancel() walks the
+ * history itself until it fills or the data runs out, just as a live strategy is blocked while its order trails.
+ * <p>
+ * Orders fill in full at the top of book when their stop triggers, paying feeRate of the traded value. The pivot
+ * schedule actions are only counted; advancing the schedules is the live exchange's job.
+ */
+public class SimulatedMarket implements Market {
+    public final MarketHistory history;
+    public final CurrencyPair currencyPair;
+    public final VirtualClock clock;
+    public final long feeRate;
+    public final List<Fill> fills = new ArrayList<>();
+    public int buyActions;
+    public int sellActions;
+
+    private int cursor = -1;
+    private long base;
+    private long counter;
+    private long averageCost;
+    private long realized;
+    private long fees;
+    private Date lastBuy;
+    private Date lastSell;
+    private long startEquity = -1;
+    private long peakEquity;
+    private long maxDrawdown;
+
+    /**
+     * @param base    starting base balance in satoshis
+     * @param counter starting counter balance in satoshis
+     * @param feeRate fee as a fraction of traded value, in satoshi units (0.25% is 250000)
+     */
+    public SimulatedMarket(MarketHistory history, VirtualClock clock, long base, long counter, long feeRate) {
+        this.history = history;
+        this.currencyPair = history.getCurrencyPair();
+        this.clock = clock;
+        this.base = base;
+        this.counter = counter;
+        this.feeRate = feeRate;
+    }
+
+    /**
+     * Steps to the next record.
+     *
+     * @return false once the history is exhausted
+     */
+    public boolean advance() {
+        if (cursor + 1 >= history.size()) {
+            return false;
+        }
+        moveTo(cursor + 1);
+        return true;
+    }
+
+    public int getCursor() {
+        return cursor;
+    }
+
+    private void moveTo(int index) {
+        cursor = index;
+        clock.set(history.getTime(index));
+        long equity = getEquity();
+        if (startEquity < 0) {
+            startEquity = equity;
+        }
+        if (equity > peakEquity) {
+            peakEquity = equity;
+        } else if (peakEquity > 0) {
+            maxDrawdown = Math.max(maxDrawdown, Fixed.multiplyDivide(peakEquity - equity, Fixed.ONE, peakEquity));
+        }
+    }
+
+    private long mid() {
+        return (history.getBid(cursor) + history.getAsk(cursor)) / 2;
+    }
+
+    /**
+     * Counter balance plus the base balance valued at the mid price, in satoshis.
+     */
+    public long getEquity() {
+        return counter + Fixed.multiply(base, mid());
+    }
+
+    public long getStartEquity() {
+        return startEquity;
+    }
+
+    /**
+     * The largest fall from a previous equity peak, as a fraction in satoshi units.
+     */
+    public long getMaxDrawdown() {
+        return maxDrawdown;
+    }
+
+    public long getRealizedProfit() {
+        return realized;
+    }
+
+    public long getFees() {
+        return fees;
+    }
+
+    @Override
+    public BigDecimal getBalance(Currency currency) {
+        if (currency.equals(currencyPair.base)) {
+            return Fixed.toBigDecimal(base);
+        }
+        if (currency.equals(currencyPair.counter)) {
+            return Fixed.toBigDecimal(counter);
+        }
+        return BigDecimal.ZERO;
+    }
+
+    @Override
+    public BigDecimal getAverageCost(CurrencyPair currencyPair) {
+        return Fixed.toBigDecimal(averageCost);
+    }
+
+    @Override
+    public List<LimitOrder> getLowestAsks(CurrencyPair currencyPair) {
+        if (cursor < 0) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(new LimitOrder.Builder(OrderType.ASK, currencyPair).tradableAmount(Fixed.toBigDecimal(history.getAskSize(cursor))).limitPrice(Fixed.toBigDecimal(history.getAsk(cursor))).build());
+    }
+
+    @Override
+    public List<LimitOrder> getHighestBids(CurrencyPair currencyPair) {
+        if (cursor < 0) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(new LimitOrder.Builder(OrderType.BID, currencyPair).tradableAmount(Fixed.toBigDecimal(history.getBidSize(cursor))).limitPrice(Fixed.toBigDecimal(history.getBid(cursor))).build());
+    }
+
+    @Override
+    public BigDecimal getAmountIn(BigDecimal amount, CurrencyPair currencyPair) {
+        return Fixed.toBigDecimal(Fixed.divide(Fixed.of(amount), mid()));
+    }
+
+    @Override
+    public BigDecimal getPriceIn(BigDecimal amount, CurrencyPair currencyPair) {
+        return Fixed.toBigDecimal(Fixed.multiply(Fixed.of(amount), mid()));
+    }
+
+    @Override
+    public BigDecimal getAveragePrice(CurrencyPair currencyPair) {
+        return Fixed.toBigDecimal(mid());
+    }
+
+    @Override
+    public TrailingOrder createTrailStopMarketMakerLimitOrder(LimitOrder order, BigDecimal amountToTrailBy) {
+        return new SimulatedOrder(order, Fixed.of(amountToTrailBy));
+    }
+
+    @Override
+    public void performBuyAction(Pivot pivot) {
+        buyActions++;
+    }
+
+    @Override
+    public void performSellAction(Pivot pivot) {
+        sellActions++;
+    }
+
+    @Override
+    public Date getLastBuyDate(CurrencyPair currencyPair) {
+        return lastBuy;
+    }
+
+    @Override
+    public Date getLastSellDate(CurrencyPair currencyPair) {
+        return lastSell;
+    }
+
+    /**
+     * Applies a fill at the given price, or returns null if the balance cannot cover it.
+     */
+    private LimitOrder fill(OrderType type, long amount, long price) {
+        long value = Fixed.multiply(amount, price);
+        long fee = Fixed.multiply(value, feeRate);
+        if (type == OrderType.BID) {
+            if (amount <= 0 || value + fee > counter) {
+                return null;
+            }
+            long held = Fixed.multiply(base, averageCost);
+            counter -= value + fee;
+            base += amount;
+            averageCost = Fixed.divide(held + value, base);
+            lastBuy = new Date(clock.millis());
+        } else {
+            amount = Math.min(amount, base);
+            if (amount <= 0) {
+                return null;
+            }
+            value = Fixed.multiply(amount, price);
+            fee = Fixed.multiply(value, feeRate);
+            base -= amount;
+            counter += value - fee;
+            realized += Fixed.multiply(amount, price - averageCost) - fee;
+            lastSell = new Date(clock.millis());
+        }
+        fees += fee;
+        fills.add(new Fill(clock.millis(), type, amount, price, fee, base, counter));
+        return new LimitOrder.Builder(type, currencyPair).tradableAmount(Fixed.toBigDecimal(amount)).limitPrice(Fixed.toBigDecimal(price)).build();
+    }
+
+    @Override
+    public String toString() {
+        return "Simulated " + currencyPair;
+    }
+
+    /**
+     * A trailing stop replayed against the history. A buy follows the ask down and triggers once it bounces by the
+     * trail; a sell follows the bid up and triggers once it drops by the trail. The trigger fills at the top of
+     * book unless that is beyond the order's limit price, in which case the order is cancelled.
+     */
+    private class SimulatedOrder implements TrailingOrder {
+        private LimitOrder order;
+        private final long trail;
+        private final long limit;
+        private final boolean buy;
+        private boolean open;
+        private boolean cancelled;
+        private long extreme;
+
+        SimulatedOrder(LimitOrder order, long trail) {
+            this.order = order;
+            this.trail = trail;
+            this.limit = Fixed.of(order.getLimitPrice());
+            this.buy = order.getType() == OrderType.BID;
+        }
+
+        @Override
+        public void openOrder() {
+            open = true;
+            extreme = buy ? history.getAsk(cursor) : history.getBid(cursor);
+        }
+
+        @Override
+        public boolean fillOrCancel() {
+            if (!open) {
+                return false;
+            }
+            long amount = Fixed.of(order.getTradableAmount());
+            while (!cancelled && advance()) {
+                long price = buy ? history.getAsk(cursor) : history.getBid(cursor);
+                if (buy ? price < extreme : price > extreme) {
+                    extreme = price;
+                    continue;
+                }
+                if (buy ? price < extreme + trail : price > extreme - trail) {
+                    continue;
+                }
+                open = false;
+                if (buy ? price > limit : price < limit) {
+                    return false;
+                }
+                LimitOrder filled = fill(order.getType(), amount, price);
+                if (filled == null) {
+                    return false;
+                }
+                order = filled;
+                return true;
+            }
+            open = false;
+            return false;
+        }
+
+        @Override
+        public void cancelOrder() {
+            cancelled = true;
+        }
+
+        @Override
+        public LimitOrder getOrder() {
+            return order;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.tsavo.strategy.backtest;
+
+import java.math.BigDecimal;
+import java.util.Comparator;
+
+/**
+ * The outcome of one parameter combination in a {@link ParameterSweep}.
+ */
+public class SweepResult {
+    /**
+     * Highest return first; the smaller drawdown wins a tie.
+     */
+    public static final Comparator<SweepResult> BY_RETURN = Comparator.comparing((SweepResult r) -> r.result.returnPercent).reversed()
+            .thenComparing(r -> r.result.maxDrawdownPercent);
+
+    /**
+     * Highest return per percent of drawdown first, treating drawdowns under 1% as 1%.
+     */
+    public static final Comparator<SweepResult> BY_RETURN_OVER_DRAWDOWN = Comparator.comparing(SweepResult::getReturnOverDrawdown).reversed()
+            .thenComparing(BY_RETURN);
+
+    public final ParameterSet parameters;
+    public final BacktestResult result;
+
+    public SweepResult(ParameterSet parameters, BacktestResult result) {
+        this.parameters = parameters;
+        this.result = result;
+    }
+
+    public BigDecimal getReturnOverDrawdown() {
+        return result.returnPercent.divide(result.maxDrawdownPercent.max(BigDecimal.ONE), 4, BigDecimal.ROUND_HALF_EVEN);
+    }
+
+    @Override
+    public String toString() {
+        return parameters + ": " + result.returnPercent + "% return, " + result.maxDrawdownPercent + "% max drawdown, " + result.fills.size() + " fills";
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.tsavo.strategy.backtest;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * A clock that only moves when it is told to, so replayed strategies see the time of the data they are fed.
+ */
+public class VirtualClock extends Clock {
+    private volatile long millis;
+
+    public VirtualClock(long millis) {
+        this.millis = millis;
+    }
+
+    public void set(long millis) {
+        this.millis = millis;
+    }
+
+    public void advance(long millis) {
+        this.millis += millis;
+    }
+
+    @Override
+    public long millis() {
+        return millis;
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        if (zone.equals(getZone())) {
+            return this;
+        }
+        throw new UnsupportedOperationException("A virtual clock only runs in UTC");
+    }
+}
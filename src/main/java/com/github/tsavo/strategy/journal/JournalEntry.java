@@ -0,0 +1,27 @@
+package com.github.tsavo.strategy.journal;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * One change to a strategy's state, appended to the journal. Entries older than the latest snapshot are removed
+ * when the journal is compacted.
+ */
+@Document(collection = "strategyJournal")
+public class JournalEntry {
+    @Id
+    public String id;
+    public String strategyId;
+    public long sequence;
+    public StrategyState state;
+
+    public JournalEntry() {
+    }
+
+    public JournalEntry(long sequence, StrategyState state) {
+        this.id = state.id + ":" + sequence;
+        this.strategyId = state.id;
+        this.sequence = sequence;
+        this.state = state;
+    }
+}
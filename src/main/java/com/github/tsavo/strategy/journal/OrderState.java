@@ -0,0 +1,87 @@
+package com.github.tsavo.strategy.journal;
+
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An open trailing order as journaled: enough to place it again, trailing from where it had got to, and to run the
+ * strategy's post-fill step once it fills. The context holds whatever values that step needs.
+ */
+public class OrderState {
+    public String type;
+    public String currencyPair;
+    public BigDecimal amount;
+    public BigDecimal limit;
+    public BigDecimal trail;
+    /**
+     * The lowest ask (buys) or highest bid (sells) trailed so far, when known.
+     */
+    public BigDecimal level;
+    public Map<String, String> context = new LinkedHashMap<>();
+
+    public OrderState() {
+    }
+
+    public OrderState(LimitOrder order, BigDecimal trail) {
+        this.type = order.getType().name();
+        this.currencyPair = order.getCurrencyPair().toString();
+        this.amount = order.getTradableAmount();
+        this.limit = order.getLimitPrice();
+        this.trail = trail;
+    }
+
+    /**
+     * A copy at the given trail level.
+     */
+    public OrderState atLevel(BigDecimal level) {
+        OrderState copy = new OrderState();
+        copy.type = type;
+        copy.currencyPair = currencyPair;
+        copy.amount = amount;
+        copy.limit = limit;
+        copy.trail = trail;
+        copy.level = level;
+        copy.context = new LinkedHashMap<>(context);
+        return copy;
+    }
+
+    public LimitOrder toLimitOrder() {
+        return new LimitOrder.Builder(Order.OrderType.valueOf(type), new CurrencyPair(currencyPair)).tradableAmount(amount).limitPrice(limit).build();
+    }
+
+    public boolean isBuy() {
+        return Order.OrderType.BID.name().equals(type);
+    }
+
+    public BigDecimal getDecimal(String key) {
+        String value = context.get(key);
+        return value == null ? null : new BigDecimal(value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof OrderState)) return false;
+        OrderState that = (OrderState) o;
+        return Objects.equals(type, that.type) && Objects.equals(currencyPair, that.currencyPair)
+                && Objects.equals(amount, that.amount) && Objects.equals(limit, that.limit)
+                && Objects.equals(trail, that.trail) && Objects.equals(level, that.level)
+                && Objects.equals(context, that.context);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, currencyPair, amount, limit, trail, level, context);
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + amount + " " + currencyPair + " limit " + limit + " trail " + trail + (level == null ? "" : " from " + level);
+    }
+}
@@ -0,0 +1,264 @@
+package com.github.tsavo.strategy.journal;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journals strategy state through MongoOperations so a restarted runtime can pick up where the last one stopped.
+ * Each change is appended as a {@link JournalEntry} by a background writer, in batches. Every snapshotEvery
+ * entries, the latest state of each strategy is saved as a snapshot and the entries it covers are removed.
+ * <p>
+ * Loading reads the snapshots and the entries written after them, two queries however many strategies there are.
+ * <p>
+ * Several runtimes can share the collections as long as each strategy is run by one of them at a time, as in a
+ * sharded runtime. Each then {@link #reload(String)}s only the strategies it takes over instead of loading them all,
+ * {@link #handOff(Collection)}s them when it gives them up, and only ever compacts its own. Once handed off or
+ * {@link #abandon(Collection) abandoned}, a strategy's records are ignored until it is reloaded, so one still
+ * stopping here cannot overwrite the state of the runtime that took it over.
+ */
+public class StrategyJournal {
+    public int snapshotEvery = 1000;
+
+    private final MongoOperations mongo;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "strategy-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, StrategyState> latest = new ConcurrentHashMap<>();
+    private final Map<String, StrategyState> restored = new ConcurrentHashMap<>();
+    private final Set<String> released = new HashSet<>();
+    private final List<JournalEntry> unwritten = new ArrayList<>();
+    private long sequence;
+    private long sinceSnapshot;
+
+    public StrategyJournal(MongoOperations mongo) {
+        this.mongo = mongo;
+    }
+
+    /**
+     * Reads back the state of every journaled strategy. Call once, before any strategy is scheduled.
+     *
+     * @return the states by strategy id
+     */
+    public synchronized Map<String, StrategyState> load() {
+        Map<String, StrategyState> states = new HashMap<>();
+        long snapshotted = Long.MAX_VALUE;
+        for (StrategyState state : mongo.findAll(StrategyState.class)) {
+            states.put(state.id, state);
+            snapshotted = Math.min(snapshotted, state.sequence);
+            sequence = Math.max(sequence, state.sequence);
+        }
+        Query after = new Query();
+        if (snapshotted != Long.MAX_VALUE) {
+            after.addCriteria(Criteria.where("sequence").gt(snapshotted));
+        }
+        for (JournalEntry entry : mongo.find(after.with(new Sort(Sort.Direction.ASC, "sequence")), JournalEntry.class)) {
+            StrategyState known = states.get(entry.strategyId);
+            if (known == null || known.sequence < entry.sequence) {
+                entry.state.sequence = entry.sequence;
+                states.put(entry.strategyId, entry.state);
+            }
+            sequence = Math.max(sequence, entry.sequence);
+        }
+        latest.putAll(states);
+        restored.putAll(states);
+        return states;
+    }
+
+    /**
+     * Reads back one strategy's latest state, as left by whichever runtime ran it last, and makes it the state
+     * {@link #restore(String)} hands out for it.
+     *
+     * @return the state, or null if the strategy has never been journaled
+     */
+    public StrategyState reload(String id) {
+        StrategyState state = mongo.findById(id, StrategyState.class);
+        Query after = Query.query(Criteria.where("strategyId").is(id).and("sequence").gt(state == null ? 0L : state.sequence));
+        List<JournalEntry> newer = mongo.find(after.with(new Sort(Sort.Direction.DESC, "sequence")).limit(1), JournalEntry.class);
+        if (!newer.isEmpty()) {
+            JournalEntry entry = newer.get(0);
+            entry.state.sequence = entry.sequence;
+            state = entry.state;
+        }
+        synchronized (this) {
+            released.remove(id);
+            if (state == null) {
+                latest.remove(id);
+                restored.remove(id);
+                return null;
+            }
+            // Keeps this strategy's sequence rising when its last runtime had counted further than this one.
+            sequence = Math.max(sequence, state.sequence);
+            latest.put(id, state);
+            restored.put(id, state);
+        }
+        return state;
+    }
+
+    /**
+     * Writes out the strategies' latest states as their snapshots and stops journaling them here, for a runtime
+     * giving them up to another that will {@link #reload(String)} them.
+     */
+    public void handOff(Collection<String> ids) {
+        flush();
+        List<StrategyState> states = new ArrayList<>();
+        synchronized (this) {
+            for (String id : ids) {
+                released.add(id);
+                StrategyState state = latest.remove(id);
+                restored.remove(id);
+                if (state != null) {
+                    states.add(state);
+                }
+            }
+        }
+        for (StrategyState state : states) {
+            mongo.save(state);
+        }
+        mongo.remove(Query.query(Criteria.where("strategyId").in(ids)), JournalEntry.class);
+    }
+
+    /**
+     * Stops journaling the strategies here without writing anything more for them, for a runtime that has lost
+     * them to another.
+     */
+    public synchronized void abandon(Collection<String> ids) {
+        for (String id : ids) {
+            released.add(id);
+            latest.remove(id);
+            restored.remove(id);
+        }
+        unwritten.removeIf(entry -> ids.contains(entry.strategyId));
+    }
+
+    /**
+     * Waits until everything recorded so far has been written.
+     */
+    public void flush() {
+        try {
+            writer.submit(this::write).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        }
+    }
+
+    /**
+     * The state loaded for the strategy, if any. Each state is only handed out once.
+     */
+    public StrategyState restore(String id) {
+        return restored.remove(id);
+    }
+
+    /**
+     * Appends the state if it differs from the last one recorded for the strategy, unless the strategy has been
+     * handed off or abandoned since it was last reloaded.
+     */
+    public synchronized void record(String id, StrategyState state) {
+        if (released.contains(id) || state.sameAs(latest.get(id))) {
+            return;
+        }
+        state.id = id;
+        state.sequence = ++sequence;
+        state.savedAt = new Date();
+        latest.put(id, state);
+        unwritten.add(new JournalEntry(state.sequence, state));
+        if (unwritten.size() == 1) {
+            writer.execute(this::write);
+        }
+    }
+
+    /**
+     * Drops a strategy that has been removed for good.
+     */
+    public synchronized void forget(String id) {
+        latest.remove(id);
+        restored.remove(id);
+        writer.execute(() -> {
+            try {
+                mongo.remove(Query.query(Criteria.where("strategyId").is(id)), JournalEntry.class);
+                mongo.remove(Query.query(Criteria.where("id").is(id)), StrategyState.class);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private void write() {
+        List<JournalEntry> batch;
+        boolean compact;
+        synchronized (this) {
+            batch = new ArrayList<>(unwritten);
+            unwritten.clear();
+            sinceSnapshot += batch.size();
+            compact = sinceSnapshot >= snapshotEvery;
+        }
+        if (!batch.isEmpty()) {
+            try {
+                mongo.insert(batch, JournalEntry.class);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        if (compact) {
+            compact();
+        }
+    }
+
+    /**
+     * Saves every strategy's latest state as its snapshot and removes the entries the snapshots cover.
+     */
+    public void compact() {
+        List<StrategyState> states;
+        List<String> ids;
+        long upTo;
+        synchronized (this) {
+            states = new ArrayList<>(latest.values());
+            ids = new ArrayList<>(latest.keySet());
+            upTo = sequence;
+            sinceSnapshot = 0;
+        }
+        try {
+            for (StrategyState state : states) {
+                mongo.save(state);
+            }
+            mongo.remove(Query.query(Criteria.where("strategyId").in(ids).and("sequence").lte(upTo)), JournalEntry.class);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes everything recorded so far, compacts, and stops the writer.
+     */
+    public void close() {
+        writer.execute(() -> {
+            write();
+            compact();
+        });
+        writer.shutdown();
+        try {
+            writer.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.tsavo.strategy.journal;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+import java.util.Objects;
+
+/**
+ * What a strategy needs to carry on after a restart: when it may next trade, and the trailing order it had open, if
+ * any. Stored as the compacted snapshot of a strategy's journal, under the id the runtime gave the strategy.
+ */
+@Document(collection = "strategySnapshots")
+public class StrategyState {
+    @Id
+    public String id;
+    public String kind;
+    /**
+     * The journal sequence this state was recorded at.
+     */
+    public long sequence;
+    public Date savedAt;
+    public long resumeAt;
+    public Date lastReport;
+    public OrderState order;
+
+    public StrategyState() {
+    }
+
+    public StrategyState(String kind) {
+        this.kind = kind;
+    }
+
+    /**
+     * True when the two states would restore the same strategy, whenever and at whichever sequence they were saved.
+     */
+    public boolean sameAs(StrategyState other) {
+        return other != null && Objects.equals(kind, other.kind) && resumeAt == other.resumeAt
+                && Objects.equals(lastReport, other.lastReport) && Objects.equals(order, other.order);
+    }
+
+    @Override
+    public String toString() {
+        return id + " " + kind + " #" + sequence + (order == null ? "" : " " + order);
+    }
+}
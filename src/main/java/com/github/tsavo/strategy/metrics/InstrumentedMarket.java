@@ -0,0 +1,223 @@
+package com.github.tsavo.strategy.metrics;
+
+import com.github.tsavo.strategy.ForwardingMarket;
+import com.github.tsavo.strategy.ForwardingOrder;
+import com.github.tsavo.strategy.Market;
+import com.github.tsavo.strategy.TrailingOrder;
+import com.github.tsavo.traderplan.exchange.NoWalletEntryException;
+import com.tsavo.trade.database.model.Pivot;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Times every call made through it into histograms named {@code market.<name>.<method>}, including the open,
+ * fill-or-cancel and cancel calls of the orders it creates. Failed calls are timed too.
+ */
+public class InstrumentedMarket extends ForwardingMarket {
+    private final LatencyHistogram getBalance;
+    private final LatencyHistogram getAverageCost;
+    private final LatencyHistogram getLowestAsks;
+    private final LatencyHistogram getHighestBids;
+    private final LatencyHistogram getAmountIn;
+    private final LatencyHistogram getPriceIn;
+    private final LatencyHistogram getAveragePrice;
+    private final LatencyHistogram createOrder;
+    private final LatencyHistogram openOrder;
+    private final LatencyHistogram fillOrCancel;
+    private final LatencyHistogram cancelOrder;
+    private final LatencyHistogram performBuyAction;
+    private final LatencyHistogram performSellAction;
+    private final LatencyHistogram getLastBuyDate;
+    private final LatencyHistogram getLastSellDate;
+
+    public InstrumentedMarket(Market market, MetricsRegistry registry) {
+        this(market, registry, market.toString());
+    }
+
+    public InstrumentedMarket(Market market, MetricsRegistry registry, String name) {
+        super(market);
+        String prefix = "market." + name + ".";
+        getBalance = registry.histogram(prefix + "getBalance");
+        getAverageCost = registry.histogram(prefix + "getAverageCost");
+        getLowestAsks = registry.histogram(prefix + "getLowestAsks");
+        getHighestBids = registry.histogram(prefix + "getHighestBids");
+        getAmountIn = registry.histogram(prefix + "getAmountIn");
+        getPriceIn = registry.histogram(prefix + "getPriceIn");
+        getAveragePrice = registry.histogram(prefix + "getAveragePrice");
+        createOrder = registry.histogram(prefix + "createTrailStopMarketMakerLimitOrder");
+        openOrder = registry.histogram(prefix + "openOrder");
+        fillOrCancel = registry.histogram(prefix + "fillOrCancel");
+        cancelOrder = registry.histogram(prefix + "cancelOrder");
+        performBuyAction = registry.histogram(prefix + "performBuyAction");
+        performSellAction = registry.histogram(prefix + "performSellAction");
+        getLastBuyDate = registry.histogram(prefix + "getLastBuyDate");
+        getLastSellDate = registry.histogram(prefix + "getLastSellDate");
+    }
+
+    @Override
+    public BigDecimal getBalance(Currency currency) {
+        long start = System.nanoTime();
+        try {
+            return super.getBalance(currency);
+        } finally {
+            getBalance.recordSince(start);
+        }
+    }
+
+    @Override
+    public BigDecimal getAverageCost(CurrencyPair currencyPair) throws NoWalletEntryException {
+        long start = System.nanoTime();
+        try {
+            return super.getAverageCost(currencyPair);
+        } finally {
+            getAverageCost.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<LimitOrder> getLowestAsks(CurrencyPair currencyPair) {
+        long start = System.nanoTime();
+        try {
+            return super.getLowestAsks(currencyPair);
+        } finally {
+            getLowestAsks.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<LimitOrder> getHighestBids(CurrencyPair currencyPair) {
+        long start = System.nanoTime();
+        try {
+            return super.getHighestBids(currencyPair);
+        } finally {
+            getHighestBids.recordSince(start);
+        }
+    }
+
+    @Override
+    public BigDecimal getAmountIn(BigDecimal amount, CurrencyPair currencyPair) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.getAmountIn(amount, currencyPair);
+        } finally {
+            getAmountIn.recordSince(start);
+        }
+    }
+
+    @Override
+    public BigDecimal getPriceIn(BigDecimal amount, CurrencyPair currencyPair) {
+        long start = System.nanoTime();
+        try {
+            return super.getPriceIn(amount, currencyPair);
+        } finally {
+            getPriceIn.recordSince(start);
+        }
+    }
+
+    @Override
+    public BigDecimal getAveragePrice(CurrencyPair currencyPair) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.getAveragePrice(currencyPair);
+        } finally {
+            getAveragePrice.recordSince(start);
+        }
+    }
+
+    @Override
+    public TrailingOrder createTrailStopMarketMakerLimitOrder(LimitOrder order, BigDecimal amountToTrailBy) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.createTrailStopMarketMakerLimitOrder(order, amountToTrailBy);
+        } finally {
+            createOrder.recordSince(start);
+        }
+    }
+
+    @Override
+    protected TrailingOrder wrap(TrailingOrder order) {
+        return ForwardingOrder.keepAsync(new InstrumentedOrder(order));
+    }
+
+    @Override
+    public void performBuyAction(Pivot pivot) throws IOException {
+        long start = System.nanoTime();
+        try {
+            super.performBuyAction(pivot);
+        } finally {
+            performBuyAction.recordSince(start);
+        }
+    }
+
+    @Override
+    public void performSellAction(Pivot pivot) throws IOException {
+        long start = System.nanoTime();
+        try {
+            super.performSellAction(pivot);
+        } finally {
+            performSellAction.recordSince(start);
+        }
+    }
+
+    @Override
+    public Date getLastBuyDate(CurrencyPair currencyPair) {
+        long start = System.nanoTime();
+        try {
+            return super.getLastBuyDate(currencyPair);
+        } finally {
+            getLastBuyDate.recordSince(start);
+        }
+    }
+
+    @Override
+    public Date getLastSellDate(CurrencyPair currencyPair) {
+        long start = System.nanoTime();
+        try {
+            return super.getLastSellDate(currencyPair);
+        } finally {
+            getLastSellDate.recordSince(start);
+        }
+    }
+
+    private class InstrumentedOrder extends ForwardingOrder {
+        InstrumentedOrder(TrailingOrder order) {
+            super(order);
+        }
+
+        @Override
+        public void openOrder() throws IOException {
+            long start = System.nanoTime();
+            try {
+                order.openOrder();
+            } finally {
+                openOrder.recordSince(start);
+            }
+        }
+
+        @Override
+        public boolean fillOrCancel() throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.fillOrCancel();
+            } finally {
+                fillOrCancel.recordSince(start);
+            }
+        }
+
+        @Override
+        public void cancelOrder() throws IOException {
+            long start = System.nanoTime();
+            try {
+                order.cancelOrder();
+            } finally {
+                cancelOrder.recordSince(start);
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.github.tsavo.strategy.metrics;
+
+/**
+ * The JMX view of a {@link LatencyHistogram}. Latencies are in microseconds.
+ */
+public interface LatencyHistogramMXBean {
+    public long getCount();
+
+    public double getMean();
+
+    public double getMax();
+
+    public double get50thPercentile();
+
+    public double get90thPercentile();
+
+    public double get99thPercentile();
+
+    public double get999thPercentile();
+}
@@ -0,0 +1,102 @@
+package com.github.tsavo.strategy.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The latency histograms of a process by name. Names are dotted paths such as {@code market.Bitfinex.getBalance} or
+ * {@code strategy.PivotStrategy.BTC/USD.decision}. Look a histogram up once and keep it; the lookup is the only
+ * part that allocates.
+ */
+public class MetricsRegistry {
+    public static final MetricsRegistry DEFAULT = new MetricsRegistry();
+    public static final String JMX_DOMAIN = "com.github.tsavo.strategy";
+
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private volatile MBeanServer mbeanServer;
+
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram != null) {
+            return histogram;
+        }
+        histogram = histograms.computeIfAbsent(name, LatencyHistogram::new);
+        MBeanServer server = mbeanServer;
+        if (server != null) {
+            register(server, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * The histograms sorted by name.
+     */
+    public Map<String, LatencyHistogram> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    /**
+     * Publishes every histogram, including ones created later, as an MXBean named
+     * {@code com.github.tsavo.strategy:type=Latency,name="..."}.
+     */
+    public void registerMBeans(MBeanServer server) {
+        mbeanServer = server;
+        for (LatencyHistogram histogram : histograms.values()) {
+            register(server, histogram);
+        }
+    }
+
+    public void registerMBeans() {
+        registerMBeans(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    private void register(MBeanServer server, LatencyHistogram histogram) {
+        try {
+            server.registerMBean(histogram, new ObjectName(JMX_DOMAIN + ":type=Latency,name=" + ObjectName.quote(histogram.name)));
+        } catch (InstanceAlreadyExistsException e) {
+            // Registered by an earlier call.
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes every histogram in the Prometheus text format as a summary in seconds, with quantiles 0.5, 0.9, 0.99
+     * and 0.999.
+     */
+    public void writeText(Appendable out) throws IOException {
+        out.append("# TYPE traderplan_latency_seconds summary\n");
+        for (LatencyHistogram histogram : getHistograms().values()) {
+            String label = "name=\"" + escape(histogram.name) + "\"";
+            writeQuantile(out, label, "0.5", histogram.getValueAtPercentile(50));
+            writeQuantile(out, label, "0.9", histogram.getValueAtPercentile(90));
+            writeQuantile(out, label, "0.99", histogram.getValueAtPercentile(99));
+            writeQuantile(out, label, "0.999", histogram.getValueAtPercentile(99.9));
+            out.append("traderplan_latency_seconds_sum{").append(label).append("} ").append(seconds(histogram.getTotalNanos())).append('\n');
+            out.append("traderplan_latency_seconds_count{").append(label).append("} ").append(Long.toString(histogram.getCount())).append('\n');
+        }
+        out.append("# TYPE traderplan_latency_max_seconds gauge\n");
+        for (LatencyHistogram histogram : getHistograms().values()) {
+            out.append("traderplan_latency_max_seconds{name=\"").append(escape(histogram.name)).append("\"} ").append(seconds(histogram.getMaxNanos())).append('\n');
+        }
+    }
+
+    private static void writeQuantile(Appendable out, String label, String quantile, long nanos) throws IOException {
+        out.append("traderplan_latency_seconds{").append(label).append(",quantile=\"").append(quantile).append("\"} ").append(seconds(nanos)).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static String escape(String name) {
+        return name.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.tsavo.strategy.metrics;
+
+/**
+ * The phase histograms of one strategy, named {@code strategy.<name>.<phase>}.
+ */
+public class StrategyMetrics {
+    public enum Phase {
+        /**
+         * A whole findOpportunities() call.
+         */
+        TICK("tick"),
+        /**
+         * Deciding whether to buy or sell, including the market reads the decision needs.
+         */
+        DECISION("decision"),
+        /**
+         * Placing the order.
+         */
+        ORDER_OPEN("orderOpen"),
+        /**
+         * From placing the order until it filled or was cancelled.
+         */
+        FILL("fill"),
+        /**
+         * The post-fill step that re-reads balances and reports the trade.
+         */
+        SETTLE("settle");
+
+        public final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    public final String name;
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+
+    public StrategyMetrics(MetricsRegistry registry, String name) {
+        this.name = name;
+        for (Phase phase : Phase.values()) {
+            histograms[phase.ordinal()] = registry.histogram("strategy." + name + "." + phase.label);
+        }
+    }
+
+    public LatencyHistogram get(Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    public void recordSince(Phase phase, long startNanos) {
+        histograms[phase.ordinal()].recordSince(startNanos);
+    }
+}
@@ -0,0 +1,55 @@
+package com.github.tsavo.strategy.shard;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Consistent hashing of shard keys onto workers. Each worker is placed at virtualNodes points on a ring and a key
+ * belongs to the first worker point at or after its own hash, so a worker joining or leaving only moves the keys
+ * next to its points, about 1/n of them, and every worker that sees the same members agrees on every owner.
+ */
+public class HashRing {
+    private final TreeMap<Long, String> points = new TreeMap<>();
+
+    public HashRing(Collection<String> workers, int virtualNodes) {
+        for (String worker : workers) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.put(hash(worker + "#" + i), worker);
+            }
+        }
+    }
+
+    /**
+     * The worker the key belongs to, or null when there are no workers.
+     */
+    public String ownerOf(String key) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(key));
+        return point == null ? points.firstEntry().getValue() : point.getValue();
+    }
+
+    public Collection<String> getWorkers() {
+        return Collections.unmodifiableCollection(new TreeSet<>(points.values()));
+    }
+
+    static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = hash << 8 | (digest[i] & 0xFF);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
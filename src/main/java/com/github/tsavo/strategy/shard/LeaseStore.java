@@ -0,0 +1,73 @@
+package com.github.tsavo.strategy.shard;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shard leases and worker heartbeats kept through MongoOperations. Taking or renewing a lease is a single
+ * findAndModify that only matches a lease which is free, expired or already ours, so of any number of workers
+ * racing for a shard exactly one ends up holding it.
+ * <p>
+ * Expiry times are compared across workers, so their clocks have to agree to well within the lease time, as they
+ * do for JVMs on one machine.
+ */
+public class LeaseStore {
+    private final MongoOperations mongo;
+
+    public LeaseStore(MongoOperations mongo) {
+        this.mongo = mongo;
+    }
+
+    /**
+     * Takes the lease on the shard for the worker, or renews it if the worker already holds it.
+     *
+     * @return false if another worker holds it
+     */
+    public boolean acquire(String shard, String worker, long now, long leaseTime) {
+        Query claimable = Query.query(Criteria.where("id").is(shard).orOperator(Criteria.where("owner").is(worker), Criteria.where("expiresAt").lt(now)));
+        Update claim = new Update().set("owner", worker).set("expiresAt", now + leaseTime);
+        try {
+            ShardLease lease = mongo.findAndModify(claimable, claim, FindAndModifyOptions.options().upsert(true).returnNew(true), ShardLease.class);
+            return lease != null && worker.equals(lease.owner);
+        } catch (DuplicateKeyException e) {
+            // The lease exists and is held by someone else, so the upsert tried to insert a second one.
+            return false;
+        }
+    }
+
+    /**
+     * Gives up the worker's lease on the shard so another worker can take it straight away.
+     */
+    public void release(String shard, String worker) {
+        mongo.updateFirst(Query.query(Criteria.where("id").is(shard).and("owner").is(worker)), new Update().set("owner", null).set("expiresAt", 0L), ShardLease.class);
+    }
+
+    public void heartbeat(String worker, long now, long ttl) {
+        mongo.findAndModify(Query.query(Criteria.where("id").is(worker)), new Update().set("expiresAt", now + ttl), FindAndModifyOptions.options().upsert(true), WorkerHeartbeat.class);
+    }
+
+    /**
+     * The workers whose heartbeats have not expired.
+     */
+    public List<String> liveWorkers(long now) {
+        List<String> workers = new ArrayList<>();
+        for (WorkerHeartbeat heartbeat : mongo.find(Query.query(Criteria.where("expiresAt").gt(now)), WorkerHeartbeat.class)) {
+            workers.add(heartbeat.id);
+        }
+        return workers;
+    }
+
+    /**
+     * Removes the worker's heartbeat, so the others rebalance without waiting for it to expire.
+     */
+    public void leave(String worker) {
+        mongo.remove(Query.query(Criteria.where("id").is(worker)), WorkerHeartbeat.class);
+    }
+}
@@ -0,0 +1,27 @@
+package com.github.tsavo.strategy.shard;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * The right to run one shard's strategies, held by one worker until expiresAt unless it renews it first.
+ */
+@Document(collection = "shardLeases")
+public class ShardLease {
+    /**
+     * The shard key.
+     */
+    @Id
+    public String id;
+    /**
+     * The worker holding the lease, or null once it has been released.
+     */
+    public String owner;
+    /**
+     * When the lease runs out, in milliseconds since the epoch.
+     */
+    public long expiresAt;
+
+    public ShardLease() {
+    }
+}
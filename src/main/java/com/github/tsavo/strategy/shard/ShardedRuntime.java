@@ -0,0 +1,367 @@
+package com.github.tsavo.strategy.shard;
+
+import com.github.tsavo.strategy.Strategy;
+import com.github.tsavo.strategy.StrategyRuntime;
+import com.github.tsavo.strategy.journal.StrategyJournal;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs this worker's share of a catalogue of strategies that every worker registers in full. Strategies are
+ * grouped into shards by exchange account and currency pair, so the strategies sharing an account's balance on a
+ * pair always run together, and the shards are spread over the live workers by a {@link HashRing}. A worker only
+ * runs a shard while it holds the shard's lease in the {@link LeaseStore}.
+ * <p>
+ * Every leaseTime / 3 the worker beats, rebuilds the ring from the live workers, renews the leases it keeps, hands
+ * off the shards the ring has moved elsewhere and takes the free ones the ring gives it. A worker that dies stops
+ * beating and renewing, so its shards go to the others once its leases expire. To keep a shard off two workers at
+ * once:
+ * <ul>
+ * <li>a shard the ring moves is drained, its final state journaled and its lease released before anyone else
+ * can take it;</li>
+ * <li>a worker that cannot renew a lease stops the shard's strategies stopTimeout before the lease could run out
+ * under it;</li>
+ * <li>a worker that finds its lease taken abandons the shard without journaling anything more for it.</li>
+ * </ul>
+ * The shards a round gives up are stopped together, so the round takes stopTimeout however many there are.
+ * <p>
+ * All of this relies on strategies stopping within stopTimeout. One that has not is dropped from the journal rather
+ * than handed off with its orders open, but once the lease runs out it may still be trading while another worker
+ * runs the shard. It stays with its shard and is stopped again every round, and the worker does not take the shard
+ * again until it has stopped. {@link #getStopping()} tells how many are left.
+ * <p>
+ * With a {@link StrategyJournal} on the runtime, a shard taken over restores each strategy from the state its last
+ * worker left; the journal must not be {@link StrategyJournal#load() loaded} up front.
+ */
+public class ShardedRuntime {
+    public final String worker;
+    public final StrategyRuntime runtime;
+    public final LeaseStore leases;
+    public long leaseTime = 30000;
+    /**
+     * How long a shard's strategies get to stop when it is handed off or its lease is at risk. Must leave room in
+     * leaseTime for a missed renewal.
+     */
+    public long stopTimeout = 5000;
+    public int virtualNodes = 100;
+    public Clock clock = Clock.systemUTC();
+
+    private final Map<String, Shard> shards = new LinkedHashMap<>();
+    private final ScheduledExecutorService coordinator = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "shard-coordinator");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile HashRing ring;
+
+    public ShardedRuntime(String worker, StrategyRuntime runtime, LeaseStore leases) {
+        this.worker = worker;
+        this.runtime = runtime;
+        this.leases = leases;
+    }
+
+    public static String shardKey(String account, CurrencyPair currencyPair) {
+        return account + "/" + currencyPair;
+    }
+
+    /**
+     * Adds a strategy to the catalogue. The factory is only called on the worker that ends up running it, each time
+     * that worker takes its shard.
+     *
+     * @param id      the strategy's stable id, as for {@link StrategyRuntime#schedule(String, Strategy, long, TimeUnit)}
+     * @param account the exchange account the strategy trades on
+     */
+    public synchronized void register(String id, String account, CurrencyPair currencyPair, Supplier<? extends Strategy> factory, long interval, TimeUnit unit) {
+        String key = shardKey(account, currencyPair);
+        shards.computeIfAbsent(key, Shard::new).entries.add(new Entry(id, factory, unit.toMillis(interval)));
+    }
+
+    public void start() {
+        coordinator.scheduleWithFixedDelay(this::rebalance, 0, period(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * One round of beating, renewing, handing off and taking shards. Runs on its own every leaseTime / 3 once
+     * started.
+     */
+    public synchronized void rebalance() {
+        try {
+            long now = clock.millis();
+            leases.heartbeat(worker, now, leaseTime);
+            Set<String> members = new TreeSet<>(leases.liveWorkers(now));
+            members.add(worker);
+            ring = new HashRing(members, virtualNodes);
+        } catch (RuntimeException e) {
+            // Keeps the last ring; the leases decide who runs what either way.
+            e.printStackTrace();
+        }
+        HashRing current = ring;
+        Map<Shard, Consumer<Shard>> stopping = new LinkedHashMap<>();
+        for (Shard shard : shards.values()) {
+            try {
+                boolean mine = current != null && worker.equals(current.ownerOf(shard.key));
+                if (shard.held) {
+                    Consumer<Shard> release = keep(shard, mine);
+                    if (release != null) {
+                        stopping.put(shard, release);
+                    }
+                } else if (!shard.running.isEmpty()) {
+                    // Lost with strategies still stopping; they must be gone before the shard is run here again.
+                    stopping.put(shard, this::abandoned);
+                } else if (mine) {
+                    take(shard);
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        // Measured after every renewal, however long the store took to answer them.
+        long now = clock.millis();
+        for (Shard shard : shards.values()) {
+            if (shard.held && !stopping.containsKey(shard) && now + period() >= shard.deadline) {
+                // Not renewed in time. The lease may still be ours, but for how long this worker cannot tell.
+                stopping.put(shard, this::fenced);
+            }
+        }
+        stop(stopping);
+    }
+
+    /**
+     * The shards this worker holds the leases for.
+     */
+    public synchronized Set<String> getHeldShards() {
+        Set<String> held = new TreeSet<>();
+        for (Shard shard : shards.values()) {
+            if (shard.held) {
+                held.add(shard.key);
+            }
+        }
+        return held;
+    }
+
+    /**
+     * How many strategies are still stopping in each shard that has any: shards being handed off, and shards lost
+     * before their strategies stopped.
+     */
+    public synchronized Map<String, Integer> getStopping() {
+        Map<String, Integer> stopping = new TreeMap<>();
+        for (Shard shard : shards.values()) {
+            if (!shard.running.isEmpty() && (!shard.held || shard.handingOff)) {
+                stopping.put(shard.key, shard.running.size());
+            }
+        }
+        return stopping;
+    }
+
+    public HashRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Hands off every shard this worker holds and leaves the ring, so the other workers take over at once.
+     */
+    public void shutdown() {
+        coordinator.shutdown();
+        try {
+            coordinator.awaitTermination(stopTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            Map<Shard, Consumer<Shard>> stopping = new LinkedHashMap<>();
+            for (Shard shard : shards.values()) {
+                if (shard.held) {
+                    shard.handingOff = true;
+                    stopping.put(shard, this::handedOff);
+                }
+            }
+            stop(stopping);
+        }
+        try {
+            leases.leave(worker);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private long period() {
+        return leaseTime / 3;
+    }
+
+    private void take(Shard shard) {
+        long sent = clock.millis();
+        if (!leases.acquire(shard.key, worker, sent, leaseTime)) {
+            return;
+        }
+        StrategyJournal journal = runtime.journal;
+        if (journal != null) {
+            try {
+                for (Entry entry : shard.entries) {
+                    journal.reload(entry.id);
+                }
+            } catch (RuntimeException e) {
+                // Starting without the last worker's state could repeat its trades; let a later round try again.
+                leases.release(shard.key, worker);
+                throw e;
+            }
+        }
+        shard.held = true;
+        shard.deadline = sent + leaseTime - stopTimeout;
+        for (Entry entry : shard.entries) {
+            Strategy strategy = entry.factory.get();
+            shard.running.add(strategy);
+            runtime.schedule(entry.id, strategy, entry.interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Renews the shard's lease.
+     *
+     * @return what to do once the shard has stopped, or null to keep running it
+     */
+    private Consumer<Shard> keep(Shard shard, boolean mine) {
+        long sent = clock.millis();
+        boolean renewed;
+        try {
+            renewed = leases.acquire(shard.key, worker, sent, leaseTime);
+        } catch (RuntimeException e) {
+            // Left to the deadline, which the round checks once it has tried every lease.
+            e.printStackTrace();
+            return null;
+        }
+        if (!renewed) {
+            return this::abandoned;
+        }
+        shard.deadline = sent + leaseTime - stopTimeout;
+        // A hand-off already under way is finished even if the ring has come back; the shard is taken afresh.
+        if (!mine || shard.handingOff) {
+            shard.handingOff = true;
+            return this::handedOff;
+        }
+        return null;
+    }
+
+    /**
+     * Journals where the drained shard stopped and releases the lease. A strategy still draining keeps the lease
+     * held until a later round finds it stopped.
+     */
+    private void handedOff(Shard shard) {
+        if (!shard.running.isEmpty()) {
+            return;
+        }
+        StrategyJournal journal = runtime.journal;
+        if (journal != null) {
+            journal.handOff(shard.ids());
+        }
+        leases.release(shard.key, worker);
+        shard.held = false;
+        shard.handingOff = false;
+    }
+
+    /**
+     * Gives up a shard stopped before a lease this worker cannot renew runs out; the lease is left to expire. Its
+     * state is written if every strategy stopped and the store can still be reached. Otherwise it is dropped, so
+     * the next worker does not resume from a state with orders this one may still have open.
+     */
+    private void fenced(Shard shard) {
+        StrategyJournal journal = runtime.journal;
+        if (journal != null) {
+            if (shard.running.isEmpty()) {
+                try {
+                    journal.handOff(shard.ids());
+                } catch (RuntimeException e) {
+                    journal.abandon(shard.ids());
+                }
+            } else {
+                journal.abandon(shard.ids());
+            }
+        }
+        shard.held = false;
+        shard.handingOff = false;
+    }
+
+    /**
+     * Gives up a shard stopped after another worker has taken its lease, keeping whatever it last journaled.
+     */
+    private void abandoned(Shard shard) {
+        StrategyJournal journal = runtime.journal;
+        if (journal != null) {
+            journal.abandon(shard.ids());
+        }
+        shard.held = false;
+        shard.handingOff = false;
+    }
+
+    /**
+     * Stops the strategies of all the shards at once, under the one stopTimeout, then gives each shard up as its
+     * entry says. Strategies still stopping stay in their shard's running list for the next round.
+     */
+    private void stop(Map<Shard, Consumer<Shard>> stopping) {
+        if (stopping.isEmpty()) {
+            return;
+        }
+        List<Strategy> strategies = new ArrayList<>();
+        for (Shard shard : stopping.keySet()) {
+            strategies.addAll(shard.running);
+        }
+        List<Strategy> draining = runtime.stop(strategies, stopTimeout, TimeUnit.MILLISECONDS);
+        for (Map.Entry<Shard, Consumer<Shard>> entry : stopping.entrySet()) {
+            try {
+                entry.getKey().running.retainAll(draining);
+                entry.getValue().accept(entry.getKey());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static class Shard {
+        final String key;
+        final List<Entry> entries = new ArrayList<>();
+        final List<Strategy> running = new ArrayList<>();
+        boolean held;
+        boolean handingOff;
+        /**
+         * When this worker must have stopped the shard unless it renews the lease first.
+         */
+        long deadline;
+
+        Shard(String key) {
+            this.key = key;
+        }
+
+        List<String> ids() {
+            List<String> ids = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                ids.add(entry.id);
+            }
+            return Collections.unmodifiableList(ids);
+        }
+    }
+
+    private static class Entry {
+        final String id;
+        final Supplier<? extends Strategy> factory;
+        final long interval;
+
+        Entry(String id, Supplier<? extends Strategy> factory, long interval) {
+            this.id = id;
+            this.factory = factory;
+            this.interval = interval;
+        }
+    }
+}
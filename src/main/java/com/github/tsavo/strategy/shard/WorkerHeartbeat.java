@@ -0,0 +1,23 @@
+package com.github.tsavo.strategy.shard;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * A worker's claim to be alive, which the other workers read to agree on the members of the hash ring.
+ */
+@Document(collection = "shardWorkers")
+public class WorkerHeartbeat {
+    /**
+     * The worker's name.
+     */
+    @Id
+    public String id;
+    /**
+     * When the worker counts as dead unless it beats again, in milliseconds since the epoch.
+     */
+    public long expiresAt;
+
+    public WorkerHeartbeat() {
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.tsavo.strategy.simulator;
+
+import org.knowm.xchange.currency.CurrencyPair;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory exchange for pushing the strategy runtime without a live one: a price-time priority
+ * {@link OrderBook} per pair, accounts that trade on them through the {@link com.github.tsavo.strategy.Market}
+ * interface, and the {@link #faults} every account call is subjected to. An {@link OrderFlow} keeps a book moving.
+ */
+public class MatchingEngine {
+    public final SimulatedFaults faults = new SimulatedFaults();
+    /**
+     * Fee as a fraction of traded value, in satoshi units (0.25% is 250000), charged to both sides in the counter
+     * currency.
+     */
+    public volatile long feeRate = 250000;
+    public Clock clock = Clock.systemUTC();
+
+    private final Map<CurrencyPair, OrderBook> books = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+
+    public OrderBook getBook(CurrencyPair currencyPair) {
+        return books.computeIfAbsent(currencyPair, pair -> new OrderBook(this, pair));
+    }
+
+    /**
+     * An account that starts empty; fund it with {@link SimulatedExchange#deposit}.
+     */
+    public SimulatedExchange newAccount(String name) {
+        return new SimulatedExchange(this, name, false);
+    }
+
+    /**
+     * An account whose orders are never short of funds, for market makers and order flow.
+     */
+    public SimulatedExchange newMarketMaker(String name) {
+        return new SimulatedExchange(this, name, true);
+    }
+
+    public long getTrades() {
+        long trades = 0;
+        for (OrderBook book : books.values()) {
+            trades += book.getTrades();
+        }
+        return trades;
+    }
+
+    long nextId() {
+        return ids.incrementAndGet();
+    }
+}
@@ -0,0 +1,317 @@
+package com.github.tsavo.strategy.simulator;
+
+import com.github.tsavo.strategy.Fixed;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order.OrderType;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * One pair's book in a {@link MatchingEngine}: resting limit orders matched by price, then by time. An incoming order
+ * trades against the best opposite levels at their prices as far as its limit allows; what is left rests, or is
+ * dropped for an immediate-or-cancel order. Trailing stops placed on the pair are checked after every change, or
+ * once after a batch of changes made in {@link #update(Runnable)}.
+ * <p>
+ * Every method holds the book's lock, so each pair matches on one thread at a time. Prices and amounts are in
+ * satoshi units (see {@link Fixed}).
+ */
+public class OrderBook {
+    public final MatchingEngine engine;
+    public final CurrencyPair currencyPair;
+    /**
+     * How many price levels a side of the book shows to accounts.
+     */
+    public int depth = 10;
+
+    private final TreeMap<Long, ArrayDeque<Resting>> bids = new TreeMap<>(Collections.<Long>reverseOrder());
+    private final TreeMap<Long, ArrayDeque<Resting>> asks = new TreeMap<>();
+    private final Map<Long, Resting> resting = new HashMap<>();
+    private final List<SimulatedTrailingOrder> stops = new ArrayList<>();
+    private int batching;
+    private boolean checkingStops;
+    private long version;
+    private long trades;
+    private long snapshotVersion = -1;
+    private List<LimitOrder> askLevels = Collections.emptyList();
+    private List<LimitOrder> bidLevels = Collections.emptyList();
+
+    OrderBook(MatchingEngine engine, CurrencyPair currencyPair) {
+        this.engine = engine;
+        this.currencyPair = currencyPair;
+    }
+
+    /**
+     * Places a limit order for the account. It trades against the book first; any remainder rests.
+     *
+     * @return the id of the resting remainder, or 0 if nothing was left to rest
+     */
+    public synchronized long place(SimulatedExchange owner, boolean buy, long amount, long limit) {
+        amount = owner.reserve(currencyPair, buy, amount, limit);
+        if (amount <= 0) {
+            return 0;
+        }
+        Resting order = new Resting(engine.nextId(), owner, buy, limit, amount, owner.fundsFor(buy, amount, limit));
+        order.remaining -= match(owner, buy, amount, limit, order)[0];
+        if (order.remaining == 0) {
+            owner.release(currencyPair, buy, order.reserved);
+            changed();
+            return 0;
+        }
+        TreeMap<Long, ArrayDeque<Resting>> side = buy ? bids : asks;
+        side.computeIfAbsent(limit, price -> new ArrayDeque<>()).addLast(order);
+        resting.put(order.id, order);
+        changed();
+        return order.id;
+    }
+
+    /**
+     * Trades up to the amount against the book, no further than the limit, and drops the rest.
+     *
+     * @return the amount filled and its value in the counter currency, before fees
+     */
+    public synchronized long[] execute(SimulatedExchange owner, boolean buy, long amount, long limit) {
+        amount = owner.affordable(currencyPair, buy, amount, limit);
+        if (amount <= 0) {
+            return new long[2];
+        }
+        long[] traded = match(owner, buy, amount, limit, null);
+        if (traded[0] > 0) {
+            changed();
+        }
+        return traded;
+    }
+
+    /**
+     * Cancels a resting order.
+     *
+     * @return false if it had already filled or been cancelled
+     */
+    public synchronized boolean cancel(long id) {
+        Resting order = resting.remove(id);
+        if (order == null) {
+            return false;
+        }
+        TreeMap<Long, ArrayDeque<Resting>> side = order.buy ? bids : asks;
+        ArrayDeque<Resting> level = side.get(order.price);
+        level.remove(order);
+        if (level.isEmpty()) {
+            side.remove(order.price);
+        }
+        order.owner.release(currencyPair, order.buy, order.reserved);
+        changed();
+        return true;
+    }
+
+    /**
+     * Makes a batch of changes, e.g. a market maker re-quoting, that other accounts and the trailing stops only see
+     * once it is complete.
+     */
+    public synchronized void update(Runnable changes) {
+        batching++;
+        try {
+            changes.run();
+        } finally {
+            batching--;
+        }
+        changed();
+    }
+
+    /**
+     * The best bid, or 0 when there is none.
+     */
+    public synchronized long getBestBid() {
+        return bids.isEmpty() ? 0 : bids.firstKey();
+    }
+
+    /**
+     * The best ask, or 0 when there is none.
+     */
+    public synchronized long getBestAsk() {
+        return asks.isEmpty() ? 0 : asks.firstKey();
+    }
+
+    /**
+     * The top {@link #depth} ask levels, lowest first, with the amount resting at each.
+     */
+    public synchronized List<LimitOrder> getAsks() {
+        snapshot();
+        return askLevels;
+    }
+
+    /**
+     * The top {@link #depth} bid levels, highest first, with the amount resting at each.
+     */
+    public synchronized List<LimitOrder> getBids() {
+        snapshot();
+        return bidLevels;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public synchronized long getTrades() {
+        return trades;
+    }
+
+    public synchronized int getOpenStops() {
+        return stops.size();
+    }
+
+    synchronized void addStop(SimulatedTrailingOrder stop) {
+        if (stop.cancelled) {
+            stop.complete(false);
+            return;
+        }
+        stops.add(stop);
+        checkStops();
+    }
+
+    synchronized boolean removeStop(SimulatedTrailingOrder stop) {
+        int index = stops.indexOf(stop);
+        if (index < 0) {
+            return false;
+        }
+        removeStopAt(index);
+        return true;
+    }
+
+    /**
+     * Trades the incoming order against the opposite side, releasing its reserved funds as it fills when it has any.
+     *
+     * @return the amount filled and its value
+     */
+    private long[] match(SimulatedExchange taker, boolean buy, long amount, long limit, Resting incoming) {
+        TreeMap<Long, ArrayDeque<Resting>> opposite = buy ? asks : bids;
+        long filled = 0;
+        long value = 0;
+        long time = engine.clock.millis();
+        while (filled < amount && !opposite.isEmpty()) {
+            long price = opposite.firstKey();
+            if (buy ? price > limit : price < limit) {
+                break;
+            }
+            ArrayDeque<Resting> level = opposite.firstEntry().getValue();
+            Resting maker = level.peekFirst();
+            long traded = Math.min(amount - filled, maker.remaining);
+            maker.remaining -= traded;
+            maker.reserved -= maker.owner.settle(currencyPair, !buy, traded, price, maker.price, maker.reserved, time);
+            long released = taker.settle(currencyPair, buy, traded, price, limit, incoming == null ? -1 : incoming.reserved, time);
+            if (incoming != null) {
+                incoming.reserved -= released;
+            }
+            if (maker.remaining == 0) {
+                level.pollFirst();
+                resting.remove(maker.id);
+                maker.owner.release(currencyPair, maker.buy, maker.reserved);
+                if (level.isEmpty()) {
+                    opposite.pollFirstEntry();
+                }
+            }
+            filled += traded;
+            value += Fixed.multiply(traded, price);
+            trades++;
+        }
+        return new long[]{filled, value};
+    }
+
+    private void changed() {
+        version++;
+        if (batching == 0) {
+            checkStops();
+        }
+    }
+
+    /**
+     * Moves every stop's extreme and executes those that triggered. An execution moves the book, so the scan goes
+     * round again until nothing more triggers.
+     */
+    private void checkStops() {
+        if (checkingStops || stops.isEmpty()) {
+            return;
+        }
+        checkingStops = true;
+        try {
+            boolean triggered = true;
+            while (triggered) {
+                triggered = false;
+                long bid = getBestBid();
+                long ask = getBestAsk();
+                for (int i = stops.size() - 1; i >= 0; i--) {
+                    if (i >= stops.size()) {
+                        continue;
+                    }
+                    SimulatedTrailingOrder stop = stops.get(i);
+                    if (stop.track(bid, ask)) {
+                        removeStopAt(i);
+                        stop.execute(this);
+                        triggered = true;
+                        bid = getBestBid();
+                        ask = getBestAsk();
+                    }
+                }
+            }
+        } finally {
+            checkingStops = false;
+        }
+    }
+
+    private void removeStopAt(int index) {
+        SimulatedTrailingOrder last = stops.remove(stops.size() - 1);
+        if (index < stops.size()) {
+            stops.set(index, last);
+        }
+    }
+
+    private void snapshot() {
+        if (snapshotVersion == version) {
+            return;
+        }
+        askLevels = levels(asks, OrderType.ASK);
+        bidLevels = levels(bids, OrderType.BID);
+        snapshotVersion = version;
+    }
+
+    private List<LimitOrder> levels(TreeMap<Long, ArrayDeque<Resting>> side, OrderType type) {
+        List<LimitOrder> levels = new ArrayList<>(Math.min(depth, side.size()));
+        for (Map.Entry<Long, ArrayDeque<Resting>> level : side.entrySet()) {
+            if (levels.size() == depth) {
+                break;
+            }
+            long amount = 0;
+            for (Resting order : level.getValue()) {
+                amount += order.remaining;
+            }
+            levels.add(new LimitOrder.Builder(type, currencyPair).tradableAmount(Fixed.toBigDecimal(amount)).limitPrice(Fixed.toBigDecimal(level.getKey())).build());
+        }
+        return Collections.unmodifiableList(levels);
+    }
+
+    private static class Resting {
+        final long id;
+        final SimulatedExchange owner;
+        final boolean buy;
+        final long price;
+        long remaining;
+        /**
+         * Funds still held back for the order: counter currency for a bid, base currency for an ask.
+         */
+        long reserved;
+
+        Resting(long id, SimulatedExchange owner, boolean buy, long price, long remaining, long reserved) {
+            this.id = id;
+            this.owner = owner;
+            this.buy = buy;
+            this.price = price;
+            this.remaining = remaining;
+            this.reserved = reserved;
+        }
+    }
+}
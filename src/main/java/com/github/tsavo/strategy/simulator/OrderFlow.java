@@ -0,0 +1,106 @@
+package com.github.tsavo.strategy.simulator;
+
+import com.github.tsavo.strategy.Fixed;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synthetic order flow that keeps one pair's book moving. Each step moves a fair price by a lognormal random walk,
+ * has a market maker re-quote {@link #levels} levels a side around it and, now and then, sends an
+ * immediate-or-cancel taker order into the book. A step is applied as one {@link OrderBook#update(Runnable)}, so
+ * trailing stops see the new quotes only once they are all in place. A seed makes a run repeatable.
+ */
+public class OrderFlow {
+    public final OrderBook book;
+    public final SimulatedExchange maker;
+    public final SimulatedExchange taker;
+    /**
+     * The standard deviation of the fair price's log return per step.
+     */
+    public volatile double volatility = 0.001;
+    /**
+     * How far either side of the fair price the best quotes sit, as a fraction of it.
+     */
+    public volatile double halfSpread = 0.0005;
+    public volatile double levelSpacing = 0.0005;
+    public volatile int levels = 5;
+    /**
+     * The amount quoted at each level, in satoshis.
+     */
+    public volatile long levelSize = Fixed.ONE;
+    public volatile double takerProbability = 0.2;
+
+    private final Random random;
+    private long price;
+    private long[] quotes = new long[0];
+    private long steps;
+    private ScheduledFuture<?> task;
+
+    public OrderFlow(MatchingEngine engine, CurrencyPair currencyPair, BigDecimal startPrice, long seed) {
+        this.book = engine.getBook(currencyPair);
+        this.maker = engine.newMarketMaker("maker " + currencyPair);
+        this.taker = engine.newMarketMaker("taker " + currencyPair);
+        this.price = Fixed.of(startPrice);
+        this.random = new Random(seed);
+    }
+
+    public synchronized void step() {
+        price = Math.max(1, Math.round(price * Math.exp(volatility * random.nextGaussian())));
+        book.update(this::requote);
+        steps++;
+    }
+
+    private void requote() {
+        for (long id : quotes) {
+            if (id != 0) {
+                book.cancel(id);
+            }
+        }
+        int count = levels;
+        if (quotes.length != 2 * count) {
+            quotes = new long[2 * count];
+        }
+        for (int i = 0; i < count; i++) {
+            double offset = halfSpread + i * levelSpacing;
+            quotes[2 * i] = book.place(maker, true, levelSize, Math.round(price * (1 - offset)));
+            quotes[2 * i + 1] = book.place(maker, false, levelSize, Math.round(price * (1 + offset)));
+        }
+        if (random.nextDouble() < takerProbability) {
+            long amount = 1 + (long) (random.nextDouble() * levelSize);
+            boolean buy = random.nextBoolean();
+            book.execute(taker, buy, amount, buy ? Long.MAX_VALUE : 1);
+        }
+    }
+
+    /**
+     * The current fair price, in satoshi units.
+     */
+    public synchronized long getPrice() {
+        return price;
+    }
+
+    public synchronized long getSteps() {
+        return steps;
+    }
+
+    /**
+     * Steps the flow every period on the executor until {@link #stop()}.
+     */
+    public synchronized void start(ScheduledExecutorService executor, long period, TimeUnit unit) {
+        stop();
+        step();
+        task = executor.scheduleAtFixedRate(this::step, period, period, unit);
+    }
+
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+}
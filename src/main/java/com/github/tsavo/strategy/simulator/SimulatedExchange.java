@@ -0,0 +1,322 @@
+package com.github.tsavo.strategy.simulator;
+
+import com.github.tsavo.strategy.Fixed;
+import com.github.tsavo.strategy.Market;
+import com.github.tsavo.strategy.TrailingOrder;
+import com.github.tsavo.traderplan.exchange.NoWalletEntryException;
+import com.tsavo.trade.database.model.Pivot;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order.OrderType;
+import org.knowm.xchange.dto.trade.LimitOrder;
+import org.knowm.xchange.exceptions.ExchangeException;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One account on a {@link MatchingEngine}. Its wallet holds a total and a reserved amount per currency: resting
+ * bids hold back their value plus fee in the counter currency, resting asks their amount in the base currency, and
+ * orders are cut down to what the available funds cover. Each pair keeps the average cost of the base currency
+ * bought and the times of the last buy and sell, as an exchange's wallet history would.
+ * <p>
+ * Every call through the {@link Market} interface, and every open or cancel of one of its trailing stops, first
+ * goes through the engine's {@link SimulatedFaults}. Trailing stops are worked by the book, so they are
+ * {@link com.github.tsavo.strategy.AsyncTrailingOrder}s.
+ */
+public class SimulatedExchange implements Market {
+    public final MatchingEngine engine;
+    public final String name;
+    /**
+     * Whether orders skip the funds check, as a market maker's do.
+     */
+    public final boolean unlimited;
+    public volatile int buyActions;
+    public volatile int sellActions;
+
+    private final Map<Currency, long[]> wallet = new HashMap<>();
+    private final Map<CurrencyPair, Position> positions = new HashMap<>();
+    private final Object bucketLock = new Object();
+    private double tokens = -1;
+    private long refilledAt;
+
+    SimulatedExchange(MatchingEngine engine, String name, boolean unlimited) {
+        this.engine = engine;
+        this.name = name;
+        this.unlimited = unlimited;
+    }
+
+    public synchronized void deposit(Currency currency, BigDecimal amount) {
+        entry(currency)[0] += Fixed.of(amount);
+    }
+
+    /**
+     * Sets what the base currency already held on the pair cost, e.g. for an account funded with it.
+     */
+    public synchronized void setAverageCost(CurrencyPair currencyPair, BigDecimal averageCost) {
+        position(currencyPair).averageCost = Fixed.of(averageCost);
+    }
+
+    /**
+     * The amount not held back by resting orders.
+     */
+    public synchronized BigDecimal getAvailable(Currency currency) {
+        long[] entry = entry(currency);
+        return Fixed.toBigDecimal(entry[0] - entry[1]);
+    }
+
+    /**
+     * Places a limit order, trading what it can against the book straight away.
+     *
+     * @return the id of the part left resting, or 0 if none was
+     */
+    public long placeLimitOrder(LimitOrder order) {
+        call();
+        return engine.getBook(order.getCurrencyPair()).place(this, order.getType() == OrderType.BID, Fixed.of(order.getTradableAmount()), Fixed.of(order.getLimitPrice()));
+    }
+
+    public boolean cancelLimitOrder(CurrencyPair currencyPair, long id) {
+        call();
+        return engine.getBook(currencyPair).cancel(id);
+    }
+
+    @Override
+    public BigDecimal getBalance(Currency currency) {
+        call();
+        synchronized (this) {
+            return Fixed.toBigDecimal(entry(currency)[0]);
+        }
+    }
+
+    @Override
+    public BigDecimal getAverageCost(CurrencyPair currencyPair) throws NoWalletEntryException {
+        call();
+        synchronized (this) {
+            Position position = positions.get(currencyPair);
+            if (position == null) {
+                throw new NoWalletEntryException();
+            }
+            return Fixed.toBigDecimal(position.averageCost);
+        }
+    }
+
+    @Override
+    public List<LimitOrder> getLowestAsks(CurrencyPair currencyPair) {
+        call();
+        return engine.getBook(currencyPair).getAsks();
+    }
+
+    @Override
+    public List<LimitOrder> getHighestBids(CurrencyPair currencyPair) {
+        call();
+        return engine.getBook(currencyPair).getBids();
+    }
+
+    @Override
+    public BigDecimal getAmountIn(BigDecimal amount, CurrencyPair currencyPair) throws IOException {
+        call();
+        long ask = engine.getBook(currencyPair).getBestAsk();
+        if (ask == 0) {
+            throw new IOException("No asks on " + currencyPair);
+        }
+        return Fixed.toBigDecimal(Fixed.divide(Fixed.of(amount), ask));
+    }
+
+    @Override
+    public BigDecimal getPriceIn(BigDecimal amount, CurrencyPair currencyPair) {
+        call();
+        return Fixed.toBigDecimal(Fixed.multiply(Fixed.of(amount), engine.getBook(currencyPair).getBestBid()));
+    }
+
+    @Override
+    public BigDecimal getAveragePrice(CurrencyPair currencyPair) throws IOException {
+        call();
+        OrderBook book = engine.getBook(currencyPair);
+        long bid = book.getBestBid();
+        long ask = book.getBestAsk();
+        if (bid == 0 || ask == 0) {
+            throw new IOException("No market on " + currencyPair);
+        }
+        return Fixed.toBigDecimal((bid + ask) / 2);
+    }
+
+    @Override
+    public TrailingOrder createTrailStopMarketMakerLimitOrder(LimitOrder order, BigDecimal amountToTrailBy) {
+        return new SimulatedTrailingOrder(this, engine.getBook(order.getCurrencyPair()), order, Fixed.of(amountToTrailBy));
+    }
+
+    @Override
+    public void performBuyAction(Pivot pivot) {
+        call();
+        buyActions++;
+    }
+
+    @Override
+    public void performSellAction(Pivot pivot) {
+        call();
+        sellActions++;
+    }
+
+    @Override
+    public Date getLastBuyDate(CurrencyPair currencyPair) {
+        call();
+        synchronized (this) {
+            Position position = positions.get(currencyPair);
+            return position == null || position.lastBuy == 0 ? null : new Date(position.lastBuy);
+        }
+    }
+
+    @Override
+    public Date getLastSellDate(CurrencyPair currencyPair) {
+        call();
+        synchronized (this) {
+            Position position = positions.get(currencyPair);
+            return position == null || position.lastSell == 0 ? null : new Date(position.lastSell);
+        }
+    }
+
+    @Override
+    public boolean isSettledOnFill() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "Simulated " + name;
+    }
+
+    /**
+     * Subjects a call to the engine's faults.
+     *
+     * @throws ExchangeException if it is refused or fails
+     */
+    void call() {
+        engine.faults.beforeCall(this);
+    }
+
+    /**
+     * Takes a request from the account's bucket, which holds a second's worth of requests at the given rate.
+     *
+     * @return false if the bucket is empty
+     */
+    boolean takeToken(double rate) {
+        synchronized (bucketLock) {
+            long now = System.nanoTime();
+            double capacity = Math.max(1, rate);
+            if (tokens < 0) {
+                tokens = capacity;
+            } else {
+                tokens = Math.min(capacity, tokens + (now - refilledAt) * rate / 1e9);
+            }
+            refilledAt = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+
+    /**
+     * The funds an order holds back: its value at the limit plus fee for a bid, its amount for an ask.
+     */
+    long fundsFor(boolean buy, long amount, long limit) {
+        if (!buy) {
+            return amount;
+        }
+        long value = Fixed.multiply(amount, limit);
+        return value + Fixed.multiply(value, engine.feeRate);
+    }
+
+    /**
+     * How much of the amount the available funds cover at the limit.
+     */
+    synchronized long affordable(CurrencyPair currencyPair, boolean buy, long amount, long limit) {
+        if (unlimited) {
+            return amount;
+        }
+        long[] entry = entry(buy ? currencyPair.counter : currencyPair.base);
+        long available = entry[0] - entry[1];
+        if (!buy) {
+            return Math.min(amount, available);
+        }
+        if (fundsFor(true, amount, limit) <= available) {
+            return amount;
+        }
+        long covered = Fixed.divide(available, Fixed.multiply(limit, Fixed.ONE + engine.feeRate));
+        while (covered > 0 && fundsFor(true, covered, limit) > available) {
+            covered--;
+        }
+        return covered;
+    }
+
+    /**
+     * Holds back the funds for a resting order, cut down to what is available.
+     *
+     * @return the amount the funds were held back for
+     */
+    synchronized long reserve(CurrencyPair currencyPair, boolean buy, long amount, long limit) {
+        amount = affordable(currencyPair, buy, amount, limit);
+        if (amount > 0) {
+            entry(buy ? currencyPair.counter : currencyPair.base)[1] += fundsFor(buy, amount, limit);
+        }
+        return amount;
+    }
+
+    synchronized void release(CurrencyPair currencyPair, boolean buy, long funds) {
+        entry(buy ? currencyPair.counter : currencyPair.base)[1] -= funds;
+    }
+
+    /**
+     * Books one side of a trade.
+     *
+     * @param reserved what the order still holds back, or -1 for an order that holds nothing back
+     * @return the funds released from the order's reservation
+     */
+    synchronized long settle(CurrencyPair currencyPair, boolean buy, long amount, long price, long limit, long reserved, long time) {
+        long[] base = entry(currencyPair.base);
+        long[] counter = entry(currencyPair.counter);
+        Position position = position(currencyPair);
+        long value = Fixed.multiply(amount, price);
+        long fee = Fixed.multiply(value, engine.feeRate);
+        long released = 0;
+        if (buy) {
+            long held = Fixed.multiply(Math.max(base[0], 0), position.averageCost);
+            counter[0] -= value + fee;
+            base[0] += amount;
+            position.averageCost = base[0] > 0 ? Fixed.divide(held + value, base[0]) : price;
+            position.lastBuy = time;
+            if (reserved >= 0) {
+                released = Math.min(fundsFor(true, amount, limit), reserved);
+                counter[1] -= released;
+            }
+        } else {
+            base[0] -= amount;
+            counter[0] += value - fee;
+            position.lastSell = time;
+            if (reserved >= 0) {
+                released = Math.min(amount, reserved);
+                base[1] -= released;
+            }
+        }
+        return released;
+    }
+
+    private long[] entry(Currency currency) {
+        return wallet.computeIfAbsent(currency, key -> new long[2]);
+    }
+
+    private Position position(CurrencyPair currencyPair) {
+        return positions.computeIfAbsent(currencyPair, key -> new Position());
+    }
+
+    private static class Position {
+        long averageCost;
+        long lastBuy;
+        long lastSell;
+    }
+}
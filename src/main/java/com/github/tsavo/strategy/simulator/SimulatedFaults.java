@@ -0,0 +1,52 @@
+package com.github.tsavo.strategy.simulator;
+
+import org.knowm.xchange.exceptions.ExchangeException;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The misbehaviour a {@link MatchingEngine} injects into every call made through one of its accounts: a delay of
+ * latency plus up to jitter milliseconds, a per-account request rate above which calls are refused the way a real
+ * exchange refuses them, and a share of calls that fail outright. Everything defaults to off and can be changed
+ * while the simulation runs.
+ */
+public class SimulatedFaults {
+    public volatile long latency;
+    public volatile long jitter;
+    /**
+     * Requests per second each account may make; 0 for no limit.
+     */
+    public volatile double requestsPerSecond;
+    /**
+     * The share of calls, between 0 and 1, that throw an {@link ExchangeException}.
+     */
+    public volatile double errorRate;
+
+    /**
+     * Applies the faults to one call on the account's behalf.
+     *
+     * @throws ExchangeException if the call is refused or fails
+     */
+    void beforeCall(SimulatedExchange account) {
+        long delay = latency;
+        long spread = jitter;
+        if (spread > 0) {
+            delay += ThreadLocalRandom.current().nextLong(spread + 1);
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        double rate = requestsPerSecond;
+        if (rate > 0 && !account.takeToken(rate)) {
+            throw new ExchangeException("429 Too Many Requests: rate limit exceeded");
+        }
+        double errors = errorRate;
+        if (errors > 0 && ThreadLocalRandom.current().nextDouble() < errors) {
+            throw new ExchangeException("Simulated exchange error");
+        }
+    }
+}
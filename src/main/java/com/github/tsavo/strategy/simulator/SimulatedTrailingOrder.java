@@ -0,0 +1,142 @@
+package com.github.tsavo.strategy.simulator;
+
+import com.github.tsavo.strategy.AsyncTrailingOrder;
+import com.github.tsavo.strategy.Fixed;
+import org.knowm.xchange.dto.Order.OrderType;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A trailing stop worked inside the {@link OrderBook}, as an exchange that supports them natively would. A buy follows
+ * the ask down and triggers once it bounces by the trail; a sell follows the bid up and triggers once it drops by the
+ * trail. On triggering it takes whatever the book offers up to the order's limit price and completes as filled if
+ * any of it traded; {@link #getOrder()} then holds the amount filled at its average price.
+ * <p>
+ * No thread waits on it while it trails, so strategies park on its {@link #completion()} instead of blocking.
+ */
+class SimulatedTrailingOrder implements AsyncTrailingOrder {
+    private final SimulatedExchange owner;
+    private final OrderBook book;
+    private final boolean buy;
+    private final long amount;
+    private final long limit;
+    private final long trail;
+    private final CompletableFuture<Boolean> completion = new CompletableFuture<>();
+    private volatile LimitOrder order;
+    private volatile long extreme;
+    volatile boolean cancelled;
+    private boolean opened;
+
+    SimulatedTrailingOrder(SimulatedExchange owner, OrderBook book, LimitOrder order, long trail) {
+        this.owner = owner;
+        this.book = book;
+        this.order = order;
+        this.buy = order.getType() == OrderType.BID;
+        this.amount = Fixed.of(order.getTradableAmount());
+        this.limit = Fixed.of(order.getLimitPrice());
+        this.trail = trail;
+    }
+
+    @Override
+    public void openOrder() throws IOException {
+        owner.call();
+        synchronized (this) {
+            if (opened) {
+                return;
+            }
+            opened = true;
+        }
+        book.addStop(this);
+    }
+
+    @Override
+    public boolean fillOrCancel() throws IOException {
+        synchronized (this) {
+            if (!opened) {
+                return false;
+            }
+        }
+        try {
+            return completion.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the order to fill");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public void cancelOrder() throws IOException {
+        owner.call();
+        cancelled = true;
+        boolean placed;
+        synchronized (this) {
+            placed = opened;
+        }
+        // A stop opened but not yet in the book is turned away when it gets there.
+        if (book.removeStop(this) || !placed) {
+            completion.complete(false);
+        }
+    }
+
+    @Override
+    public LimitOrder getOrder() {
+        return order;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> completion() {
+        return completion;
+    }
+
+    @Override
+    public BigDecimal getTrailLevel() {
+        long from = extreme;
+        if (from == 0) {
+            return null;
+        }
+        return Fixed.toBigDecimal(buy ? from + trail : from - trail);
+    }
+
+    void complete(boolean filled) {
+        completion.complete(filled);
+    }
+
+    /**
+     * Follows the top of book. Called with the book's lock held.
+     *
+     * @return true once the stop has triggered
+     */
+    boolean track(long bid, long ask) {
+        long price = buy ? ask : bid;
+        if (price == 0) {
+            return false;
+        }
+        long from = extreme;
+        if (from == 0 || (buy ? price < from : price > from)) {
+            extreme = price;
+            from = price;
+        }
+        return buy ? price >= from + trail : price <= from - trail;
+    }
+
+    /**
+     * Takes the book up to the limit. Called with the book's lock held, once the stop has been removed from it.
+     */
+    void execute(OrderBook book) {
+        long[] traded = book.execute(owner, buy, amount, limit);
+        if (traded[0] <= 0) {
+            completion.complete(false);
+            return;
+        }
+        long averagePrice = Fixed.divide(traded[1], traded[0]);
+        order = new LimitOrder.Builder(order.getType(), order.getCurrencyPair()).tradableAmount(Fixed.toBigDecimal(traded[0])).limitPrice(Fixed.toBigDecimal(averagePrice)).build();
+        completion.complete(true);
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.tsavo.strategy.ticks;
+
+import com.github.tsavo.strategy.BookSnapshot;
+import com.github.tsavo.strategy.ForwardingMarket;
+import com.github.tsavo.strategy.Market;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records every book read through it to a {@link TickStore}. A record is written once both sides of a pair have been
+ * read since the last one, which is once per tick for a strategy and once per poll for an
+ * {@link com.github.tsavo.strategy.OrderBookFeed}. Books that did not change since the last record are skipped.
+ * Recording failures are printed and never reach the caller.
+ */
+public class RecordingMarket extends ForwardingMarket implements Closeable {
+    public final TickStore store;
+    public Clock clock = Clock.systemUTC();
+    private final Map<CurrencyPair, Pending> pending = new ConcurrentHashMap<>();
+
+    public RecordingMarket(Market market, TickStore store) {
+        super(market);
+        this.store = store;
+    }
+
+    @Override
+    public List<LimitOrder> getLowestAsks(CurrencyPair currencyPair) {
+        List<LimitOrder> asks = super.getLowestAsks(currencyPair);
+        record(currencyPair, asks, null);
+        return asks;
+    }
+
+    @Override
+    public List<LimitOrder> getHighestBids(CurrencyPair currencyPair) {
+        List<LimitOrder> bids = super.getHighestBids(currencyPair);
+        record(currencyPair, null, bids);
+        return bids;
+    }
+
+    private void record(CurrencyPair currencyPair, List<LimitOrder> asks, List<LimitOrder> bids) {
+        Pending book = pending.computeIfAbsent(currencyPair, pair -> new Pending());
+        synchronized (book) {
+            if (asks != null) {
+                book.asks = asks;
+            } else {
+                book.bids = bids;
+            }
+            if (book.asks == null || book.bids == null) {
+                return;
+            }
+            try {
+                if (book.last == null || !book.last.sameOrders(book.asks, book.bids)) {
+                    long time = clock.millis();
+                    store.append(currencyPair, time, book.asks, book.bids);
+                    book.last = new BookSnapshot(currencyPair, 0, time, book.asks, book.bids);
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+            book.asks = null;
+            book.bids = null;
+        }
+    }
+
+    public void flush() throws IOException {
+        store.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+
+    private static class Pending {
+        List<LimitOrder> asks;
+        List<LimitOrder> bids;
+        BookSnapshot last;
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.tsavo.strategy.ticks;
+
+/**
+ * Walks a {@link TickHistory} record by record, reading each value straight out of the mapped segment it lives in.
+ * A cursor starts before the first record; call next() to move onto it. Not thread safe, but any number of cursors
+ * can walk the same history at once.
+ */
+public class TickCursor {
+    private final TickHistory history;
+    private int position = -1;
+    private TickSegment segment;
+    private int index;
+
+    TickCursor(TickHistory history) {
+        this.history = history;
+    }
+
+    /**
+     * Moves to the next record, returning false once the history is exhausted.
+     */
+    public boolean next() {
+        if (position + 1 >= history.size()) {
+            position = history.size();
+            return false;
+        }
+        position++;
+        if (segment != null && ++index < segment.size()) {
+            return true;
+        }
+        locate();
+        return true;
+    }
+
+    /**
+     * Positions the cursor so that next() moves onto the first record at or after the given time.
+     */
+    public void seek(long time) {
+        position = history.indexOf(time) - 1;
+        segment = null;
+    }
+
+    private void locate() {
+        int global = history.getFirst() + position;
+        int segmentIndex = history.segmentOf(global);
+        segment = history.getSegments().get(segmentIndex);
+        index = global - history.startOf(segmentIndex);
+    }
+
+    /**
+     * The position of the current record in the history.
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    public long getTime() {
+        return segment.value(index, 0);
+    }
+
+    public long getBid() {
+        return segment.value(index, 1);
+    }
+
+    public long getBidSize() {
+        return segment.value(index, 2);
+    }
+
+    public long getAsk() {
+        return segment.value(index, 3);
+    }
+
+    public long getAskSize() {
+        return segment.value(index, 4);
+    }
+
+    public long getBid(int level) {
+        return segment.value(index, 1 + 4 * level);
+    }
+
+    public long getBidSize(int level) {
+        return segment.value(index, 2 + 4 * level);
+    }
+
+    public long getAsk(int level) {
+        return segment.value(index, 3 + 4 * level);
+    }
+
+    public long getAskSize(int level) {
+        return segment.value(index, 4 + 4 * level);
+    }
+}
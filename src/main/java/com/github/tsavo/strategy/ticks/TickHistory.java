@@ -0,0 +1,139 @@
+package com.github.tsavo.strategy.ticks;
+
+import com.github.tsavo.strategy.backtest.MarketHistory;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The records of consecutive {@link TickSegment}s for one pair within a time range, read in place from the mapped
+ * segments. Can be replayed by a {@link com.github.tsavo.strategy.backtest.Backtest} directly, or walked with a
+ * {@link TickCursor}.
+ */
+public class TickHistory implements MarketHistory {
+    private final CurrencyPair currencyPair;
+    private final List<TickSegment> segments;
+    private final int[] starts;
+    private final int first;
+    private final int size;
+
+    /**
+     * @param from the earliest time to include
+     * @param to   the time to stop before
+     */
+    public TickHistory(CurrencyPair currencyPair, List<TickSegment> segments, long from, long to) {
+        this.currencyPair = currencyPair;
+        this.segments = new ArrayList<>(segments);
+        starts = new int[segments.size() + 1];
+        for (int i = 0; i < segments.size(); i++) {
+            starts[i + 1] = starts[i] + segments.get(i).size();
+        }
+        first = globalIndexOf(from);
+        size = Math.max(0, globalIndexOf(to) - first);
+    }
+
+    private int globalIndexOf(long time) {
+        for (int i = 0; i < segments.size(); i++) {
+            TickSegment segment = segments.get(i);
+            if (segment.size() > 0 && segment.getLastTime() >= time) {
+                return starts[i] + segment.indexOf(time);
+            }
+        }
+        return starts[segments.size()];
+    }
+
+    List<TickSegment> getSegments() {
+        return segments;
+    }
+
+    int getFirst() {
+        return first;
+    }
+
+    /**
+     * The segment holding the record at the given position counted across all segments.
+     */
+    int segmentOf(int global) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (starts[middle] <= global) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    int startOf(int segment) {
+        return starts[segment];
+    }
+
+    private long value(int index, int column) {
+        int global = first + index;
+        int segment = segmentOf(global);
+        return segments.get(segment).value(global - starts[segment], column);
+    }
+
+    public TickCursor cursor() {
+        return new TickCursor(this);
+    }
+
+    public int getDepth() {
+        return segments.isEmpty() ? 0 : segments.get(0).getDepth();
+    }
+
+    @Override
+    public CurrencyPair getCurrencyPair() {
+        return currencyPair;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getTime(int index) {
+        return value(index, 0);
+    }
+
+    @Override
+    public long getBid(int index) {
+        return value(index, 1);
+    }
+
+    @Override
+    public long getBidSize(int index) {
+        return value(index, 2);
+    }
+
+    @Override
+    public long getAsk(int index) {
+        return value(index, 3);
+    }
+
+    @Override
+    public long getAskSize(int index) {
+        return value(index, 4);
+    }
+
+    public long getBid(int index, int level) {
+        return value(index, 1 + 4 * level);
+    }
+
+    public long getBidSize(int index, int level) {
+        return value(index, 2 + 4 * level);
+    }
+
+    public long getAsk(int index, int level) {
+        return value(index, 3 + 4 * level);
+    }
+
+    public long getAskSize(int index, int level) {
+        return value(index, 4 + 4 * level);
+    }
+}
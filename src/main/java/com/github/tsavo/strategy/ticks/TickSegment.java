@@ -0,0 +1,193 @@
+package com.github.tsavo.strategy.ticks;
+
+import com.github.tsavo.strategy.backtest.MarketHistory;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only, memory-mapped segment file of recorded books for one pair. Values are read straight out of the
+ * mapping, so opening a segment costs nothing but the map and any number of replays can share it.
+ * <p>
+ * The file is a 64 byte header followed by fixed size blocks of {@code 1 << blockShift} records. Each block starts
+ * with a 32 byte header (record count, first time, last time) and then holds one column per field: the times, then
+ * bid price, bid size, ask price and ask size for each depth level, best level first. Every value is a little-endian
+ * long; prices and sizes are in satoshi units, so a record takes (1 + 4 * depth) * 8 bytes, 168 at depth 5. Only
+ * the last block can be partly filled. Levels the book did not have are zero.
+ */
+public class TickSegment implements MarketHistory {
+    static final int MAGIC = 0x54494b31;
+    static final int HEADER_BYTES = 64;
+    static final int BLOCK_HEADER_BYTES = 32;
+    static final int MAX_PAIR_BYTES = HEADER_BYTES - 16;
+
+    public final Path path;
+    private final CurrencyPair currencyPair;
+    private final int depth;
+    private final int blockShift;
+    private final int blockMask;
+    private final int blockBytes;
+    private final int blocks;
+    private final int size;
+    private final ByteBuffer buffer;
+
+    private TickSegment(Path path, ByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a tick segment");
+        }
+        depth = buffer.getInt(4);
+        blockShift = buffer.getInt(8);
+        blockMask = (1 << blockShift) - 1;
+        blockBytes = blockBytes(depth, blockShift);
+        currencyPair = new CurrencyPair(readPair(buffer));
+        blocks = (buffer.capacity() - HEADER_BYTES) / blockBytes;
+        size = blocks == 0 ? 0 : ((blocks - 1) << blockShift) + buffer.getInt(blockOffset(blocks - 1));
+    }
+
+    /**
+     * Maps the segment as it is on disk now. Records appended afterwards are only seen by opening it again.
+     */
+    public static TickSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            return new TickSegment(path, buffer);
+        }
+    }
+
+    static int blockBytes(int depth, int blockShift) {
+        return BLOCK_HEADER_BYTES + (columns(depth) << blockShift) * 8;
+    }
+
+    static int columns(int depth) {
+        return 1 + 4 * depth;
+    }
+
+    static String readPair(ByteBuffer header) {
+        byte[] pair = new byte[header.getInt(12)];
+        for (int i = 0; i < pair.length; i++) {
+            pair[i] = header.get(16 + i);
+        }
+        return new String(pair, StandardCharsets.UTF_8);
+    }
+
+    private int blockOffset(int block) {
+        return HEADER_BYTES + block * blockBytes;
+    }
+
+    long value(int index, int column) {
+        return buffer.getLong(blockOffset(index >>> blockShift) + BLOCK_HEADER_BYTES + (((column << blockShift) + (index & blockMask)) << 3));
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public CurrencyPair getCurrencyPair() {
+        return currencyPair;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The time of the first record, or Long.MIN_VALUE when the segment is empty.
+     */
+    public long getFirstTime() {
+        return size == 0 ? Long.MIN_VALUE : buffer.getLong(blockOffset(0) + 8);
+    }
+
+    /**
+     * The time of the last record, or Long.MIN_VALUE when the segment is empty.
+     */
+    public long getLastTime() {
+        return size == 0 ? Long.MIN_VALUE : buffer.getLong(blockOffset(blocks - 1) + 16);
+    }
+
+    @Override
+    public long getTime(int index) {
+        return value(index, 0);
+    }
+
+    @Override
+    public long getBid(int index) {
+        return value(index, 1);
+    }
+
+    @Override
+    public long getBidSize(int index) {
+        return value(index, 2);
+    }
+
+    @Override
+    public long getAsk(int index) {
+        return value(index, 3);
+    }
+
+    @Override
+    public long getAskSize(int index) {
+        return value(index, 4);
+    }
+
+    public long getBid(int index, int level) {
+        return value(index, 1 + 4 * level);
+    }
+
+    public long getBidSize(int index, int level) {
+        return value(index, 2 + 4 * level);
+    }
+
+    public long getAsk(int index, int level) {
+        return value(index, 3 + 4 * level);
+    }
+
+    public long getAskSize(int index, int level) {
+        return value(index, 4 + 4 * level);
+    }
+
+    /**
+     * Finds the block from the block headers first, so a seek touches one page per block plus one block's times.
+     */
+    @Override
+    public int indexOf(long time) {
+        int low = 0;
+        int high = blocks;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (buffer.getLong(blockOffset(middle) + 16) < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (low == blocks) {
+            return size;
+        }
+        int from = low << blockShift;
+        int to = Math.min(size, from + blockMask + 1);
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (getTime(middle) < time) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    @Override
+    public String toString() {
+        return path + " (" + currencyPair + ", " + size + " records)";
+    }
+}
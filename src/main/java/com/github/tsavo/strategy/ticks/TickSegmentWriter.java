@@ -0,0 +1,195 @@
+package com.github.tsavo.strategy.ticks;
+
+import org.knowm.xchange.currency.CurrencyPair;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends records to a {@link TickSegment} file. The block being filled is kept in memory; when it fills, on flush()
+ * and on close() only the records appended since the last write go out, a slice of each column, followed by the
+ * block header. A new block is extended to its full size with a single byte at its end, so its unwritten part stays
+ * a hole on filesystems with sparse files. Reopening a segment carries on filling its last block. Not thread safe.
+ */
+public class TickSegmentWriter implements Closeable {
+    public static final int DEFAULT_BLOCK_SHIFT = 12;
+
+    public final Path path;
+    public final CurrencyPair currencyPair;
+    public final int depth;
+    private final int blockShift;
+    private final int blockRecords;
+    private final int blockBytes;
+    private final FileChannel channel;
+    private final ByteBuffer block;
+    private final ByteBuffer view;
+    private long blockPosition;
+    private int count;
+    /**
+     * How many of the block's records are on disk.
+     */
+    private int written;
+    /**
+     * Whether the file already reaches the end of the block.
+     */
+    private boolean extended;
+    private long lastTime = Long.MIN_VALUE;
+
+    public TickSegmentWriter(Path path, CurrencyPair currencyPair, int depth) throws IOException {
+        this(path, currencyPair, depth, DEFAULT_BLOCK_SHIFT);
+    }
+
+    public TickSegmentWriter(Path path, CurrencyPair currencyPair, int depth, int blockShift) throws IOException {
+        this.path = path;
+        this.currencyPair = currencyPair;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(TickSegment.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.size() == 0) {
+                byte[] pair = currencyPair.toString().getBytes(StandardCharsets.UTF_8);
+                if (pair.length > TickSegment.MAX_PAIR_BYTES) {
+                    throw new IllegalArgumentException("Currency pair name too long: " + currencyPair);
+                }
+                header.putInt(0, TickSegment.MAGIC).putInt(4, depth).putInt(8, blockShift).putInt(12, pair.length);
+                for (int i = 0; i < pair.length; i++) {
+                    header.put(16 + i, pair[i]);
+                }
+                channel.write(header, 0);
+            } else {
+                channel.read(header, 0);
+                if (header.getInt(0) != TickSegment.MAGIC) {
+                    throw new IOException(path + " is not a tick segment");
+                }
+                if (header.getInt(4) != depth || !TickSegment.readPair(header).equals(currencyPair.toString())) {
+                    throw new IOException(path + " holds " + TickSegment.readPair(header) + " at depth " + header.getInt(4) + ", not " + currencyPair + " at depth " + depth);
+                }
+                blockShift = header.getInt(8);
+            }
+            this.depth = depth;
+            this.blockShift = blockShift;
+            blockRecords = 1 << blockShift;
+            blockBytes = TickSegment.blockBytes(depth, blockShift);
+            block = ByteBuffer.allocateDirect(blockBytes).order(ByteOrder.LITTLE_ENDIAN);
+            view = block.duplicate();
+            long blocks = (channel.size() - TickSegment.HEADER_BYTES) / blockBytes;
+            blockPosition = TickSegment.HEADER_BYTES + blocks * blockBytes;
+            if (blocks > 0) {
+                long position = blockPosition - blockBytes;
+                while (block.hasRemaining()) {
+                    if (channel.read(block, position + block.position()) < 0) {
+                        throw new IOException(path + " is truncated");
+                    }
+                }
+                block.clear();
+                lastTime = block.getLong(16);
+                if (block.getInt(0) < blockRecords) {
+                    blockPosition = position;
+                    count = block.getInt(0);
+                    written = count;
+                    extended = true;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends one book. Level i of each array is the i-th best price or size; levels beyond the array (or beyond the
+     * segment's depth) are recorded as zero. Records must be appended in time order.
+     */
+    public void append(long time, long[] bidPrices, long[] bidSizes, int bidLevels, long[] askPrices, long[] askSizes, int askLevels) throws IOException {
+        if (time < lastTime) {
+            throw new IllegalArgumentException("Records must be appended in time order");
+        }
+        if (count == blockRecords) {
+            writeBlock();
+            blockPosition += blockBytes;
+            count = 0;
+            written = 0;
+            extended = false;
+        }
+        put(0, time);
+        for (int level = 0; level < depth; level++) {
+            put(1 + 4 * level, level < bidLevels ? bidPrices[level] : 0);
+            put(2 + 4 * level, level < bidLevels ? bidSizes[level] : 0);
+            put(3 + 4 * level, level < askLevels ? askPrices[level] : 0);
+            put(4 + 4 * level, level < askLevels ? askSizes[level] : 0);
+        }
+        if (count == 0) {
+            block.putLong(8, time);
+        }
+        block.putLong(16, time);
+        lastTime = time;
+        count++;
+    }
+
+    private void put(int column, long value) {
+        block.putLong(TickSegment.BLOCK_HEADER_BYTES + (((column << blockShift) + count) << 3), value);
+    }
+
+    /**
+     * Writes the records appended since the last write, then the block header, then the block's last byte if the
+     * file does not reach it yet. Readers size the segment from the file length and the header, so they only ever
+     * see a block once it has its full length, and only count records that are already written.
+     */
+    private void writeBlock() throws IOException {
+        if (written < count) {
+            for (int column = 0; column < TickSegment.columns(depth); column++) {
+                int offset = TickSegment.BLOCK_HEADER_BYTES + ((column << blockShift) << 3);
+                write(offset + (written << 3), offset + (count << 3));
+            }
+        }
+        block.putInt(0, count);
+        write(0, TickSegment.BLOCK_HEADER_BYTES);
+        if (!extended) {
+            write(blockBytes - 1, blockBytes);
+            extended = true;
+        }
+        written = count;
+    }
+
+    private void write(int from, int to) throws IOException {
+        view.clear();
+        view.position(from).limit(to);
+        long position = blockPosition + from;
+        while (view.hasRemaining()) {
+            position += channel.write(view, position);
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getLastTime() {
+        return lastTime;
+    }
+
+    /**
+     * Writes the records appended since the last write, so readers that open the segment now see every record
+     * appended so far.
+     */
+    public void flush() throws IOException {
+        if (count > written) {
+            writeBlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.github.tsavo.strategy.ticks;
+
+import com.github.tsavo.strategy.Fixed;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A directory of recorded books, one subdirectory per pair and one {@link TickSegment} file per pair per UTC day:
+ * {@code BTC-USD/2017-10-01.ticks}. Appends go to the current day's segment and roll over at midnight.
+ */
+public class TickStore implements Closeable {
+    public static final String SUFFIX = ".ticks";
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    public final Path directory;
+    public final int depth;
+    private final Map<CurrencyPair, OpenSegment> writers = new HashMap<>();
+    private final long[] bidPrices;
+    private final long[] bidSizes;
+    private final long[] askPrices;
+    private final long[] askSizes;
+
+    /**
+     * @param depth how many levels of each side of the book to keep
+     */
+    public TickStore(Path directory, int depth) {
+        this.directory = directory;
+        this.depth = depth;
+        bidPrices = new long[depth];
+        bidSizes = new long[depth];
+        askPrices = new long[depth];
+        askSizes = new long[depth];
+    }
+
+    public Path directoryFor(CurrencyPair currencyPair) {
+        return directory.resolve(currencyPair.base + "-" + currencyPair.counter);
+    }
+
+    /**
+     * Appends a book, best levels first on both sides.
+     */
+    public synchronized void append(CurrencyPair currencyPair, long time, List<LimitOrder> asks, List<LimitOrder> bids) throws IOException {
+        int askLevels = levels(asks, askPrices, askSizes);
+        int bidLevels = levels(bids, bidPrices, bidSizes);
+        writerFor(currencyPair, time).append(time, bidPrices, bidSizes, bidLevels, askPrices, askSizes, askLevels);
+    }
+
+    private int levels(List<LimitOrder> orders, long[] prices, long[] sizes) {
+        int levels = Math.min(depth, orders.size());
+        for (int i = 0; i < levels; i++) {
+            LimitOrder order = orders.get(i);
+            prices[i] = Fixed.of(order.getLimitPrice());
+            sizes[i] = Fixed.of(order.getTradableAmount());
+        }
+        return levels;
+    }
+
+    private TickSegmentWriter writerFor(CurrencyPair currencyPair, long time) throws IOException {
+        long day = Math.floorDiv(time, DAY);
+        OpenSegment open = writers.get(currencyPair);
+        if (open != null && open.day == day) {
+            return open.writer;
+        }
+        if (open != null) {
+            writers.remove(currencyPair);
+            open.writer.close();
+        }
+        Path pairDirectory = directoryFor(currencyPair);
+        Files.createDirectories(pairDirectory);
+        TickSegmentWriter writer = new TickSegmentWriter(pairDirectory.resolve(LocalDate.ofEpochDay(day) + SUFFIX), currencyPair, depth);
+        writers.put(currencyPair, new OpenSegment(writer, day));
+        return writer;
+    }
+
+    /**
+     * Writes every partly filled block, making all records appended so far visible to readers.
+     */
+    public synchronized void flush() throws IOException {
+        for (OpenSegment open : writers.values()) {
+            open.writer.flush();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for (OpenSegment open : writers.values()) {
+            try {
+                open.writer.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        writers.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Maps the segments of the pair that can hold records between from (inclusive) and to (exclusive), oldest first.
+     */
+    public List<TickSegment> segments(CurrencyPair currencyPair, long from, long to) throws IOException {
+        Path pairDirectory = directoryFor(currencyPair);
+        List<TickSegment> segments = new ArrayList<>();
+        if (!Files.isDirectory(pairDirectory)) {
+            return segments;
+        }
+        LocalDate firstDay = Instant.ofEpochMilli(from).atZone(ZoneOffset.UTC).toLocalDate();
+        LocalDate lastDay = Instant.ofEpochMilli(to).atZone(ZoneOffset.UTC).toLocalDate();
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(pairDirectory, "*" + SUFFIX)) {
+            for (Path path : files) {
+                String name = path.getFileName().toString();
+                LocalDate day = LocalDate.parse(name.substring(0, name.length() - SUFFIX.length()));
+                if (!day.isBefore(firstDay) && !day.isAfter(lastDay)) {
+                    paths.add(path);
+                }
+            }
+        }
+        Collections.sort(paths);
+        for (Path path : paths) {
+            segments.add(TickSegment.open(path));
+        }
+        return segments;
+    }
+
+    /**
+     * The recorded books of the pair from (inclusive) to (exclusive), as written to disk so far.
+     */
+    public TickHistory history(CurrencyPair currencyPair, long from, long to) throws IOException {
+        return new TickHistory(currencyPair, segments(currencyPair, from, to), from, to);
+    }
+
+    private static class OpenSegment {
+        final TickSegmentWriter writer;
+        final long day;
+
+        OpenSegment(TickSegmentWriter writer, long day) {
+            this.writer = writer;
+            this.day = day;
+        }
+    }
+}
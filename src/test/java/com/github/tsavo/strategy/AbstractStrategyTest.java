@@ -0,0 +1,68 @@
+package com.github.tsavo.strategy;
+
+import com.github.tsavo.strategy.backtest.VirtualClock;
+import com.tsavo.trade.database.model.Target;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class AbstractStrategyTest {
+    private static final CurrencyPair PAIR = CurrencyPair.BTC_USD;
+    private static final long START = 1506816000000L;
+
+    private final List<LimitOrder> placed = new ArrayList<>();
+    private final TestMarket market = new TestMarket(PAIR, "100", "101", "5", "1000", "100") {
+        @Override
+        public TrailingOrder createTrailStopMarketMakerLimitOrder(LimitOrder order, BigDecimal amountToTrailBy) {
+            placed.add(order);
+            return super.createTrailStopMarketMakerLimitOrder(order, amountToTrailBy);
+        }
+    };
+    private final VirtualClock clock = new VirtualClock(START);
+
+    /**
+     * The target wants to buy from the start, but its last buy was 10 seconds ago and it waits a minute between buys.
+     * Nothing else changes: the book stays the same throughout.
+     */
+    @Test
+    public void unchangedBookIsEvaluatedAgainOnceTheWaitBetweenTradesRunsOut() throws Exception {
+        Target target = new Target();
+        target.target = BigDecimal.TEN;
+        target.establishingPosition = BigDecimal.ONE;
+        target.delay = 60;
+        market.lastBuy = new Date(START - 10000);
+        TargetStrategy strategy = new TargetStrategy(market, PAIR, target, message -> {
+        });
+        strategy.clock = clock;
+        strategy.book = book();
+
+        strategy.findOpportunities();
+        assertEquals(START, strategy.evaluatedAt);
+        assertEquals(0, placed.size());
+
+        clock.set(START + 49999);
+        strategy.findOpportunities();
+        assertEquals(START, strategy.evaluatedAt);
+
+        clock.set(START + 50000);
+        strategy.findOpportunities();
+        assertEquals(START + 50000, strategy.evaluatedAt);
+        assertEquals(1, placed.size());
+        assertEquals(Order.OrderType.BID, placed.get(0).getType());
+    }
+
+    private BookSnapshot book() {
+        LimitOrder ask = new LimitOrder.Builder(Order.OrderType.ASK, PAIR).tradableAmount(BigDecimal.TEN).limitPrice(market.ask).build();
+        LimitOrder bid = new LimitOrder.Builder(Order.OrderType.BID, PAIR).tradableAmount(BigDecimal.TEN).limitPrice(market.bid).build();
+        return new BookSnapshot(PAIR, 1, START, Collections.singletonList(ask), Collections.singletonList(bid));
+    }
+}
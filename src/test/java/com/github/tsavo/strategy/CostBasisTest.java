@@ -0,0 +1,111 @@
+package com.github.tsavo.strategy;
+
+import com.github.tsavo.traderplan.exchange.NoWalletEntryException;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CostBasisTest {
+    private static final CurrencyPair PAIR = CurrencyPair.BTC_USD;
+    private static final Date BOUGHT = new Date(1506816000000L);
+    private static final Date SOLD = new Date(1506819600000L);
+
+    private final CostBasis basis = new CostBasis("test", PAIR);
+
+    @Test
+    public void buysAverageTheirPricesAndFeesByQuantity() {
+        basis.apply(Order.OrderType.BID, new BigDecimal(2), new BigDecimal(100), BigDecimal.ZERO, BOUGHT);
+        basis.apply(Order.OrderType.BID, BigDecimal.ONE, new BigDecimal(130), new BigDecimal(3), BOUGHT);
+
+        assertEquals(0, new BigDecimal(3).compareTo(basis.getQuantity()));
+        // (2 * 100 + 130 + 3) / 3
+        assertEquals(new BigDecimal("111.00000000"), basis.getAverageCost());
+        assertEquals(0, BigDecimal.ZERO.compareTo(basis.getRealizedProfit()));
+        assertEquals(BOUGHT, basis.getLastBuy());
+        assertNull(basis.getLastSell());
+    }
+
+    @Test
+    public void sellsRealizeTheirMarginLessTheFeeAndLeaveTheAverage() {
+        basis.apply(Order.OrderType.BID, new BigDecimal(3), new BigDecimal(111), BigDecimal.ZERO, BOUGHT);
+        basis.apply(Order.OrderType.ASK, BigDecimal.ONE, new BigDecimal(120), new BigDecimal("0.5"), SOLD);
+
+        assertEquals(0, new BigDecimal(2).compareTo(basis.getQuantity()));
+        assertEquals(new BigDecimal("111.00000000"), basis.getAverageCost());
+        assertEquals(new BigDecimal("8.50000000"), basis.getRealizedProfit());
+        assertEquals(BOUGHT, basis.getLastBuy());
+        assertEquals(SOLD, basis.getLastSell());
+        assertEquals(2, basis.fills);
+    }
+
+    @Test
+    public void sellingMoreThanIsHeldEmptiesThePosition() {
+        basis.apply(Order.OrderType.BID, new BigDecimal(2), new BigDecimal(111), BigDecimal.ZERO, BOUGHT);
+        basis.apply(Order.OrderType.ASK, new BigDecimal(3), new BigDecimal(100), BigDecimal.ZERO, SOLD);
+
+        assertEquals(0, BigDecimal.ZERO.compareTo(basis.getQuantity()));
+        // The whole sale is realized against the average, including the part we had no record of buying.
+        assertEquals(new BigDecimal("-33.00000000"), basis.getRealizedProfit());
+
+        // The old average carries no weight once nothing is held.
+        basis.apply(Order.OrderType.BID, BigDecimal.ONE, new BigDecimal(90), BigDecimal.ZERO, BOUGHT);
+        assertEquals(new BigDecimal("90.00000000"), basis.getAverageCost());
+    }
+
+    @Test
+    public void buyOfNothingIntoNothingLeavesTheAverage() {
+        basis.apply(Order.OrderType.BID, BigDecimal.ZERO, new BigDecimal(100), BigDecimal.ZERO, BOUGHT);
+
+        assertEquals(0, BigDecimal.ZERO.compareTo(basis.getQuantity()));
+        assertEquals(0, BigDecimal.ZERO.compareTo(basis.getAverageCost()));
+        assertEquals(BOUGHT, basis.getLastBuy());
+        assertEquals(1, basis.fills);
+    }
+
+    @Test
+    public void trackerSeedsAnUnsavedBasisFromTheExchangeOnce() throws Exception {
+        TestMarket market = new TestMarket(PAIR, "99", "101", "10", "1000", "100");
+        market.lastBuy = BOUGHT;
+        market.lastSell = SOLD;
+        MemoryMongo mongo = new MemoryMongo();
+        CostBasisTracker tracker = new CostBasisTracker(market, mongo.operations, "test");
+
+        assertEquals(new BigDecimal(100), tracker.getAverageCost(PAIR));
+        assertEquals(BOUGHT, tracker.getLastBuyDate(PAIR));
+        assertEquals(SOLD, tracker.getLastSellDate(PAIR));
+        List<CostBasis> saved = mongo.all(CostBasis.class);
+        assertEquals(1, saved.size());
+        assertEquals(CostBasis.idOf("test", PAIR), saved.get(0).id);
+        assertEquals(BigDecimal.TEN, saved.get(0).quantity);
+
+        tracker.applyFill(new LimitOrder.Builder(Order.OrderType.BID, PAIR).tradableAmount(BigDecimal.TEN).limitPrice(new BigDecimal(110)).build());
+        assertEquals(new BigDecimal("105.00000000"), mongo.all(CostBasis.class).get(0).averageCost);
+
+        // A later run finds the saved basis and does not ask the exchange again.
+        market.averageCost = new BigDecimal(999);
+        CostBasisTracker restarted = new CostBasisTracker(market, mongo.operations, "test");
+        assertEquals(new BigDecimal("105.00000000"), restarted.getAverageCost(PAIR));
+    }
+
+    @Test
+    public void trackerSeedsNoCostForAPairTheExchangeHasNoEntryFor() throws Exception {
+        Market market = new ForwardingMarket(new TestMarket(PAIR, "99", "101", "0", "1000", "100")) {
+            @Override
+            public BigDecimal getAverageCost(CurrencyPair currencyPair) throws NoWalletEntryException {
+                throw new NoWalletEntryException();
+            }
+        };
+        CostBasisTracker tracker = new CostBasisTracker(market, new MemoryMongo().operations, "test");
+
+        assertEquals(BigDecimal.ZERO, tracker.getAverageCost(PAIR));
+        assertNull(tracker.getLastBuyDate(PAIR));
+    }
+}
@@ -0,0 +1,281 @@
+package com.github.tsavo.strategy;
+
+import com.tsavo.trade.database.model.Pivot;
+import com.tsavo.trade.database.model.Straddle;
+import com.tsavo.trade.database.model.Target;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the satoshi-scaled decision code against the BigDecimal rules it replaced, on random inputs and on inputs
+ * placed right at the rounding boundaries, including prices, balances and costs with more than 8 decimals.
+ */
+public class DecisionParityTest {
+    private static final CurrencyPair PAIR = CurrencyPair.BTC_USD;
+    private static final BigDecimal HUNDRED = new BigDecimal(100);
+    private static final int CASES = 20000;
+
+    private final Random random = new Random(20171001L);
+
+    @Test
+    public void multiplyDivideMatchesBigDecimal() {
+        RoundingMode[] modes = {RoundingMode.HALF_EVEN, RoundingMode.FLOOR, RoundingMode.CEILING};
+        for (int i = 0; i < CASES; i++) {
+            long a = value();
+            long b = value();
+            long c = Math.max(1, value());
+            if (random.nextBoolean()) {
+                a = -a;
+            }
+            RoundingMode mode = modes[i % modes.length];
+            BigDecimal expected = new BigDecimal(BigInteger.valueOf(a).multiply(BigInteger.valueOf(b))).divide(BigDecimal.valueOf(c), 0, mode);
+            if (expected.abs().compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) > 0) {
+                continue;
+            }
+            assertEquals(a + " * " + b + " / " + c + " " + mode, expected.longValueExact(), Fixed.multiplyDivide(a, b, c, mode));
+        }
+    }
+
+    @Test
+    public void compareProductsMatchesBigInteger() {
+        for (int i = 0; i < CASES; i++) {
+            long a = value();
+            long b = value();
+            long c = value();
+            long d = i % 4 == 0 ? b : value();
+            int expected = BigInteger.valueOf(a).multiply(BigInteger.valueOf(b)).compareTo(BigInteger.valueOf(c).multiply(BigInteger.valueOf(d)));
+            assertEquals(a + " * " + b + " vs " + c + " * " + d, expected, Integer.signum(Fixed.compareProducts(a, b, c, d)));
+        }
+    }
+
+    @Test
+    public void isExact() {
+        assertTrue(Fixed.isExact(new BigDecimal("1")));
+        assertTrue(Fixed.isExact(new BigDecimal("0.12345678")));
+        assertTrue(Fixed.isExact(new BigDecimal("0.123456780000")));
+        assertTrue(Fixed.isExact(new BigDecimal("1E+3")));
+        assertFalse(Fixed.isExact(new BigDecimal("0.123456789")));
+        assertFalse(Fixed.isExact(new BigDecimal("5000.5").multiply(new BigDecimal("0.000000001"))));
+    }
+
+    @Test
+    public void straddleBalancePercentMatchesBigDecimal() {
+        for (int i = 0; i < CASES; i++) {
+            long counter = Math.max(1, random.nextInt(1_000_000) * (long) Fixed.ONE / 1000);
+            BigDecimal allocationSize = i % 2 == 0 ? boundarySize(counter) : decimal(6, 8 + random.nextInt(9));
+            if (allocationSize.signum() == 0) {
+                continue;
+            }
+            BigDecimal expected = referenceBalancePercent(allocationSize, Fixed.toBigDecimal(counter));
+            assertEquals(allocationSize + " against " + counter, Fixed.of(expected), StraddleMath.balancePercent(allocationSize, counter, StraddleMath.NO_CAP));
+        }
+    }
+
+    @Test
+    public void straddleDecisionsMatchBigDecimal() {
+        for (int i = 0; i < CASES; i++) {
+            Straddle straddle = new Straddle();
+            straddle.amountToTrade = new BigDecimal(100);
+            straddle.maxAllocation = random.nextInt(3) == 0 ? BigDecimal.ZERO : decimal(5, random.nextInt(4) == 0 ? 10 : 2);
+            straddle.lowerMargin = percent();
+            straddle.upperMargin = percent();
+            straddle.pivotMargin = decimal(1, random.nextInt(4) == 0 ? 10 : 2);
+            BigDecimal target = percent();
+
+            TestMarket market;
+            if (i % 3 == 0) {
+                // A base balance worth just about the share of the whole that puts the percent on a rounding boundary.
+                long counter = Math.max(1, random.nextInt(1_000_000) * (long) Fixed.ONE / 1000);
+                market = new TestMarket(PAIR, "1", "1", boundarySize(counter).toPlainString(), Fixed.toBigDecimal(counter).toPlainString(), "1");
+            } else {
+                market = new TestMarket(PAIR, "1", "1", "1", "1", "1");
+                market.bid = decimal(5, random.nextInt(11));
+                market.ask = market.bid;
+                market.baseBalance = decimal(3, random.nextInt(13));
+                market.counterBalance = decimal(6, random.nextInt(11));
+            }
+            if (market.baseBalance.signum() == 0 && market.counterBalance.signum() == 0) {
+                continue;
+            }
+            BigDecimal averagePrice = random.nextInt(4) == 0 ? market.bid.add(new BigDecimal("0.000000001")) : market.bid;
+
+            StraddleStrategy strategy = new StraddleStrategy(market, PAIR, straddle, null);
+            strategy.targetPercents = new TargetPercentTable(price -> target);
+            TickContext tick = new TickContext(market, PAIR);
+            String inputs = market.baseBalance + " @ " + market.bid + ", " + market.counterBalance + " counter, target " + target
+                    + ", margins " + straddle.lowerMargin + "/" + straddle.upperMargin + "/" + straddle.pivotMargin + ", max " + straddle.maxAllocation;
+            assertEquals("buy " + inputs, referenceStraddleBuy(market, straddle, target), strategy.isTimeToBuy(tick, averagePrice));
+            assertEquals("sell " + inputs, referenceStraddleSell(market, straddle, target), strategy.isTimeToSell(tick, averagePrice));
+        }
+    }
+
+    @Test
+    public void pivotDecisionsMatchBigDecimal() {
+        for (int i = 0; i < CASES; i++) {
+            Pivot pivot = new Pivot();
+            pivot.allocationMarginSchedule = new ArrayList<>(Collections.singletonList(decimal(1, random.nextInt(4))));
+            pivot.distributionMarginSchedule = new ArrayList<>(Collections.singletonList(decimal(1, random.nextInt(4))));
+
+            BigDecimal averageCost = decimal(5, random.nextInt(13));
+            if (averageCost.signum() == 0) {
+                continue;
+            }
+            BigDecimal buyLimit = averageCost.multiply(BigDecimal.ONE.subtract(pivot.allocationMarginSchedule.get(0).divide(HUNDRED, 8, BigDecimal.ROUND_HALF_EVEN)));
+            BigDecimal sellLimit = averageCost.multiply(BigDecimal.ONE.add(pivot.distributionMarginSchedule.get(0).divide(HUNDRED, 8, BigDecimal.ROUND_HALF_EVEN)));
+            TestMarket market = new TestMarket(PAIR, "1", "1", "1", "1", "1");
+            market.averageCost = averageCost;
+            market.ask = near(buyLimit);
+            market.bid = near(sellLimit);
+            market.baseBalance = decimal(2, random.nextInt(13));
+            BigDecimal allocationSize = market.baseBalance.multiply(market.bid);
+            // Either well under the position, well past it, or right at 90% of it.
+            switch (random.nextInt(3)) {
+                case 0:
+                    pivot.establishingPosition = allocationSize.multiply(new BigDecimal(2)).setScale(2, BigDecimal.ROUND_CEILING);
+                    break;
+                case 1:
+                    pivot.establishingPosition = BigDecimal.ZERO;
+                    break;
+                default:
+                    pivot.establishingPosition = allocationSize.divide(new BigDecimal(0.9), 8, random.nextBoolean() ? BigDecimal.ROUND_FLOOR : BigDecimal.ROUND_CEILING);
+            }
+
+            PivotStrategy strategy = new PivotStrategy(market, PAIR, pivot, null);
+            TickContext tick = new TickContext(market, PAIR);
+            String inputs = "ask " + market.ask + ", bid " + market.bid + ", cost " + averageCost + ", margins " + pivot.allocationMarginSchedule.get(0)
+                    + "/" + pivot.distributionMarginSchedule.get(0) + ", holding " + allocationSize + " of " + pivot.establishingPosition;
+            assertEquals("buy " + inputs, referencePivotBuy(market, pivot), strategy.isTimeToBuy(tick));
+            assertEquals("sell " + inputs, referencePivotSell(market, pivot), strategy.isTimeToSell(tick));
+        }
+    }
+
+    @Test
+    public void targetDecisionsMatchBigDecimal() {
+        for (int i = 0; i < CASES; i++) {
+            Target target = new Target();
+            target.target = decimal(3, random.nextInt(11));
+            target.establishingPosition = BigDecimal.ONE;
+            TestMarket market = new TestMarket(PAIR, "1", "1", "1", "1", "1");
+            BigDecimal band = random.nextBoolean() ? new BigDecimal(1.01) : new BigDecimal(.99);
+            market.baseBalance = near(target.target.divide(band, 12, BigDecimal.ROUND_HALF_EVEN));
+            if (random.nextInt(4) == 0) {
+                // Between the decimal band and the slightly wider double one, where only the double decides right.
+                market.baseBalance = decimal(3, 8).add(BigDecimal.ONE);
+                BigDecimal hair = market.baseBalance.movePointLeft(18);
+                target.target = random.nextBoolean()
+                        ? market.baseBalance.multiply(new BigDecimal("1.01")).add(hair)
+                        : market.baseBalance.multiply(new BigDecimal("0.99")).subtract(hair);
+            }
+
+            TargetStrategy strategy = new TargetStrategy(market, PAIR, target, null);
+            TickContext tick = new TickContext(market, PAIR);
+            String inputs = market.baseBalance + " against " + target.target;
+            assertEquals("buy " + inputs, market.baseBalance.multiply(new BigDecimal(1.01)).compareTo(target.target) < 0, strategy.isTimeToBuy(tick));
+            assertEquals("sell " + inputs, market.baseBalance.multiply(new BigDecimal(.99)).compareTo(target.target) > 0, strategy.isTimeToSell(tick));
+        }
+    }
+
+    private static boolean referenceStraddleBuy(TestMarket market, Straddle straddle, BigDecimal target) {
+        BigDecimal balancePercent = referenceBalancePercent(market, straddle, target);
+        if (balancePercent.compareTo(straddle.lowerMargin) >= 0) {
+            return false;
+        }
+        return balancePercent.add(straddle.pivotMargin).compareTo(target) < 0;
+    }
+
+    private static boolean referenceStraddleSell(TestMarket market, Straddle straddle, BigDecimal target) {
+        BigDecimal balancePercent = referenceBalancePercent(market, straddle, target);
+        if (balancePercent.compareTo(straddle.upperMargin) <= 0) {
+            return false;
+        }
+        return balancePercent.subtract(straddle.pivotMargin).compareTo(target) > 0;
+    }
+
+    private static BigDecimal referenceBalancePercent(TestMarket market, Straddle straddle, BigDecimal target) {
+        BigDecimal cap = BigDecimal.valueOf(Double.MAX_VALUE);
+        if (straddle.maxAllocation.compareTo(BigDecimal.ZERO) > 0) {
+            cap = HUNDRED.subtract(target).divide(HUNDRED, 8, BigDecimal.ROUND_HALF_EVEN).multiply(straddle.maxAllocation).setScale(8, BigDecimal.ROUND_HALF_EVEN);
+        }
+        BigDecimal counterBalance = market.counterBalance.setScale(8, BigDecimal.ROUND_HALF_EVEN).min(cap);
+        BigDecimal allocationSize = market.getPriceIn(market.baseBalance, PAIR);
+        return referenceBalancePercent(allocationSize, counterBalance);
+    }
+
+    private static BigDecimal referenceBalancePercent(BigDecimal allocationSize, BigDecimal counterBalance) {
+        BigDecimal allocationTotal = allocationSize.add(counterBalance);
+        return allocationSize.divide(allocationTotal, 8, BigDecimal.ROUND_HALF_EVEN).multiply(HUNDRED).setScale(2, BigDecimal.ROUND_HALF_EVEN);
+    }
+
+    private static boolean referencePivotBuy(TestMarket market, Pivot pivot) {
+        BigDecimal actualPrice = market.getPriceIn(market.baseBalance, PAIR);
+        if (actualPrice.compareTo(pivot.establishingPosition.multiply(new BigDecimal(0.9))) < 0) {
+            return true;
+        }
+        BigDecimal margin = pivot.allocationMarginSchedule.get(0).divide(HUNDRED, 8, BigDecimal.ROUND_HALF_EVEN);
+        return market.ask.compareTo(market.averageCost.multiply(BigDecimal.ONE.subtract(margin))) < 0;
+    }
+
+    private static boolean referencePivotSell(TestMarket market, Pivot pivot) {
+        BigDecimal margin = pivot.distributionMarginSchedule.get(0).divide(HUNDRED, 8, BigDecimal.ROUND_HALF_EVEN);
+        return market.bid.compareTo(market.averageCost.multiply(BigDecimal.ONE.add(margin))) > 0;
+    }
+
+    /**
+     * An allocation size that puts the balance percent against counter satoshis within a hair of a point where
+     * it rounds the other way, with more than 8 decimals.
+     */
+    private BigDecimal boundarySize(long counter) {
+        // Half way between two 2 decimal percents, then half a step of the 8 decimal ratio either side of that.
+        BigDecimal ratio = new BigDecimal(1 + random.nextInt(9998)).add(new BigDecimal("0.5")).divide(new BigDecimal(10000))
+                .add(random.nextBoolean() ? new BigDecimal("0.000000005") : new BigDecimal("-0.000000005"));
+        BigDecimal size = ratio.multiply(Fixed.toBigDecimal(counter)).divide(BigDecimal.ONE.subtract(ratio), 16, BigDecimal.ROUND_HALF_EVEN);
+        return size.add(new BigDecimal(random.nextInt(41) - 20).movePointLeft(12 + random.nextInt(4)));
+    }
+
+    /**
+     * The value itself, or a step or two of a satoshi or of a tenth of one away from it.
+     */
+    private BigDecimal near(BigDecimal value) {
+        BigDecimal rounded = value.setScale(8 + random.nextInt(3), BigDecimal.ROUND_HALF_EVEN);
+        BigDecimal step = BigDecimal.ONE.movePointLeft(rounded.scale());
+        BigDecimal result = rounded.add(step.multiply(new BigDecimal(random.nextInt(5) - 2)));
+        return result.signum() < 0 ? BigDecimal.ZERO : result;
+    }
+
+    private BigDecimal percent() {
+        return decimal(2, random.nextInt(4) == 0 ? 10 : 2).remainder(HUNDRED);
+    }
+
+    /**
+     * A non-negative decimal with up to the given number of integer digits and exactly the given scale.
+     */
+    private BigDecimal decimal(int digits, int scale) {
+        BigInteger unscaled = new BigInteger(BigInteger.TEN.pow(digits + scale).bitLength(), random).mod(BigInteger.TEN.pow(digits + scale));
+        return new BigDecimal(unscaled, scale);
+    }
+
+    /**
+     * A satoshi value, mostly small but sometimes big enough to take the 128 bit path.
+     */
+    private long value() {
+        switch (random.nextInt(3)) {
+            case 0:
+                return random.nextInt(Integer.MAX_VALUE);
+            case 1:
+                return random.nextLong() >>> 20;
+            default:
+                return random.nextLong() >>> 1;
+        }
+    }
+}
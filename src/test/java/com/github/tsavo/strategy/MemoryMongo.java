@@ -0,0 +1,189 @@
+package com.github.tsavo.strategy;
+
+import com.mongodb.DBObject;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps documents in memory behind {@link #operations}, one collection per class, keyed by their id field. Documents
+ * are copied field by field on the way in and out, as Mongo would, so changing one after saving it changes nothing
+ * stored. Queries are matched against the documents' public fields: equality, $gt, $gte, $lt, $lte and $in, with a
+ * sort and a limit. Calls it does not know throw UnsupportedOperationException.
+ */
+public class MemoryMongo {
+    public final MongoOperations operations = (MongoOperations) Proxy.newProxyInstance(MongoOperations.class.getClassLoader(),
+            new Class<?>[]{MongoOperations.class}, (proxy, method, args) -> call(method, args));
+
+    private final Map<Class<?>, Map<Object, Object>> collections = new LinkedHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+
+    /**
+     * The documents of a class, as stored.
+     */
+    public synchronized <T> List<T> all(Class<T> type) {
+        List<T> documents = new ArrayList<>();
+        for (Object document : collection(type).values()) {
+            documents.add(type.cast(copy(document)));
+        }
+        return documents;
+    }
+
+    protected synchronized Object call(Method method, Object[] args) {
+        switch (method.getName()) {
+            case "save":
+                put(args[0]);
+                return null;
+            case "insert":
+                if (args[0] instanceof Collection) {
+                    for (Object document : (Collection<?>) args[0]) {
+                        put(document);
+                    }
+                } else {
+                    put(args[0]);
+                }
+                return null;
+            case "findById": {
+                Object document = collection((Class<?>) args[1]).get(args[0]);
+                return document == null ? null : copy(document);
+            }
+            case "findAll":
+                return all((Class<?>) args[0]);
+            case "find":
+                return find((Query) args[0], (Class<?>) args[1]);
+            case "findOne": {
+                List<Object> found = find((Query) args[0], (Class<?>) args[1]);
+                return found.isEmpty() ? null : found.get(0);
+            }
+            case "remove":
+                for (Object document : find((Query) args[0], (Class<?>) args[1])) {
+                    collection(document.getClass()).remove(field(document, "id"));
+                }
+                return null;
+            default:
+                throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private List<Object> find(Query query, Class<?> type) {
+        List<Object> found = new ArrayList<>();
+        for (Object document : collection(type).values()) {
+            if (matches(document, query.getQueryObject())) {
+                found.add(copy(document));
+            }
+        }
+        DBObject sort = query.getSortObject();
+        if (sort != null) {
+            found.sort((a, b) -> {
+                for (String key : sort.keySet()) {
+                    int order = ((Number) sort.get(key)).intValue() * compare(field(a, key), field(b, key));
+                    if (order != 0) {
+                        return order;
+                    }
+                }
+                return 0;
+            });
+        }
+        return query.getLimit() > 0 && found.size() > query.getLimit() ? new ArrayList<>(found.subList(0, query.getLimit())) : found;
+    }
+
+    private static boolean matches(Object document, DBObject query) {
+        for (String key : query.keySet()) {
+            Object value = field(document, key);
+            Object condition = query.get(key);
+            if (!(condition instanceof DBObject)) {
+                if (!Objects.equals(value, condition)) {
+                    return false;
+                }
+                continue;
+            }
+            DBObject operators = (DBObject) condition;
+            for (String operator : operators.keySet()) {
+                Object operand = operators.get(operator);
+                boolean matched;
+                switch (operator) {
+                    case "$gt":
+                        matched = value != null && compare(value, operand) > 0;
+                        break;
+                    case "$gte":
+                        matched = value != null && compare(value, operand) >= 0;
+                        break;
+                    case "$lt":
+                        matched = value != null && compare(value, operand) < 0;
+                        break;
+                    case "$lte":
+                        matched = value != null && compare(value, operand) <= 0;
+                        break;
+                    case "$in":
+                        matched = operand instanceof Collection ? ((Collection<?>) operand).contains(value) : Arrays.asList((Object[]) operand).contains(value);
+                        break;
+                    default:
+                        throw new UnsupportedOperationException(operator);
+                }
+                if (!matched) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compare(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            return new BigDecimal(a.toString()).compareTo(new BigDecimal(b.toString()));
+        }
+        return ((Comparable) a).compareTo(b);
+    }
+
+    private static Object field(Object document, String name) {
+        try {
+            return document.getClass().getField("_id".equals(name) ? "id" : name).get(document);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("No public " + name + " on " + document, e);
+        }
+    }
+
+    protected Map<Object, Object> collection(Class<?> type) {
+        return collections.computeIfAbsent(type, key -> new LinkedHashMap<>());
+    }
+
+    private void put(Object document) {
+        try {
+            Field id = document.getClass().getField("id");
+            if (id.get(document) == null) {
+                id.set(document, Long.toString(ids.incrementAndGet()));
+            }
+            collection(document.getClass()).put(id.get(document), copy(document));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("No public id on " + document, e);
+        }
+    }
+
+    protected static Object copy(Object document) {
+        try {
+            Object copy = document.getClass().newInstance();
+            for (Field field : document.getClass().getFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers())) {
+                    field.set(copy, field.get(document));
+                }
+            }
+            return copy;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot copy " + document, e);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.github.tsavo.strategy;
+
+import org.junit.After;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OrderCoordinatorTest {
+    private static final CurrencyPair PAIR = CurrencyPair.BTC_USD;
+
+    /**
+     * The orders that reached the market, and their trails.
+     */
+    private final List<LimitOrder> placed = Collections.synchronizedList(new ArrayList<>());
+    private final List<BigDecimal> trails = Collections.synchronizedList(new ArrayList<>());
+    /**
+     * Runs as each placed order fills, e.g. to move the book while it was out.
+     */
+    private volatile Runnable onFill = () -> {
+    };
+    private final TestMarket market = new TestMarket(PAIR, "99", "101", "10", "10000", "100") {
+        @Override
+        public TrailingOrder createTrailStopMarketMakerLimitOrder(LimitOrder order, BigDecimal amountToTrailBy) {
+            placed.add(order);
+            trails.add(amountToTrailBy);
+            return new ForwardingOrder(super.createTrailStopMarketMakerLimitOrder(order, amountToTrailBy)) {
+                @Override
+                public boolean fillOrCancel() throws IOException {
+                    onFill.run();
+                    return super.fillOrCancel();
+                }
+            };
+        }
+    };
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final OrderCoordinator coordinator = new OrderCoordinator(market, scheduler);
+
+    @After
+    public void stopScheduler() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void opposingOrdersCrossAtTheMidAndOnlyTheRestGoesOut() throws Exception {
+        AsyncTrailingOrder buy = open(Order.OrderType.BID, "2", "110", "1");
+        AsyncTrailingOrder sell = open(Order.OrderType.ASK, "3", "90", "1");
+
+        assertTrue(buy.completion().get(5, TimeUnit.SECONDS));
+        assertTrue(sell.completion().get(5, TimeUnit.SECONDS));
+        assertFilled(buy, "2", "100.00000000");
+        // 2 crossed at 100, the last 1 sold on the market at the bid of 99.
+        assertFilled(sell, "3", "99.66666667");
+
+        assertEquals(1, placed.size());
+        assertEquals(Order.OrderType.ASK, placed.get(0).getType());
+        assertEquals(0, BigDecimal.ONE.compareTo(placed.get(0).getTradableAmount()));
+        assertEquals(2, coordinator.getIntents());
+        assertEquals(1, coordinator.getSubmitted());
+    }
+
+    @Test
+    public void largerSideSharesTheCrossingProRata() throws Exception {
+        AsyncTrailingOrder buy = open(Order.OrderType.BID, "2", "110", "1");
+        AsyncTrailingOrder small = open(Order.OrderType.ASK, "1", "90", "1");
+        AsyncTrailingOrder large = open(Order.OrderType.ASK, "3", "95", "2");
+
+        assertTrue(buy.completion().get(5, TimeUnit.SECONDS));
+        assertTrue(small.completion().get(5, TimeUnit.SECONDS));
+        assertTrue(large.completion().get(5, TimeUnit.SECONDS));
+        assertFilled(buy, "2", "100.00000000");
+        // Each sell crosses half its amount at 100 and sells the other half at 99.
+        assertFilled(small, "1", "99.50000000");
+        assertFilled(large, "3", "99.50000000");
+
+        assertEquals(1, placed.size());
+        LimitOrder combined = placed.get(0);
+        assertEquals(0, new BigDecimal(2).compareTo(combined.getTradableAmount()));
+        // The tightest limit, and the trail weighted by what each order sends out: (0.5 * 1 + 1.5 * 2) / 2.
+        assertEquals(0, new BigDecimal(95).compareTo(combined.getLimitPrice()));
+        assertEquals(new BigDecimal("1.75000000"), trails.get(0));
+    }
+
+    @Test
+    public void sameSideOrdersGoOutAsOne() throws Exception {
+        AsyncTrailingOrder first = open(Order.OrderType.BID, "1", "110", "1");
+        AsyncTrailingOrder second = open(Order.OrderType.BID, "3", "105", "1");
+
+        assertTrue(first.completion().get(5, TimeUnit.SECONDS));
+        assertTrue(second.completion().get(5, TimeUnit.SECONDS));
+        assertEquals(1, placed.size());
+        assertEquals(0, new BigDecimal(4).compareTo(placed.get(0).getTradableAmount()));
+        assertEquals(0, new BigDecimal(105).compareTo(placed.get(0).getLimitPrice()));
+        // Bought at the lowest ask when the combined order filled.
+        assertFilled(first, "1", "101.00000000");
+        assertFilled(second, "3", "101.00000000");
+    }
+
+    @Test
+    public void combinedFillIsPricedOnTheBookItFilledAgainst() throws Exception {
+        // The ask rises from 101 to 103 while the combined order is out.
+        onFill = () -> market.ask = new BigDecimal(103);
+        AsyncTrailingOrder first = open(Order.OrderType.BID, "1", "110", "1");
+        AsyncTrailingOrder second = open(Order.OrderType.BID, "3", "105", "1");
+
+        assertTrue(first.completion().get(5, TimeUnit.SECONDS));
+        assertTrue(second.completion().get(5, TimeUnit.SECONDS));
+        assertEquals(1, placed.size());
+        assertFilled(first, "1", "103.00000000");
+        assertFilled(second, "3", "103.00000000");
+    }
+
+    @Test
+    public void orderTheUnreservedBalanceCannotCoverFailsToOpen() throws Exception {
+        AsyncTrailingOrder first = open(Order.OrderType.ASK, "6", "90", "1");
+        assertEquals(0, new BigDecimal(4).compareTo(coordinator.getAvailableBalance(PAIR.base)));
+        try {
+            open(Order.OrderType.ASK, "6", "90", "1");
+            fail("Only 4 of the 10 are unreserved");
+        } catch (IOException expected) {
+        }
+        try {
+            // 100 at the ask plus the trail is 10200, more than the 10000 held.
+            open(Order.OrderType.BID, "100", "110", "1");
+            fail("Only 10000 is unreserved");
+        } catch (IOException expected) {
+        }
+
+        assertTrue(first.completion().get(5, TimeUnit.SECONDS));
+        assertEquals(1, placed.size());
+        assertEquals(0, BigDecimal.TEN.compareTo(coordinator.getAvailableBalance(PAIR.base)));
+    }
+
+    @Test
+    public void orderCancelledBeforeItsBatchGoesOutIsWithdrawn() throws Exception {
+        AsyncTrailingOrder buy = open(Order.OrderType.BID, "2", "110", "1");
+        AsyncTrailingOrder sell = open(Order.OrderType.ASK, "1", "90", "1");
+        sell.cancelOrder();
+
+        assertFalse(sell.completion().get(5, TimeUnit.SECONDS));
+        assertTrue(buy.completion().get(5, TimeUnit.SECONDS));
+        // Nothing was left to cross, so the whole buy went out and came back as the market reported it.
+        assertFilled(buy, "2", "110");
+        assertEquals(1, placed.size());
+        assertEquals(0, new BigDecimal(10000).compareTo(coordinator.getAvailableBalance(PAIR.counter)));
+    }
+
+    private AsyncTrailingOrder open(Order.OrderType type, String amount, String limit, String trail) throws IOException {
+        LimitOrder order = new LimitOrder.Builder(type, PAIR).tradableAmount(new BigDecimal(amount)).limitPrice(new BigDecimal(limit)).build();
+        AsyncTrailingOrder intent = (AsyncTrailingOrder) coordinator.createTrailStopMarketMakerLimitOrder(order, new BigDecimal(trail));
+        intent.openOrder();
+        return intent;
+    }
+
+    private static void assertFilled(TrailingOrder order, String amount, String price) {
+        assertEquals(0, new BigDecimal(amount).compareTo(order.getOrder().getTradableAmount()));
+        assertEquals(new BigDecimal(price), order.getOrder().getLimitPrice());
+    }
+}
@@ -0,0 +1,186 @@
+package com.github.tsavo.strategy;
+
+import org.junit.After;
+import org.junit.Test;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.trade.LimitOrder;
+import org.knowm.xchange.exceptions.ExchangeException;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the limiter on a clock that only moves when the test says, so no token or backoff runs out by itself.
+ */
+public class RateLimitedMarketTest {
+    private static final CurrencyPair PAIR = CurrencyPair.BTC_USD;
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * The calls that reached the market, in order.
+     */
+    private final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+    /**
+     * How many more balance reads fail with a rate limit error.
+     */
+    private final AtomicInteger rateLimitErrors = new AtomicInteger();
+    /**
+     * While set, balance reads wait for it.
+     */
+    private volatile CountDownLatch balanceReads;
+    private final TestMarket market = new TestMarket(PAIR, "99", "101", "10", "1000", "100") {
+        @Override
+        public BigDecimal getBalance(Currency currency) {
+            calls.add("balance " + currency);
+            if (rateLimitErrors.getAndDecrement() > 0) {
+                throw new ExchangeException("429 Too Many Requests");
+            }
+            CountDownLatch latch = balanceReads;
+            if (latch != null) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new ExchangeException("Interrupted", e);
+                }
+            }
+            return super.getBalance(currency);
+        }
+
+        @Override
+        public List<LimitOrder> getLowestAsks(CurrencyPair currencyPair) {
+            calls.add("asks");
+            return super.getLowestAsks(currencyPair);
+        }
+
+        @Override
+        public TrailingOrder createTrailStopMarketMakerLimitOrder(LimitOrder order, BigDecimal amountToTrailBy) {
+            return new ForwardingOrder(super.createTrailStopMarketMakerLimitOrder(order, amountToTrailBy)) {
+                @Override
+                public void cancelOrder() {
+                    calls.add("cancel");
+                }
+            };
+        }
+    };
+    private final AtomicLong now = new AtomicLong();
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+
+    @After
+    public void stopCallers() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    public void cancelOvertakesQueuedBalanceReads() throws Exception {
+        RateLimitedMarket limiter = limiter(1000, 1);
+        TrailingOrder order = limiter.createTrailStopMarketMakerLimitOrder(
+                new LimitOrder.Builder(Order.OrderType.BID, PAIR).tradableAmount(BigDecimal.ONE).limitPrice(new BigDecimal(100)).build(),
+                BigDecimal.ONE);
+        // Takes the only token.
+        limiter.getLowestAsks(PAIR);
+
+        Currency other = new Currency("ETH");
+        List<Future<?>> queued = new ArrayList<>();
+        int count = 0;
+        for (Currency currency : Arrays.asList(PAIR.base, PAIR.counter, other)) {
+            queued.add(callers.submit(() -> limiter.getBalance(currency)));
+            int expected = ++count;
+            await(() -> limiter.getQueued() == expected);
+        }
+        queued.add(callers.submit(() -> {
+            order.cancelOrder();
+            return null;
+        }));
+        await(() -> limiter.getQueued() == 4);
+
+        // One token at a time, each to the most urgent call waiting.
+        for (int i = 2; i <= 5; i++) {
+            now.addAndGet(MILLI * 3 / 2);
+            int expected = i;
+            await(() -> calls.size() == expected);
+        }
+        for (Future<?> call : queued) {
+            call.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(Arrays.asList("asks", "cancel", "balance " + PAIR.base, "balance " + PAIR.counter, "balance ETH"), calls);
+    }
+
+    @Test
+    public void rateLimitErrorsBackOffDoublingAndHalveTheRate() throws Exception {
+        RateLimitedMarket limiter = limiter(1000, 10);
+        // Read when the first error happens, not when the limiter was made.
+        limiter.initialBackoff = 10;
+        rateLimitErrors.set(2);
+
+        Future<BigDecimal> balance = callers.submit(() -> limiter.getBalance(PAIR.base));
+        await(() -> limiter.getRateLimited() == 1 && limiter.getQueued() == 1);
+        assertEquals(500, limiter.getRate(), 0);
+
+        now.addAndGet(10 * MILLI);
+        await(() -> limiter.getRateLimited() == 2 && limiter.getQueued() == 1);
+        assertEquals(250, limiter.getRate(), 0);
+
+        // The second backoff is twice the first.
+        now.addAndGet(10 * MILLI);
+        Thread.sleep(50);
+        assertEquals(2, calls.size());
+        now.addAndGet(10 * MILLI);
+        assertEquals(BigDecimal.TEN, balance.get(5, TimeUnit.SECONDS));
+        assertEquals(3, calls.size());
+        // A success wins back a hundredth of the limit.
+        assertEquals(260, limiter.getRate(), 0);
+    }
+
+    @Test
+    public void identicalReadsInFlightShareOneCall() throws Exception {
+        RateLimitedMarket limiter = limiter(1000, 10);
+        balanceReads = new CountDownLatch(1);
+
+        Future<BigDecimal> first = callers.submit(() -> limiter.getBalance(PAIR.base));
+        await(() -> calls.size() == 1);
+        Future<BigDecimal> second = callers.submit(() -> limiter.getBalance(PAIR.base));
+        await(() -> limiter.getCoalesced() == 1);
+        balanceReads.countDown();
+
+        assertSame(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.size());
+
+        // Once the answer is in, the next read goes to the exchange again.
+        limiter.getBalance(PAIR.base);
+        assertEquals(2, calls.size());
+    }
+
+    private RateLimitedMarket limiter(double requestsPerSecond, int burst) {
+        return new RateLimitedMarket(market, requestsPerSecond, burst) {
+            @Override
+            protected long nanoTime() {
+                return now.get();
+            }
+        };
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+}
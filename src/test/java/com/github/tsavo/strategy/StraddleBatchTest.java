@@ -0,0 +1,180 @@
+package com.github.tsavo.strategy;
+
+import com.tsavo.trade.database.model.Straddle;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a batch decides every straddle as its own {@link StraddleStrategy} would, on balances in whole
+ * satoshis.
+ */
+public class StraddleBatchTest {
+    private static final CurrencyPair PAIR = CurrencyPair.BTC_USD;
+    private static final int ACCOUNTS = 5;
+    private static final int STRADDLES = 200;
+
+    private final Random random = new Random(20171101L);
+
+    @Test
+    public void decidesAsEachStrategyWould() {
+        List<Function<BigDecimal, BigDecimal>> curves = new ArrayList<>();
+        curves.add(price -> new BigDecimal(50));
+        curves.add(price -> price.remainder(new BigDecimal(40)).setScale(2, BigDecimal.ROUND_FLOOR).add(new BigDecimal(30)));
+        List<TargetPercentTable> tables = new ArrayList<>();
+        for (Function<BigDecimal, BigDecimal> curve : curves) {
+            tables.add(new TargetPercentTable(curve));
+        }
+
+        List<TestMarket> markets = new ArrayList<>();
+        for (int a = 0; a < ACCOUNTS; a++) {
+            markets.add(new TestMarket(PAIR, "1", "1", "1", "1", "1"));
+        }
+
+        StraddleBatch batch = new StraddleBatch();
+        List<StraddleStrategy> strategies = new ArrayList<>();
+        for (int i = 0; i < STRADDLES; i++) {
+            Straddle straddle = new Straddle();
+            straddle.amountToTrade = new BigDecimal(100);
+            straddle.lowerMargin = percent();
+            straddle.upperMargin = percent();
+            straddle.pivotMargin = new BigDecimal(random.nextInt(1000)).movePointLeft(2);
+            straddle.maxAllocation = random.nextBoolean() ? BigDecimal.ZERO : new BigDecimal(random.nextInt(100_000_000)).movePointLeft(4);
+            int curve = random.nextInt(curves.size());
+            int account = random.nextInt(ACCOUNTS);
+
+            StraddleStrategy strategy = new StraddleStrategy(markets.get(account), PAIR, straddle, null);
+            strategy.targetPercents = new TargetPercentTable(curves.get(curve));
+            strategies.add(strategy);
+            assertEquals(i, batch.add(Fixed.of(straddle.lowerMargin), Fixed.of(straddle.upperMargin), Fixed.of(straddle.pivotMargin),
+                    Fixed.of(straddle.maxAllocation), tables.get(curve), account));
+        }
+
+        int buys = 0;
+        int sells = 0;
+        for (int round = 0; round < 200; round++) {
+            BigDecimal price = new BigDecimal(100 + random.nextInt(1_000_000)).movePointLeft(2);
+            for (int a = 0; a < ACCOUNTS; a++) {
+                TestMarket market = markets.get(a);
+                market.bid = price;
+                market.ask = price;
+                market.baseBalance = new BigDecimal(random.nextInt(1_000_000)).movePointLeft(4);
+                market.counterBalance = new BigDecimal(1 + random.nextInt(1_000_000_000)).movePointLeft(4);
+                batch.setBalances(a, market.getPriceIn(market.baseBalance, PAIR), market.counterBalance);
+            }
+            byte[] decisions = batch.evaluate(price);
+            for (int i = 0; i < STRADDLES; i++) {
+                StraddleStrategy strategy = strategies.get(i);
+                TickContext tick = new TickContext(strategy.exchange, PAIR);
+                byte expected = StraddleBatch.HOLD;
+                if (strategy.isTimeToBuy(tick, price)) {
+                    expected = StraddleBatch.BUY;
+                } else if (strategy.isTimeToSell(tick, price)) {
+                    expected = StraddleBatch.SELL;
+                }
+                assertEquals("straddle " + i + " at " + price, expected, decisions[i]);
+                if (expected == StraddleBatch.BUY) {
+                    buys++;
+                } else if (expected == StraddleBatch.SELL) {
+                    sells++;
+                }
+            }
+        }
+        // Both branches have to come up for the comparison to mean anything.
+        assertTrue(buys > 0 && sells > 0);
+    }
+
+    /**
+     * Half the holdings are in the base currency, so the balance percent is exactly 50. Each straddle sits a fraction
+     * of a satoshi to the side of it, where rounding would make it hold.
+     */
+    @Test
+    public void decidesFinerThanASatoshiAsEachStrategyWould() {
+        TestMarket market = new TestMarket(PAIR, "100", "100", "1", "100", "100");
+        BigDecimal price = new BigDecimal(100);
+        StraddleBatch batch = new StraddleBatch();
+        List<StraddleStrategy> strategies = new ArrayList<>();
+        // Buys below a lower margin just above 50.
+        strategies.add(straddle(batch, market, "50.000000004", "90", "1", "0", "60"));
+        // Sells above an upper margin just below 50.
+        strategies.add(straddle(batch, market, "10", "49.999999996", "1", "0", "40"));
+        // Buys because 50 plus the pivot is still short of a target just above 51.
+        strategies.add(straddle(batch, market, "60", "90", "1", "0", "51.000000004"));
+        // Exact throughout, so decided on longs: 50 plus the pivot reaches the target and it holds.
+        strategies.add(straddle(batch, market, "60", "90", "1", "0", "51"));
+        batch.setBalances(0, market.getPriceIn(market.baseBalance, PAIR), market.counterBalance);
+
+        byte[] expected = {StraddleBatch.BUY, StraddleBatch.SELL, StraddleBatch.BUY, StraddleBatch.HOLD};
+        byte[] decisions = batch.evaluate(price);
+        for (int i = 0; i < expected.length; i++) {
+            StraddleStrategy strategy = strategies.get(i);
+            TickContext tick = new TickContext(market, PAIR);
+            byte decided = strategy.isTimeToBuy(tick, price) ? StraddleBatch.BUY
+                    : strategy.isTimeToSell(tick, price) ? StraddleBatch.SELL : StraddleBatch.HOLD;
+            assertEquals("straddle " + i, expected[i], decided);
+            assertEquals("straddle " + i, expected[i], decisions[i]);
+        }
+        // The same again with the price in satoshi units.
+        decisions = batch.evaluate(Fixed.of(price));
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("straddle " + i, expected[i], decisions[i]);
+        }
+    }
+
+    @Test
+    public void straddlesAddedWithOneTableShareItsCurve() {
+        AtomicInteger evaluations = new AtomicInteger();
+        TargetPercentTable table = new TargetPercentTable(price -> {
+            evaluations.incrementAndGet();
+            return new BigDecimal(50);
+        });
+        StraddleBatch batch = new StraddleBatch();
+        for (int i = 0; i < 3; i++) {
+            Straddle straddle = new Straddle();
+            straddle.lowerMargin = new BigDecimal(40);
+            straddle.upperMargin = new BigDecimal(60);
+            straddle.pivotMargin = BigDecimal.ONE;
+            straddle.maxAllocation = BigDecimal.ZERO;
+            batch.add(straddle, table, 0);
+        }
+        batch.setBalances(0, Fixed.HUNDRED, Fixed.HUNDRED);
+        batch.evaluate(new BigDecimal(100));
+        assertEquals(1, evaluations.get());
+    }
+
+    private static StraddleStrategy straddle(StraddleBatch batch, TestMarket market, String lowerMargin, String upperMargin,
+                                             String pivotMargin, String maxAllocation, String target) {
+        Straddle straddle = new Straddle();
+        straddle.amountToTrade = new BigDecimal(100);
+        straddle.lowerMargin = new BigDecimal(lowerMargin);
+        straddle.upperMargin = new BigDecimal(upperMargin);
+        straddle.pivotMargin = new BigDecimal(pivotMargin);
+        straddle.maxAllocation = new BigDecimal(maxAllocation);
+        BigDecimal targetPercent = new BigDecimal(target);
+        StraddleStrategy strategy = new StraddleStrategy(market, PAIR, straddle, null);
+        strategy.targetPercents = new TargetPercentTable(price -> targetPercent);
+        batch.add(straddle, new TargetPercentTable(price -> targetPercent), 0);
+        return strategy;
+    }
+
+    @Test
+    public void holdsForAnEmptyAccount() {
+        StraddleBatch batch = new StraddleBatch();
+        batch.add(Fixed.of(new BigDecimal(40)), Fixed.of(new BigDecimal(60)), Fixed.ONE, 0, new TargetPercentTable(price -> new BigDecimal(50)), 0);
+        batch.setBalances(0, 0, 0);
+        assertEquals(StraddleBatch.HOLD, batch.evaluate(Fixed.HUNDRED)[0]);
+    }
+
+    private BigDecimal percent() {
+        return new BigDecimal(random.nextInt(10000)).movePointLeft(2);
+    }
+}
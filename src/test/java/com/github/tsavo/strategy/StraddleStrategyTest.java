@@ -0,0 +1,24 @@
+package com.github.tsavo.strategy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class StraddleStrategyTest {
+    private static final long PRICE = 100 * Fixed.ONE;
+    private static final long COUNTER = 100 * Fixed.ONE;
+
+    @Test
+    public void triggerIsThePriceWhereTheBalancePercentCrossesTheMargin() {
+        // 1 held at 100 against 100 in the counter currency is 50%.
+        assertEquals(PRICE, StraddleStrategy.crossingPrice(Fixed.ONE, COUNTER, 50 * Fixed.ONE), 1);
+        assertEquals(0.5, TriggerProximity.below(2 * PRICE, StraddleStrategy.crossingPrice(Fixed.ONE, COUNTER, 50 * Fixed.ONE)), 1e-9);
+    }
+
+    @Test
+    public void withoutABalanceNoPriceReachesEitherTrigger() {
+        assertEquals(Double.POSITIVE_INFINITY, TriggerProximity.below(PRICE, StraddleStrategy.crossingPrice(0, COUNTER, 40 * Fixed.ONE)), 0);
+        assertEquals(Double.POSITIVE_INFINITY, TriggerProximity.above(PRICE, StraddleStrategy.crossingPrice(0, COUNTER, 60 * Fixed.ONE)), 0);
+        assertEquals(Double.POSITIVE_INFINITY, TriggerProximity.below(PRICE, StraddleStrategy.crossingPrice(0, 0, 40 * Fixed.ONE)), 0);
+    }
+}
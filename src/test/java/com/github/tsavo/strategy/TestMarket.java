@@ -0,0 +1,118 @@
+package com.github.tsavo.strategy;
+
+import com.tsavo.trade.database.model.Pivot;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A one-level market whose prices, balances and average cost the test sets directly. Nothing is rounded on the way
+ * out: getPriceIn returns the full product, which can have more than 8 decimals. Orders fill as soon as they are
+ * asked about.
+ */
+public class TestMarket implements Market {
+    public final CurrencyPair currencyPair;
+    public BigDecimal bid;
+    public BigDecimal ask;
+    public BigDecimal baseBalance;
+    public BigDecimal counterBalance;
+    public BigDecimal averageCost;
+    public Date lastBuy;
+    public Date lastSell;
+
+    public TestMarket(CurrencyPair currencyPair, String bid, String ask, String baseBalance, String counterBalance, String averageCost) {
+        this.currencyPair = currencyPair;
+        this.bid = new BigDecimal(bid);
+        this.ask = new BigDecimal(ask);
+        this.baseBalance = new BigDecimal(baseBalance);
+        this.counterBalance = new BigDecimal(counterBalance);
+        this.averageCost = new BigDecimal(averageCost);
+    }
+
+    @Override
+    public BigDecimal getBalance(Currency currency) {
+        return currency.equals(currencyPair.base) ? baseBalance : counterBalance;
+    }
+
+    @Override
+    public BigDecimal getAverageCost(CurrencyPair currencyPair) {
+        return averageCost;
+    }
+
+    @Override
+    public List<LimitOrder> getLowestAsks(CurrencyPair currencyPair) {
+        return Collections.singletonList(new LimitOrder.Builder(Order.OrderType.ASK, currencyPair).tradableAmount(BigDecimal.TEN).limitPrice(ask).build());
+    }
+
+    @Override
+    public List<LimitOrder> getHighestBids(CurrencyPair currencyPair) {
+        return Collections.singletonList(new LimitOrder.Builder(Order.OrderType.BID, currencyPair).tradableAmount(BigDecimal.TEN).limitPrice(bid).build());
+    }
+
+    @Override
+    public BigDecimal getAmountIn(BigDecimal amount, CurrencyPair currencyPair) {
+        return amount.divide(ask, 8, BigDecimal.ROUND_HALF_EVEN);
+    }
+
+    @Override
+    public BigDecimal getPriceIn(BigDecimal amount, CurrencyPair currencyPair) {
+        return amount.multiply(bid);
+    }
+
+    @Override
+    public BigDecimal getAveragePrice(CurrencyPair currencyPair) {
+        return ask.add(bid).divide(new BigDecimal(2), 8, BigDecimal.ROUND_HALF_EVEN);
+    }
+
+    @Override
+    public TrailingOrder createTrailStopMarketMakerLimitOrder(LimitOrder order, BigDecimal amountToTrailBy) {
+        return new TrailingOrder() {
+            @Override
+            public void openOrder() {
+            }
+
+            @Override
+            public boolean fillOrCancel() {
+                return true;
+            }
+
+            @Override
+            public void cancelOrder() {
+            }
+
+            @Override
+            public LimitOrder getOrder() {
+                return order;
+            }
+        };
+    }
+
+    @Override
+    public void performBuyAction(Pivot pivot) {
+    }
+
+    @Override
+    public void performSellAction(Pivot pivot) {
+    }
+
+    @Override
+    public Date getLastBuyDate(CurrencyPair currencyPair) {
+        return lastBuy;
+    }
+
+    @Override
+    public Date getLastSellDate(CurrencyPair currencyPair) {
+        return lastSell;
+    }
+
+    @Override
+    public String toString() {
+        return "Test";
+    }
+}
@@ -0,0 +1,209 @@
+package com.github.tsavo.strategy;
+
+import org.junit.After;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TrailingStopEngineTest {
+    private static final CurrencyPair PAIR = CurrencyPair.BTC_USD;
+
+    /**
+     * The trails of the orders the engine placed.
+     */
+    private final List<BigDecimal> placed = Collections.synchronizedList(new ArrayList<>());
+    /**
+     * While set, placed orders wait to be cancelled instead of filling.
+     */
+    private volatile CountDownLatch cancelled;
+    private final TestMarket market = new TestMarket(PAIR, "99", "100", "10", "10000", "100") {
+        @Override
+        public TrailingOrder createTrailStopMarketMakerLimitOrder(LimitOrder order, BigDecimal amountToTrailBy) {
+            placed.add(amountToTrailBy);
+            CountDownLatch latch = cancelled;
+            if (latch == null) {
+                return super.createTrailStopMarketMakerLimitOrder(order, amountToTrailBy);
+            }
+            return new ForwardingOrder(super.createTrailStopMarketMakerLimitOrder(order, amountToTrailBy)) {
+                @Override
+                public boolean fillOrCancel() throws IOException {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    return false;
+                }
+
+                @Override
+                public void cancelOrder() {
+                    latch.countDown();
+                }
+            };
+        }
+    };
+    private final OrderBookFeeds feeds = new OrderBookFeeds();
+    private final OrderBookFeed feed = feeds.feedFor(market, PAIR);
+    private final TrailingStopEngine engine = new TrailingStopEngine(market, feeds, 2);
+    /**
+     * A sell stop that never triggers. The bid rises with every book, and once this stop has followed it the
+     * engine is done with that book.
+     */
+    private AsyncTrailingOrder sentinel;
+    private BigDecimal bid = new BigDecimal(90);
+
+    @After
+    public void closeEngine() {
+        engine.close();
+    }
+
+    @Test
+    public void buyFollowsTheAskDownAndTriggersOnTheBounce() throws Exception {
+        book("100");
+        AsyncTrailingOrder stop = engine.createTrailStop(order(Order.OrderType.BID, "110"), BigDecimal.ONE);
+        stop.openOrder();
+        await(() -> new BigDecimal("100.00000000").equals(stop.getTrailLevel()));
+
+        book("97");
+        assertEquals(new BigDecimal("97.00000000"), stop.getTrailLevel());
+        book("97.9");
+        assertFalse(stop.completion().isDone());
+        assertEquals(new BigDecimal("97.00000000"), stop.getTrailLevel());
+
+        book("98");
+        assertTrue(stop.completion().get(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(BigDecimal.ZERO), placed);
+    }
+
+    @Test
+    public void stopTriggeredBeyondItsLimitIsCancelled() throws Exception {
+        book("98");
+        AsyncTrailingOrder stop = engine.createTrailStop(order(Order.OrderType.BID, "99"), BigDecimal.ONE);
+        stop.openOrder();
+        await(() -> stop.getTrailLevel() != null);
+
+        book("100");
+        assertFalse(stop.completion().get(5, TimeUnit.SECONDS));
+        assertTrue(placed.isEmpty());
+    }
+
+    @Test
+    public void resumedStopCarriesOnFromItsLevel() throws Exception {
+        book("100");
+        AsyncTrailingOrder stop = engine.resumeTrailStop(order(Order.OrderType.BID, "110"), BigDecimal.ONE, new BigDecimal(99));
+        assertEquals(new BigDecimal("99.00000000"), stop.getTrailLevel());
+        stop.openOrder();
+
+        book("99.5");
+        assertFalse(stop.completion().isDone());
+        assertEquals(new BigDecimal("99.00000000"), stop.getTrailLevel());
+        // A new stop seeded at 100 would not trigger until 101.
+        book("100");
+        assertTrue(stop.completion().get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void wrappersKeepStopsAsynchronousAndFindTheEngine() throws Exception {
+        AtomicInteger completed = new AtomicInteger();
+        ForwardingMarket wrapped = new ForwardingMarket(new TrailingStopMarket(engine)) {
+            @Override
+            protected TrailingOrder wrap(TrailingOrder order) {
+                return ForwardingOrder.keepAsync(new ForwardingOrder(order) {
+                    @Override
+                    protected void completed(boolean filled) {
+                        completed.incrementAndGet();
+                    }
+                });
+            }
+        };
+        assertSame(feed, feeds.feedFor(wrapped, PAIR));
+
+        book("100");
+        TrailingOrder resumed = wrapped.resumeTrailStop(order(Order.OrderType.BID, "110"), BigDecimal.ONE, new BigDecimal(95));
+        assertTrue(resumed instanceof AsyncTrailingOrder);
+        AsyncTrailingOrder stop = (AsyncTrailingOrder) resumed;
+        assertEquals(new BigDecimal("95.00000000"), stop.getTrailLevel());
+        stop.openOrder();
+        book("96");
+        assertTrue(stop.completion().get(5, TimeUnit.SECONDS));
+        assertEquals(1, completed.get());
+        assertTrue(stop.fillOrCancel());
+        assertEquals(1, completed.get());
+    }
+
+    @Test
+    public void closingCompletesEveryOpenStopAndStopsListening() throws Exception {
+        book("100");
+        AsyncTrailingOrder trailing = engine.createTrailStop(order(Order.OrderType.BID, "110"), new BigDecimal(5));
+        trailing.openOrder();
+        AsyncTrailingOrder executing = engine.createTrailStop(order(Order.OrderType.BID, "110"), BigDecimal.ONE);
+        executing.openOrder();
+        book("100");
+        cancelled = new CountDownLatch(1);
+        // Triggers the stop with the short trail, whose order then waits until it is cancelled.
+        book("101");
+        await(() -> placed.size() == 1);
+        assertEquals(3, engine.getActiveStops());
+
+        engine.close();
+        assertFalse(trailing.completion().get(5, TimeUnit.SECONDS));
+        assertFalse(executing.completion().get(5, TimeUnit.SECONDS));
+        assertFalse(sentinel.completion().get(5, TimeUnit.SECONDS));
+        assertEquals(0, cancelled.getCount());
+        assertEquals(0, engine.getActiveStops());
+        assertFalse(feed.hasSubscribers());
+
+        feed.publish(Collections.singletonList(level(Order.OrderType.ASK, new BigDecimal(90))),
+                Collections.singletonList(level(Order.OrderType.BID, new BigDecimal(89))), System.currentTimeMillis());
+        AsyncTrailingOrder late = engine.createTrailStop(order(Order.OrderType.BID, "110"), BigDecimal.ONE);
+        late.openOrder();
+        assertFalse(late.completion().get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Publishes a book with the given lowest ask and waits until the engine has worked through it.
+     */
+    private void book(String ask) throws Exception {
+        bid = bid.add(BigDecimal.ONE);
+        feed.publish(Collections.singletonList(level(Order.OrderType.ASK, new BigDecimal(ask))),
+                Collections.singletonList(level(Order.OrderType.BID, bid)), System.currentTimeMillis());
+        if (sentinel == null) {
+            sentinel = engine.createTrailStop(order(Order.OrderType.ASK, "1"), new BigDecimal(1000));
+            sentinel.openOrder();
+        }
+        BigDecimal expected = bid.setScale(8);
+        await(() -> expected.equals(sentinel.getTrailLevel()));
+    }
+
+    private static LimitOrder level(Order.OrderType type, BigDecimal price) {
+        return new LimitOrder.Builder(type, PAIR).tradableAmount(BigDecimal.ONE).limitPrice(price).build();
+    }
+
+    private static LimitOrder order(Order.OrderType type, String limit) {
+        return new LimitOrder.Builder(type, PAIR).tradableAmount(BigDecimal.ONE).limitPrice(new BigDecimal(limit)).build();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.tsavo.strategy;
+
+import com.tsavo.trade.database.model.Pivot;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TriggerIndexTest {
+    private static final CurrencyPair PAIR = CurrencyPair.BTC_USD;
+
+    /**
+     * 10 BTC bought at 100 with a 1000 USD establishing position: buys under 80, sells over 103 and starts
+     * establishing again once the 10 BTC are worth less than 900, i.e. under 90.
+     */
+    private final TestMarket market = new TestMarket(PAIR, "100", "100.5", "10", "0", "100");
+    private final PivotStrategy strategy = pivot(market);
+    private final List<Strategy> dispatched = new ArrayList<>();
+    private final TriggerIndex index = new TriggerIndex(dispatched::add);
+
+    @Test
+    public void wakesOnlyStrategiesPastATrigger() {
+        strategy.isTimeToBuy(new TickContext(market, PAIR));
+        index.add(strategy);
+        assertEquals(new BigDecimal("80.00000000"), strategy.getBuyTrigger());
+        assertEquals(new BigDecimal("103.00000000"), strategy.getSellTrigger());
+
+        index.onBookUpdate(book(1, "99", "99.5"));
+        assertTrue(dispatched.isEmpty());
+
+        index.onBookUpdate(book(2, "103.5", "104"));
+        assertEquals(Collections.singletonList(strategy), dispatched);
+    }
+
+    @Test
+    public void wakesAPivotWhoseHoldingsFallBelowTheEstablishingThreshold() {
+        strategy.isTimeToBuy(new TickContext(market, PAIR));
+        index.add(strategy);
+        // The threshold is the double nearest 0.9, a hair above it, so the trigger rounds up to the next satoshi.
+        assertEquals(new BigDecimal("90.00000001"), strategy.getValuationTrigger());
+
+        // Above the buy trigger, but the 10 BTC are now worth 850.
+        index.onBookUpdate(book(1, "85", "85.5"));
+        assertEquals(Collections.singletonList(strategy), dispatched);
+
+        market.bid = new BigDecimal("85");
+        market.ask = new BigDecimal("85.5");
+        assertTrue(strategy.isTimeToBuy(new TickContext(market, PAIR)));
+        assertNull(strategy.getBuyTrigger());
+        assertEquals(1, index.size());
+    }
+
+    private static PivotStrategy pivot(Market market) {
+        Pivot pivot = new Pivot();
+        pivot.establishingPosition = new BigDecimal(1000);
+        pivot.allocationMarginSchedule = new ArrayList<>(Collections.singletonList(new BigDecimal(20)));
+        pivot.distributionMarginSchedule = new ArrayList<>(Collections.singletonList(new BigDecimal(3)));
+        return new PivotStrategy(market, PAIR, pivot, null);
+    }
+
+    private static BookSnapshot book(long version, String bid, String ask) {
+        LimitOrder lowestAsk = new LimitOrder.Builder(Order.OrderType.ASK, PAIR).tradableAmount(BigDecimal.ONE).limitPrice(new BigDecimal(ask)).build();
+        LimitOrder highestBid = new LimitOrder.Builder(Order.OrderType.BID, PAIR).tradableAmount(BigDecimal.ONE).limitPrice(new BigDecimal(bid)).build();
+        return new BookSnapshot(PAIR, version, 0, Collections.singletonList(lowestAsk), Collections.singletonList(highestBid));
+    }
+}
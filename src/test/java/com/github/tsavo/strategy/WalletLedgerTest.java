@@ -0,0 +1,83 @@
+package com.github.tsavo.strategy;
+
+import org.junit.Test;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+
+public class WalletLedgerTest {
+    private static final CurrencyPair PAIR = CurrencyPair.BTC_USD;
+
+    /**
+     * Runs once inside the next balance fetch, as if it happened while the exchange was answering.
+     */
+    private Runnable duringFetch;
+    private final TestMarket market = new TestMarket(PAIR, "99", "101", "10", "1000", "100") {
+        @Override
+        public BigDecimal getBalance(Currency currency) {
+            BigDecimal balance = super.getBalance(currency);
+            Runnable hook = duringFetch;
+            duringFetch = null;
+            if (hook != null) {
+                hook.run();
+            }
+            return balance;
+        }
+    };
+    private final WalletLedger ledger = new WalletLedger(market);
+
+    @Test
+    public void fillsMoveBothSidesLessTheFee() {
+        ledger.feeRate = new BigDecimal("0.01");
+        assertEquals(BigDecimal.TEN, ledger.getBalance(PAIR.base));
+        assertEquals(new BigDecimal(1000), ledger.getBalance(PAIR.counter));
+
+        ledger.applyFill(order(Order.OrderType.BID, "1", "101"));
+        assertEquals(0, new BigDecimal(11).compareTo(ledger.getBalance(PAIR.base)));
+        assertEquals(new BigDecimal("897.99000000"), ledger.getBalance(PAIR.counter));
+
+        ledger.applyFill(order(Order.OrderType.ASK, "2", "99"));
+        assertEquals(0, new BigDecimal(9).compareTo(ledger.getBalance(PAIR.base)));
+        assertEquals(new BigDecimal("1094.01000000"), ledger.getBalance(PAIR.counter));
+    }
+
+    @Test
+    public void fillDuringAReconcileIsNotOverwritten() {
+        assertEquals(BigDecimal.TEN, ledger.getBalance(PAIR.base));
+
+        // The exchange answers 10 while our buy of 1 lands, so its answer is already out of date.
+        duringFetch = () -> ledger.applyFill(order(Order.OrderType.BID, "1", "101"));
+        ledger.reconcile();
+        assertEquals(0, new BigDecimal(11).compareTo(ledger.getBalance(PAIR.base)));
+        assertEquals(0, ledger.getDrifts());
+
+        market.baseBalance = new BigDecimal(11);
+        ledger.reconcile();
+        assertEquals(0, new BigDecimal(11).compareTo(ledger.getBalance(PAIR.base)));
+        assertEquals(0, ledger.getDrifts());
+    }
+
+    @Test
+    public void reconcileCountsDriftBeyondTheTolerance() {
+        assertEquals(BigDecimal.TEN, ledger.getBalance(PAIR.base));
+
+        market.baseBalance = new BigDecimal("10.00000001");
+        ledger.reconcile();
+        assertEquals(market.baseBalance, ledger.getBalance(PAIR.base));
+        assertEquals(0, ledger.getDrifts());
+
+        market.baseBalance = new BigDecimal("10.5");
+        ledger.reconcile();
+        assertEquals(market.baseBalance, ledger.getBalance(PAIR.base));
+        assertEquals(1, ledger.getDrifts());
+    }
+
+    private static LimitOrder order(Order.OrderType type, String amount, String price) {
+        return new LimitOrder.Builder(type, PAIR).tradableAmount(new BigDecimal(amount)).limitPrice(new BigDecimal(price)).build();
+    }
+}
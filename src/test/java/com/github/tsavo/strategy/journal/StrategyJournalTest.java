@@ -0,0 +1,137 @@
+package com.github.tsavo.strategy.journal;
+
+import com.github.tsavo.strategy.MemoryMongo;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StrategyJournalTest {
+    private final MemoryMongo mongo = new MemoryMongo();
+    private final StrategyJournal journal = new StrategyJournal(mongo.operations);
+
+    @Test
+    public void loadReadsEachSnapshotAndTheEntriesWrittenAfterIt() {
+        journal.record("a", state(1));
+        journal.record("b", state(1));
+        journal.flush();
+        journal.compact();
+        assertEquals(2, mongo.all(StrategyState.class).size());
+        assertTrue(mongo.all(JournalEntry.class).isEmpty());
+
+        journal.record("a", state(2));
+        journal.record("a", state(3));
+        journal.flush();
+
+        StrategyJournal restarted = new StrategyJournal(mongo.operations);
+        Map<String, StrategyState> states = restarted.load();
+        assertEquals(2, states.size());
+        assertEquals(3, states.get("a").resumeAt);
+        assertEquals(4, states.get("a").sequence);
+        assertEquals(1, states.get("b").resumeAt);
+        assertEquals(3, restarted.restore("a").resumeAt);
+        assertNull(restarted.restore("a"));
+
+        // The restarted journal carries on counting from where the last one stopped.
+        restarted.record("c", state(1));
+        restarted.flush();
+        assertEquals(5, entriesFor("c").get(0).sequence);
+    }
+
+    /**
+     * A strategy records a new state while compaction is saving the snapshots, after compaction read what to save.
+     * That entry is newer than anything compaction covers, so it has to survive it.
+     */
+    @Test
+    public void recordDuringCompactionSurvivesIt() {
+        StrategyJournal[] racing = {null};
+        MemoryMongo mongo = new MemoryMongo() {
+            private boolean raced;
+
+            @Override
+            protected Object call(Method method, Object[] args) {
+                Object result = super.call(method, args);
+                if (!raced && method.getName().equals("save") && args[0] instanceof StrategyState) {
+                    raced = true;
+                    racing[0].record("a", state(2));
+                    racing[0].flush();
+                }
+                return result;
+            }
+        };
+        StrategyJournal journal = new StrategyJournal(mongo.operations);
+        racing[0] = journal;
+        journal.record("a", state(1));
+        journal.flush();
+        journal.compact();
+
+        assertEquals(1, mongo.all(StrategyState.class).get(0).resumeAt);
+        assertEquals(1, mongo.all(JournalEntry.class).size());
+        assertEquals(2, new StrategyJournal(mongo.operations).load().get("a").resumeAt);
+    }
+
+    @Test
+    public void handedOffStrategyIsIgnoredUntilReloaded() {
+        journal.record("a", state(1));
+        journal.record("a", state(2));
+        journal.handOff(Collections.singletonList("a"));
+        assertEquals(2, mongo.all(StrategyState.class).get(0).resumeAt);
+        assertTrue(entriesFor("a").isEmpty());
+
+        // Still stopping here after the hand-off: nothing it records may reach the store.
+        journal.record("a", state(3));
+        journal.flush();
+        journal.compact();
+        assertTrue(entriesFor("a").isEmpty());
+        assertEquals(2, mongo.all(StrategyState.class).get(0).resumeAt);
+        assertNull(journal.restore("a"));
+
+        // The runtime that took it over carries on from the snapshot.
+        StrategyJournal other = new StrategyJournal(mongo.operations);
+        assertEquals(2, other.reload("a").resumeAt);
+        other.record("a", state(4));
+        other.flush();
+        assertEquals(4, entriesFor("a").get(0).state.resumeAt);
+
+        // And once this one takes it back, it records again.
+        assertEquals(4, journal.reload("a").resumeAt);
+        journal.record("a", state(5));
+        journal.flush();
+        assertEquals(2, entriesFor("a").size());
+    }
+
+    @Test
+    public void abandonedStrategyDropsWhatItHasNotWritten() {
+        StrategyJournal other = new StrategyJournal(mongo.operations);
+        other.record("a", state(1));
+        other.flush();
+
+        journal.reload("a");
+        journal.abandon(Collections.singletonList("a"));
+        journal.record("a", state(2));
+        journal.flush();
+        journal.compact();
+
+        assertEquals(1, entriesFor("a").size());
+        assertEquals(1, entriesFor("a").get(0).state.resumeAt);
+        assertTrue(mongo.all(StrategyState.class).isEmpty());
+    }
+
+    private List<JournalEntry> entriesFor(String id) {
+        List<JournalEntry> entries = mongo.all(JournalEntry.class);
+        entries.removeIf(entry -> !entry.strategyId.equals(id));
+        return entries;
+    }
+
+    private static StrategyState state(long resumeAt) {
+        StrategyState state = new StrategyState("test");
+        state.resumeAt = resumeAt;
+        return state;
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.tsavo.strategy.shard;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HashRingTest {
+    private static final int KEYS = 3000;
+
+    @Test
+    public void workersSeeingTheSameMembersAgreeOnEveryOwner() {
+        HashRing ring = new HashRing(Arrays.asList("w1", "w2", "w3"), 100);
+        HashRing other = new HashRing(Arrays.asList("w3", "w1", "w2"), 100);
+        Map<String, Integer> owned = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            String owner = ring.ownerOf("key" + i);
+            assertEquals(owner, other.ownerOf("key" + i));
+            owned.merge(owner, 1, Integer::sum);
+        }
+        for (int count : owned.values()) {
+            assertTrue("Uneven spread: " + owned, count > KEYS / 6);
+        }
+    }
+
+    @Test
+    public void workerLeavingOnlyMovesItsOwnKeys() {
+        HashRing before = new HashRing(Arrays.asList("w1", "w2", "w3"), 100);
+        HashRing after = new HashRing(Arrays.asList("w1", "w2"), 100);
+        for (int i = 0; i < KEYS; i++) {
+            String owner = before.ownerOf("key" + i);
+            if (!owner.equals("w3")) {
+                assertEquals(owner, after.ownerOf("key" + i));
+            }
+        }
+    }
+
+    @Test
+    public void emptyRingHasNoOwners() {
+        assertNull(new HashRing(Collections.emptyList(), 100).ownerOf("key"));
+    }
+}
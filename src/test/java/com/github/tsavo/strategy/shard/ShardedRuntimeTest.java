@@ -0,0 +1,277 @@
+package com.github.tsavo.strategy.shard;
+
+import com.github.tsavo.strategy.MemoryMongo;
+import com.github.tsavo.strategy.Strategy;
+import com.github.tsavo.strategy.StrategyRuntime;
+import com.github.tsavo.strategy.backtest.VirtualClock;
+import com.github.tsavo.strategy.journal.StrategyJournal;
+import org.junit.After;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs one worker against leases kept in memory, on a clock that only moves when the test says. Strategies stop in
+ * real time, so stopTimeout is kept short.
+ */
+public class ShardedRuntimeTest {
+    private static final CurrencyPair PAIR = CurrencyPair.BTC_USD;
+    private static final long STOP_TIMEOUT = 300;
+
+    private final MemoryLeases leases = new MemoryLeases();
+    private final VirtualClock clock = new VirtualClock(0);
+    private final List<String> handedOff = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> abandoned = Collections.synchronizedList(new ArrayList<>());
+    private final StrategyRuntime runtime = new StrategyRuntime(1);
+    private final ShardedRuntime sharded = new ShardedRuntime("w1", runtime, leases);
+    /**
+     * Strategies whose id is in here do not stop until it counts down.
+     */
+    private final Map<String, CountDownLatch> stuck = new HashMap<>();
+
+    {
+        runtime.journal = new StrategyJournal(new MemoryMongo().operations) {
+            @Override
+            public void handOff(Collection<String> ids) {
+                handedOff.addAll(ids);
+                super.handOff(ids);
+            }
+
+            @Override
+            public synchronized void abandon(Collection<String> ids) {
+                abandoned.addAll(ids);
+                super.abandon(ids);
+            }
+        };
+        sharded.clock = clock;
+        sharded.stopTimeout = STOP_TIMEOUT;
+    }
+
+    @After
+    public void shutdown() {
+        for (CountDownLatch latch : stuck.values()) {
+            latch.countDown();
+        }
+        runtime.shutdown();
+    }
+
+    @Test
+    public void unrenewedShardsAreFencedTogetherBeforeTheirLeasesRunOut() {
+        register("a", "b", "c");
+        stuck.put("b", new CountDownLatch(1));
+        stuck.put("c", new CountDownLatch(1));
+        sharded.rebalance();
+        assertEquals(shards("a", "b", "c"), sharded.getHeldShards());
+
+        leases.reachable = false;
+        clock.set(10000);
+        sharded.rebalance();
+        assertEquals(shards("a", "b", "c"), sharded.getHeldShards());
+
+        // The next round would be past the deadline, leaseTime - stopTimeout after the last renewal.
+        clock.set(20000);
+        long started = System.nanoTime();
+        sharded.rebalance();
+        long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        assertTrue("Stopped one shard after another: " + took + "ms", took < 2 * STOP_TIMEOUT);
+        assertTrue(sharded.getHeldShards().isEmpty());
+
+        // Only the shard that stopped is handed off; the others could still have orders open.
+        assertEquals(Collections.singletonList("a"), handedOff);
+        assertEquals(Arrays.asList("b", "c"), abandoned);
+        Map<String, Integer> stopping = new HashMap<>();
+        stopping.put(key("b"), 1);
+        stopping.put(key("c"), 1);
+        assertEquals(stopping, sharded.getStopping());
+
+        // Not taken back until its strategies have stopped.
+        leases.reachable = true;
+        clock.set(21000);
+        sharded.rebalance();
+        assertEquals(shards("a"), sharded.getHeldShards());
+        stuck.get("b").countDown();
+        stuck.get("c").countDown();
+        sharded.rebalance();
+        assertTrue(sharded.getStopping().isEmpty());
+        sharded.rebalance();
+        assertEquals(shards("a", "b", "c"), sharded.getHeldShards());
+    }
+
+    @Test
+    public void handOffWaitsForADrainingStrategy() {
+        String[] accounts = accountsSplitBetween("w1", "w2");
+        String kept = accounts[0];
+        String moved = accounts[1];
+        register(kept, moved);
+        stuck.put(moved, new CountDownLatch(1));
+        sharded.rebalance();
+        assertEquals(shards(kept, moved), sharded.getHeldShards());
+
+        leases.heartbeat("w2", clock.millis(), 30000);
+        sharded.rebalance();
+        assertEquals(shards(kept, moved), sharded.getHeldShards());
+        assertEquals(Collections.singletonMap(key(moved), 1), sharded.getStopping());
+        assertEquals("w1", leases.owners.get(key(moved)));
+        assertTrue(handedOff.isEmpty());
+
+        stuck.get(moved).countDown();
+        sharded.rebalance();
+        assertEquals(shards(kept), sharded.getHeldShards());
+        assertEquals(Collections.singletonList(moved), handedOff);
+        assertNull(leases.owners.get(key(moved)));
+        assertTrue(abandoned.isEmpty());
+    }
+
+    @Test
+    public void leaseTakenByAnotherWorkerIsAbandoned() {
+        register("a");
+        sharded.rebalance();
+
+        leases.owners.put(key("a"), "w2");
+        leases.expiries.put(key("a"), Long.MAX_VALUE);
+        clock.set(10000);
+        sharded.rebalance();
+        assertTrue(sharded.getHeldShards().isEmpty());
+        assertEquals(Collections.singletonList("a"), abandoned);
+        assertTrue(handedOff.isEmpty());
+
+        sharded.rebalance();
+        assertTrue(sharded.getHeldShards().isEmpty());
+    }
+
+    /**
+     * One strategy per account, each its own shard, with the account as its id.
+     */
+    private void register(String... accounts) {
+        for (String account : accounts) {
+            sharded.register(account, account, PAIR, () -> new Probe(stuck.get(account)), 1, TimeUnit.HOURS);
+        }
+    }
+
+    /**
+     * An account whose shard the ring of both workers gives the first, and one it gives the second.
+     */
+    private static String[] accountsSplitBetween(String first, String second) {
+        HashRing ring = new HashRing(Arrays.asList(first, second), 100);
+        String[] accounts = new String[2];
+        for (int i = 0; accounts[0] == null || accounts[1] == null; i++) {
+            String account = "account" + i;
+            accounts[ring.ownerOf(key(account)).equals(first) ? 0 : 1] = account;
+        }
+        return accounts;
+    }
+
+    private static String key(String account) {
+        return ShardedRuntime.shardKey(account, PAIR);
+    }
+
+    private static TreeSet<String> shards(String... accounts) {
+        TreeSet<String> keys = new TreeSet<>();
+        for (String account : accounts) {
+            keys.add(key(account));
+        }
+        return keys;
+    }
+
+    private static class Probe implements Strategy {
+        private final CountDownLatch stopped;
+
+        Probe(CountDownLatch stopped) {
+            this.stopped = stopped;
+        }
+
+        @Override
+        public void findOpportunities() {
+        }
+
+        @Override
+        public void cancel() {
+            if (stopped != null) {
+                try {
+                    stopped.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Leases and heartbeats as the store keeps them, failing every call while unreachable.
+     */
+    private static class MemoryLeases extends LeaseStore {
+        final Map<String, String> owners = new HashMap<>();
+        final Map<String, Long> expiries = new HashMap<>();
+        final Map<String, Long> heartbeats = new HashMap<>();
+        volatile boolean reachable = true;
+
+        MemoryLeases() {
+            super(null);
+        }
+
+        @Override
+        public synchronized boolean acquire(String shard, String worker, long now, long leaseTime) {
+            check();
+            String owner = owners.get(shard);
+            if (owner != null && !owner.equals(worker) && expiries.get(shard) >= now) {
+                return false;
+            }
+            owners.put(shard, worker);
+            expiries.put(shard, now + leaseTime);
+            return true;
+        }
+
+        @Override
+        public synchronized void release(String shard, String worker) {
+            check();
+            if (worker.equals(owners.get(shard))) {
+                owners.remove(shard);
+                expiries.remove(shard);
+            }
+        }
+
+        @Override
+        public synchronized void heartbeat(String worker, long now, long ttl) {
+            check();
+            heartbeats.put(worker, now + ttl);
+        }
+
+        @Override
+        public synchronized List<String> liveWorkers(long now) {
+            check();
+            List<String> workers = new ArrayList<>();
+            for (Map.Entry<String, Long> heartbeat : heartbeats.entrySet()) {
+                if (heartbeat.getValue() > now) {
+                    workers.add(heartbeat.getKey());
+                }
+            }
+            return workers;
+        }
+
+        @Override
+        public synchronized void leave(String worker) {
+            check();
+            heartbeats.remove(worker);
+        }
+
+        private void check() {
+            if (!reachable) {
+                throw new IllegalStateException("Lease store unreachable");
+            }
+        }
+    }
+}
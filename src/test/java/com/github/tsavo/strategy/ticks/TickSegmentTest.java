@@ -0,0 +1,102 @@
+package com.github.tsavo.strategy.ticks;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+
+public class TickSegmentTest {
+    private static final CurrencyPair PAIR = CurrencyPair.BTC_USD;
+    private static final int DEPTH = 2;
+    private static final int BLOCK_SHIFT = 2;
+
+    private Path directory;
+    private Path path;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("ticks");
+        path = directory.resolve("segment.ticks");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    public void flushedRecordsAreReadBack() throws IOException {
+        try (TickSegmentWriter writer = new TickSegmentWriter(path, PAIR, DEPTH, BLOCK_SHIFT)) {
+            append(writer, 0, 1);
+            writer.flush();
+            assertRecords(1);
+            assertEquals(TickSegment.HEADER_BYTES + TickSegment.blockBytes(DEPTH, BLOCK_SHIFT), Files.size(path));
+
+            append(writer, 1, 6);
+            writer.flush();
+            assertRecords(6);
+            writer.flush();
+            assertRecords(6);
+
+            append(writer, 6, 8);
+        }
+        assertRecords(8);
+        assertEquals(TickSegment.HEADER_BYTES + 2 * TickSegment.blockBytes(DEPTH, BLOCK_SHIFT), Files.size(path));
+    }
+
+    @Test
+    public void reopenedSegmentCarriesOnFillingItsLastBlock() throws IOException {
+        try (TickSegmentWriter writer = new TickSegmentWriter(path, PAIR, DEPTH, BLOCK_SHIFT)) {
+            append(writer, 0, 5);
+        }
+        try (TickSegmentWriter writer = new TickSegmentWriter(path, PAIR, DEPTH, BLOCK_SHIFT)) {
+            assertEquals(1, writer.getCount());
+            append(writer, 5, 7);
+            writer.flush();
+            assertRecords(7);
+            append(writer, 7, 13);
+        }
+        assertRecords(13);
+    }
+
+    private static void append(TickSegmentWriter writer, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            long[] bidPrices = {price(i, 0), price(i, 1)};
+            long[] askPrices = {price(i, 2), price(i, 3)};
+            long[] sizes = {i + 1, i + 2};
+            writer.append(time(i), bidPrices, sizes, 2, askPrices, sizes, i % 2 == 0 ? 2 : 1);
+        }
+    }
+
+    private void assertRecords(int count) throws IOException {
+        TickSegment segment = TickSegment.open(path);
+        assertEquals(count, segment.size());
+        assertEquals(time(0), segment.getFirstTime());
+        assertEquals(time(count - 1), segment.getLastTime());
+        for (int i = 0; i < count; i++) {
+            assertEquals(time(i), segment.getTime(i));
+            assertEquals(price(i, 0), segment.getBid(i, 0));
+            assertEquals(price(i, 1), segment.getBid(i, 1));
+            assertEquals(price(i, 2), segment.getAsk(i, 0));
+            assertEquals(i % 2 == 0 ? price(i, 3) : 0, segment.getAsk(i, 1));
+            assertEquals(i + 1, segment.getBidSize(i, 0));
+            assertEquals(i % 2 == 0 ? i + 2 : 0, segment.getAskSize(i, 1));
+        }
+        assertEquals(Math.min(3, count), segment.indexOf(time(3)));
+    }
+
+    private static long time(int i) {
+        return 1506816000000L + i * 1000L;
+    }
+
+    private static long price(int i, int level) {
+        return 500000000000L + i * 1000L + level;
+    }
+}